@@ -0,0 +1,103 @@
+package net.lmxm.suafe.api;
+
+import net.lmxm.suafe.api.internal.ObjectToStringBuilder;
+
+/**
+ * Change of the effective access level of a user to a repository path, as predicted by AccessImpactAnalyzer.
+ */
+public final class AccessChange {
+    /**
+     * Repository containing the path.
+     */
+    private final Repository repository;
+
+    /**
+     * Path whose access changes (e.g. /trunk/src).
+     */
+    private final String path;
+
+    /**
+     * User whose access changes.
+     */
+    private final User user;
+
+    /**
+     * Access level before the change.
+     */
+    private final AccessLevel previousAccessLevel;
+
+    /**
+     * Access level after the change.
+     */
+    private final AccessLevel newAccessLevel;
+
+    /**
+     * Constructs a new access change.
+     *
+     * @param repository          Repository containing the path
+     * @param path                Path whose access changes
+     * @param user                User whose access changes
+     * @param previousAccessLevel Access level before the change
+     * @param newAccessLevel      Access level after the change
+     */
+    protected AccessChange(final Repository repository, final String path, final User user,
+                           final AccessLevel previousAccessLevel, final AccessLevel newAccessLevel) {
+        this.repository = repository;
+        this.path = path;
+        this.user = user;
+        this.previousAccessLevel = previousAccessLevel;
+        this.newAccessLevel = newAccessLevel;
+    }
+
+    /**
+     * Gets the repository containing the path.
+     *
+     * @return Repository containing the path
+     */
+    public Repository getRepository() {
+        return repository;
+    }
+
+    /**
+     * Gets the path whose access changes.
+     *
+     * @return Path whose access changes
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Gets the user whose access changes.
+     *
+     * @return User whose access changes
+     */
+    public User getUser() {
+        return user;
+    }
+
+    /**
+     * Gets the access level before the change.
+     *
+     * @return Access level before the change
+     */
+    public AccessLevel getPreviousAccessLevel() {
+        return previousAccessLevel;
+    }
+
+    /**
+     * Gets the access level after the change.
+     *
+     * @return Access level after the change
+     */
+    public AccessLevel getNewAccessLevel() {
+        return newAccessLevel;
+    }
+
+    @Override
+    public String toString() {
+        return new ObjectToStringBuilder(this.getClass()).append("repository", repository).append("path", path)
+                .append("user", user).append("previousAccessLevel", previousAccessLevel)
+                .append("newAccessLevel", newAccessLevel).build();
+    }
+}
@@ -0,0 +1,807 @@
+package net.lmxm.suafe.api;
+
+import net.lmxm.suafe.api.internal.UserIdSet;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+import static net.lmxm.suafe.api.internal.Preconditions.*;
+
+/**
+ * Evaluates the effective access of a user to a path within a repository, following Subversion path-based
+ * authorization semantics:
+ * <ul>
+ * <li>The access rules of the deepest path (the requested path or its nearest ancestor) that has at least one rule
+ * applying to the user decide the access; rules of shallower paths are not consulted.</li>
+ * <li>At the same path, the repository's access rules take precedence over the server-wide access rules.</li>
+ * <li>When several access rules at the deciding path apply to the user, the user receives the union of their
+ * access.</li>
+ * <li>A user group access rule applies to all members of the user group, including members of nested user groups.
+ * An exclusion access rule applies to every user that its user or user group does not match.</li>
+ * <li>When no access rule applies the user has no access.</li>
+ * </ul>
+ * Apart from rebuilding a repository's merged view of its tree and the server-wide tree after their access rules
+ * change, evaluation does not allocate any objects. An evaluator may be shared by concurrent readers, including one
+ * that materializes effective access control lists, but like the document itself it must not be used while the
+ * document is being modified.
+ */
+public final class AccessEvaluator {
+    /**
+     * Access bit granting read access.
+     */
+    protected static final int READ = 1;
+
+    /**
+     * Access bit granting write access.
+     */
+    protected static final int WRITE = 2;
+
+    /**
+     * Access value indicating that no access rule applies.
+     */
+    private static final int NO_MATCH = -1;
+
+    /**
+     * Document whose access rules are evaluated.
+     */
+    private final Document document;
+
+    /**
+     * Indicates if the materialized effective access control lists of the tree nodes are used.
+     */
+    private final boolean useEffectiveAcls;
+
+    /**
+     * Constructs a new evaluator for the provided document.
+     *
+     * @param document Document whose access rules are evaluated
+     */
+    public AccessEvaluator(final Document document) {
+        this(document, false);
+    }
+
+    /**
+     * Constructs a new evaluator for the provided document.
+     *
+     * @param document         Document whose access rules are evaluated
+     * @param useEffectiveAcls Indicates if the materialized effective access control lists of the tree nodes are used.
+     *                         Once a path's list is materialized, the access rules of its ancestors are reached through
+     *                         a single field instead of walking up the trees node by node
+     */
+    public AccessEvaluator(final Document document, final boolean useEffectiveAcls) {
+        checkArgumentNotNull(document, "Document");
+
+        this.document = document;
+        this.useEffectiveAcls = useEffectiveAcls;
+    }
+
+    /**
+     * Checks if a user may read a path.
+     *
+     * @param user       User whose access is evaluated
+     * @param repository Repository containing the path, or null if only server-wide access rules apply
+     * @param path       Path to evaluate (e.g. /trunk/src)
+     * @return True if the user may read the path, otherwise false
+     */
+    public boolean canRead(final User user, final Repository repository, final String path) {
+        return (evaluateAccess(user, repository, path) & READ) != 0;
+    }
+
+    /**
+     * Checks if a user may write a path.
+     *
+     * @param user       User whose access is evaluated
+     * @param repository Repository containing the path, or null if only server-wide access rules apply
+     * @param path       Path to evaluate (e.g. /trunk/src)
+     * @return True if the user may write the path, otherwise false
+     */
+    public boolean canWrite(final User user, final Repository repository, final String path) {
+        return (evaluateAccess(user, repository, path) & WRITE) != 0;
+    }
+
+    /**
+     * Evaluates the effective access level of a user to a path.
+     *
+     * @param userName       Name of the user whose access is evaluated
+     * @param repositoryName Name of the repository containing the path. If blank, or if the document does not contain
+     *                       the repository, only server-wide access rules apply
+     * @param path           Path to evaluate (e.g. /trunk/src)
+     * @return Effective access level
+     * @throws EntityDoesNotExistException When user with name does not exist
+     */
+    public AccessLevel evaluate(final String userName, final String repositoryName, final String path) {
+        final User user = checkThatUserWithNameExists(document, userName);
+        final Repository repository = isBlank(repositoryName) ? null : document.findRepositoryByName(repositoryName);
+
+        return evaluate(user, repository, path);
+    }
+
+    /**
+     * Evaluates the effective access level of a user to a path.
+     *
+     * @param user       User whose access is evaluated
+     * @param repository Repository containing the path, or null if only server-wide access rules apply
+     * @param path       Path to evaluate (e.g. /trunk/src)
+     * @return Effective access level
+     */
+    public AccessLevel evaluate(final User user, final Repository repository, final String path) {
+        return toAccessLevel(evaluateAccess(user, repository, path));
+    }
+
+    /**
+     * Evaluates the effective access levels of a user to many paths, such as all paths of a directory listing. The
+     * paths are sorted so that paths with a common prefix are adjacent, and the trees are walked once for each shared
+     * prefix; the decision reached at each ancestor is kept and reused for all paths below it.
+     *
+     * @param user       User whose access is evaluated
+     * @param repository Repository containing the paths, or null if only server-wide access rules apply
+     * @param paths      Paths to evaluate (e.g. /trunk/src)
+     * @return Effective access level of each path, in the iteration order of the paths
+     */
+    public AccessLevel[] evaluate(final User user, final Repository repository, final Collection<String> paths) {
+        checkArgumentNotNull(user, "User");
+        checkArgumentNotNull(paths, "Paths");
+
+        final String[] canonicalPaths = new String[paths.size()];
+        final Integer[] order = new Integer[canonicalPaths.length];
+        int index = 0;
+        for (final String path : paths) {
+            checkArgumentNotNull(path, "Path");
+
+            canonicalPaths[index] = canonicalizePath(path);
+            order[index] = index;
+            index++;
+        }
+
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(final Integer a, final Integer b) {
+                return canonicalPaths[a].compareTo(canonicalPaths[b]);
+            }
+        });
+
+        // State of each depth of the current path: the tree nodes reached and the decision so far
+        TreeNode[] repositoryTreeNodes = new TreeNode[8];
+        TreeNode[] serverTreeNodes = new TreeNode[8];
+        int[] decisions = new int[8];
+        int[] segmentEnds = new int[8];
+        repositoryTreeNodes[0] = repository == null ? null : repository.getRootTreeNode();
+        serverTreeNodes[0] = document.getRootTreeNode();
+        decisions[0] = evaluateTreeNodes(repositoryTreeNodes[0], serverTreeNodes[0], user, NO_MATCH);
+
+        final AccessLevel[] accessLevels = new AccessLevel[canonicalPaths.length];
+        String previousPath = "";
+        int depth = 0;
+        for (final Integer pathIndex : order) {
+            final String path = canonicalPaths[pathIndex];
+
+            // Keep the depths shared with the previous path
+            int sharedDepth = 0;
+            int start = 1;
+            while (sharedDepth < depth && start < path.length()) {
+                int end = path.indexOf('/', start);
+                if (end < 0) {
+                    end = path.length();
+                }
+
+                if (end != segmentEnds[sharedDepth + 1] || !path.regionMatches(start, previousPath, start, end - start)) {
+                    break;
+                }
+
+                sharedDepth++;
+                start = end + 1;
+            }
+
+            // Descend the remaining segments
+            depth = sharedDepth;
+            while (start < path.length()) {
+                int end = path.indexOf('/', start);
+                if (end < 0) {
+                    end = path.length();
+                }
+
+                if (depth + 1 == decisions.length) {
+                    repositoryTreeNodes = grow(repositoryTreeNodes);
+                    serverTreeNodes = grow(serverTreeNodes);
+                    decisions = grow(decisions);
+                    segmentEnds = grow(segmentEnds);
+                }
+
+                final TreeNode repositoryTreeNode = repositoryTreeNodes[depth];
+                final TreeNode serverTreeNode = serverTreeNodes[depth];
+                depth++;
+                repositoryTreeNodes[depth] = repositoryTreeNode == null ? null : repositoryTreeNode.findChild(path, start, end);
+                serverTreeNodes[depth] = serverTreeNode == null ? null : serverTreeNode.findChild(path, start, end);
+                decisions[depth] = evaluateTreeNodes(repositoryTreeNodes[depth], serverTreeNodes[depth], user, decisions[depth - 1]);
+                segmentEnds[depth] = end;
+                start = end + 1;
+            }
+
+            accessLevels[pathIndex] = toAccessLevel(decisions[depth] == NO_MATCH ? 0 : decisions[depth]);
+            previousPath = path;
+        }
+
+        return accessLevels;
+    }
+
+    /**
+     * Finds all users that may read a path.
+     *
+     * @param repository Repository containing the path, or null if only server-wide access rules apply
+     * @param path       Path to evaluate (e.g. /trunk/src)
+     * @return List of users sorted by name
+     */
+    public List<User> findUsersWhoCanRead(final Repository repository, final String path) {
+        return document.findUsersByIds(findUserIds(repository, path, READ));
+    }
+
+    /**
+     * Finds all users that may write a path.
+     *
+     * @param repository Repository containing the path, or null if only server-wide access rules apply
+     * @param path       Path to evaluate (e.g. /trunk/src)
+     * @return List of users sorted by name
+     */
+    public List<User> findUsersWhoCanWrite(final Repository repository, final String path) {
+        return document.findUsersByIds(findUserIds(repository, path, WRITE));
+    }
+
+    /**
+     * Finds the ids of all users granted an access bit on a path. Rather than evaluating every user, the access rules
+     * on the path's ancestors are folded over sets of user ids, deepest first: the users matched by the rules of a
+     * node are decided by that node and removed from the undecided users, so the cost is proportional to the number
+     * of access rules rather than the number of users.
+     *
+     * @param repository Repository containing the path, or null if only server-wide access rules apply
+     * @param path       Path to evaluate
+     * @param accessBit  Access bit to find
+     * @return Bit set of user ids
+     */
+    protected BitSet findUserIds(final Repository repository, final String path, final int accessBit) {
+        final BitSet userIds = document.getUserIds();
+        final Scratch scratch = new Scratch(userIds.length());
+        final UserIdSet grantedUserIds = new UserIdSet(scratch.getBound());
+
+        findUserIds(repository, path, accessBit, userIds, scratch, grantedUserIds);
+
+        return grantedUserIds.toBitSet();
+    }
+
+    /**
+     * Finds the ids of all users granted an access bit on a path, using scratch sets owned by the calling thread so
+     * that repeated queries do not allocate.
+     *
+     * @param repository     Repository containing the path, or null if only server-wide access rules apply
+     * @param path           Path to evaluate
+     * @param accessBit      Access bit to find
+     * @param userIds        Ids of all users, all lower than the bound of the scratch sets
+     * @param scratch        Scratch sets of the calling thread
+     * @param grantedUserIds Receives the ids of the users granted the access bit; cleared first
+     */
+    protected void findUserIds(final Repository repository, final String path, final int accessBit, final BitSet userIds,
+                               final Scratch scratch, final UserIdSet grantedUserIds) {
+        checkArgumentNotNull(path, "Path");
+
+        TreeNode repositoryTreeNode = repository == null ? null : repository.getRootTreeNode();
+        TreeNode serverTreeNode = document.getRootTreeNode();
+        int repositoryDepth = repositoryTreeNode == null ? -1 : 0;
+        int serverDepth = 0;
+        boolean descendRepository = repositoryTreeNode != null;
+        boolean descendServer = true;
+
+        final int length = path.length();
+        int start = 0;
+        while (start < length && (descendRepository || descendServer)) {
+            if (path.charAt(start) == '/') {
+                start++;
+                continue;
+            }
+
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = length;
+            }
+
+            if (descendRepository) {
+                final TreeNode child = repositoryTreeNode.findChild(path, start, end);
+
+                if (child == null) {
+                    descendRepository = false;
+                }
+                else {
+                    repositoryTreeNode = child;
+                    repositoryDepth++;
+                }
+            }
+
+            if (descendServer) {
+                final TreeNode child = serverTreeNode.findChild(path, start, end);
+
+                if (child == null) {
+                    descendServer = false;
+                }
+                else {
+                    serverTreeNode = child;
+                    serverDepth++;
+                }
+            }
+
+            start = end;
+        }
+
+        final UserIdSet undecidedUserIds = scratch.undecidedUserIds;
+        undecidedUserIds.clear();
+        undecidedUserIds.or(userIds);
+        grantedUserIds.clear();
+        for (int depth = Math.max(repositoryDepth, serverDepth); depth >= 0 && !undecidedUserIds.isEmpty(); depth--) {
+            if (repositoryDepth == depth) {
+                decideAccessRules(repositoryTreeNode, accessBit, scratch, grantedUserIds);
+
+                repositoryTreeNode = repositoryTreeNode.getParent();
+                repositoryDepth--;
+            }
+
+            if (serverDepth == depth) {
+                decideAccessRules(serverTreeNode, accessBit, scratch, grantedUserIds);
+
+                serverTreeNode = serverTreeNode.getParent();
+                serverDepth--;
+            }
+        }
+    }
+
+    /**
+     * Decides the access of the undecided users matched by the access rules of a single tree node. Matched users that
+     * are granted the access bit are added to the granted users, and all matched users are removed from the undecided
+     * users.
+     *
+     * @param treeNode       Tree node whose access rules are folded
+     * @param accessBit      Access bit to find
+     * @param scratch        Scratch sets, holding the ids of the users not yet decided by a deeper tree node
+     * @param grantedUserIds Ids of the users granted the access bit
+     */
+    private void decideAccessRules(final TreeNode treeNode, final int accessBit, final Scratch scratch, final UserIdSet grantedUserIds) {
+        if (treeNode.getAccessRuleArray().length == 0) {
+            return;
+        }
+
+        scratch.matchedUserIds.clear();
+        foldAccessRules(treeNode, accessBit, scratch.undecidedUserIds, scratch.matchedUserIds, grantedUserIds, scratch.memberUserIds);
+        scratch.undecidedUserIds.andNot(scratch.matchedUserIds);
+    }
+
+    /**
+     * Folds the access rules of a single tree node over sets of user ids. User group access rules are expanded to the
+     * transitive members of the user group, and exclusion access rules to all other provided users. Each access rule
+     * is combined into the results with a single fused pass, without intermediate sets.
+     *
+     * @param treeNode       Tree node whose access rules are folded
+     * @param accessBit      Access bit to find
+     * @param userIds        Ids of the users to consider
+     * @param matchedUserIds Receives the ids of the users to which at least one access rule applies
+     * @param grantedUserIds Receives the ids of the users to which an access rule granting the access bit applies
+     * @param memberUserIds  Scratch set receiving the transitive members of each user group in turn
+     */
+    protected void foldAccessRules(final TreeNode treeNode, final int accessBit, final UserIdSet userIds,
+                                   final UserIdSet matchedUserIds, final UserIdSet grantedUserIds, final UserIdSet memberUserIds) {
+        for (final AccessRule accessRule : treeNode.getAccessRuleArray()) {
+            final boolean granted = (accessOf(accessRule.getAccessLevel()) & accessBit) != 0;
+
+            if (accessRule.getUser() != null) {
+                final int userId = accessRule.getUser().getId();
+
+                if (accessRule.isExclusion()) {
+                    matchedUserIds.orExcept(userIds, userId);
+                    if (granted) {
+                        grantedUserIds.orExcept(userIds, userId);
+                    }
+                }
+                else if (userIds.get(userId)) {
+                    matchedUserIds.set(userId);
+                    if (granted) {
+                        grantedUserIds.set(userId);
+                    }
+                }
+            }
+            else {
+                memberUserIds.clear();
+                document.addUserGroupMembers(accessRule.getUserGroup(), memberUserIds);
+
+                if (accessRule.isExclusion()) {
+                    matchedUserIds.orAndNot(userIds, memberUserIds);
+                    if (granted) {
+                        grantedUserIds.orAndNot(userIds, memberUserIds);
+                    }
+                }
+                else {
+                    matchedUserIds.orAnd(userIds, memberUserIds);
+                    if (granted) {
+                        grantedUserIds.orAnd(userIds, memberUserIds);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Evaluates the effective access of a user to a path. For a repository of this document the repository's merged
+     * view of both trees is descended to the deepest node on the path and walked back up until a node has an
+     * applicable access rule. Otherwise the repository tree and the server-wide tree are descended to the deepest
+     * existing node of each, then walked back up in lockstep.
+     *
+     * @param user       User whose access is evaluated
+     * @param repository Repository containing the path, or null if only server-wide access rules apply
+     * @param path       Path to evaluate
+     * @return Access bits granted to the user
+     */
+    private int evaluateAccess(final User user, final Repository repository, final String path) {
+        checkArgumentNotNull(user, "User");
+        checkArgumentNotNull(path, "Path");
+
+        if (!useEffectiveAcls && repository != null && repository.getRootTreeNode().getDocument() == document) {
+            return evaluateMergedTree(repository.getMergedRootTreeNode(), user, path);
+        }
+
+        TreeNode repositoryTreeNode = repository == null ? null : repository.getRootTreeNode();
+        TreeNode serverTreeNode = document.getRootTreeNode();
+        int repositoryDepth = repositoryTreeNode == null ? -1 : 0;
+        int serverDepth = 0;
+        boolean descendRepository = repositoryTreeNode != null;
+        boolean descendServer = true;
+
+        final int length = path.length();
+        int start = 0;
+        while (start < length && (descendRepository || descendServer)) {
+            if (path.charAt(start) == '/') {
+                start++;
+                continue;
+            }
+
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = length;
+            }
+
+            if (descendRepository) {
+                final TreeNode child = repositoryTreeNode.findChild(path, start, end);
+
+                if (child == null) {
+                    descendRepository = false;
+                }
+                else {
+                    repositoryTreeNode = child;
+                    repositoryDepth++;
+                }
+            }
+
+            if (descendServer) {
+                final TreeNode child = serverTreeNode.findChild(path, start, end);
+
+                if (child == null) {
+                    descendServer = false;
+                }
+                else {
+                    serverTreeNode = child;
+                    serverDepth++;
+                }
+            }
+
+            start = end;
+        }
+
+        if (useEffectiveAcls) {
+            return evaluateEffectiveAcls(repositoryTreeNode == null ? null : repositoryTreeNode.getEffectiveAcl(),
+                    serverTreeNode.getEffectiveAcl(), user);
+        }
+
+        for (int depth = Math.max(repositoryDepth, serverDepth); depth >= 0; depth--) {
+            if (repositoryDepth == depth) {
+                final int access = evaluateAccessRules(repositoryTreeNode, user);
+                if (access != NO_MATCH) {
+                    return access;
+                }
+
+                repositoryTreeNode = repositoryTreeNode.getParent();
+                repositoryDepth--;
+            }
+
+            if (serverDepth == depth) {
+                final int access = evaluateAccessRules(serverTreeNode, user);
+                if (access != NO_MATCH) {
+                    return access;
+                }
+
+                serverTreeNode = serverTreeNode.getParent();
+                serverDepth--;
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Evaluates the effective access of a user to a path using a merged view of a repository tree and the server-wide
+     * tree. The deepest node of the view on the path is found with a single longest-prefix lookup, and only nodes with
+     * access rules are visited on the way back up.
+     *
+     * @param mergedRootTreeNode Root node of the merged view
+     * @param user               User whose access is evaluated
+     * @param path               Path to evaluate
+     * @return Access bits granted to the user
+     */
+    private int evaluateMergedTree(final MergedTreeNode mergedRootTreeNode, final User user, final String path) {
+        MergedTreeNode mergedTreeNode = mergedRootTreeNode.findDeepestNode(path).getNearestRuledAncestor();
+
+        while (mergedTreeNode != null) {
+            final int access = evaluateTreeNodes(mergedTreeNode.getRepositoryTreeNode(), mergedTreeNode.getServerTreeNode(), user, NO_MATCH);
+            if (access != NO_MATCH) {
+                return access;
+            }
+
+            final MergedTreeNode parent = mergedTreeNode.getParent();
+            mergedTreeNode = parent == null ? null : parent.getNearestRuledAncestor();
+        }
+
+        return 0;
+    }
+
+    /**
+     * Evaluates the effective access control lists of a path in the repository tree and the server-wide tree. The
+     * lists are walked in lockstep by depth, with the repository list first at the same depth.
+     *
+     * @param repositoryEffectiveAcl Effective access control list of the repository tree, or null
+     * @param serverEffectiveAcl     Effective access control list of the server-wide tree, or null
+     * @param user                   User whose access is evaluated
+     * @return Access bits granted to the user
+     */
+    private int evaluateEffectiveAcls(final EffectiveAcl repositoryEffectiveAcl, final EffectiveAcl serverEffectiveAcl, final User user) {
+        EffectiveAcl repositoryAcl = repositoryEffectiveAcl;
+        EffectiveAcl serverAcl = serverEffectiveAcl;
+
+        while (repositoryAcl != null || serverAcl != null) {
+            final int access;
+            if (serverAcl == null || (repositoryAcl != null && repositoryAcl.getDepth() >= serverAcl.getDepth())) {
+                access = evaluateEffectiveAcl(repositoryAcl, user);
+                repositoryAcl = repositoryAcl.getParent();
+            }
+            else {
+                access = evaluateEffectiveAcl(serverAcl, user);
+                serverAcl = serverAcl.getParent();
+            }
+
+            if (access != NO_MATCH) {
+                return access;
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Evaluates the access rules of the tree node of a single effective access control list.
+     *
+     * @param effectiveAcl Effective access control list whose own access rules are evaluated
+     * @param user         User whose access is evaluated
+     * @return Union of the access bits of all access rules that apply to the user, or NO_MATCH if none apply
+     */
+    private int evaluateEffectiveAcl(final EffectiveAcl effectiveAcl, final User user) {
+        int access = NO_MATCH;
+
+        for (int i = 0; i < effectiveAcl.size(); i++) {
+            final boolean matches;
+            if (effectiveAcl.getUser(i) != null) {
+                matches = effectiveAcl.getUser(i) == user;
+            }
+            else {
+                matches = document.isTransitiveMember(user, effectiveAcl.getUserGroup(i));
+            }
+
+            if (matches != effectiveAcl.isExclusion(i)) {
+                access = (access == NO_MATCH ? 0 : access) | accessOf(effectiveAcl.getAccessLevel(i));
+            }
+        }
+
+        return access;
+    }
+
+    /**
+     * Evaluates the tree nodes of a repository and the server-wide tree at the same depth.
+     *
+     * @param repositoryTreeNode Repository tree node, or null if there is none at this depth
+     * @param serverTreeNode     Server-wide tree node, or null if there is none at this depth
+     * @param user               User whose access is evaluated
+     * @param inherited          Decision reached at the parent depth
+     * @return Access bits decided at this depth, or the inherited decision if no access rule applies
+     */
+    private int evaluateTreeNodes(final TreeNode repositoryTreeNode, final TreeNode serverTreeNode, final User user, final int inherited) {
+        if (repositoryTreeNode != null) {
+            final int access = evaluateAccessRules(repositoryTreeNode, user);
+            if (access != NO_MATCH) {
+                return access;
+            }
+        }
+
+        if (serverTreeNode != null) {
+            final int access = evaluateAccessRules(serverTreeNode, user);
+            if (access != NO_MATCH) {
+                return access;
+            }
+        }
+
+        return inherited;
+    }
+
+    /**
+     * Evaluates the access rules of a single tree node.
+     *
+     * @param treeNode Tree node whose access rules are evaluated
+     * @param user     User whose access is evaluated
+     * @return Union of the access bits of all access rules that apply to the user, or NO_MATCH if none apply
+     */
+    private int evaluateAccessRules(final TreeNode treeNode, final User user) {
+        int access = NO_MATCH;
+
+        for (final AccessRule accessRule : treeNode.getAccessRuleArray()) {
+            if (appliesTo(accessRule, user)) {
+                access = (access == NO_MATCH ? 0 : access) | accessOf(accessRule.getAccessLevel());
+            }
+        }
+
+        return access;
+    }
+
+    /**
+     * Checks if an access rule applies to a user.
+     *
+     * @param accessRule Access rule to check
+     * @param user       User to check
+     * @return True if the access rule applies to the user, otherwise false
+     */
+    private boolean appliesTo(final AccessRule accessRule, final User user) {
+        final boolean matches;
+
+        if (accessRule.getUser() != null) {
+            matches = accessRule.getUser() == user;
+        }
+        else {
+            matches = document.isTransitiveMember(user, accessRule.getUserGroup());
+        }
+
+        return matches != accessRule.isExclusion();
+    }
+
+    /**
+     * Converts access bits into an access level.
+     *
+     * @param access Access bits
+     * @return Access level granting the access bits
+     */
+    protected static AccessLevel toAccessLevel(final int access) {
+        if ((access & WRITE) != 0) {
+            return AccessLevel.READ_WRITE;
+        }
+        else if ((access & READ) != 0) {
+            return AccessLevel.READ_ONLY;
+        }
+        else {
+            return AccessLevel.DENY_ACCESS;
+        }
+    }
+
+    /**
+     * Converts a path into canonical form, in which every segment is preceded by a single slash (e.g. /trunk/src).
+     * The root path is the empty string.
+     *
+     * @param path Path to convert
+     * @return Canonical path
+     */
+    protected static String canonicalizePath(final String path) {
+        final StringBuilder builder = new StringBuilder(path.length() + 1);
+        boolean separator = true;
+
+        for (int i = 0; i < path.length(); i++) {
+            final char c = path.charAt(i);
+
+            if (c == '/') {
+                separator = true;
+            }
+            else {
+                if (separator) {
+                    builder.append('/');
+                    separator = false;
+                }
+
+                builder.append(c);
+            }
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Doubles the length of an array of tree nodes.
+     *
+     * @param array Array to grow
+     * @return New array with the same elements
+     */
+    private static TreeNode[] grow(final TreeNode[] array) {
+        final TreeNode[] newArray = new TreeNode[array.length * 2];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+
+        return newArray;
+    }
+
+    /**
+     * Doubles the length of an array of ints.
+     *
+     * @param array Array to grow
+     * @return New array with the same elements
+     */
+    private static int[] grow(final int[] array) {
+        final int[] newArray = new int[array.length * 2];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+
+        return newArray;
+    }
+
+    /**
+     * Scratch sets used to fold access rules over sets of user ids. Owned by a single thread, which reuses them for
+     * every query so that folding does not allocate.
+     */
+    protected static final class Scratch {
+        /**
+         * Ids of the users not yet decided by a deeper tree node.
+         */
+        private final UserIdSet undecidedUserIds;
+
+        /**
+         * Ids of the users matched by the access rules of the current tree node.
+         */
+        private final UserIdSet matchedUserIds;
+
+        /**
+         * Transitive members of the user group of the current access rule.
+         */
+        private final UserIdSet memberUserIds;
+
+        /**
+         * Constructs new scratch sets.
+         *
+         * @param bound Upper bound of the user ids the sets can hold
+         */
+        protected Scratch(final int bound) {
+            this.undecidedUserIds = new UserIdSet(bound);
+            this.matchedUserIds = new UserIdSet(bound);
+            this.memberUserIds = new UserIdSet(bound);
+        }
+
+        /**
+         * Gets the upper bound of the user ids the sets can hold.
+         *
+         * @return Upper bound of the user ids
+         */
+        protected int getBound() {
+            return undecidedUserIds.getBound();
+        }
+    }
+
+    /**
+     * Converts an access level into access bits.
+     *
+     * @param accessLevel Access level to convert
+     * @return Access bits granted by the access level
+     */
+    protected static int accessOf(final AccessLevel accessLevel) {
+        if (accessLevel == AccessLevel.READ_WRITE) {
+            return READ | WRITE;
+        }
+        else if (accessLevel == AccessLevel.READ_ONLY) {
+            return READ;
+        }
+        else {
+            return 0;
+        }
+    }
+}
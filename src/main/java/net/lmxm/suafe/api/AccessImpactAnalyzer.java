@@ -0,0 +1,794 @@
+package net.lmxm.suafe.api;
+
+import net.lmxm.suafe.api.internal.UserIdSet;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static net.lmxm.suafe.api.internal.Preconditions.checkArgumentNotNull;
+import static net.lmxm.suafe.api.internal.Preconditions.checkArgumentPathValid;
+import static net.lmxm.suafe.api.internal.Preconditions.checkThatAccessRuleForUserGroupDoesNotExist;
+import static net.lmxm.suafe.api.internal.Preconditions.checkThatRepositoryExists;
+import static net.lmxm.suafe.api.internal.Preconditions.checkThatUserGroupWithNameExists;
+import static net.lmxm.suafe.api.internal.Preconditions.checkThatUserWithNameExists;
+import static net.lmxm.suafe.api.internal.Preconditions.isBlank;
+
+/**
+ * Dry run of document changes that predicts which users gain or lose access, and on which paths, without modifying
+ * the document. Rather than comparing the access of every user to every path before and after the change, each
+ * analysis narrows the users to those whose applicable access rules can change, from the membership closure of the
+ * user groups involved, and the paths to the subtrees of the access rules involved. The access rules on those paths
+ * are folded over sets of user ids, once as they are and once as they would be after the change, so the cost is
+ * proportional to the number of access rules rather than the number of users.
+ *
+ * Access changes are reported at the tree nodes with access rules in the repository tree or the server-wide tree,
+ * which are the only paths at which access can change; every other path has the access of its nearest reported
+ * ancestor. Like the document itself, the analyzer must not be used while the document is being modified.
+ */
+public final class AccessImpactAnalyzer {
+    /**
+     * Document whose changes are analyzed.
+     */
+    private final Document document;
+
+    /**
+     * Evaluator used for the access before the change.
+     */
+    private final AccessEvaluator evaluator;
+
+    /**
+     * Constructs a new analyzer for the provided document.
+     *
+     * @param document Document whose changes are analyzed
+     */
+    public AccessImpactAnalyzer(final Document document) {
+        checkArgumentNotNull(document, "Document");
+
+        this.document = document;
+        this.evaluator = new AccessEvaluator(document);
+    }
+
+    /**
+     * Predicts the access changes of deleting a user group (see {@link Document#deleteUserGroup(String)}). The members
+     * of the user group lose its access rules and the user groups they only belonged to through it; if the user group
+     * has exclusion access rules, all other users lose those.
+     *
+     * @param userGroupName Name of the user group to delete
+     * @return List of access changes sorted by repository name, path and user name
+     * @throws EntityDoesNotExistException When user group does not exist
+     */
+    public List<AccessChange> analyzeDeleteUserGroup(final String userGroupName) {
+        final UserGroup userGroup = checkThatUserGroupWithNameExists(document, userGroupName);
+        final Change change = new Change();
+        change.deletedUserGroup = userGroup;
+
+        BitSet userIds = document.getUserGroupMembers(userGroup);
+        final List<AccessRule> accessRules = new ArrayList<AccessRule>(userGroup.getAccessRules());
+        for (final AccessRule accessRule : userGroup.getAccessRules()) {
+            if (accessRule.isExclusion()) {
+                userIds = document.getUserIds();
+            }
+        }
+        final BitSet ancestorIds = document.getUserGroupAncestors(userGroup);
+        for (int id = ancestorIds.nextSetBit(0); id >= 0; id = ancestorIds.nextSetBit(id + 1)) {
+            accessRules.addAll(document.findUserGroupById(id).getAccessRules());
+        }
+
+        return analyze(change, userIds, accessRules);
+    }
+
+    /**
+     * Predicts the access changes of removing a user from a user group (see
+     * {@link Document#removeUserFromUserGroup(String, String)}). Only the user is affected, on the subtrees of the access
+     * rules of the user groups the user would no longer belong to.
+     *
+     * @param userName      Name of the user to remove
+     * @param userGroupName Name of the user group from which the user is removed
+     * @return List of access changes sorted by repository name, path and user name
+     * @throws EntityDoesNotExistException When user or user group does not exist
+     */
+    public List<AccessChange> analyzeRemoveUserFromUserGroup(final String userName, final String userGroupName) {
+        final User user = checkThatUserWithNameExists(document, userName);
+        final UserGroup userGroup = checkThatUserGroupWithNameExists(document, userGroupName);
+        final Change change = new Change();
+        change.removedUser = user;
+        change.removedFromUserGroup = userGroup;
+
+        final BitSet userIds = new BitSet();
+        userIds.set(user.getId());
+
+        final BitSet lostUserGroupIds = (BitSet) document.getUserGroupClosure(user).clone();
+        lostUserGroupIds.andNot(findUserGroupClosure(change, user));
+
+        final List<AccessRule> accessRules = new ArrayList<AccessRule>();
+        for (int userGroupId = lostUserGroupIds.nextSetBit(0); userGroupId >= 0; userGroupId = lostUserGroupIds.nextSetBit(userGroupId + 1)) {
+            accessRules.addAll(document.findUserGroupById(userGroupId).getAccessRules());
+        }
+
+        return analyze(change, userIds, accessRules);
+    }
+
+    /**
+     * Predicts the access changes of creating an access rule for a user group (see
+     * {@link Document#createAccessRuleForUserGroup(String, String, String, AccessLevel, boolean)}). The members of the
+     * user group are affected, or all other users for an exclusion access rule, on the subtree of the path.
+     *
+     * @param repositoryName Name of the repository to which the access rule applies. If null the access rule applies to all repositories
+     * @param path           Path to which the new rule applies
+     * @param userGroupName  Name of user group to which this rule applies
+     * @param accessLevel    Level of access to apply
+     * @param exclusion      Indicates if this rule applies to all users that are not in the provided user group
+     * @return List of access changes sorted by repository name, path and user name
+     * @throws EntityDoesNotExistException  When repository or user group does not exist
+     * @throws EntityAlreadyExistsException When access rule already exists at this path for this user group
+     */
+    public List<AccessChange> analyzeCreateAccessRuleForUserGroup(final String repositoryName, final String path, final String userGroupName,
+                                                                  final AccessLevel accessLevel, final boolean exclusion) {
+        final UserGroup userGroup = checkThatUserGroupWithNameExists(document, userGroupName);
+        final Repository repository = isBlank(repositoryName) ? null : checkThatRepositoryExists(document, repositoryName);
+        final TreeNode rootTreeNode = repository == null ? document.getRootTreeNode() : repository.getRootTreeNode();
+        checkArgumentNotNull(accessLevel, "Access level");
+        checkArgumentPathValid(path, "Path");
+        checkThatAccessRuleForUserGroupDoesNotExist(rootTreeNode, path, userGroup);
+
+        final Change change = new Change();
+        change.addedRuleRootTreeNode = rootTreeNode;
+        final String canonicalPath = AccessEvaluator.canonicalizePath(path);
+        change.addedRulePath = canonicalPath.length() == 0 ? "/" : canonicalPath;
+        change.addedRuleUserGroup = userGroup;
+        change.addedRuleAccess = AccessEvaluator.accessOf(accessLevel);
+        change.addedRuleExclusion = exclusion;
+
+        BitSet userIds = document.getUserGroupMembers(userGroup);
+        if (exclusion) {
+            final BitSet memberUserIds = userIds;
+            userIds = document.getUserIds();
+            userIds.andNot(memberUserIds);
+        }
+
+        final List<Anchor> anchors = new ArrayList<Anchor>();
+        anchors.add(new Anchor(repository, change.addedRulePath));
+
+        return analyzeAnchors(change, userIds, anchors);
+    }
+
+    /**
+     * Predicts the access changes on the subtrees of a list of access rules.
+     *
+     * @param change      Change to analyze
+     * @param userIds     Ids of the users that may be affected
+     * @param accessRules Access rules whose subtrees may be affected
+     * @return List of access changes
+     */
+    private List<AccessChange> analyze(final Change change, final BitSet userIds, final Collection<AccessRule> accessRules) {
+        final List<Anchor> anchors = new ArrayList<Anchor>();
+
+        for (final AccessRule accessRule : accessRules) {
+            final TreeNode treeNode = accessRule.getTreeNode();
+            anchors.add(new Anchor(treeNode.getRepository(), treeNode.getPath()));
+        }
+
+        return analyzeAnchors(change, userIds, anchors);
+    }
+
+    /**
+     * Predicts the access changes on the subtrees of a list of paths. The trees of each affected repository are
+     * descended from the root along the anchors, keeping the readers and writers among the affected users before and
+     * after the change as sets of user ids. A tree node with access rules decides the users its access rules match,
+     * before and after the change, and the users whose access differs are reported at that node. Below the anchors
+     * only subtrees that may have access rules are descended; tree nodes without access rules inherit the sets of
+     * their parent.
+     *
+     * @param change  Change to analyze
+     * @param userIds Ids of the users that may be affected
+     * @param anchors Roots of the subtrees that may be affected
+     * @return List of access changes sorted by repository name, path and user name
+     */
+    private List<AccessChange> analyzeAnchors(final Change change, final BitSet userIds, final List<Anchor> anchors) {
+        final List<AccessChange> accessChanges = new ArrayList<AccessChange>();
+        if (userIds.isEmpty() || anchors.isEmpty()) {
+            return accessChanges;
+        }
+
+        final Analysis analysis = new Analysis(change, UserIdSet.valueOf(userIds, document.getUserIds().length()));
+        addLostMembers(analysis);
+
+        for (final Repository repository : findAnchorRepositories(anchors)) {
+            analysis.repository = repository;
+            analysis.anchorPaths.clear();
+            analysis.accessChanges.clear();
+            for (final Anchor anchor : anchors) {
+                if (anchor.repository == null || anchor.repository == repository) {
+                    analysis.anchorPaths.add(anchor.path);
+                }
+            }
+
+            final AccessSets noAccess = new AccessSets(analysis.userIds.getBound());
+            analyzeTreeNodes(analysis, "/", repository.getRootTreeNode(), document.getRootTreeNode(), noAccess, noAccess);
+
+            for (final List<AccessChange> pathAccessChanges : analysis.accessChanges.values()) {
+                accessChanges.addAll(pathAccessChanges);
+            }
+        }
+
+        return accessChanges;
+    }
+
+    /**
+     * Records, for each user group, the affected users that would no longer be transitively members of it after the
+     * change. Only the user removed from a user group, and the members of a deleted user group, lose user groups.
+     *
+     * @param analysis Analysis receiving the lost members
+     */
+    private void addLostMembers(final Analysis analysis) {
+        final Change change = analysis.change;
+        final BitSet changedUserIds = new BitSet();
+        if (change.removedUser != null) {
+            changedUserIds.set(change.removedUser.getId());
+        }
+        if (change.deletedUserGroup != null) {
+            changedUserIds.or(document.getUserGroupMembers(change.deletedUserGroup));
+        }
+
+        for (int userId = changedUserIds.nextSetBit(0); userId >= 0; userId = changedUserIds.nextSetBit(userId + 1)) {
+            final User user = document.findUserById(userId);
+            final BitSet lostUserGroupIds = (BitSet) document.getUserGroupClosure(user).clone();
+            lostUserGroupIds.andNot(findUserGroupClosure(change, user));
+
+            for (int userGroupId = lostUserGroupIds.nextSetBit(0); userGroupId >= 0; userGroupId = lostUserGroupIds.nextSetBit(userGroupId + 1)) {
+                UserIdSet lostMemberIds = analysis.lostMemberIds.get(userGroupId);
+                if (lostMemberIds == null) {
+                    lostMemberIds = new UserIdSet(analysis.userIds.getBound());
+                    analysis.lostMemberIds.put(userGroupId, lostMemberIds);
+                }
+
+                lostMemberIds.set(userId);
+            }
+        }
+    }
+
+    /**
+     * Decides the access of the affected users at a path of a repository, reports the users whose access would change
+     * and descends into the children that lead to an anchor or, within the subtree of an anchor, may have access
+     * rules.
+     *
+     * @param analysis           Analysis of the repository
+     * @param path               Canonical path of the tree nodes
+     * @param repositoryTreeNode Repository tree node at the path, or null if there is none
+     * @param serverTreeNode     Server-wide tree node at the path, or null if there is none
+     * @param parentBefore       Access of the affected users at the parent path before the change
+     * @param parentAfter        Access of the affected users at the parent path after the change
+     */
+    private void analyzeTreeNodes(final Analysis analysis, final String path, final TreeNode repositoryTreeNode,
+                                  final TreeNode serverTreeNode, final AccessSets parentBefore, final AccessSets parentAfter) {
+        final AccessSets before = decide(analysis, path, repositoryTreeNode, serverTreeNode, parentBefore, false);
+        final AccessSets after = decide(analysis, path, repositoryTreeNode, serverTreeNode, parentAfter, true);
+
+        boolean inSubtree = false;
+        for (final String anchorPath : analysis.anchorPaths) {
+            inSubtree |= isOnPath(anchorPath, path);
+        }
+
+        if (inSubtree && (before != parentBefore || after != parentAfter)) {
+            addAccessChanges(analysis, path, before, after);
+        }
+
+        final Set<String> names = new HashSet<String>();
+        for (final TreeNode[] children : TreeNode.pairChildren(repositoryTreeNode, serverTreeNode)) {
+            final String name = (children[0] == null ? children[1] : children[0]).getName();
+            final String childPath = path.length() == 1 ? path + name : path + '/' + name;
+            names.add(name);
+
+            if (leadsToAnchor(analysis, childPath) || (inSubtree && (mayHaveAccessRules(children[0]) || mayHaveAccessRules(children[1])))) {
+                analyzeTreeNodes(analysis, childPath, children[0], children[1], before, after);
+            }
+        }
+
+        for (final String anchorPath : analysis.anchorPaths) {
+            if (anchorPath.length() > path.length() && isOnPath(path, anchorPath)) {
+                final int start = path.length() == 1 ? 1 : path.length() + 1;
+                final int end = anchorPath.indexOf('/', start);
+                final String name = anchorPath.substring(start, end < 0 ? anchorPath.length() : end);
+
+                if (names.add(name)) {
+                    analyzeTreeNodes(analysis, path.length() == 1 ? path + name : path + '/' + name, null, null, before, after);
+                }
+            }
+        }
+    }
+
+    /**
+     * Decides the access of the affected users at a path, from the access rules of the repository tree node and then
+     * of the server-wide tree node, before or after the change.
+     *
+     * @param analysis           Analysis of the repository
+     * @param path               Canonical path of the tree nodes
+     * @param repositoryTreeNode Repository tree node at the path, or null if there is none
+     * @param serverTreeNode     Server-wide tree node at the path, or null if there is none
+     * @param inherited          Access of the affected users at the parent path
+     * @param changed            True to decide the access after the change, false to decide the current access
+     * @return Access of the affected users at the path; the inherited access itself if no access rule is present
+     */
+    private AccessSets decide(final Analysis analysis, final String path, final TreeNode repositoryTreeNode,
+                              final TreeNode serverTreeNode, final AccessSets inherited, final boolean changed) {
+        final boolean addedRule = changed && path.equals(analysis.change.addedRulePath);
+        final boolean addedRepositoryRule = addedRule && analysis.change.addedRuleRootTreeNode == analysis.repository.getRootTreeNode();
+        final boolean addedServerRule = addedRule && analysis.change.addedRuleRootTreeNode == document.getRootTreeNode();
+        final boolean repositoryRules = addedRepositoryRule || hasAccessRules(repositoryTreeNode);
+        final boolean serverRules = addedServerRule || hasAccessRules(serverTreeNode);
+        if (!repositoryRules && !serverRules) {
+            return inherited;
+        }
+
+        final AccessSets decided = new AccessSets(inherited);
+        analysis.candidateUserIds.clear();
+        analysis.candidateUserIds.or(analysis.userIds);
+
+        if (repositoryRules) {
+            decideAccessRules(analysis, repositoryTreeNode, addedRepositoryRule, changed, decided);
+        }
+        if (serverRules) {
+            decideAccessRules(analysis, serverTreeNode, addedServerRule, changed, decided);
+        }
+
+        return decided;
+    }
+
+    /**
+     * Decides the access of the candidate users matched by the access rules of a single tree node. The current access
+     * rules are folded by the evaluator; the access rules after the change are folded with the memberships the change
+     * would leave. Matched users are removed from the candidates, so a server-wide tree node only decides the users
+     * the repository tree node at the same path left undecided.
+     *
+     * @param analysis  Analysis of the repository, holding the candidate users
+     * @param treeNode  Tree node whose access rules are folded, or null
+     * @param addedRule True if the access rule the change creates belongs to the tree node
+     * @param changed   True to fold the access rules after the change, false to fold the current access rules
+     * @param decided   Access of the affected users, updated for the matched users
+     */
+    private void decideAccessRules(final Analysis analysis, final TreeNode treeNode, final boolean addedRule, final boolean changed,
+                                   final AccessSets decided) {
+        analysis.matchedUserIds.clear();
+        analysis.readUserIds.clear();
+        analysis.writeUserIds.clear();
+
+        if (!changed) {
+            evaluator.foldAccessRules(treeNode, AccessEvaluator.READ, analysis.candidateUserIds, analysis.matchedUserIds, analysis.readUserIds,
+                    analysis.memberUserIds);
+            evaluator.foldAccessRules(treeNode, AccessEvaluator.WRITE, analysis.candidateUserIds, analysis.matchedUserIds,
+                    analysis.writeUserIds, analysis.memberUserIds);
+        }
+        else {
+            if (treeNode != null) {
+                for (final AccessRule accessRule : treeNode.getAccessRuleArray()) {
+                    if (accessRule.getUser() != null) {
+                        analysis.memberUserIds.clear();
+                        analysis.memberUserIds.set(accessRule.getUser().getId());
+                    }
+                    else if (accessRule.getUserGroup() == analysis.change.deletedUserGroup) {
+                        continue;
+                    }
+                    else {
+                        findChangedMembers(analysis, accessRule.getUserGroup());
+                    }
+
+                    foldAccessRule(analysis, AccessEvaluator.accessOf(accessRule.getAccessLevel()), accessRule.isExclusion());
+                }
+            }
+
+            if (addedRule) {
+                findChangedMembers(analysis, analysis.change.addedRuleUserGroup);
+                foldAccessRule(analysis, analysis.change.addedRuleAccess, analysis.change.addedRuleExclusion);
+            }
+        }
+
+        decided.readUserIds.andNot(analysis.matchedUserIds);
+        decided.readUserIds.or(analysis.readUserIds);
+        decided.writeUserIds.andNot(analysis.matchedUserIds);
+        decided.writeUserIds.or(analysis.writeUserIds);
+        analysis.candidateUserIds.andNot(analysis.matchedUserIds);
+    }
+
+    /**
+     * Folds a single access rule over the candidate users, matching the users in the member set, or all other
+     * candidates for an exclusion access rule.
+     *
+     * @param analysis  Analysis holding the candidate users and the members of the access rule's principal
+     * @param access    Access bits granted by the access rule
+     * @param exclusion True if the access rule is an exclusion access rule
+     */
+    private static void foldAccessRule(final Analysis analysis, final int access, final boolean exclusion) {
+        final UserIdSet candidateUserIds = analysis.candidateUserIds;
+        final UserIdSet memberUserIds = analysis.memberUserIds;
+
+        if (exclusion) {
+            analysis.matchedUserIds.orAndNot(candidateUserIds, memberUserIds);
+            if ((access & AccessEvaluator.READ) != 0) {
+                analysis.readUserIds.orAndNot(candidateUserIds, memberUserIds);
+            }
+            if ((access & AccessEvaluator.WRITE) != 0) {
+                analysis.writeUserIds.orAndNot(candidateUserIds, memberUserIds);
+            }
+        }
+        else {
+            analysis.matchedUserIds.orAnd(candidateUserIds, memberUserIds);
+            if ((access & AccessEvaluator.READ) != 0) {
+                analysis.readUserIds.orAnd(candidateUserIds, memberUserIds);
+            }
+            if ((access & AccessEvaluator.WRITE) != 0) {
+                analysis.writeUserIds.orAnd(candidateUserIds, memberUserIds);
+            }
+        }
+    }
+
+    /**
+     * Finds the users that would transitively be members of a user group after the change.
+     *
+     * @param analysis  Analysis receiving the members in its member set
+     * @param userGroup User group whose members are found
+     */
+    private void findChangedMembers(final Analysis analysis, final UserGroup userGroup) {
+        analysis.memberUserIds.clear();
+        document.addUserGroupMembers(userGroup, analysis.memberUserIds);
+
+        final UserIdSet lostMemberIds = analysis.lostMemberIds.get(userGroup.getId());
+        if (lostMemberIds != null) {
+            analysis.memberUserIds.andNot(lostMemberIds);
+        }
+    }
+
+    /**
+     * Reports the affected users whose access at a path differs before and after the change.
+     *
+     * @param analysis Analysis receiving the access changes
+     * @param path     Canonical path
+     * @param before   Access of the affected users before the change
+     * @param after    Access of the affected users after the change
+     */
+    private void addAccessChanges(final Analysis analysis, final String path, final AccessSets before, final AccessSets after) {
+        final UserIdSet changedUserIds = analysis.matchedUserIds;
+        changedUserIds.clear();
+        changedUserIds.orXor(before.readUserIds, after.readUserIds);
+        changedUserIds.orXor(before.writeUserIds, after.writeUserIds);
+        if (changedUserIds.isEmpty()) {
+            return;
+        }
+
+        final List<AccessChange> accessChanges = new ArrayList<AccessChange>();
+        for (final User user : document.findUsersByIds(changedUserIds.toBitSet())) {
+            accessChanges.add(new AccessChange(analysis.repository, path, user, before.getAccessLevel(user.getId()),
+                    after.getAccessLevel(user.getId())));
+        }
+
+        analysis.accessChanges.put(path, accessChanges);
+    }
+
+    /**
+     * Checks if a path is an ancestor-or-self of one of the anchors of an analysis.
+     *
+     * @param analysis Analysis of the repository
+     * @param path     Canonical path to check
+     * @return True if an anchor lies at or below the path, otherwise false
+     */
+    private static boolean leadsToAnchor(final Analysis analysis, final String path) {
+        for (final String anchorPath : analysis.anchorPaths) {
+            if (isOnPath(path, anchorPath)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Checks if a tree node has access rules.
+     *
+     * @param treeNode Tree node to check, or null
+     * @return True if the tree node exists and has access rules, otherwise false
+     */
+    private static boolean hasAccessRules(final TreeNode treeNode) {
+        return treeNode != null && treeNode.getAccessRuleArray().length > 0;
+    }
+
+    /**
+     * Checks if the subtree of a tree node may have access rules.
+     *
+     * @param treeNode Root of the subtree, or null
+     * @return True if the tree node exists and its subtree may have access rules, otherwise false
+     */
+    private static boolean mayHaveAccessRules(final TreeNode treeNode) {
+        return treeNode != null && treeNode.subtreeMayHaveAccessRules();
+    }
+
+    /**
+     * Finds the repositories containing the subtrees of a list of anchors. A server-wide anchor affects every
+     * repository; otherwise only the repositories of the anchors are visited.
+     *
+     * @param anchors Roots of the subtrees that may be affected
+     * @return Repositories sorted by name
+     */
+    private Collection<Repository> findAnchorRepositories(final List<Anchor> anchors) {
+        final Map<String, Repository> repositories = new TreeMap<String, Repository>();
+
+        for (final Anchor anchor : anchors) {
+            if (anchor.repository == null) {
+                return document.findRepositoriesByNamePrefix("");
+            }
+
+            repositories.put(anchor.repository.getName(), anchor.repository);
+        }
+
+        return repositories.values();
+    }
+
+    /**
+     * Finds the ids of the user groups a user would transitively belong to after a change. The user's current closure
+     * is reused unless the change removes one of its user groups; only then is the closure rebuilt from the user's
+     * direct user groups and their maintained ancestors.
+     *
+     * @param change Change to apply
+     * @param user   User whose user groups are found
+     * @return New bit set of user group ids
+     */
+    private BitSet findUserGroupClosure(final Change change, final User user) {
+        final BitSet userGroupIds = (BitSet) document.getUserGroupClosure(user).clone();
+        final boolean removed = user == change.removedUser;
+        final boolean deleted = change.deletedUserGroup != null && userGroupIds.get(change.deletedUserGroup.getId());
+        if (!removed && !deleted) {
+            return userGroupIds;
+        }
+
+        userGroupIds.clear();
+        for (final UserGroup userGroup : user.getUserGroups()) {
+            if (!removed || userGroup != change.removedFromUserGroup) {
+                addUserGroupClosure(change, userGroup, userGroupIds);
+            }
+        }
+
+        return userGroupIds;
+    }
+
+    /**
+     * Adds a user group and the user groups it would transitively belong to after a change. The maintained ancestors
+     * of the user group are added at once, unless the user group is nested in the user group the change deletes; only
+     * then are its containing user groups followed one by one.
+     *
+     * @param change       Change to apply
+     * @param userGroup    User group to add
+     * @param userGroupIds Receives the ids of the user groups
+     */
+    private void addUserGroupClosure(final Change change, final UserGroup userGroup, final BitSet userGroupIds) {
+        if (userGroup == change.deletedUserGroup || userGroupIds.get(userGroup.getId())) {
+            return;
+        }
+
+        userGroupIds.set(userGroup.getId());
+
+        final BitSet ancestorIds = document.getUserGroupAncestors(userGroup);
+        if (change.deletedUserGroup == null || !ancestorIds.get(change.deletedUserGroup.getId())) {
+            userGroupIds.or(ancestorIds);
+        }
+        else {
+            for (final UserGroup parentUserGroup : userGroup.getUserGroups()) {
+                addUserGroupClosure(change, parentUserGroup, userGroupIds);
+            }
+        }
+    }
+
+    /**
+     * Checks if a canonical path is an ancestor-or-self of another canonical path.
+     *
+     * @param ancestorPath Possible ancestor path
+     * @param path         Path to check
+     * @return True if the path is the ancestor path or lies below it, otherwise false
+     */
+    private static boolean isOnPath(final String ancestorPath, final String path) {
+        return ancestorPath.length() == 1 || path.equals(ancestorPath)
+                || (path.startsWith(ancestorPath) && path.charAt(ancestorPath.length()) == '/');
+    }
+
+    /**
+     * Root of a subtree whose access may change.
+     */
+    private static final class Anchor {
+        /**
+         * Repository of the subtree, or null for a subtree of the server-wide tree, which affects all repositories.
+         */
+        private final Repository repository;
+
+        /**
+         * Canonical path of the root of the subtree.
+         */
+        private final String path;
+
+        /**
+         * Constructs a new anchor.
+         *
+         * @param repository Repository of the subtree, or null for the server-wide tree
+         * @param path       Canonical path of the root of the subtree
+         */
+        private Anchor(final Repository repository, final String path) {
+            this.repository = repository;
+            this.path = path;
+        }
+    }
+
+    /**
+     * Access of the affected users at a path, as the sets of users granted each access bit. Never modified once
+     * shared with the children of the path.
+     */
+    private static final class AccessSets {
+        /**
+         * Ids of the users that may read the path.
+         */
+        private final UserIdSet readUserIds;
+
+        /**
+         * Ids of the users that may write the path.
+         */
+        private final UserIdSet writeUserIds;
+
+        /**
+         * Constructs new access sets denying access to all users.
+         *
+         * @param bound Upper bound of the user ids
+         */
+        private AccessSets(final int bound) {
+            this.readUserIds = new UserIdSet(bound);
+            this.writeUserIds = new UserIdSet(bound);
+        }
+
+        /**
+         * Constructs a copy of access sets.
+         *
+         * @param accessSets Access sets to copy
+         */
+        private AccessSets(final AccessSets accessSets) {
+            this(accessSets.readUserIds.getBound());
+
+            readUserIds.or(accessSets.readUserIds);
+            writeUserIds.or(accessSets.writeUserIds);
+        }
+
+        /**
+         * Gets the access level of a user.
+         *
+         * @param userId Id of the user
+         * @return Access level granted to the user
+         */
+        private AccessLevel getAccessLevel(final int userId) {
+            return AccessEvaluator.toAccessLevel((readUserIds.get(userId) ? AccessEvaluator.READ : 0)
+                    | (writeUserIds.get(userId) ? AccessEvaluator.WRITE : 0));
+        }
+    }
+
+    /**
+     * State of the analysis of a change, with scratch sets reused for every tree node.
+     */
+    private static final class Analysis {
+        /**
+         * Change to analyze.
+         */
+        private final Change change;
+
+        /**
+         * Ids of the users that may be affected.
+         */
+        private final UserIdSet userIds;
+
+        /**
+         * Ids of the affected users that would no longer be transitively members of a user group, by user group id.
+         */
+        private final Map<Integer, UserIdSet> lostMemberIds = new HashMap<Integer, UserIdSet>();
+
+        /**
+         * Repository being analyzed.
+         */
+        private Repository repository;
+
+        /**
+         * Canonical paths of the anchors in the repository being analyzed.
+         */
+        private final List<String> anchorPaths = new ArrayList<String>();
+
+        /**
+         * Access changes found in the repository being analyzed, by path.
+         */
+        private final Map<String, List<AccessChange>> accessChanges = new TreeMap<String, List<AccessChange>>();
+
+        /**
+         * Ids of the users not yet decided by the tree nodes at the current path.
+         */
+        private final UserIdSet candidateUserIds;
+
+        /**
+         * Ids of the users matched by the access rules of the current tree node.
+         */
+        private final UserIdSet matchedUserIds;
+
+        /**
+         * Ids of the matched users granted read access.
+         */
+        private final UserIdSet readUserIds;
+
+        /**
+         * Ids of the matched users granted write access.
+         */
+        private final UserIdSet writeUserIds;
+
+        /**
+         * Ids of the members of the principal of the current access rule.
+         */
+        private final UserIdSet memberUserIds;
+
+        /**
+         * Constructs a new analysis.
+         *
+         * @param change  Change to analyze
+         * @param userIds Ids of the users that may be affected
+         */
+        private Analysis(final Change change, final UserIdSet userIds) {
+            final int bound = userIds.getBound();
+
+            this.change = change;
+            this.userIds = userIds;
+            this.candidateUserIds = new UserIdSet(bound);
+            this.matchedUserIds = new UserIdSet(bound);
+            this.readUserIds = new UserIdSet(bound);
+            this.writeUserIds = new UserIdSet(bound);
+            this.memberUserIds = new UserIdSet(bound);
+        }
+    }
+
+    /**
+     * Document change to analyze. Only the fields of the analyzed kind of change are set.
+     */
+    private static final class Change {
+        /**
+         * User group that would be deleted.
+         */
+        private UserGroup deletedUserGroup;
+
+        /**
+         * User that would be removed from a user group.
+         */
+        private User removedUser;
+
+        /**
+         * User group from which the user would be removed.
+         */
+        private UserGroup removedFromUserGroup;
+
+        /**
+         * Root node of the tree in which an access rule would be created.
+         */
+        private TreeNode addedRuleRootTreeNode;
+
+        /**
+         * Canonical path at which an access rule would be created.
+         */
+        private String addedRulePath;
+
+        /**
+         * User group of the access rule that would be created.
+         */
+        private UserGroup addedRuleUserGroup;
+
+        /**
+         * Access bits of the access rule that would be created.
+         */
+        private int addedRuleAccess;
+
+        /**
+         * Indicates if the access rule that would be created is an exclusion rule.
+         */
+        private boolean addedRuleExclusion;
+    }
+}
@@ -0,0 +1,325 @@
+package net.lmxm.suafe.api;
+
+import net.lmxm.suafe.api.internal.UserIdSet;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static net.lmxm.suafe.api.internal.Preconditions.checkArgumentNotNull;
+
+/**
+ * Report of the access of every user to every path of every repository, written as CSV with the columns repository,
+ * path, user and access. The paths of a repository are the paths of its tree and the server-wide tree that may have
+ * access rules, which are the only paths at which access can change; every other path has the access of its nearest
+ * listed ancestor.
+ *
+ * Each path is an independent task run on a fixed pool of threads. A task finds the readers and writers of the path
+ * by folding access rules over scratch sets of user ids owned by its thread, rather than evaluating users one by one,
+ * then formats one row per user into a buffer. Tasks are written in submission order, and no more than two tasks per
+ * thread are in flight at a time, so the buffers form a fixed ring that is reused for the whole report and written
+ * without copying the rows into strings; memory use does not grow with the size of the report. Like the document
+ * itself, the report must not be written while the document is being modified.
+ */
+public final class AccessMatrixReport {
+    /**
+     * Header row of the report.
+     */
+    private static final String HEADER = "repository,path,user,access\n";
+
+    /**
+     * Document whose access is reported.
+     */
+    private final Document document;
+
+    /**
+     * Number of threads formatting rows.
+     */
+    private final int threadCount;
+
+    /**
+     * Evaluator used to find the readers and writers of each path.
+     */
+    private final AccessEvaluator evaluator;
+
+    /**
+     * Number of characters copied from a row buffer to the writer at a time.
+     */
+    private static final int CHUNK_SIZE = 8192;
+
+    /**
+     * Scratch sets of each thread, reused for every path the thread formats.
+     */
+    private final ThreadLocal<ScratchSets> scratchSets = new ThreadLocal<ScratchSets>();
+
+    /**
+     * Constructs a new report for the provided document.
+     *
+     * @param document    Document whose access is reported
+     * @param threadCount Number of threads formatting rows
+     */
+    public AccessMatrixReport(final Document document, final int threadCount) {
+        checkArgumentNotNull(document, "Document");
+
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Thread count must be positive");
+        }
+
+        this.document = document;
+        this.threadCount = threadCount;
+        this.evaluator = new AccessEvaluator(document);
+    }
+
+    /**
+     * Writes the report. Repositories, paths and users are each written in name order.
+     *
+     * @param writer Writer receiving the report
+     * @return Number of rows written, excluding the header row
+     * @throws IOException When the writer fails or the calling thread is interrupted
+     */
+    public long write(final Writer writer) throws IOException {
+        checkArgumentNotNull(writer, "Writer");
+
+        final List<User> users = document.findUsersByNamePrefix("");
+        final BitSet userIds = document.getUserIds();
+        final StringBuilder[] rowBuffers = new StringBuilder[threadCount * 2];
+        final char[] chunk = new char[CHUNK_SIZE];
+        final LinkedList<Future<StringBuilder>> pendingRows = new LinkedList<Future<StringBuilder>>();
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        long rowCount = 0;
+        int taskCount = 0;
+
+        for (int i = 0; i < rowBuffers.length; i++) {
+            rowBuffers[i] = new StringBuilder();
+        }
+
+        try {
+            writer.write(HEADER);
+
+            for (final Repository repository : document.findRepositoriesByNamePrefix("")) {
+                for (final String path : findPaths(repository)) {
+                    if (pendingRows.size() == rowBuffers.length) {
+                        writeRows(writer, awaitRows(pendingRows.removeFirst()), chunk);
+                    }
+
+                    // The buffer was last used by the task written above
+                    final StringBuilder rowBuffer = rowBuffers[taskCount++ % rowBuffers.length];
+                    pendingRows.add(executor.submit(new Callable<StringBuilder>() {
+                        public StringBuilder call() {
+                            return formatRows(repository, path, users, userIds, rowBuffer);
+                        }
+                    }));
+                    rowCount += users.size();
+                }
+            }
+
+            while (!pendingRows.isEmpty()) {
+                writeRows(writer, awaitRows(pendingRows.removeFirst()), chunk);
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        return rowCount;
+    }
+
+    /**
+     * Finds the paths of a repository to report, in depth-first name order. The repository tree and the server-wide
+     * tree are walked side by side instead of through the repository's merged view, so reporting on every repository
+     * does not build and keep a merged view for each of them.
+     *
+     * @param repository Repository whose paths are found
+     * @return List of paths, starting with the root path
+     */
+    private List<String> findPaths(final Repository repository) {
+        final List<String> paths = new ArrayList<String>();
+        addPaths(repository.getRootTreeNode(), document.getRootTreeNode(), "/", paths);
+
+        return paths;
+    }
+
+    /**
+     * Adds the path of a pair of tree nodes and the paths of their descendants, skipping subtrees without access
+     * rules like the merged view does.
+     *
+     * @param repositoryTreeNode Repository tree node at the path, or null if there is none
+     * @param serverTreeNode     Server-wide tree node at the path, or null if there is none
+     * @param path               Canonical path of the tree nodes
+     * @param paths              Receives the paths
+     */
+    private static void addPaths(final TreeNode repositoryTreeNode, final TreeNode serverTreeNode, final String path,
+                                 final List<String> paths) {
+        paths.add(path);
+
+        for (final TreeNode[] pair : TreeNode.pairChildren(repositoryTreeNode, serverTreeNode)) {
+            final TreeNode repositoryChild = pair[0];
+            final TreeNode serverChild = pair[1];
+
+            if ((repositoryChild != null && repositoryChild.subtreeMayHaveAccessRules())
+                    || (serverChild != null && serverChild.subtreeMayHaveAccessRules())) {
+                final String childName = repositoryChild == null ? serverChild.getName() : repositoryChild.getName();
+                addPaths(repositoryChild, serverChild, path.length() == 1 ? path + childName : path + '/' + childName, paths);
+            }
+        }
+    }
+
+    /**
+     * Formats the rows of a single path, one per user.
+     *
+     * @param repository Repository containing the path
+     * @param path       Path whose rows are formatted
+     * @param users      All users sorted by name
+     * @param userIds    Ids of all users
+     * @param builder    Buffer receiving the rows; cleared first
+     * @return The buffer
+     */
+    private StringBuilder formatRows(final Repository repository, final String path, final List<User> users,
+                                     final BitSet userIds, final StringBuilder builder) {
+        ScratchSets sets = scratchSets.get();
+        if (sets == null || sets.scratch.getBound() != userIds.length()) {
+            sets = new ScratchSets(userIds.length());
+            scratchSets.set(sets);
+        }
+
+        final UserIdSet readerIds = sets.readerIds;
+        final UserIdSet writerIds = sets.writerIds;
+        evaluator.findUserIds(repository, path, AccessEvaluator.READ, userIds, sets.scratch, readerIds);
+        evaluator.findUserIds(repository, path, AccessEvaluator.WRITE, userIds, sets.scratch, writerIds);
+
+        builder.setLength(0);
+
+        for (final User user : users) {
+            final AccessLevel accessLevel;
+            if (writerIds.get(user.getId())) {
+                accessLevel = AccessLevel.READ_WRITE;
+            }
+            else if (readerIds.get(user.getId())) {
+                accessLevel = AccessLevel.READ_ONLY;
+            }
+            else {
+                accessLevel = AccessLevel.DENY_ACCESS;
+            }
+
+            appendField(builder, repository.getName()).append(',');
+            appendField(builder, path).append(',');
+            appendField(builder, user.getName()).append(',');
+            builder.append(accessLevel.name()).append('\n');
+        }
+
+        return builder;
+    }
+
+    /**
+     * Writes formatted rows straight from their buffer, a chunk at a time.
+     *
+     * @param writer  Writer receiving the rows
+     * @param builder Buffer holding the rows
+     * @param chunk   Chunk through which the rows are copied
+     * @throws IOException When the writer fails
+     */
+    private static void writeRows(final Writer writer, final StringBuilder builder, final char[] chunk) throws IOException {
+        for (int start = 0; start < builder.length(); start += chunk.length) {
+            final int end = Math.min(start + chunk.length, builder.length());
+
+            builder.getChars(start, end, chunk, 0);
+            writer.write(chunk, 0, end - start);
+        }
+    }
+
+    /**
+     * Waits for the rows of a path to be formatted.
+     *
+     * @param rows Pending rows
+     * @return Buffer holding the formatted rows
+     * @throws IOException When the calling thread is interrupted
+     */
+    private static StringBuilder awaitRows(final Future<StringBuilder> rows) throws IOException {
+        try {
+            return rows.get();
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing access matrix report");
+        }
+        catch (final ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Appends a CSV field, quoting it if it contains a comma, quote or line break.
+     *
+     * @param builder Builder receiving the field
+     * @param value   Field value
+     * @return The builder
+     */
+    private static StringBuilder appendField(final StringBuilder builder, final String value) {
+        boolean quoted = false;
+        for (int i = 0; i < value.length() && !quoted; i++) {
+            final char c = value.charAt(i);
+            quoted = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+
+        if (!quoted) {
+            return builder.append(value);
+        }
+
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+
+            if (c == '"') {
+                builder.append('"');
+            }
+
+            builder.append(c);
+        }
+
+        return builder.append('"');
+    }
+
+    /**
+     * Scratch sets owned by a single thread.
+     */
+    private static final class ScratchSets {
+        /**
+         * Scratch sets used to fold access rules.
+         */
+        private final AccessEvaluator.Scratch scratch;
+
+        /**
+         * Ids of the users that may read the current path.
+         */
+        private final UserIdSet readerIds;
+
+        /**
+         * Ids of the users that may write the current path.
+         */
+        private final UserIdSet writerIds;
+
+        /**
+         * Constructs new scratch sets.
+         *
+         * @param bound Upper bound of the user ids the sets can hold
+         */
+        private ScratchSets(final int bound) {
+            this.scratch = new AccessEvaluator.Scratch(bound);
+            this.readerIds = new UserIdSet(bound);
+            this.writerIds = new UserIdSet(bound);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package net.lmxm.suafe.api;
 
+import net.lmxm.suafe.api.internal.Fingerprints;
 import net.lmxm.suafe.api.internal.ObjectToStringBuilder;
 
 /**
@@ -96,7 +97,21 @@ public final class AccessRule {
      * @param exclusion New exclusion value
      */
     protected void setExclusion(final boolean exclusion) {
+        final Document document = treeNode == null ? null : treeNode.getDocument();
+
+        if (document != null) {
+            document.accessRuleDeleted(this);
+        }
+
         this.exclusion = exclusion;
+
+        if (treeNode != null) {
+            treeNode.invalidateFingerprint();
+        }
+
+        if (document != null) {
+            document.accessRuleCreated(this);
+        }
     }
 
     /**
@@ -114,7 +129,34 @@ public final class AccessRule {
      * @param accessLevel New access level
      */
     protected void setAccessLevel(final AccessLevel accessLevel) {
+        final Document document = treeNode == null ? null : treeNode.getDocument();
+
+        if (document != null) {
+            document.accessRuleDeleted(this);
+        }
+
         this.accessLevel = accessLevel;
+
+        if (treeNode != null) {
+            treeNode.invalidateFingerprint();
+        }
+
+        if (document != null) {
+            document.accessRuleCreated(this);
+        }
+    }
+
+    /**
+     * Gets the fingerprint of this access rule, which covers its principal, access level and exclusion value.
+     *
+     * @return Fingerprint of this access rule
+     */
+    protected long getFingerprint() {
+        final long principal = user == null
+                ? Fingerprints.combine(Fingerprints.of(userGroup.getName()), 2)
+                : Fingerprints.combine(Fingerprints.of(user.getName()), 1);
+
+        return Fingerprints.combine(principal, accessLevel.ordinal() * 2 + (exclusion ? 1 : 0));
     }
 
     /**
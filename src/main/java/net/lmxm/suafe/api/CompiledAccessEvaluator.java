@@ -0,0 +1,282 @@
+package net.lmxm.suafe.api;
+
+import net.lmxm.suafe.api.internal.DecisionTrie;
+import net.lmxm.suafe.api.internal.DecisionTrieBuilder;
+
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static net.lmxm.suafe.api.internal.Preconditions.checkArgumentNotNull;
+
+/**
+ * Read-optimized evaluator of a document's access rules, with the same semantics as AccessEvaluator. The tree of each
+ * repository, merged with the server-wide tree, is compiled into an array-backed DecisionTrie on first use, and is
+ * recompiled on first use after the access rules of the repository or the server-wide access rules change. Evaluating
+ * a path then resolves each path segment with a single hash probe and tests packed rules against the user's ids.
+ * Membership is read from the document, so membership changes never require recompiling.
+ *
+ * Users and repositories that do not belong to the document are evaluated against the server-wide access rules, and
+ * only match exclusion rules. Lookups may be performed concurrently, but like the document itself the evaluator must
+ * not be used while the document is being modified.
+ */
+public final class CompiledAccessEvaluator {
+    /**
+     * Membership of a user that does not belong to the document.
+     */
+    private static final BitSet NO_USER_GROUPS = new BitSet();
+
+    /**
+     * Document whose access rules are evaluated.
+     */
+    private final Document document;
+
+    /**
+     * Compiled trie of each repository that was evaluated, merged with the server-wide tree. Repositories are compared
+     * by identity because their hash code changes when they are renamed. Guarded by itself.
+     */
+    private final Map<Repository, CompiledTrie> repositoryTries = new IdentityHashMap<Repository, CompiledTrie>();
+
+    /**
+     * Compiled trie of the server-wide tree, used for paths outside any known repository; null until first used.
+     */
+    private volatile CompiledTrie serverTrie;
+
+    /**
+     * Version of the document's set of repositories when deleted repositories were last discarded. Guarded by the
+     * compiled tries.
+     */
+    private long repositoriesVersion;
+
+    /**
+     * Number of times a trie was compiled.
+     */
+    private final AtomicLong compilationCount = new AtomicLong();
+
+    /**
+     * Constructs a new evaluator of the access rules of a document.
+     *
+     * @param document Document whose access rules are evaluated
+     */
+    public CompiledAccessEvaluator(final Document document) {
+        checkArgumentNotNull(document, "Document");
+
+        this.document = document;
+        this.repositoriesVersion = document.getRepositoriesVersion();
+    }
+
+    /**
+     * Checks if a user may read a path.
+     *
+     * @param user       User whose access is evaluated
+     * @param repository Repository containing the path, or null if only server-wide access rules apply
+     * @param path       Path to evaluate (e.g. /trunk/src)
+     * @return True if the user may read the path, otherwise false
+     */
+    public boolean canRead(final User user, final Repository repository, final String path) {
+        return (evaluateAccess(user, repository, path) & AccessEvaluator.READ) != 0;
+    }
+
+    /**
+     * Checks if a user may write a path.
+     *
+     * @param user       User whose access is evaluated
+     * @param repository Repository containing the path, or null if only server-wide access rules apply
+     * @param path       Path to evaluate (e.g. /trunk/src)
+     * @return True if the user may write the path, otherwise false
+     */
+    public boolean canWrite(final User user, final Repository repository, final String path) {
+        return (evaluateAccess(user, repository, path) & AccessEvaluator.WRITE) != 0;
+    }
+
+    /**
+     * Evaluates the effective access level of a user to a path.
+     *
+     * @param user       User whose access is evaluated
+     * @param repository Repository containing the path, or null if only server-wide access rules apply
+     * @param path       Path to evaluate (e.g. /trunk/src)
+     * @return Effective access level
+     */
+    public AccessLevel evaluate(final User user, final Repository repository, final String path) {
+        return AccessEvaluator.toAccessLevel(evaluateAccess(user, repository, path));
+    }
+
+    /**
+     * Gets the number of times a trie was compiled.
+     *
+     * @return Number of compilations
+     */
+    public long getCompilationCount() {
+        return compilationCount.get();
+    }
+
+    /**
+     * Evaluates the effective access of a user to a path.
+     *
+     * @param user       User whose access is evaluated
+     * @param repository Repository containing the path, or null if only server-wide access rules apply
+     * @param path       Path to evaluate
+     * @return Access bits granted to the user
+     */
+    private int evaluateAccess(final User user, final Repository repository, final String path) {
+        checkArgumentNotNull(user, "User");
+
+        final boolean knownRepository = repository != null && repository.getRootTreeNode().getDocument() == document;
+        final DecisionTrie trie = knownRepository ? findRepositoryTrie(repository) : findServerTrie();
+
+        if (document.findUserById(user.getId()) == user) {
+            return trie.evaluate(path, user.getId(), document.getUserGroupClosure(user));
+        }
+        else {
+            return trie.evaluate(path, -1, NO_USER_GROUPS);
+        }
+    }
+
+    /**
+     * Finds the compiled trie of a repository, compiling it if it is missing or stale. Concurrent lookups may compile
+     * the same repository more than once; the results are equivalent and the last one is kept.
+     *
+     * @param repository Repository that belongs to the document
+     * @return Current compiled trie
+     */
+    private DecisionTrie findRepositoryTrie(final Repository repository) {
+        final long repositoryVersion = repository.getVersion();
+        final long serverVersion = document.getServerVersion();
+
+        CompiledTrie compiledTrie;
+        synchronized (repositoryTries) {
+            compiledTrie = repositoryTries.get(repository);
+        }
+
+        if (compiledTrie == null || compiledTrie.repositoryVersion != repositoryVersion || compiledTrie.serverVersion != serverVersion) {
+            compiledTrie = new CompiledTrie(compile(repository.getRootTreeNode(), document.getRootTreeNode()), repositoryVersion,
+                    serverVersion);
+            compilationCount.incrementAndGet();
+
+            synchronized (repositoryTries) {
+                discardDeletedRepositories();
+                repositoryTries.put(repository, compiledTrie);
+            }
+        }
+
+        return compiledTrie.trie;
+    }
+
+    /**
+     * Finds the compiled trie of the server-wide tree, compiling it if it is missing or stale.
+     *
+     * @return Current compiled trie
+     */
+    private DecisionTrie findServerTrie() {
+        final long serverVersion = document.getServerVersion();
+
+        CompiledTrie compiledTrie = serverTrie;
+        if (compiledTrie == null || compiledTrie.serverVersion != serverVersion) {
+            compiledTrie = new CompiledTrie(compile(null, document.getRootTreeNode()), 0, serverVersion);
+            compilationCount.incrementAndGet();
+
+            serverTrie = compiledTrie;
+        }
+
+        return compiledTrie.trie;
+    }
+
+    /**
+     * Discards the compiled tries of repositories that were deleted from the document since the last call. Must be
+     * called while holding the lock of the compiled tries.
+     */
+    private void discardDeletedRepositories() {
+        final long currentRepositoriesVersion = document.getRepositoriesVersion();
+        if (currentRepositoriesVersion == repositoriesVersion) {
+            return;
+        }
+
+        final Iterator<Repository> iterator = repositoryTries.keySet().iterator();
+        while (iterator.hasNext()) {
+            final Repository repository = iterator.next();
+            if (document.findRepositoryByName(repository.getName()) != repository) {
+                iterator.remove();
+            }
+        }
+
+        repositoriesVersion = currentRepositoriesVersion;
+    }
+
+    /**
+     * Compiles a repository tree and the server-wide tree into a single trie.
+     *
+     * @param repositoryRootTreeNode Root node of the repository tree, or null if only server-wide access rules apply
+     * @param serverRootTreeNode     Root node of the server-wide tree
+     * @return Compiled trie
+     */
+    protected static DecisionTrie compile(final TreeNode repositoryRootTreeNode, final TreeNode serverRootTreeNode) {
+        final DecisionTrieBuilder builder = new DecisionTrieBuilder();
+        if (repositoryRootTreeNode != null) {
+            addTree(builder, DecisionTrie.ROOT, repositoryRootTreeNode, true);
+        }
+        addTree(builder, DecisionTrie.ROOT, serverRootTreeNode, false);
+
+        return builder.build();
+    }
+
+    /**
+     * Adds a tree node, its access rules and all of its descendants to a trie. Subtrees without access rules are left
+     * out, since they cannot change the decision of their nearest ancestor with rules.
+     *
+     * @param builder        Builder of the trie
+     * @param node           Trie node matching the tree node
+     * @param treeNode       Tree node to add
+     * @param repositoryRule True if the tree node belongs to a repository tree, false if it belongs to the server-wide
+     *                       tree
+     */
+    private static void addTree(final DecisionTrieBuilder builder, final int node, final TreeNode treeNode, final boolean repositoryRule) {
+        for (final AccessRule accessRule : treeNode.getAccessRuleArray()) {
+            final boolean userGroupRule = accessRule.getUserGroup() != null;
+            final int principalId = userGroupRule ? accessRule.getUserGroup().getId() : accessRule.getUser().getId();
+
+            builder.addRule(node, repositoryRule, principalId, userGroupRule, AccessEvaluator.accessOf(accessRule.getAccessLevel()),
+                    accessRule.isExclusion());
+        }
+
+        for (final TreeNode child : treeNode.getChildArray()) {
+            if (child.subtreeMayHaveAccessRules()) {
+                addTree(builder, builder.addChild(node, child.getName()), child, repositoryRule);
+            }
+        }
+    }
+
+    /**
+     * Compiled trie and the versions it was compiled from.
+     */
+    private static final class CompiledTrie {
+        /**
+         * Compiled trie of a repository tree merged with the server-wide tree, or of the server-wide tree alone.
+         */
+        private final DecisionTrie trie;
+
+        /**
+         * Version of the repository, or zero for the server-wide tree alone.
+         */
+        private final long repositoryVersion;
+
+        /**
+         * Version of the server-wide access rules.
+         */
+        private final long serverVersion;
+
+        /**
+         * Constructs a new compiled trie.
+         *
+         * @param trie              Compiled trie
+         * @param repositoryVersion Version of the repository
+         * @param serverVersion     Version of the server-wide access rules
+         */
+        private CompiledTrie(final DecisionTrie trie, final long repositoryVersion, final long serverVersion) {
+            this.trie = trie;
+            this.repositoryVersion = repositoryVersion;
+            this.serverVersion = serverVersion;
+        }
+    }
+}
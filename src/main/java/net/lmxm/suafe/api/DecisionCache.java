@@ -0,0 +1,350 @@
+package net.lmxm.suafe.api;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static net.lmxm.suafe.api.internal.Preconditions.checkArgumentNotNull;
+
+/**
+ * Bounded cache of access decisions in front of an AccessEvaluator. Each cached decision is tagged with the versions
+ * of the repository, the server-wide access rules and the user at the time it was made. Document increments these
+ * versions on every change that may affect a decision, so a cached decision is only used while all three are
+ * unchanged: changing the access rules of one repository invalidates only the decisions for that repository, and
+ * changing a membership invalidates only the decisions for the affected users. Invalidation is per repository rather
+ * than per subtree: changing an access rule anywhere in a repository invalidates the decisions for all of its paths,
+ * and changing a server-wide access rule invalidates every decision. Stale decisions are discarded when they are next
+ * looked up.
+ *
+ * Lookups may be performed concurrently, but like the document itself the cache must not be used while the document
+ * is being modified. When the cache is full, decisions are evicted with the clock algorithm: a decision that was used
+ * since the clock hand last passed it gets a second chance, so frequently used decisions stay cached.
+ */
+public final class DecisionCache {
+    /**
+     * Document whose access rules are evaluated.
+     */
+    private final Document document;
+
+    /**
+     * Evaluator used for decisions that are not cached.
+     */
+    private final AccessEvaluator evaluator;
+
+    /**
+     * Maximum number of cached decisions.
+     */
+    private final int maximumSize;
+
+    /**
+     * Cached decisions.
+     */
+    private final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<Key, Entry>();
+
+    /**
+     * Number of lookups answered from the cache.
+     */
+    private final AtomicLong hitCount = new AtomicLong();
+
+    /**
+     * Number of lookups that had to be evaluated.
+     */
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Number of decisions evicted to make room.
+     */
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Number of stale decisions discarded.
+     */
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    /**
+     * Clock hand of the eviction, positioned after the last decision it visited; null until the first eviction.
+     * Guarded by this cache.
+     */
+    private Iterator<Map.Entry<Key, Entry>> clockHand;
+
+    /**
+     * Constructs a new, empty cache for the provided document.
+     *
+     * @param document    Document whose access rules are evaluated
+     * @param maximumSize Maximum number of cached decisions
+     */
+    public DecisionCache(final Document document, final int maximumSize) {
+        checkArgumentNotNull(document, "Document");
+
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("Maximum size must be positive");
+        }
+
+        this.document = document;
+        this.evaluator = new AccessEvaluator(document);
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * Checks if a user may read a path.
+     *
+     * @param user       User whose access is evaluated
+     * @param repository Repository containing the path, or null if only server-wide access rules apply
+     * @param path       Path to evaluate (e.g. /trunk/src)
+     * @return True if the user may read the path, otherwise false
+     */
+    public boolean canRead(final User user, final Repository repository, final String path) {
+        return evaluate(user, repository, path) != AccessLevel.DENY_ACCESS;
+    }
+
+    /**
+     * Checks if a user may write a path.
+     *
+     * @param user       User whose access is evaluated
+     * @param repository Repository containing the path, or null if only server-wide access rules apply
+     * @param path       Path to evaluate (e.g. /trunk/src)
+     * @return True if the user may write the path, otherwise false
+     */
+    public boolean canWrite(final User user, final Repository repository, final String path) {
+        return evaluate(user, repository, path) == AccessLevel.READ_WRITE;
+    }
+
+    /**
+     * Evaluates the effective access level of a user to a path, using a cached decision if it is still current.
+     *
+     * @param user       User whose access is evaluated
+     * @param repository Repository containing the path, or null if only server-wide access rules apply
+     * @param path       Path to evaluate (e.g. /trunk/src)
+     * @return Effective access level
+     */
+    public AccessLevel evaluate(final User user, final Repository repository, final String path) {
+        checkArgumentNotNull(user, "User");
+        checkArgumentNotNull(path, "Path");
+
+        final long repositoryVersion = repository == null ? 0 : repository.getVersion();
+        final long serverVersion = document.getServerVersion();
+        final long userVersion = user.getVersion();
+
+        final Key key = new Key(user, repository, path);
+        final Entry entry = entries.get(key);
+        if (entry != null) {
+            if (entry.repositoryVersion == repositoryVersion && entry.serverVersion == serverVersion && entry.userVersion == userVersion) {
+                hitCount.incrementAndGet();
+                entry.referenced = true;
+                return entry.accessLevel;
+            }
+
+            if (entries.remove(key, entry)) {
+                invalidationCount.incrementAndGet();
+            }
+        }
+
+        missCount.incrementAndGet();
+
+        final AccessLevel accessLevel = evaluator.evaluate(user, repository, path);
+        if (entries.size() >= maximumSize) {
+            evict();
+        }
+        entries.put(key, new Entry(accessLevel, repositoryVersion, serverVersion, userVersion));
+
+        return accessLevel;
+    }
+
+    /**
+     * Removes all cached decisions. The counters are not reset.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Gets the number of decisions evicted to make room.
+     *
+     * @return Number of evicted decisions
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Gets the number of lookups answered from the cache.
+     *
+     * @return Number of cache hits
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Gets the number of stale decisions discarded because the document changed.
+     *
+     * @return Number of invalidated decisions
+     */
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+    /**
+     * Gets the number of lookups that had to be evaluated.
+     *
+     * @return Number of cache misses
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Gets the maximum number of cached decisions.
+     *
+     * @return Maximum number of cached decisions
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Gets the number of cached decisions.
+     *
+     * @return Number of cached decisions
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Evicts decisions until there is room for a new one. The clock hand sweeps the cached decisions, starting over
+     * when it reaches the end: a decision used since the hand last passed it is kept and marked unused, and an unused
+     * decision is evicted. A sixteenth of the cache is freed at once so that the cost of eviction is spread over many
+     * insertions.
+     */
+    private synchronized void evict() {
+        final int targetSize = maximumSize - Math.max(1, maximumSize / 16);
+
+        while (entries.size() > targetSize) {
+            if (clockHand == null || !clockHand.hasNext()) {
+                clockHand = entries.entrySet().iterator();
+
+                if (!clockHand.hasNext()) {
+                    return;
+                }
+            }
+
+            final Map.Entry<Key, Entry> mapEntry = clockHand.next();
+            final Entry entry = mapEntry.getValue();
+            if (entry.referenced) {
+                entry.referenced = false;
+            }
+            else if (entries.remove(mapEntry.getKey(), entry)) {
+                evictionCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Key of a cached decision. Users and repositories are compared by identity because their hash codes change when
+     * they are renamed.
+     */
+    private static final class Key {
+        /**
+         * User whose access was evaluated.
+         */
+        private final User user;
+
+        /**
+         * Repository containing the path, or null.
+         */
+        private final Repository repository;
+
+        /**
+         * Evaluated path.
+         */
+        private final String path;
+
+        /**
+         * Precomputed hash code.
+         */
+        private final int hashCode;
+
+        /**
+         * Constructs a new key.
+         *
+         * @param user       User whose access is evaluated
+         * @param repository Repository containing the path, or null
+         * @param path       Evaluated path
+         */
+        private Key(final User user, final Repository repository, final String path) {
+            this.user = user;
+            this.repository = repository;
+            this.path = path;
+            this.hashCode = (System.identityHashCode(user) * 31 + System.identityHashCode(repository)) * 31 + path.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(final Object object) {
+            if (object == this) {
+                return true;
+            }
+
+            if (Key.class.isInstance(object)) {
+                final Key otherKey = (Key) object;
+
+                return user == otherKey.user && repository == otherKey.repository && path.equals(otherKey.path);
+            }
+            else {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Cached decision and the versions it was made with.
+     */
+    private static final class Entry {
+        /**
+         * Effective access level.
+         */
+        private final AccessLevel accessLevel;
+
+        /**
+         * Version of the repository, or 0 if there is no repository.
+         */
+        private final long repositoryVersion;
+
+        /**
+         * Version of the server-wide access rules.
+         */
+        private final long serverVersion;
+
+        /**
+         * Version of the user.
+         */
+        private final long userVersion;
+
+        /**
+         * Indicates if the decision was used since the clock hand last passed it.
+         */
+        private volatile boolean referenced;
+
+        /**
+         * Constructs a new entry.
+         *
+         * @param accessLevel       Effective access level
+         * @param repositoryVersion Version of the repository, or 0 if there is no repository
+         * @param serverVersion     Version of the server-wide access rules
+         * @param userVersion       Version of the user
+         */
+        private Entry(final AccessLevel accessLevel, final long repositoryVersion, final long serverVersion, final long userVersion) {
+            this.accessLevel = accessLevel;
+            this.repositoryVersion = repositoryVersion;
+            this.serverVersion = serverVersion;
+            this.userVersion = userVersion;
+        }
+    }
+}
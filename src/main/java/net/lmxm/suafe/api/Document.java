@@ -1,12 +1,48 @@
 package net.lmxm.suafe.api;
 
+import net.lmxm.suafe.api.internal.AccessRuleIndex;
+import net.lmxm.suafe.api.internal.BidirectionalMap;
+import net.lmxm.suafe.api.internal.Fingerprints;
+import net.lmxm.suafe.api.internal.IdAllocator;
+import net.lmxm.suafe.api.internal.InternPool;
+import net.lmxm.suafe.api.internal.MembershipGraph;
+import net.lmxm.suafe.api.internal.MessageKey;
+import net.lmxm.suafe.api.internal.SortedIndex;
+import net.lmxm.suafe.api.internal.UserIdSet;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import static net.lmxm.suafe.api.internal.Preconditions.*;
 
 public final class Document {
+    /**
+     * Prefix that marks a user reference as a user alias (e.g. &amp;jsmith).
+     */
+    public static final String USER_ALIAS_REFERENCE_PREFIX = "&";
+
+    /**
+     * Factor by which the number of requested users is scaled before comparing it to the number of users, to decide
+     * whether findUsersByIds filters the name index instead of sorting the requested users.
+     */
+    private static final int USER_INDEX_SCAN_FACTOR = 16;
+
+    /**
+     * Indicates if user names, user aliases and user group names are matched without regard to case.
+     */
+    private final boolean caseInsensitive;
+
     /**
      * Set of all repositories.
      */
@@ -15,7 +51,7 @@ public final class Document {
     /**
      * Tree of all server-level (applicable to all repositories) access rules.
      */
-    private TreeNode rootTreeNode = new TreeNode();
+    private TreeNode rootTreeNode = new TreeNode(this, null);
 
     /**
      * Set of all users.
@@ -27,6 +63,131 @@ public final class Document {
      */
     private Set<UserGroup> userGroups = new HashSet<UserGroup>();
 
+    /**
+     * Pool of names (path segments, user names, aliases, user group names and repository names) shared by all objects
+     * in this document.
+     */
+    private final InternPool<String> namePool = new InternPool<String>();
+
+    /**
+     * Pool of canonical effective access control lists, shared by all tree nodes with equal lists.
+     */
+    private final InternPool<EffectiveAcl> effectiveAclPool = new InternPool<EffectiveAcl>();
+
+    /**
+     * Index of all repositories sorted by name.
+     */
+    private final SortedIndex<Repository> repositoriesByName = new SortedIndex<Repository>();
+
+    /**
+     * Index of all users sorted by principal key of the name.
+     */
+    private final SortedIndex<User> usersByName = new SortedIndex<User>();
+
+    /**
+     * Index of all users that have an alias, sorted by principal key of the alias.
+     */
+    private final SortedIndex<User> usersByAlias = new SortedIndex<User>();
+
+    /**
+     * Map of the principal keys of all user aliases to their users, and of users to the principal keys of their
+     * aliases.
+     */
+    private final BidirectionalMap<String, User> aliases = new BidirectionalMap<String, User>();
+
+    /**
+     * Index of all user groups sorted by principal key of the name.
+     */
+    private final SortedIndex<UserGroup> userGroupsByName = new SortedIndex<UserGroup>();
+
+    /**
+     * Index of all access rules by access level, exclusion flag and owning repository.
+     */
+    private final AccessRuleIndex accessRuleIndex = new AccessRuleIndex();
+
+    /**
+     * Allocator of the dense ids of all users.
+     */
+    private final IdAllocator userIds = new IdAllocator();
+
+    /**
+     * Allocator of the dense ids of all user groups.
+     */
+    private final IdAllocator userGroupIds = new IdAllocator();
+
+    /**
+     * Graph of all memberships by user and user group id, with the transitive membership of every user and user group
+     * maintained incrementally as memberships change.
+     */
+    private final MembershipGraph membershipGraph = new MembershipGraph();
+
+    /**
+     * Users by id; deleted users leave a null entry until their id is reused.
+     */
+    private final List<User> usersById = new ArrayList<User>();
+
+    /**
+     * User groups by id; deleted user groups leave a null entry until their id is reused.
+     */
+    private final List<UserGroup> userGroupsById = new ArrayList<UserGroup>();
+
+    /**
+     * Version of the server-wide access rules, incremented whenever they change.
+     */
+    private long serverVersion;
+
+    /**
+     * Version of the set of repositories and their access rules, incremented whenever a repository is created or
+     * deleted or the access rules of any repository change.
+     */
+    private long repositoriesVersion;
+
+    /**
+     * Sum of the fingerprint terms of all users, kept up to date as users are created, deleted and renamed.
+     */
+    private long userSum;
+
+    /**
+     * Sum of the fingerprint terms of all user groups that are not in changedUserGroups.
+     */
+    private long userGroupSum;
+
+    /**
+     * Sum of the fingerprint terms of all repositories that are not in changedRepositories.
+     */
+    private long repositorySum;
+
+    /**
+     * User groups whose terms are missing from userGroupSum, because they were created, renamed or their direct
+     * members changed since the sum was last brought up to date. Used as an identity set, since the hash code of a
+     * user group changes when it is renamed.
+     */
+    private final Map<UserGroup, Boolean> changedUserGroups = new IdentityHashMap<UserGroup, Boolean>();
+
+    /**
+     * Repositories whose terms are missing from repositorySum, because they were created, renamed or their access
+     * rules changed since the sum was last brought up to date. Used as an identity set, since the hash code of a
+     * repository changes when it is renamed.
+     */
+    private final Map<Repository, Boolean> changedRepositories = new IdentityHashMap<Repository, Boolean>();
+
+    /**
+     * Constructs a new document in which user names, user aliases and user group names are case sensitive.
+     */
+    public Document() {
+        this(false);
+    }
+
+    /**
+     * Constructs a new document.
+     *
+     * @param caseInsensitive Indicates if user names, user aliases and user group names are matched without regard to
+     *                        case. Entities always keep the spelling they are created or renamed with
+     */
+    public Document(final boolean caseInsensitive) {
+        this.caseInsensitive = caseInsensitive;
+    }
+
     /**
      * Adds a user to a user group.
      *
@@ -39,7 +200,15 @@ public final class Document {
         final User user = checkThatUserWithNameExists(this, userName);
         final UserGroup targetUserGroup = checkThatUserGroupWithNameExists(this, targetUserGroupName);
 
-        return targetUserGroup.addUserMember(user) && user.addUserGroup(targetUserGroup);
+        userGroupChanging(targetUserGroup);
+        if (!(targetUserGroup.addUserMember(user) | user.addUserGroup(targetUserGroup))) {
+            return false;
+        }
+
+        membershipGraph.addUserToUserGroup(user.getId(), targetUserGroup.getId());
+        user.incrementVersion();
+
+        return true;
     }
 
     /**
@@ -49,12 +218,76 @@ public final class Document {
      * @param targetUserGroupName Name of user group to which the user group is added
      * @return true if the user group was not already in the user group
      * @throws EntityDoesNotExistException When user group with name does not exist
+     * @throws MembershipCycleException    When the target user group is, or is a member of, the user group to add
      */
     public boolean addUserGroupToUserGroup(final String userGroupName, final String targetUserGroupName) {
         final UserGroup userGroup = checkThatUserGroupWithNameExists(this, userGroupName);
         final UserGroup targetUserGroup = checkThatUserGroupWithNameExists(this, targetUserGroupName);
 
-        return targetUserGroup.addUserGroupMember(userGroup) && userGroup.addUserGroup(targetUserGroup);
+        if (membershipGraph.createsCycle(userGroup.getId(), targetUserGroup.getId())) {
+            throw new MembershipCycleException(MessageKey.userGroupMembershipCreatesCycle, userGroupName, targetUserGroupName);
+        }
+
+        userGroupChanging(targetUserGroup);
+        if (!(targetUserGroup.addUserGroupMember(userGroup) | userGroup.addUserGroup(targetUserGroup))) {
+            return false;
+        }
+
+        membershipChanged(membershipGraph.addUserGroupToUserGroup(userGroup.getId(), targetUserGroup.getId()));
+
+        return true;
+    }
+
+    /**
+     * Adds many user groups to user groups at once, such as when memberships are loaded in bulk. The memberships are
+     * checked for cycles once, and the transitive memberships are rebuilt once, instead of after every membership.
+     *
+     * @param userGroupMembers Map of the names of target user groups to the names of the user groups to add to them
+     * @throws EntityDoesNotExistException When a user group with name does not exist
+     * @throws MembershipCycleException    When the memberships would create a cycle; no membership is added
+     */
+    public void addUserGroupsToUserGroups(final Map<String, ? extends Collection<String>> userGroupMembers) {
+        checkArgumentNotNull(userGroupMembers, "User group members");
+
+        final List<UserGroup> memberUserGroups = new ArrayList<UserGroup>();
+        final List<UserGroup> targetUserGroups = new ArrayList<UserGroup>();
+        for (final Map.Entry<String, ? extends Collection<String>> entry : userGroupMembers.entrySet()) {
+            final UserGroup targetUserGroup = checkThatUserGroupWithNameExists(this, entry.getKey());
+
+            for (final String userGroupName : entry.getValue()) {
+                memberUserGroups.add(checkThatUserGroupWithNameExists(this, userGroupName));
+                targetUserGroups.add(targetUserGroup);
+            }
+        }
+
+        final int[] userGroupIds = new int[memberUserGroups.size()];
+        final int[] targetUserGroupIds = new int[targetUserGroups.size()];
+        for (int i = 0; i < userGroupIds.length; i++) {
+            userGroupIds[i] = memberUserGroups.get(i).getId();
+            targetUserGroupIds[i] = targetUserGroups.get(i).getId();
+        }
+
+        final List<BitSet> cycles = membershipGraph.addUserGroupsToUserGroups(userGroupIds, targetUserGroupIds);
+        if (!cycles.isEmpty()) {
+            final Set<String> cycleUserGroupNames = new TreeSet<String>();
+            for (final UserGroup userGroup : userGroups) {
+                if (cycles.get(0).get(userGroup.getId())) {
+                    cycleUserGroupNames.add(userGroup.getName());
+                }
+            }
+
+            throw new MembershipCycleException(MessageKey.userGroupsFormCycle, cycleUserGroupNames);
+        }
+
+        for (int i = 0; i < userGroupIds.length; i++) {
+            userGroupChanging(targetUserGroups.get(i));
+            targetUserGroups.get(i).addUserGroupMember(memberUserGroups.get(i));
+            memberUserGroups.get(i).addUserGroup(targetUserGroups.get(i));
+        }
+
+        for (final User user : users) {
+            user.incrementVersion();
+        }
     }
 
     /**
@@ -166,8 +399,11 @@ public final class Document {
     public Repository createRepository(final String repositoryName) {
         checkThatRepositoryDoesNotExist(this, repositoryName);
 
-        final Repository repository = new Repository(repositoryName);
+        final Repository repository = new Repository(this, intern(repositoryName));
         repositories.add(repository);
+        repositoriesByName.put(repository.getName(), repository);
+        changedRepositories.put(repository, Boolean.TRUE);
+        repositoriesVersion++;
 
         return repository;
     }
@@ -187,8 +423,14 @@ public final class Document {
             checkThatUserWithAliasDoesNotExist(this, userAlias);
         }
 
-        final User user = new User(userName, userAlias);
+        final User user = new User(intern(userName), null);
+        user.setId(userIds.allocate());
+        setById(usersById, user.getId(), user);
+        membershipGraph.addUser(user.getId());
         users.add(user);
+        usersByName.put(principalKey(user.getName()), user);
+        userSum += getFingerprintTerm(user);
+        setUserAlias(user, userAlias);
 
         return user;
     }
@@ -203,8 +445,13 @@ public final class Document {
     public UserGroup createUserGroup(final String userGroupName) {
         checkThatUserGroupWithNameDoesNotExist(this, userGroupName);
 
-        final UserGroup userGroup = new UserGroup(userGroupName);
+        final UserGroup userGroup = new UserGroup(intern(userGroupName));
+        userGroup.setId(userGroupIds.allocate());
+        setById(userGroupsById, userGroup.getId(), userGroup);
+        membershipGraph.addUserGroup(userGroup.getId());
         userGroups.add(userGroup);
+        userGroupsByName.put(principalKey(userGroup.getName()), userGroup);
+        changedUserGroups.put(userGroup, Boolean.TRUE);
 
         return userGroup;
     }
@@ -248,9 +495,13 @@ public final class Document {
     public void deleteRepository(final String repositoryName) {
         final Repository targetRepository = checkThatRepositoryExists(this, repositoryName);
 
+        repositoryChanging(targetRepository);
         TreeNode.deleteAllAccessRulesInTree(targetRepository.getRootTreeNode());
 
         repositories.remove(targetRepository);
+        repositoriesByName.remove(targetRepository.getName());
+        changedRepositories.remove(targetRepository);
+        repositoriesVersion++;
     }
 
     /**
@@ -262,15 +513,23 @@ public final class Document {
     public void deleteUser(final String targetUserName) {
         final User targetUser = checkThatUserWithNameExists(this, targetUserName);
 
-        for (final UserGroup userGroup : targetUser.getUserGroups()) {
+        for (final UserGroup userGroup : new ArrayList<UserGroup>(targetUser.getUserGroups())) {
             removeUserFromUserGroup(targetUserName, userGroup.getName());
         }
 
-        for (final AccessRule accessRule : targetUser.getAccessRules()) {
+        for (final AccessRule accessRule : new ArrayList<AccessRule>(targetUser.getAccessRules())) {
             accessRule.getTreeNode().deleteAccessRuleForUser(targetUser);
         }
 
         users.remove(targetUser);
+        usersByName.remove(foldPrincipalName(targetUser.getName()));
+        userSum -= getFingerprintTerm(targetUser);
+        releaseUserId(targetUser);
+
+        final String aliasKey = aliases.removeValue(targetUser);
+        if (aliasKey != null) {
+            usersByAlias.remove(aliasKey);
+        }
     }
 
     /**
@@ -282,23 +541,115 @@ public final class Document {
     public void deleteUserGroup(final String targetUserGroupName) {
         final UserGroup targetUserGroup = checkThatUserGroupWithNameExists(this, targetUserGroupName);
 
-        for (final User memberUser : targetUserGroup.getUserMembers()) {
+        userGroupChanging(targetUserGroup);
+        for (final User memberUser : new ArrayList<User>(targetUserGroup.getUserMembers())) {
             removeUserFromUserGroup(memberUser.getName(), targetUserGroupName);
         }
 
-        for (final UserGroup memberUserGroup : targetUserGroup.getUserGroupMembers()) {
+        for (final UserGroup memberUserGroup : new ArrayList<UserGroup>(targetUserGroup.getUserGroupMembers())) {
             removeUserGroupFromUserGroup(memberUserGroup.getName(), targetUserGroupName);
         }
 
-        for (final UserGroup userGroup : targetUserGroup.getUserGroups()) {
+        for (final UserGroup userGroup : new ArrayList<UserGroup>(targetUserGroup.getUserGroups())) {
             removeUserGroupFromUserGroup(targetUserGroupName, userGroup.getName());
         }
 
-        for (final AccessRule accessRule : targetUserGroup.getAccessRules()) {
+        for (final AccessRule accessRule : new ArrayList<AccessRule>(targetUserGroup.getAccessRules())) {
             accessRule.getTreeNode().deleteAccessRuleForUserGroup(targetUserGroup);
         }
 
         userGroups.remove(targetUserGroup);
+        userGroupsByName.remove(foldPrincipalName(targetUserGroup.getName()));
+        changedUserGroups.remove(targetUserGroup);
+        membershipGraph.removeUserGroup(targetUserGroup.getId());
+        userGroupsById.set(targetUserGroup.getId(), null);
+        userGroupIds.release(targetUserGroup.getId());
+        targetUserGroup.setId(-1);
+    }
+
+    /**
+     * Finds all access rules, in all repositories and the server-wide tree, with the provided access level.
+     *
+     * @param accessLevel Access level of the access rules to find
+     * @return Unmodifiable set of matching access rules
+     */
+    public Set<AccessRule> findAccessRulesByAccessLevel(final AccessLevel accessLevel) {
+        checkArgumentNotNull(accessLevel, "Access level");
+
+        return accessRuleIndex.find(accessLevel, null);
+    }
+
+    /**
+     * Finds all access rules, in all repositories and the server-wide tree, with the provided access level and
+     * exclusion value.
+     *
+     * @param accessLevel Access level of the access rules to find
+     * @param exclusion   Exclusion value of the access rules to find
+     * @return Unmodifiable set of matching access rules
+     */
+    public Set<AccessRule> findAccessRulesByAccessLevel(final AccessLevel accessLevel, final boolean exclusion) {
+        checkArgumentNotNull(accessLevel, "Access level");
+
+        return accessRuleIndex.find(accessLevel, exclusion);
+    }
+
+    /**
+     * Finds all exclusion access rules in all repositories and the server-wide tree.
+     *
+     * @return Unmodifiable set of exclusion access rules
+     */
+    public Set<AccessRule> findExclusionAccessRules() {
+        return accessRuleIndex.find(null, true);
+    }
+
+    /**
+     * Finds all access rules of a repository.
+     *
+     * @param repositoryName Name of the repository that owns the access rules. If null the server-wide access rules
+     *                       are found
+     * @return Unmodifiable set of matching access rules
+     */
+    public Set<AccessRule> findAccessRulesByRepository(final String repositoryName) {
+        return accessRuleIndex.find(getApplicableRootTreeNode(repositoryName).getRepository(), null, null);
+    }
+
+    /**
+     * Finds all access rules of a repository with the provided access level.
+     *
+     * @param repositoryName Name of the repository that owns the access rules. If null the server-wide access rules
+     *                       are found
+     * @param accessLevel    Access level of the access rules to find
+     * @return Unmodifiable set of matching access rules
+     */
+    public Set<AccessRule> findAccessRulesByRepository(final String repositoryName, final AccessLevel accessLevel) {
+        checkArgumentNotNull(accessLevel, "Access level");
+
+        return accessRuleIndex.find(getApplicableRootTreeNode(repositoryName).getRepository(), accessLevel, null);
+    }
+
+    /**
+     * Finds all access rules that apply to a user in a repository: rules for the user, rules for user groups in which
+     * the user is a member, directly or through nested user groups, and exclusion rules that do not match the user.
+     * Subtrees whose principal summaries show that they contain no such rule are skipped.
+     *
+     * @param repositoryName Name of the repository. If blank only the server-wide access rules are found, otherwise the
+     *                       repository's access rules are followed by the server-wide access rules
+     * @param userName       Name of the user
+     * @return List of matching access rules, in depth first order of their paths
+     * @throws EntityDoesNotExistException When the repository or user with name does not exist
+     */
+    public List<AccessRule> findAccessRulesApplyingToUser(final String repositoryName, final String userName) {
+        final TreeNode applicableRootTreeNode = getApplicableRootTreeNode(repositoryName);
+        final User user = checkThatUserWithNameExists(this, userName);
+        final BitSet userGroupClosure = getUserGroupClosure(user);
+
+        final List<AccessRule> accessRules = new ArrayList<AccessRule>();
+        applicableRootTreeNode.collectAccessRulesApplyingTo(user, userGroupClosure, accessRules);
+        if (applicableRootTreeNode != rootTreeNode) {
+            rootTreeNode.collectAccessRulesApplyingTo(user, userGroupClosure, accessRules);
+        }
+
+        return accessRules;
     }
 
     /**
@@ -338,15 +689,29 @@ public final class Document {
      * @return Matching repository or null if not found
      */
     public Repository findRepositoryByName(final String repositoryName) {
-        checkRepositoryName(repositoryName);
+        return repositoriesByName.get(checkRepositoryName(repositoryName));
+    }
 
-        for (final Repository repository : repositories) {
-            if (repository.getName().equals(repositoryName)) {
-                return repository;
-            }
-        }
+    /**
+     * Finds a page of repositories in name order.
+     *
+     * @param fromRepositoryName Name of the last repository of the previous page, or null to start with the first
+     *                           repository
+     * @param limit              Maximum number of repositories to return
+     * @return Unmodifiable list of repositories sorted by name
+     */
+    public List<Repository> findRepositoriesByNameRange(final String fromRepositoryName, final int limit) {
+        return repositoriesByName.range(fromRepositoryName, limit);
+    }
 
-        return null;
+    /**
+     * Finds all repositories with names that start with the provided prefix.
+     *
+     * @param repositoryNamePrefix Prefix of the repository names to find
+     * @return Unmodifiable list of matching repositories sorted by name
+     */
+    public List<Repository> findRepositoriesByNamePrefix(final String repositoryNamePrefix) {
+        return repositoriesByName.prefix(repositoryNamePrefix);
     }
 
     /**
@@ -356,15 +721,28 @@ public final class Document {
      * @return Matching user or null if not found
      */
     public User findUserByName(final String userName) {
-        checkUserName(userName);
+        return usersByName.get(foldPrincipalName(checkUserName(userName)));
+    }
 
-        for (final User user : users) {
-            if (user.getName().equals(userName)) {
-                return user;
-            }
-        }
+    /**
+     * Finds a page of users in name order.
+     *
+     * @param fromUserName Name of the last user of the previous page, or null to start with the first user
+     * @param limit        Maximum number of users to return
+     * @return Unmodifiable list of users sorted by name
+     */
+    public List<User> findUsersByNameRange(final String fromUserName, final int limit) {
+        return usersByName.range(foldPrincipalName(fromUserName), limit);
+    }
 
-        return null;
+    /**
+     * Finds all users with names that start with the provided prefix.
+     *
+     * @param userNamePrefix Prefix of the user names to find
+     * @return Unmodifiable list of matching users sorted by name
+     */
+    public List<User> findUsersByNamePrefix(final String userNamePrefix) {
+        return usersByName.prefix(foldPrincipalName(userNamePrefix));
     }
 
     /**
@@ -374,15 +752,44 @@ public final class Document {
      * @return Matching user or null if not found
      */
     public User findUserByAlias(final String userAlias) {
-        checkUserAlias(userAlias);
+        return aliases.getValue(foldPrincipalName(checkUserAlias(userAlias)));
+    }
 
-        for (final User user : users) {
-            if (user.getAlias() != null && user.getAlias().equals(userAlias)) {
-                return user;
-            }
+    /**
+     * Finds an existing user by a reference as written in authz files. A reference that starts with an ampersand
+     * (e.g. &amp;jsmith) refers to a user alias, any other reference refers to a user name.
+     *
+     * @param userReference User name or ampersand prefixed user alias
+     * @return Matching user or null if not found
+     */
+    public User findUserByReference(final String userReference) {
+        if (userReference != null && userReference.startsWith(USER_ALIAS_REFERENCE_PREFIX)) {
+            return findUserByAlias(userReference.substring(USER_ALIAS_REFERENCE_PREFIX.length()));
+        }
+        else {
+            return findUserByName(userReference);
         }
+    }
 
-        return null;
+    /**
+     * Finds a page of users that have an alias, in alias order.
+     *
+     * @param fromUserAlias Alias of the last user of the previous page, or null to start with the first user
+     * @param limit         Maximum number of users to return
+     * @return Unmodifiable list of users sorted by alias
+     */
+    public List<User> findUsersByAliasRange(final String fromUserAlias, final int limit) {
+        return usersByAlias.range(foldPrincipalName(fromUserAlias), limit);
+    }
+
+    /**
+     * Finds all users with aliases that start with the provided prefix.
+     *
+     * @param userAliasPrefix Prefix of the user aliases to find
+     * @return Unmodifiable list of matching users sorted by alias
+     */
+    public List<User> findUsersByAliasPrefix(final String userAliasPrefix) {
+        return usersByAlias.prefix(foldPrincipalName(userAliasPrefix));
     }
 
     /**
@@ -392,15 +799,439 @@ public final class Document {
      * @return Matching user group or null if not found
      */
     public UserGroup findUserGroupByName(final String userGroupName) {
-        checkUserGroupName(userGroupName);
+        return userGroupsByName.get(foldPrincipalName(checkUserGroupName(userGroupName)));
+    }
+
+    /**
+     * Finds a page of user groups in name order.
+     *
+     * @param fromUserGroupName Name of the last user group of the previous page, or null to start with the first user
+     *                          group
+     * @param limit             Maximum number of user groups to return
+     * @return Unmodifiable list of user groups sorted by name
+     */
+    public List<UserGroup> findUserGroupsByNameRange(final String fromUserGroupName, final int limit) {
+        return userGroupsByName.range(foldPrincipalName(fromUserGroupName), limit);
+    }
+
+    /**
+     * Finds all user groups with names that start with the provided prefix.
+     *
+     * @param userGroupNamePrefix Prefix of the user group names to find
+     * @return Unmodifiable list of matching user groups sorted by name
+     */
+    public List<UserGroup> findUserGroupsByNamePrefix(final String userGroupNamePrefix) {
+        return userGroupsByName.prefix(foldPrincipalName(userGroupNamePrefix));
+    }
+
+    /**
+     * Checks if a user is a member of a user group, either directly or through nested user groups. This is a single
+     * bit test.
+     *
+     * @param user      User to check; must belong to this document
+     * @param userGroup User group to check; must belong to this document
+     * @return True if the user is a member of the user group, otherwise false
+     */
+    protected boolean isTransitiveMember(final User user, final UserGroup userGroup) {
+        return membershipGraph.isUserInUserGroup(user.getId(), userGroup.getId());
+    }
+
+    /**
+     * Gets the ids of all user groups in which a user is a member, either directly or through nested user groups. The
+     * result is kept up to date as memberships change and must not be modified.
+     *
+     * @param user User whose user groups are returned; must belong to this document
+     * @return Bit set of user group ids
+     */
+    protected BitSet getUserGroupClosure(final User user) {
+        if (user.getId() < 0) {
+            throw new IllegalArgumentException("User does not belong to a document");
+        }
+
+        return membershipGraph.getUserClosure(user.getId());
+    }
+
+    /**
+     * Gets the ids of all user groups in which a user group is a member, either directly or through nested user
+     * groups. The result is kept up to date as memberships change and must not be modified.
+     *
+     * @param userGroup User group whose ancestors are returned; must belong to this document
+     * @return Bit set of user group ids
+     */
+    protected BitSet getUserGroupAncestors(final UserGroup userGroup) {
+        return membershipGraph.getUserGroupAncestors(userGroup.getId());
+    }
+
+    /**
+     * Gets the ids of all users that are members of a user group, either directly or through nested user groups.
+     *
+     * @param userGroup User group whose members are returned; must belong to this document
+     * @return New bit set of user ids
+     */
+    protected BitSet getUserGroupMembers(final UserGroup userGroup) {
+        return membershipGraph.getUserGroupMembers(userGroup.getId());
+    }
+
+    /**
+     * Adds the ids of all users that are members of a user group, either directly or through nested user groups, to a
+     * set without allocating.
+     *
+     * @param userGroup User group whose members are added; must belong to this document
+     * @param members   Receives the ids of the member users
+     */
+    protected void addUserGroupMembers(final UserGroup userGroup, final UserIdSet members) {
+        membershipGraph.addUserGroupMembers(userGroup.getId(), members);
+    }
+
+    /**
+     * Gets the ids of all users of this document.
+     *
+     * @return New bit set of user ids
+     */
+    protected BitSet getUserIds() {
+        return userIds.getAllocatedIds();
+    }
+
+    /**
+     * Finds the users with the provided ids. When the ids cover a large share of the users, the name index, which is
+     * already sorted by principal key, is filtered by id; otherwise the principal key of each matching user is folded
+     * once and the users are sorted by key.
+     *
+     * @param ids Ids of the users to find
+     * @return List of matching users sorted by name
+     */
+    protected List<User> findUsersByIds(final BitSet ids) {
+        final int count = ids.cardinality();
+
+        if (count * USER_INDEX_SCAN_FACTOR >= usersByName.size()) {
+            final List<User> users = new ArrayList<User>(count);
+            for (final User user : usersByName.values()) {
+                if (ids.get(user.getId())) {
+                    users.add(user);
+                }
+            }
+
+            return users;
+        }
 
-        for (final UserGroup userGroup : userGroups) {
-            if (userGroup.getName().equals(userGroupName)) {
-                return userGroup;
+        final SortedMap<String, User> usersByKey = new TreeMap<String, User>();
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            final User user = findUserById(id);
+            if (user != null) {
+                usersByKey.put(foldPrincipalName(user.getName()), user);
             }
         }
 
-        return null;
+        return new ArrayList<User>(usersByKey.values());
+    }
+
+    /**
+     * Releases the id of a deleted user and discards its membership information.
+     *
+     * @param user Deleted user
+     */
+    private void releaseUserId(final User user) {
+        membershipGraph.removeUser(user.getId());
+        usersById.set(user.getId(), null);
+        userIds.release(user.getId());
+        user.setId(-1);
+        user.incrementVersion();
+    }
+
+    /**
+     * Updates this document's indexes after an access rule is added to one of its trees.
+     *
+     * @param accessRule Newly created access rule
+     */
+    protected void accessRuleCreated(final AccessRule accessRule) {
+        accessRuleIndex.add(accessRule);
+        accessRule.getTreeNode().accessRuleAdded(accessRule);
+        accessRuleChanged(accessRule);
+    }
+
+    /**
+     * Updates this document's indexes before an access rule is removed from one of its trees.
+     *
+     * @param accessRule Access rule that is being deleted
+     */
+    protected void accessRuleDeleted(final AccessRule accessRule) {
+        accessRuleIndex.remove(accessRule);
+        accessRule.getTreeNode().accessRuleRemoved(accessRule);
+        accessRuleChanged(accessRule);
+    }
+
+    /**
+     * Discards the effective access control lists below an access rule that was added, changed or removed, and
+     * increments the version of its tree. The versions of the rule's user or user group are left alone, so that
+     * decisions in other trees stay current.
+     *
+     * @param accessRule Changed access rule
+     */
+    private void accessRuleChanged(final AccessRule accessRule) {
+        accessRule.getTreeNode().invalidateEffectiveAcls();
+
+        final Repository repository = accessRule.getTreeNode().getRepository();
+
+        if (repository == null) {
+            serverVersion++;
+        }
+        else {
+            repository.incrementVersion();
+            repositoriesVersion++;
+        }
+    }
+
+    /**
+     * Gets the version of the server-wide access rules, which is incremented whenever they change.
+     *
+     * @return Version of the server-wide access rules
+     */
+    protected long getServerVersion() {
+        return serverVersion;
+    }
+
+    /**
+     * Gets the version of the set of repositories and their access rules, which is incremented whenever a repository
+     * is created or deleted or the access rules of any repository change.
+     *
+     * @return Version of the repositories
+     */
+    protected long getRepositoriesVersion() {
+        return repositoriesVersion;
+    }
+
+    /**
+     * Gets a fingerprint of the whole document: its users and aliases, the members of its user groups, its
+     * repositories and the access rules of every tree. Two documents with equal fingerprints are equal with
+     * overwhelming probability. The sums over users, user groups and repositories are kept up to date as they change,
+     * so this costs time proportional to the number of user groups and repositories changed since the last call.
+     *
+     * @return Fingerprint of the document
+     */
+    public long getFingerprint() {
+        long fingerprint = Fingerprints.combine(caseInsensitive ? 1 : 0, rootTreeNode.getFingerprint());
+        fingerprint = Fingerprints.combine(fingerprint, getUsersFingerprint());
+        fingerprint = Fingerprints.combine(fingerprint, getUserGroupsFingerprint());
+
+        return Fingerprints.combine(fingerprint, getRepositoriesFingerprint());
+    }
+
+    /**
+     * Gets a fingerprint of the users and their aliases.
+     *
+     * @return Fingerprint of the users
+     */
+    protected long getUsersFingerprint() {
+        return userSum;
+    }
+
+    /**
+     * Gets a fingerprint of the user groups and their direct members, adding the terms of the user groups that
+     * changed since the last call.
+     *
+     * @return Fingerprint of the user groups
+     */
+    protected long getUserGroupsFingerprint() {
+        for (final UserGroup userGroup : changedUserGroups.keySet()) {
+            userGroupSum += getFingerprintTerm(userGroup);
+        }
+        changedUserGroups.clear();
+
+        return userGroupSum;
+    }
+
+    /**
+     * Gets a fingerprint of the repositories and the access rules of their trees, adding the terms of the
+     * repositories that changed since the last call.
+     *
+     * @return Fingerprint of the repositories
+     */
+    protected long getRepositoriesFingerprint() {
+        for (final Repository repository : changedRepositories.keySet()) {
+            repositorySum += getFingerprintTerm(repository.getName(), repository.getRootTreeNode().getFingerprint());
+        }
+        changedRepositories.clear();
+
+        return repositorySum;
+    }
+
+    /**
+     * Removes the term of a user group from userGroupSum before its name or direct members change, unless it was
+     * already removed. The term is added back by the next call to getUserGroupsFingerprint.
+     *
+     * @param userGroup User group that is about to change
+     */
+    private void userGroupChanging(final UserGroup userGroup) {
+        if (changedUserGroups.put(userGroup, Boolean.TRUE) == null) {
+            userGroupSum -= getFingerprintTerm(userGroup);
+        }
+    }
+
+    /**
+     * Removes the term of a repository from repositorySum before it is renamed or deleted, unless it was already
+     * removed. The term is added back by the next call to getRepositoriesFingerprint.
+     *
+     * @param repository Repository that is about to change
+     */
+    private void repositoryChanging(final Repository repository) {
+        if (!changedRepositories.containsKey(repository)) {
+            repositoryFingerprintInvalidated(repository, repository.getRootTreeNode().getFingerprint());
+        }
+    }
+
+    /**
+     * Removes the term of a repository from repositorySum after the fingerprint of its tree was discarded, unless it
+     * was already removed. The term is added back by the next call to getRepositoriesFingerprint.
+     *
+     * @param repository      Repository whose tree changed
+     * @param treeFingerprint Fingerprint the tree had before it changed
+     */
+    protected void repositoryFingerprintInvalidated(final Repository repository, final long treeFingerprint) {
+        if (changedRepositories.put(repository, Boolean.TRUE) == null) {
+            repositorySum -= getFingerprintTerm(repository.getName(), treeFingerprint);
+        }
+    }
+
+    /**
+     * Gets the term a user adds to the fingerprint of the users.
+     *
+     * @param user User
+     * @return Fingerprint term of the user
+     */
+    private static long getFingerprintTerm(final User user) {
+        return Fingerprints.mix(Fingerprints.combine(Fingerprints.of(user.getName()), Fingerprints.of(user.getAlias())));
+    }
+
+    /**
+     * Gets the term a user group adds to the fingerprint of the user groups.
+     *
+     * @param userGroup User group
+     * @return Fingerprint term of the user group
+     */
+    private static long getFingerprintTerm(final UserGroup userGroup) {
+        return Fingerprints.mix(Fingerprints.combine(Fingerprints.of(userGroup.getName()), userGroup.getMembershipFingerprint()));
+    }
+
+    /**
+     * Gets the term a repository adds to the fingerprint of the repositories.
+     *
+     * @param repositoryName  Name of the repository
+     * @param treeFingerprint Fingerprint of the repository tree
+     * @return Fingerprint term of the repository
+     */
+    private static long getFingerprintTerm(final String repositoryName, final long treeFingerprint) {
+        return Fingerprints.mix(Fingerprints.combine(Fingerprints.of(repositoryName), treeFingerprint));
+    }
+
+    /**
+     * Finds the user with the provided id.
+     *
+     * @param userId Id of the user to find
+     * @return Matching user or null if not found
+     */
+    protected User findUserById(final int userId) {
+        return userId >= 0 && userId < usersById.size() ? usersById.get(userId) : null;
+    }
+
+    /**
+     * Finds the user group with the provided id.
+     *
+     * @param userGroupId Id of the user group to find
+     * @return Matching user group or null if not found
+     */
+    protected UserGroup findUserGroupById(final int userGroupId) {
+        return userGroupId >= 0 && userGroupId < userGroupsById.size() ? userGroupsById.get(userGroupId) : null;
+    }
+
+    /**
+     * Increments the versions of all users whose transitive user group memberships changed after the nesting of two
+     * user groups changed. Group memberships have no versions of their own: a decision only depends on them through
+     * the user's transitive memberships.
+     *
+     * @param affectedUserIds Ids of the users whose transitive user group memberships changed
+     */
+    private void membershipChanged(final BitSet affectedUserIds) {
+        for (int id = affectedUserIds.nextSetBit(0); id >= 0; id = affectedUserIds.nextSetBit(id + 1)) {
+            findUserById(id).incrementVersion();
+        }
+    }
+
+    /**
+     * Stores an entity at an index of a list, growing the list as needed.
+     *
+     * @param entities List of entities by id
+     * @param id       Id of the entity
+     * @param entity   Entity to store
+     * @param <T>      Type of entity
+     */
+    private static <T> void setById(final List<T> entities, final int id, final T entity) {
+        while (entities.size() <= id) {
+            entities.add(null);
+        }
+
+        entities.set(id, entity);
+    }
+
+    /**
+     * Gets the canonical instance of an effective access control list from this document's pool.
+     *
+     * @param effectiveAcl Effective access control list to intern, may be null
+     * @return Canonical instance of the list, or null if the list is null
+     */
+    protected EffectiveAcl internEffectiveAcl(final EffectiveAcl effectiveAcl) {
+        return effectiveAclPool.intern(effectiveAcl);
+    }
+
+    /**
+     * Gets the number of distinct effective access control lists currently materialized.
+     *
+     * @return Number of pooled effective access control lists
+     */
+    protected int getEffectiveAclCount() {
+        return effectiveAclPool.size();
+    }
+
+    /**
+     * Gets the canonical instance of a name from this document's name pool.
+     *
+     * @param name Name to intern, may be null
+     * @return Canonical instance of the name, or null if the name is null
+     */
+    protected String intern(final String name) {
+        return namePool.intern(name);
+    }
+
+    /**
+     * Folds a user name, user alias or user group name into the form used to look it up in the principal indexes. In
+     * a case insensitive document the name is converted to lower case, otherwise it is returned unchanged.
+     *
+     * @param name Name to fold, may be null
+     * @return Folded name, or null if the name is null
+     */
+    private String foldPrincipalName(final String name) {
+        return caseInsensitive && name != null ? name.toLowerCase(Locale.ENGLISH) : name;
+    }
+
+    /**
+     * Gets the key under which a user name, user alias or user group name is stored in the principal indexes. The
+     * folded key is computed once when the entity is indexed and shared through the name pool.
+     *
+     * @param name Name of the entity
+     * @return Principal index key
+     */
+    private String principalKey(final String name) {
+        return intern(foldPrincipalName(name));
+    }
+
+    /**
+     * Checks if two user names, user aliases or user group names identify the same principal in this document.
+     *
+     * @param name      First name to compare, may be null
+     * @param otherName Second name to compare, may be null
+     * @return True if both names map to the same principal key, otherwise false
+     */
+    private boolean isSamePrincipal(final String name, final String otherName) {
+        return equal(foldPrincipalName(name), foldPrincipalName(otherName));
     }
 
     /**
@@ -428,6 +1259,15 @@ public final class Document {
         return Collections.unmodifiableSet(repositories);
     }
 
+    /**
+     * Checks if user names, user aliases and user group names are matched without regard to case.
+     *
+     * @return True if this document is case insensitive, otherwise false
+     */
+    public boolean isCaseInsensitive() {
+        return caseInsensitive;
+    }
+
     /**
      * Gets the root tree node for access rules/paths that are applicable to all repositories.
      *
@@ -467,7 +1307,15 @@ public final class Document {
         final User user = checkThatUserWithNameExists(this, userName);
         final UserGroup targetUserGroup = checkThatUserGroupWithNameExists(this, targetUserGroupName);
 
-        return user.removeUserGroup(targetUserGroup) && targetUserGroup.removeUserMember(user);
+        userGroupChanging(targetUserGroup);
+        if (!(user.removeUserGroup(targetUserGroup) | targetUserGroup.removeUserMember(user))) {
+            return false;
+        }
+
+        membershipGraph.removeUserFromUserGroup(user.getId(), targetUserGroup.getId());
+        user.incrementVersion();
+
+        return true;
     }
 
     /**
@@ -482,7 +1330,14 @@ public final class Document {
         final UserGroup userGroup = checkThatUserGroupWithNameExists(this, userGroupName);
         final UserGroup targetUserGroup = checkThatUserGroupWithNameExists(this, targetUserGroupName);
 
-        return userGroup.removeUserGroup(targetUserGroup) && targetUserGroup.removeUserGroupMember(userGroup);
+        userGroupChanging(targetUserGroup);
+        if (!(userGroup.removeUserGroup(targetUserGroup) | targetUserGroup.removeUserGroupMember(userGroup))) {
+            return false;
+        }
+
+        membershipChanged(membershipGraph.removeUserGroupFromUserGroup(userGroup.getId(), targetUserGroup.getId()));
+
+        return true;
     }
 
     /**
@@ -498,7 +1353,10 @@ public final class Document {
         checkThatRepositoryDoesNotExist(this, newRepositoryName);
 
         final Repository repository = checkThatRepositoryExists(this, repositoryName);
-        repository.setName(newRepositoryName);
+        repositoriesByName.remove(repository.getName());
+        repositoryChanging(repository);
+        repository.setName(intern(newRepositoryName));
+        repositoriesByName.put(repository.getName(), repository);
 
         return repository;
     }
@@ -520,21 +1378,30 @@ public final class Document {
         boolean userAliasChanged = !equal(user.getAlias(), newUserAlias);
 
         if (userNameChanged && userAliasChanged) {
-            checkThatUserWithNameDoesNotExist(this, newUserName);
-            checkThatUserWithAliasDoesNotExist(this, newUserAlias);
+            if (!isSamePrincipal(user.getName(), newUserName)) {
+                checkThatUserWithNameDoesNotExist(this, newUserName);
+            }
 
-            user.setName(newUserName);
-            user.setAlias(newUserAlias);
+            if (!isSamePrincipal(user.getAlias(), newUserAlias)) {
+                checkThatUserWithAliasDoesNotExist(this, newUserAlias);
+            }
+
+            setUserName(user, newUserName);
+            setUserAlias(user, newUserAlias);
         }
         else if (userNameChanged) {
-            checkThatUserWithNameDoesNotExist(this, newUserName);
+            if (!isSamePrincipal(user.getName(), newUserName)) {
+                checkThatUserWithNameDoesNotExist(this, newUserName);
+            }
 
-            user.setName(newUserName);
+            setUserName(user, newUserName);
         }
         else if (userAliasChanged) {
-            checkThatUserWithAliasDoesNotExist(this, newUserAlias);
+            if (!isSamePrincipal(user.getAlias(), newUserAlias)) {
+                checkThatUserWithAliasDoesNotExist(this, newUserAlias);
+            }
 
-            user.setAlias(newUserAlias);
+            setUserAlias(user, newUserAlias);
         }
 
         return user;
@@ -550,11 +1417,126 @@ public final class Document {
      * @throws EntityAlreadyExistsException When user group with the new name already exists
      */
     public UserGroup renameUserGroup(final String userGroupName, final String newUserGroupName) {
-        checkThatRepositoryDoesNotExist(this, newUserGroupName);
-
         final UserGroup userGroup = checkThatUserGroupWithNameExists(this, userGroupName);
-        userGroup.setName(newUserGroupName);
+
+        if (!isSamePrincipal(userGroup.getName(), newUserGroupName)) {
+            checkThatUserGroupWithNameDoesNotExist(this, newUserGroupName);
+        }
+
+        userGroupsByName.remove(foldPrincipalName(userGroup.getName()));
+        updateUserGroup(userGroup, intern(newUserGroupName));
+        userGroupsByName.put(principalKey(userGroup.getName()), userGroup);
 
         return userGroup;
     }
+
+    /**
+     * Changes the alias of a user. The user, the alias map and the alias index are updated together, after the new
+     * alias is known not to belong to a different user.
+     *
+     * @param user     User to change
+     * @param newAlias New alias of the user, blank to remove the alias
+     */
+    private void setUserAlias(final User user, final String newAlias) {
+        final String newAliasKey = isNotBlank(newAlias) ? principalKey(newAlias) : null;
+        final User aliasOwner = newAliasKey == null ? null : aliases.getValue(newAliasKey);
+        if (aliasOwner != null && aliasOwner != user) {
+            checkThatUserWithAliasDoesNotExist(this, newAlias);
+        }
+
+        final String currentAliasKey = aliases.removeValue(user);
+        if (currentAliasKey != null) {
+            usersByAlias.remove(currentAliasKey);
+        }
+
+        updateUser(user, user.getName(), intern(newAlias));
+
+        if (newAliasKey != null) {
+            aliases.put(newAliasKey, user);
+            usersByAlias.put(newAliasKey, user);
+        }
+    }
+
+    /**
+     * Renames a user and updates the name index.
+     *
+     * @param user    User to rename
+     * @param newName New name of the user
+     */
+    private void setUserName(final User user, final String newName) {
+        usersByName.remove(foldPrincipalName(user.getName()));
+        updateUser(user, intern(newName), user.getAlias());
+        usersByName.put(principalKey(user.getName()), user);
+    }
+
+    /**
+     * Changes the name and alias of a user. The user's hash code depends on both values, so the user is removed from
+     * the hash based sets that contain it before the change and added back afterwards.
+     *
+     * @param user  User to change
+     * @param name  New name of the user
+     * @param alias New alias of the user
+     */
+    private void updateUser(final User user, final String name, final String alias) {
+        final boolean documentMember = users.remove(user);
+        if (documentMember) {
+            userSum -= getFingerprintTerm(user);
+        }
+        for (final UserGroup userGroup : user.getUserGroups()) {
+            userGroupChanging(userGroup);
+            userGroup.removeUserMember(user);
+        }
+
+        user.setName(name);
+        user.setAlias(alias);
+
+        if (documentMember) {
+            users.add(user);
+            userSum += getFingerprintTerm(user);
+        }
+
+        for (final UserGroup userGroup : user.getUserGroups()) {
+            userGroup.addUserMember(user);
+        }
+    }
+
+    /**
+     * Changes the name of a user group. The user group's hash code depends on its name, so the user group is removed
+     * from the hash based sets that contain it before the change and added back afterwards.
+     *
+     * @param userGroup User group to change
+     * @param name      New name of the user group
+     */
+    private void updateUserGroup(final UserGroup userGroup, final String name) {
+        userGroupChanging(userGroup);
+        for (final UserGroup parentUserGroup : userGroup.getUserGroups()) {
+            userGroupChanging(parentUserGroup);
+        }
+
+        final boolean documentMember = userGroups.remove(userGroup);
+        for (final User user : userGroup.getUserMembers()) {
+            user.removeUserGroup(userGroup);
+        }
+        for (final UserGroup memberUserGroup : userGroup.getUserGroupMembers()) {
+            memberUserGroup.removeUserGroup(userGroup);
+        }
+        for (final UserGroup parentUserGroup : userGroup.getUserGroups()) {
+            parentUserGroup.removeUserGroupMember(userGroup);
+        }
+
+        userGroup.setName(name);
+
+        if (documentMember) {
+            userGroups.add(userGroup);
+        }
+        for (final User user : userGroup.getUserMembers()) {
+            user.addUserGroup(userGroup);
+        }
+        for (final UserGroup memberUserGroup : userGroup.getUserGroupMembers()) {
+            memberUserGroup.addUserGroup(userGroup);
+        }
+        for (final UserGroup parentUserGroup : userGroup.getUserGroups()) {
+            parentUserGroup.addUserGroupMember(userGroup);
+        }
+    }
 }
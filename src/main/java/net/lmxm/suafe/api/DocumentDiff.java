@@ -0,0 +1,429 @@
+package net.lmxm.suafe.api;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static net.lmxm.suafe.api.internal.Preconditions.checkArgumentNotNull;
+
+/**
+ * Effective access differences between two versions of a document, such as the documents before and after a sync.
+ * The documents are first compared structurally: the tree nodes of the server-wide tree and of every repository are
+ * matched by path and their access rules by principal name, and the user group memberships of every user are matched
+ * by user group name. Each difference yields the users it may affect and the subtree it may affect; only those users
+ * are then evaluated on the tree nodes of that subtree, once in each document. Subtrees with equal fingerprints are
+ * skipped without being visited, and documents with equal fingerprints are not compared at all.
+ *
+ * Users and repositories are matched by name, and only those present in both documents are compared. Differences are
+ * computed one repository at a time as the iterator advances, in the order repository name, path and user name. The
+ * access changes refer to the repositories and users of the newer document. Like the documents themselves, the diff
+ * must not be iterated while either document is being modified.
+ */
+public final class DocumentDiff implements Iterable<AccessChange> {
+    /**
+     * Document before the changes.
+     */
+    private final Document previousDocument;
+
+    /**
+     * Document after the changes.
+     */
+    private final Document document;
+
+    /**
+     * Names of the users that may be affected below each changed path, by repository name; the null repository name
+     * holds the changes of the server-wide tree, which affect all repositories.
+     */
+    private final Map<String, Map<String, Set<String>>> affectedUserNames = new HashMap<String, Map<String, Set<String>>>();
+
+    /**
+     * Names of the users present in both documents.
+     */
+    private final Set<String> commonUserNames = new TreeSet<String>();
+
+    /**
+     * Constructs a new diff and compares the documents structurally.
+     *
+     * @param previousDocument Document before the changes
+     * @param document         Document after the changes
+     */
+    public DocumentDiff(final Document previousDocument, final Document document) {
+        checkArgumentNotNull(previousDocument, "Previous document");
+        checkArgumentNotNull(document, "Document");
+
+        this.previousDocument = previousDocument;
+        this.document = document;
+
+        if (previousDocument.getFingerprint() == document.getFingerprint()) {
+            return;
+        }
+
+        for (final User user : document.findUsersByNamePrefix("")) {
+            if (previousDocument.findUserByName(user.getName()) != null) {
+                commonUserNames.add(user.getName());
+            }
+        }
+
+        compareTrees(null, previousDocument.getRootTreeNode(), document.getRootTreeNode());
+        for (final Repository repository : document.findRepositoriesByNamePrefix("")) {
+            final Repository previousRepository = previousDocument.findRepositoryByName(repository.getName());
+
+            if (previousRepository != null) {
+                compareTrees(repository.getName(), previousRepository.getRootTreeNode(), repository.getRootTreeNode());
+            }
+        }
+
+        compareMemberships();
+    }
+
+    /**
+     * Gets an iterator over the access changes, computed one repository at a time.
+     *
+     * @return Iterator over the access changes sorted by repository name, path and user name
+     */
+    public Iterator<AccessChange> iterator() {
+        return new Iterator<AccessChange>() {
+            private final Iterator<Repository> repositories = document.findRepositoriesByNamePrefix("").iterator();
+
+            private Iterator<AccessChange> accessChanges = Collections.<AccessChange>emptyList().iterator();
+
+            public boolean hasNext() {
+                while (!accessChanges.hasNext() && repositories.hasNext()) {
+                    final Repository repository = repositories.next();
+                    final Repository previousRepository = previousDocument.findRepositoryByName(repository.getName());
+
+                    if (previousRepository != null) {
+                        accessChanges = diffRepository(previousRepository, repository).iterator();
+                    }
+                }
+
+                return accessChanges.hasNext();
+            }
+
+            public AccessChange next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                return accessChanges.next();
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Computes the access changes of a single repository.
+     *
+     * @param previousRepository Repository in the previous document
+     * @param repository         Repository in the newer document
+     * @return List of access changes sorted by path and user name
+     */
+    private List<AccessChange> diffRepository(final Repository previousRepository, final Repository repository) {
+        final Map<String, Set<String>> userNamesByPath = new TreeMap<String, Set<String>>();
+        addAffectedPaths(affectedUserNames.get(null), previousRepository, repository, userNamesByPath);
+        addAffectedPaths(affectedUserNames.get(repository.getName()), previousRepository, repository, userNamesByPath);
+
+        final AccessEvaluator previousEvaluator = new AccessEvaluator(previousDocument);
+        final AccessEvaluator evaluator = new AccessEvaluator(document);
+        final List<AccessChange> accessChanges = new ArrayList<AccessChange>();
+
+        for (final Map.Entry<String, Set<String>> entry : userNamesByPath.entrySet()) {
+            final String path = entry.getKey();
+
+            for (final String userName : entry.getValue()) {
+                final User previousUser = previousDocument.findUserByName(userName);
+                final User user = document.findUserByName(userName);
+                if (previousUser == null || user == null) {
+                    continue;
+                }
+
+                final AccessLevel previousAccessLevel = previousEvaluator.evaluate(previousUser, previousRepository, path);
+                final AccessLevel accessLevel = evaluator.evaluate(user, repository, path);
+
+                if (accessLevel != previousAccessLevel) {
+                    accessChanges.add(new AccessChange(repository, path, user, previousAccessLevel, accessLevel));
+                }
+            }
+        }
+
+        return accessChanges;
+    }
+
+    /**
+     * Adds the affected users of each changed path to every path of its subtree, in the repository trees and the
+     * server-wide trees of both documents.
+     *
+     * @param changedPaths       Names of the users that may be affected below each changed path, or null if none
+     * @param previousRepository Repository in the previous document
+     * @param repository         Repository in the newer document
+     * @param userNamesByPath    Receives the names of the users that may be affected at each path
+     */
+    private void addAffectedPaths(final Map<String, Set<String>> changedPaths, final Repository previousRepository,
+                                  final Repository repository, final Map<String, Set<String>> userNamesByPath) {
+        if (changedPaths == null) {
+            return;
+        }
+
+        for (final Map.Entry<String, Set<String>> entry : changedPaths.entrySet()) {
+            final String path = entry.getKey();
+            final Set<String> paths = new HashSet<String>();
+            paths.add(path);
+            addSubtreePaths(TreeNode.findByCanonicalPath(previousRepository.getRootTreeNode(), path), paths);
+            addSubtreePaths(TreeNode.findByCanonicalPath(repository.getRootTreeNode(), path), paths);
+            addSubtreePaths(TreeNode.findByCanonicalPath(previousDocument.getRootTreeNode(), path), paths);
+            addSubtreePaths(TreeNode.findByCanonicalPath(document.getRootTreeNode(), path), paths);
+
+            for (final String subtreePath : paths) {
+                Set<String> userNames = userNamesByPath.get(subtreePath);
+                if (userNames == null) {
+                    userNames = new TreeSet<String>();
+                    userNamesByPath.put(subtreePath, userNames);
+                }
+
+                userNames.addAll(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Compares the access rules of two trees, recursing into the children of both nodes matched by name. Subtrees with
+     * equal fingerprints have the same access rules at the same paths and are skipped.
+     *
+     * @param repositoryName   Name of the repository of the trees, or null for the server-wide trees
+     * @param previousTreeNode Tree node of the previous document, or null if it has none at this path
+     * @param treeNode         Tree node of the newer document, or null if it has none at this path
+     */
+    private void compareTrees(final String repositoryName, final TreeNode previousTreeNode, final TreeNode treeNode) {
+        final long previousFingerprint = previousTreeNode == null ? 0 : previousTreeNode.getFingerprint();
+        final long fingerprint = treeNode == null ? 0 : treeNode.getFingerprint();
+        if (previousFingerprint == fingerprint) {
+            return;
+        }
+
+        final Map<String, AccessRule> previousAccessRules = TreeNode.mapAccessRulesByPrincipal(previousTreeNode);
+        final Map<String, AccessRule> accessRules = TreeNode.mapAccessRulesByPrincipal(treeNode);
+        final Set<String> principalKeys = new HashSet<String>(previousAccessRules.keySet());
+        principalKeys.addAll(accessRules.keySet());
+
+        for (final String principalKey : principalKeys) {
+            final AccessRule previousAccessRule = previousAccessRules.get(principalKey);
+            final AccessRule accessRule = accessRules.get(principalKey);
+
+            if (previousAccessRule == null || accessRule == null || previousAccessRule.getAccessLevel() != accessRule.getAccessLevel()
+                    || previousAccessRule.isExclusion() != accessRule.isExclusion()) {
+                final String path = (treeNode == null ? previousTreeNode : treeNode).getPath();
+                addAffectedUserNames(repositoryName, path, findAffectedUserNames(previousAccessRule, accessRule));
+            }
+        }
+
+        for (final TreeNode[] children : TreeNode.pairChildren(previousTreeNode, treeNode)) {
+            compareTrees(repositoryName, children[0], children[1]);
+        }
+    }
+
+    /**
+     * Compares the user group memberships of the users present in both documents. A user whose transitive user groups
+     * differ may be affected below every access rule of the user groups gained or lost, in either document. Only the
+     * transitive members of user groups whose direct members differ, by membership fingerprint, can have different
+     * transitive user groups, so only those users are compared.
+     */
+    private void compareMemberships() {
+        final Set<String> allUserGroupNames = new HashSet<String>();
+        for (final UserGroup userGroup : previousDocument.getUserGroups()) {
+            allUserGroupNames.add(userGroup.getName());
+        }
+        for (final UserGroup userGroup : document.getUserGroups()) {
+            allUserGroupNames.add(userGroup.getName());
+        }
+
+        final Set<String> candidateUserNames = new TreeSet<String>();
+        for (final String userGroupName : allUserGroupNames) {
+            final UserGroup previousUserGroup = previousDocument.findUserGroupByName(userGroupName);
+            final UserGroup userGroup = document.findUserGroupByName(userGroupName);
+
+            if (previousUserGroup == null || userGroup == null
+                    || previousUserGroup.getMembershipFingerprint() != userGroup.getMembershipFingerprint()) {
+                addMemberUserNames(previousDocument, previousUserGroup, candidateUserNames);
+                addMemberUserNames(document, userGroup, candidateUserNames);
+            }
+        }
+        candidateUserNames.retainAll(commonUserNames);
+
+        for (final String userName : candidateUserNames) {
+            final Set<String> previousUserGroupNames = findUserGroupNames(previousDocument, previousDocument.findUserByName(userName));
+            final Set<String> userGroupNames = findUserGroupNames(document, document.findUserByName(userName));
+            if (previousUserGroupNames.equals(userGroupNames)) {
+                continue;
+            }
+
+            final Set<String> changedUserGroupNames = new HashSet<String>(previousUserGroupNames);
+            changedUserGroupNames.addAll(userGroupNames);
+            changedUserGroupNames.removeAll(intersection(previousUserGroupNames, userGroupNames));
+
+            final Set<String> userNames = Collections.singleton(userName);
+            for (final String userGroupName : changedUserGroupNames) {
+                addAccessRulePaths(previousDocument.findUserGroupByName(userGroupName), userNames);
+                addAccessRulePaths(document.findUserGroupByName(userGroupName), userNames);
+            }
+        }
+    }
+
+    /**
+     * Adds the paths of the access rules of a user group as changed paths.
+     *
+     * @param userGroup User group whose access rules are added, or null
+     * @param userNames Names of the users that may be affected
+     */
+    private void addAccessRulePaths(final UserGroup userGroup, final Set<String> userNames) {
+        if (userGroup == null) {
+            return;
+        }
+
+        for (final AccessRule accessRule : userGroup.getAccessRules()) {
+            final TreeNode treeNode = accessRule.getTreeNode();
+            final String repositoryName = treeNode.getRepository() == null ? null : treeNode.getRepository().getName();
+
+            addAffectedUserNames(repositoryName, treeNode.getPath(), userNames);
+        }
+    }
+
+    /**
+     * Adds users that may be affected below a changed path.
+     *
+     * @param repositoryName Name of the repository, or null for the server-wide tree
+     * @param path           Changed path
+     * @param userNames      Names of the users that may be affected
+     */
+    private void addAffectedUserNames(final String repositoryName, final String path, final Set<String> userNames) {
+        Map<String, Set<String>> changedPaths = affectedUserNames.get(repositoryName);
+        if (changedPaths == null) {
+            changedPaths = new HashMap<String, Set<String>>();
+            affectedUserNames.put(repositoryName, changedPaths);
+        }
+
+        Set<String> pathUserNames = changedPaths.get(path);
+        if (pathUserNames == null) {
+            pathUserNames = new HashSet<String>();
+            changedPaths.put(path, pathUserNames);
+        }
+
+        pathUserNames.addAll(userNames);
+    }
+
+    /**
+     * Finds the names of the users to which either version of a changed access rule may apply.
+     *
+     * @param previousAccessRule Access rule of the previous document, or null
+     * @param accessRule         Access rule of the newer document, or null
+     * @return Names of the users that may be affected
+     */
+    private Set<String> findAffectedUserNames(final AccessRule previousAccessRule, final AccessRule accessRule) {
+        if ((previousAccessRule != null && previousAccessRule.isExclusion()) || (accessRule != null && accessRule.isExclusion())) {
+            return commonUserNames;
+        }
+
+        final Set<String> userNames = new HashSet<String>();
+        addPrincipalUserNames(previousDocument, previousAccessRule, userNames);
+        addPrincipalUserNames(document, accessRule, userNames);
+
+        return userNames;
+    }
+
+    /**
+     * Adds the names of the users matched by the principal of an access rule.
+     *
+     * @param ruleDocument Document of the access rule
+     * @param accessRule   Access rule, or null
+     * @param userNames    Receives the user names
+     */
+    private static void addPrincipalUserNames(final Document ruleDocument, final AccessRule accessRule, final Set<String> userNames) {
+        if (accessRule == null) {
+            return;
+        }
+
+        if (accessRule.getUser() != null) {
+            userNames.add(accessRule.getUser().getName());
+        }
+        else {
+            addMemberUserNames(ruleDocument, accessRule.getUserGroup(), userNames);
+        }
+    }
+
+    /**
+     * Adds the names of the users that are transitive members of a user group.
+     *
+     * @param userGroupDocument Document of the user group
+     * @param userGroup         User group whose members are added, or null
+     * @param userNames         Receives the user names
+     */
+    private static void addMemberUserNames(final Document userGroupDocument, final UserGroup userGroup, final Set<String> userNames) {
+        if (userGroup == null) {
+            return;
+        }
+
+        for (final User user : userGroupDocument.findUsersByIds(userGroupDocument.getUserGroupMembers(userGroup))) {
+            userNames.add(user.getName());
+        }
+    }
+
+    /**
+     * Finds the names of the user groups in which a user is transitively a member.
+     *
+     * @param userDocument Document of the user
+     * @param user         User whose user groups are found
+     * @return Set of user group names
+     */
+    private static Set<String> findUserGroupNames(final Document userDocument, final User user) {
+        final Set<String> userGroupNames = new HashSet<String>();
+        final BitSet userGroupIds = userDocument.getUserGroupClosure(user);
+
+        for (int userGroupId = userGroupIds.nextSetBit(0); userGroupId >= 0; userGroupId = userGroupIds.nextSetBit(userGroupId + 1)) {
+            userGroupNames.add(userDocument.findUserGroupById(userGroupId).getName());
+        }
+
+        return userGroupNames;
+    }
+
+    /**
+     * Computes the intersection of two sets.
+     *
+     * @param a First set
+     * @param b Second set
+     * @return New set containing the elements of both sets
+     */
+    private static Set<String> intersection(final Set<String> a, final Set<String> b) {
+        final Set<String> intersection = new HashSet<String>(a);
+        intersection.retainAll(b);
+
+        return intersection;
+    }
+
+    /**
+     * Adds the paths of the descendants of a tree node.
+     *
+     * @param treeNode Tree node whose descendants are added, or null
+     * @param paths    Receives the paths
+     */
+    private static void addSubtreePaths(final TreeNode treeNode, final Set<String> paths) {
+        if (treeNode == null) {
+            return;
+        }
+
+        for (final TreeNode child : treeNode.getChildArray()) {
+            paths.add(child.getPath());
+            addSubtreePaths(child, paths);
+        }
+    }
+}
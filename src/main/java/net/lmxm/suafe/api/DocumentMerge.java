@@ -0,0 +1,540 @@
+package net.lmxm.suafe.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static net.lmxm.suafe.api.internal.Objects.equal;
+import static net.lmxm.suafe.api.internal.Preconditions.checkArgumentNotNull;
+import static net.lmxm.suafe.api.internal.Preconditions.isBlank;
+
+/**
+ * Three-way merge of two versions of a document that were edited concurrently from a common base version. The
+ * changes made in theirs since the base are applied to ours: created, deleted and re-aliased users, created and
+ * deleted user groups and repositories, added and removed user group members, and created, deleted and modified
+ * access rules. A change is not applied when ours changed the same entity in a different way, or when it refers to an
+ * entity that ours deleted; the entity then keeps its value in ours and the change is reported as a MergeConflict.
+ *
+ * Users, user groups, repositories and access rule principals are matched by name, so a rename merges as a deletion
+ * and a creation. The fingerprints of the users, user groups and repositories, of the trees and of the user group
+ * memberships are compared first, and collections, subtrees and user groups that theirs did not change are skipped
+ * without being visited. None of the documents may be
+ * modified by anyone else during the merge, and ours must be a different document than base and theirs.
+ */
+public final class DocumentMerge {
+    /**
+     * Common base version of both documents.
+     */
+    private final Document base;
+
+    /**
+     * Document into which the changes are merged.
+     */
+    private final Document ours;
+
+    /**
+     * Document whose changes are merged.
+     */
+    private final Document theirs;
+
+    /**
+     * Conflicts found by the merge in progress.
+     */
+    private final List<MergeConflict> conflicts = new ArrayList<MergeConflict>();
+
+    /**
+     * Number of users, user groups, repositories and tree nodes visited by the last merge.
+     */
+    private int visitedCount;
+
+    /**
+     * Constructs a new merge.
+     *
+     * @param base   Common base version of both documents
+     * @param ours   Document into which the changes are merged
+     * @param theirs Document whose changes are merged
+     */
+    public DocumentMerge(final Document base, final Document ours, final Document theirs) {
+        checkArgumentNotNull(base, "Base document");
+        checkArgumentNotNull(ours, "Our document");
+        checkArgumentNotNull(theirs, "Their document");
+
+        this.base = base;
+        this.ours = ours;
+        this.theirs = theirs;
+    }
+
+    /**
+     * Applies the changes made in theirs since the base to ours. Users and user groups are created before memberships
+     * and access rules are merged, and deleted afterwards, once the memberships and access rules that referred to
+     * them have been merged away.
+     *
+     * @return Immutable list of the changes that could not be applied, in the order they were found
+     */
+    public List<MergeConflict> merge() {
+        conflicts.clear();
+        visitedCount = 0;
+
+        if (base.getFingerprint() == theirs.getFingerprint()) {
+            return Collections.emptyList();
+        }
+
+        // Skip the passes over collections that theirs did not change
+        final boolean usersChanged = base.getUsersFingerprint() != theirs.getUsersFingerprint();
+        final boolean userGroupsChanged = base.getUserGroupsFingerprint() != theirs.getUserGroupsFingerprint();
+
+        if (usersChanged) {
+            mergeUsers();
+        }
+        if (userGroupsChanged) {
+            createUserGroups();
+            mergeMemberships();
+        }
+        mergeTree(null, ours.getRootTreeNode(), base.getRootTreeNode(), theirs.getRootTreeNode());
+        if (base.getRepositoriesFingerprint() != theirs.getRepositoriesFingerprint()) {
+            mergeRepositories();
+        }
+        if (userGroupsChanged) {
+            deleteUserGroups();
+        }
+        if (usersChanged) {
+            deleteUsers();
+        }
+
+        return Collections.unmodifiableList(new ArrayList<MergeConflict>(conflicts));
+    }
+
+    /**
+     * Gets the number of users, user groups, repositories and changed tree nodes visited by the last merge. Users,
+     * user groups and repositories are only visited when theirs changed some of them.
+     *
+     * @return Number of visited entities
+     */
+    public int getVisitedCount() {
+        return visitedCount;
+    }
+
+    /**
+     * Creates the users that theirs created and changes the aliases that theirs changed.
+     */
+    private void mergeUsers() {
+        for (final User theirUser : theirs.findUsersByNamePrefix("")) {
+            visitedCount++;
+            final User baseUser = base.findUserByName(theirUser.getName());
+            final User ourUser = ours.findUserByName(theirUser.getName());
+
+            if (baseUser != null && equal(baseUser.getAlias(), theirUser.getAlias())) {
+                continue;
+            }
+
+            if (ourUser == null) {
+                if (baseUser == null && isAliasAvailable(null, theirUser.getAlias())) {
+                    ours.createUser(theirUser.getName(), theirUser.getAlias());
+                }
+                else {
+                    addConflict(MergeConflictType.USER, null, null, theirUser.getName(), null);
+                }
+            }
+            else if (!equal(ourUser.getAlias(), theirUser.getAlias())) {
+                if (baseUser != null && equal(ourUser.getAlias(), baseUser.getAlias()) && isAliasAvailable(ourUser, theirUser.getAlias())) {
+                    ours.renameUser(ourUser.getName(), ourUser.getName(), theirUser.getAlias());
+                }
+                else {
+                    addConflict(MergeConflictType.USER, null, null, theirUser.getName(), null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the user groups that theirs created.
+     */
+    private void createUserGroups() {
+        for (final UserGroup theirUserGroup : theirs.findUserGroupsByNamePrefix("")) {
+            visitedCount++;
+            if (base.findUserGroupByName(theirUserGroup.getName()) == null && ours.findUserGroupByName(theirUserGroup.getName()) == null) {
+                ours.createUserGroup(theirUserGroup.getName());
+            }
+        }
+    }
+
+    /**
+     * Adds the user group members that theirs added and removes those that theirs removed. User groups whose
+     * membership fingerprints are equal in base and theirs are skipped.
+     */
+    private void mergeMemberships() {
+        final Set<String> userGroupNames = new TreeSet<String>();
+        for (final UserGroup userGroup : base.findUserGroupsByNamePrefix("")) {
+            visitedCount++;
+            userGroupNames.add(userGroup.getName());
+        }
+        for (final UserGroup userGroup : theirs.findUserGroupsByNamePrefix("")) {
+            visitedCount++;
+            userGroupNames.add(userGroup.getName());
+        }
+
+        for (final String userGroupName : userGroupNames) {
+            final UserGroup baseUserGroup = base.findUserGroupByName(userGroupName);
+            final UserGroup theirUserGroup = theirs.findUserGroupByName(userGroupName);
+            if (baseUserGroup != null && theirUserGroup != null
+                    && baseUserGroup.getMembershipFingerprint() == theirUserGroup.getMembershipFingerprint()) {
+                continue;
+            }
+
+            final Set<String> baseMembers = findMemberKeys(baseUserGroup);
+            final Set<String> theirMembers = findMemberKeys(theirUserGroup);
+            final UserGroup ourUserGroup = ours.findUserGroupByName(userGroupName);
+
+            for (final String memberKey : theirMembers) {
+                if (!baseMembers.contains(memberKey)) {
+                    addMember(ourUserGroup, userGroupName, memberKey);
+                }
+            }
+
+            for (final String memberKey : baseMembers) {
+                if (!theirMembers.contains(memberKey) && ourUserGroup != null) {
+                    removeMember(ourUserGroup, memberKey);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a member that theirs added to a user group of ours.
+     *
+     * @param ourUserGroup  User group of ours, or null if ours deleted it
+     * @param userGroupName Name of the user group
+     * @param memberKey     Member kind and name
+     */
+    private void addMember(final UserGroup ourUserGroup, final String userGroupName, final String memberKey) {
+        final String memberName = memberKey.substring(memberKey.indexOf(':') + 1);
+
+        if (isUserKey(memberKey)) {
+            if (ourUserGroup == null || ours.findUserByName(memberName) == null) {
+                addConflict(MergeConflictType.USER_MEMBERSHIP, null, null, userGroupName, memberName);
+            }
+            else {
+                ours.addUserToUserGroup(memberName, userGroupName);
+            }
+        }
+        else {
+            if (ourUserGroup == null || ours.findUserGroupByName(memberName) == null) {
+                addConflict(MergeConflictType.USER_GROUP_MEMBERSHIP, null, null, userGroupName, memberName);
+                return;
+            }
+
+            try {
+                ours.addUserGroupToUserGroup(memberName, userGroupName);
+            }
+            catch (final MembershipCycleException e) {
+                addConflict(MergeConflictType.USER_GROUP_MEMBERSHIP, null, null, userGroupName, memberName);
+            }
+        }
+    }
+
+    /**
+     * Removes a member that theirs removed from a user group of ours, if ours still has it.
+     *
+     * @param ourUserGroup User group of ours
+     * @param memberKey    Member kind and name
+     */
+    private void removeMember(final UserGroup ourUserGroup, final String memberKey) {
+        final String memberName = memberKey.substring(memberKey.indexOf(':') + 1);
+
+        if (isUserKey(memberKey)) {
+            final User ourUser = ours.findUserByName(memberName);
+            if (ourUser != null && ourUserGroup.getUserMembers().contains(ourUser)) {
+                ours.removeUserFromUserGroup(memberName, ourUserGroup.getName());
+            }
+        }
+        else {
+            final UserGroup ourMember = ours.findUserGroupByName(memberName);
+            if (ourMember != null && ourUserGroup.getUserGroupMembers().contains(ourMember)) {
+                ours.removeUserGroupFromUserGroup(memberName, ourUserGroup.getName());
+            }
+        }
+    }
+
+    /**
+     * Creates the repositories that theirs created, merges the trees of the repositories that theirs changed and
+     * deletes the repositories that theirs deleted. A repository that one side deleted and the other side changed is
+     * a conflict.
+     */
+    private void mergeRepositories() {
+        for (final Repository theirRepository : theirs.findRepositoriesByNamePrefix("")) {
+            visitedCount++;
+            final String repositoryName = theirRepository.getName();
+            final Repository baseRepository = base.findRepositoryByName(repositoryName);
+            Repository ourRepository = ours.findRepositoryByName(repositoryName);
+            final TreeNode baseRootTreeNode = baseRepository == null ? null : baseRepository.getRootTreeNode();
+
+            if (baseRepository != null && getFingerprint(baseRootTreeNode) == theirRepository.getRootTreeNode().getFingerprint()) {
+                continue;
+            }
+
+            if (ourRepository == null) {
+                if (baseRepository != null) {
+                    addConflict(MergeConflictType.REPOSITORY, repositoryName, null, null, null);
+                    continue;
+                }
+
+                ourRepository = ours.createRepository(repositoryName);
+            }
+
+            mergeTree(repositoryName, ourRepository.getRootTreeNode(), baseRootTreeNode, theirRepository.getRootTreeNode());
+        }
+
+        for (final Repository baseRepository : base.findRepositoriesByNamePrefix("")) {
+            visitedCount++;
+            final String repositoryName = baseRepository.getName();
+            final Repository ourRepository = ours.findRepositoryByName(repositoryName);
+
+            if (theirs.findRepositoryByName(repositoryName) == null && ourRepository != null) {
+                if (ourRepository.getRootTreeNode().getFingerprint() == baseRepository.getRootTreeNode().getFingerprint()) {
+                    ours.deleteRepository(repositoryName);
+                }
+                else {
+                    addConflict(MergeConflictType.REPOSITORY, repositoryName, null, null, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Merges the access rules of a subtree, recursing into the children of the base and their nodes matched by name.
+     * The subtree is skipped when its fingerprints are equal in base and theirs.
+     *
+     * @param repositoryName   Name of the repository of the trees, or null for the server-wide trees
+     * @param ourRootTreeNode  Root node of our tree
+     * @param baseTreeNode     Tree node of the base, or null if it has none at this path
+     * @param theirTreeNode    Tree node of theirs, or null if it has none at this path
+     */
+    private void mergeTree(final String repositoryName, final TreeNode ourRootTreeNode, final TreeNode baseTreeNode, final TreeNode theirTreeNode) {
+        if (getFingerprint(baseTreeNode) == getFingerprint(theirTreeNode)) {
+            return;
+        }
+
+        visitedCount++;
+
+        final String path = (theirTreeNode == null ? baseTreeNode : theirTreeNode).getPath();
+        final Map<String, AccessRule> baseAccessRules = TreeNode.mapAccessRulesByPrincipal(baseTreeNode);
+        final Map<String, AccessRule> ourAccessRules = TreeNode.mapAccessRulesByPrincipal(TreeNode.findByCanonicalPath(ourRootTreeNode, path));
+        final Map<String, AccessRule> theirAccessRules = TreeNode.mapAccessRulesByPrincipal(theirTreeNode);
+        final Set<String> principalKeys = new TreeSet<String>(baseAccessRules.keySet());
+        principalKeys.addAll(theirAccessRules.keySet());
+
+        for (final String principalKey : principalKeys) {
+            final AccessRule baseAccessRule = baseAccessRules.get(principalKey);
+            final AccessRule ourAccessRule = ourAccessRules.get(principalKey);
+            final AccessRule theirAccessRule = theirAccessRules.get(principalKey);
+
+            if (isSameAccessRule(baseAccessRule, theirAccessRule) || isSameAccessRule(ourAccessRule, theirAccessRule)) {
+                continue;
+            }
+
+            if (isSameAccessRule(ourAccessRule, baseAccessRule)) {
+                applyAccessRule(repositoryName, path, principalKey, ourAccessRule, theirAccessRule);
+            }
+            else {
+                addAccessRuleConflict(repositoryName, path, principalKey);
+            }
+        }
+
+        for (final TreeNode[] children : TreeNode.pairChildren(baseTreeNode, theirTreeNode)) {
+            mergeTree(repositoryName, ourRootTreeNode, children[0], children[1]);
+        }
+    }
+
+    /**
+     * Applies their version of an access rule to ours, whose version equals the base.
+     *
+     * @param repositoryName  Name of the repository, or null for the server-wide tree
+     * @param path            Canonical path of the access rule
+     * @param principalKey    Principal kind and name
+     * @param ourAccessRule   Our access rule, or null if ours has none
+     * @param theirAccessRule Their access rule, or null if theirs deleted it
+     */
+    private void applyAccessRule(final String repositoryName, final String path, final String principalKey,
+                                 final AccessRule ourAccessRule, final AccessRule theirAccessRule) {
+        final String rulePath = path.length() == 1 ? path : path.substring(1);
+        final String principalName = principalKey.substring(principalKey.indexOf(':') + 1);
+
+        if (theirAccessRule == null) {
+            if (isUserKey(principalKey)) {
+                ours.deleteAccessRuleForUser(repositoryName, rulePath, principalName);
+            }
+            else {
+                ours.deleteAccessRuleForUserGroup(repositoryName, rulePath, principalName);
+            }
+        }
+        else if (ourAccessRule == null) {
+            if (isUserKey(principalKey) && ours.findUserByName(principalName) != null) {
+                ours.createAccessRuleForUser(repositoryName, rulePath, principalName, theirAccessRule.getAccessLevel(), theirAccessRule.isExclusion());
+            }
+            else if (!isUserKey(principalKey) && ours.findUserGroupByName(principalName) != null) {
+                ours.createAccessRuleForUserGroup(repositoryName, rulePath, principalName, theirAccessRule.getAccessLevel(), theirAccessRule.isExclusion());
+            }
+            else {
+                addAccessRuleConflict(repositoryName, path, principalKey);
+            }
+        }
+        else {
+            if (ourAccessRule.getAccessLevel() != theirAccessRule.getAccessLevel()) {
+                ourAccessRule.setAccessLevel(theirAccessRule.getAccessLevel());
+            }
+
+            if (ourAccessRule.isExclusion() != theirAccessRule.isExclusion()) {
+                ourAccessRule.setExclusion(theirAccessRule.isExclusion());
+            }
+        }
+    }
+
+    /**
+     * Deletes the user groups that theirs deleted. A user group to which ours added members, memberships or access
+     * rules is kept and reported as a conflict; the others lost theirs while the memberships and trees were merged.
+     */
+    private void deleteUserGroups() {
+        for (final UserGroup baseUserGroup : base.findUserGroupsByNamePrefix("")) {
+            visitedCount++;
+            final String userGroupName = baseUserGroup.getName();
+            final UserGroup ourUserGroup = ours.findUserGroupByName(userGroupName);
+
+            if (theirs.findUserGroupByName(userGroupName) != null || ourUserGroup == null) {
+                continue;
+            }
+
+            if (ourUserGroup.getUserMembers().isEmpty() && ourUserGroup.getUserGroupMembers().isEmpty()
+                    && ourUserGroup.getUserGroups().isEmpty() && ourUserGroup.getAccessRules().isEmpty()) {
+                ours.deleteUserGroup(userGroupName);
+            }
+            else {
+                addConflict(MergeConflictType.USER_GROUP, null, null, userGroupName, null);
+            }
+        }
+    }
+
+    /**
+     * Deletes the users that theirs deleted. A user whose alias ours changed, or to which ours added memberships or
+     * access rules, is kept and reported as a conflict.
+     */
+    private void deleteUsers() {
+        for (final User baseUser : base.findUsersByNamePrefix("")) {
+            visitedCount++;
+            final String userName = baseUser.getName();
+            final User ourUser = ours.findUserByName(userName);
+
+            if (theirs.findUserByName(userName) != null || ourUser == null) {
+                continue;
+            }
+
+            if (equal(ourUser.getAlias(), baseUser.getAlias()) && ourUser.getUserGroups().isEmpty() && ourUser.getAccessRules().isEmpty()) {
+                ours.deleteUser(userName);
+            }
+            else {
+                addConflict(MergeConflictType.USER, null, null, userName, null);
+            }
+        }
+    }
+
+    /**
+     * Checks if an alias can be given to a user of ours.
+     *
+     * @param ourUser User of ours, or null for a new user
+     * @param alias   Alias to give, or null
+     * @return True if the alias is blank or not used by another user of ours, otherwise false
+     */
+    private boolean isAliasAvailable(final User ourUser, final String alias) {
+        if (isBlank(alias)) {
+            return true;
+        }
+
+        final User aliasOwner = ours.findUserByAlias(alias);
+
+        return aliasOwner == null || aliasOwner == ourUser;
+    }
+
+    /**
+     * Records a conflict on an access rule.
+     *
+     * @param repositoryName Name of the repository, or null for the server-wide tree
+     * @param path           Canonical path of the access rule
+     * @param principalKey   Principal kind and name
+     */
+    private void addAccessRuleConflict(final String repositoryName, final String path, final String principalKey) {
+        addConflict(isUserKey(principalKey) ? MergeConflictType.ACCESS_RULE_FOR_USER : MergeConflictType.ACCESS_RULE_FOR_USER_GROUP,
+                repositoryName, path, principalKey.substring(principalKey.indexOf(':') + 1), null);
+    }
+
+    /**
+     * Records a conflict.
+     *
+     * @param type           Kind of entity in conflict
+     * @param repositoryName Name of the repository, or null
+     * @param path           Path of the access rule, or null
+     * @param name           Name of the user, user group or principal, or null
+     * @param memberName     Name of the member, or null
+     */
+    private void addConflict(final MergeConflictType type, final String repositoryName, final String path,
+                             final String name, final String memberName) {
+        conflicts.add(new MergeConflict(type, repositoryName, path, name, memberName));
+    }
+
+    /**
+     * Gets the fingerprint of a subtree.
+     *
+     * @param treeNode Root node of the subtree, or null
+     * @return Fingerprint of the subtree, 0 if the node is null
+     */
+    private static long getFingerprint(final TreeNode treeNode) {
+        return treeNode == null ? 0 : treeNode.getFingerprint();
+    }
+
+    /**
+     * Checks if two access rules grant the same access to the same principal, or are both absent.
+     *
+     * @param a First access rule, or null
+     * @param b Second access rule, or null
+     * @return True if both are null or have the same access level and exclusion value, otherwise false
+     */
+    private static boolean isSameAccessRule(final AccessRule a, final AccessRule b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+
+        return a.getAccessLevel() == b.getAccessLevel() && a.isExclusion() == b.isExclusion();
+    }
+
+    /**
+     * Checks if a principal or member key refers to a user.
+     *
+     * @param key Principal or member kind and name
+     * @return True for a user, false for a user group
+     */
+    private static boolean isUserKey(final String key) {
+        return key.startsWith("user:");
+    }
+
+    /**
+     * Finds the direct members of a user group.
+     *
+     * @param userGroup User group, or null
+     * @return Set of member keys of the form user:name and group:name
+     */
+    private static Set<String> findMemberKeys(final UserGroup userGroup) {
+        final Set<String> memberKeys = new TreeSet<String>();
+
+        if (userGroup != null) {
+            for (final User user : userGroup.getUserMembers()) {
+                memberKeys.add("user:" + user.getName());
+            }
+            for (final UserGroup member : userGroup.getUserGroupMembers()) {
+                memberKeys.add("group:" + member.getName());
+            }
+        }
+
+        return memberKeys;
+    }
+}
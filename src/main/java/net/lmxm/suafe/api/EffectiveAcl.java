@@ -0,0 +1,206 @@
+package net.lmxm.suafe.api;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Immutable effective access control list of a tree node: the access rules of the node itself, if any, followed by
+ * the effective access control list of its nearest ancestor with access rules. A node without access rules shares the
+ * list of its parent, and the document hash-conses lists so that nodes whose access rules have the same content and
+ * the same ancestors share a single instance, for example siblings with identical rules. Memory therefore grows with
+ * the number of distinct lists rather than the number of nodes.
+ *
+ * The access rules are copied into the list, so later changes to an access rule do not affect lists that have been
+ * built; the document discards the lists of the affected subtree instead.
+ */
+public final class EffectiveAcl {
+    /**
+     * Orders access rules by principal: user rules before user group rules, then by name.
+     */
+    private static final Comparator<AccessRule> ACCESS_RULE_COMPARATOR = new Comparator<AccessRule>() {
+        public int compare(final AccessRule a, final AccessRule b) {
+            if ((a.getUser() == null) != (b.getUser() == null)) {
+                return a.getUser() == null ? 1 : -1;
+            }
+
+            return principalName(a).compareTo(principalName(b));
+        }
+    };
+
+    /**
+     * User of each access rule, or null for a user group access rule.
+     */
+    private final User[] users;
+
+    /**
+     * User group of each access rule, or null for a user access rule.
+     */
+    private final UserGroup[] userGroups;
+
+    /**
+     * Access level of each access rule.
+     */
+    private final AccessLevel[] accessLevels;
+
+    /**
+     * Indicates if each access rule is an exclusion rule.
+     */
+    private final boolean[] exclusions;
+
+    /**
+     * Depth of the tree node whose access rules are held; 0 for a root node.
+     */
+    private final int depth;
+
+    /**
+     * Effective access control list of the nearest ancestor with access rules, or null if there is none.
+     */
+    private final EffectiveAcl parent;
+
+    /**
+     * Precomputed hash code.
+     */
+    private final int hashCode;
+
+    /**
+     * Constructs a new effective access control list.
+     *
+     * @param accessRules Access rules of the tree node; must not be empty
+     * @param depth       Depth of the tree node
+     * @param parent      Effective access control list of the nearest ancestor with access rules, or null
+     */
+    protected EffectiveAcl(final AccessRule[] accessRules, final int depth, final EffectiveAcl parent) {
+        final AccessRule[] sortedAccessRules = accessRules.clone();
+        Arrays.sort(sortedAccessRules, ACCESS_RULE_COMPARATOR);
+
+        this.users = new User[sortedAccessRules.length];
+        this.userGroups = new UserGroup[sortedAccessRules.length];
+        this.accessLevels = new AccessLevel[sortedAccessRules.length];
+        this.exclusions = new boolean[sortedAccessRules.length];
+        this.depth = depth;
+        this.parent = parent;
+
+        int hash = depth * 31 + System.identityHashCode(parent);
+        for (int i = 0; i < sortedAccessRules.length; i++) {
+            users[i] = sortedAccessRules[i].getUser();
+            userGroups[i] = sortedAccessRules[i].getUserGroup();
+            accessLevels[i] = sortedAccessRules[i].getAccessLevel();
+            exclusions[i] = sortedAccessRules[i].isExclusion();
+
+            hash = hash * 31 + System.identityHashCode(users[i] == null ? userGroups[i] : users[i]);
+            hash = hash * 31 + accessLevels[i].hashCode();
+            hash = hash * 2 + (exclusions[i] ? 1 : 0);
+        }
+        this.hashCode = hash;
+    }
+
+    /**
+     * Gets the depth of the tree node whose access rules are held.
+     *
+     * @return Depth of the tree node; 0 for a root node
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Gets the effective access control list of the nearest ancestor with access rules.
+     *
+     * @return Effective access control list of the ancestor, or null if there is none
+     */
+    public EffectiveAcl getParent() {
+        return parent;
+    }
+
+    /**
+     * Gets the number of access rules held for the tree node itself.
+     *
+     * @return Number of access rules
+     */
+    public int size() {
+        return users.length;
+    }
+
+    /**
+     * Gets the user of an access rule.
+     *
+     * @param index Index of the access rule
+     * @return User of the access rule, or null for a user group access rule
+     */
+    protected User getUser(final int index) {
+        return users[index];
+    }
+
+    /**
+     * Gets the user group of an access rule.
+     *
+     * @param index Index of the access rule
+     * @return User group of the access rule, or null for a user access rule
+     */
+    protected UserGroup getUserGroup(final int index) {
+        return userGroups[index];
+    }
+
+    /**
+     * Gets the access level of an access rule.
+     *
+     * @param index Index of the access rule
+     * @return Access level of the access rule
+     */
+    protected AccessLevel getAccessLevel(final int index) {
+        return accessLevels[index];
+    }
+
+    /**
+     * Checks if an access rule is an exclusion rule.
+     *
+     * @param index Index of the access rule
+     * @return True if the access rule applies to all users that its principal does not match, otherwise false
+     */
+    protected boolean isExclusion(final int index) {
+        return exclusions[index];
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public boolean equals(final Object object) {
+        if (object == this) {
+            return true;
+        }
+
+        if (EffectiveAcl.class.isInstance(object)) {
+            final EffectiveAcl otherEffectiveAcl = (EffectiveAcl) object;
+
+            if (hashCode != otherEffectiveAcl.hashCode || depth != otherEffectiveAcl.depth
+                    || parent != otherEffectiveAcl.parent || users.length != otherEffectiveAcl.users.length) {
+                return false;
+            }
+
+            for (int i = 0; i < users.length; i++) {
+                if (users[i] != otherEffectiveAcl.users[i] || userGroups[i] != otherEffectiveAcl.userGroups[i]
+                        || accessLevels[i] != otherEffectiveAcl.accessLevels[i] || exclusions[i] != otherEffectiveAcl.exclusions[i]) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+        else {
+            return false;
+        }
+    }
+
+    /**
+     * Gets the name of the principal of an access rule.
+     *
+     * @param accessRule Access rule
+     * @return Name of the user or user group
+     */
+    private static String principalName(final AccessRule accessRule) {
+        return accessRule.getUser() == null ? accessRule.getUserGroup().getName() : accessRule.getUser().getName();
+    }
+}
@@ -0,0 +1,9 @@
+package net.lmxm.suafe.api;
+
+import net.lmxm.suafe.api.internal.MessageKey;
+
+public final class MembershipCycleException extends SuafeApiRuntimeException {
+    public MembershipCycleException(final MessageKey messageKey, final Object... arguments) {
+        super(messageKey, arguments);
+    }
+}
@@ -0,0 +1,106 @@
+package net.lmxm.suafe.api;
+
+import net.lmxm.suafe.api.internal.ObjectToStringBuilder;
+
+/**
+ * Change that DocumentMerge could not apply, because both sides changed the same entity in different ways or one side
+ * changed an entity that the other side deleted.
+ */
+public final class MergeConflict {
+    /**
+     * Kind of entity in conflict.
+     */
+    private final MergeConflictType type;
+
+    /**
+     * Name of the repository in conflict or containing the access rule in conflict; null for other entities and for
+     * server-wide access rules.
+     */
+    private final String repositoryName;
+
+    /**
+     * Path of the access rule in conflict (e.g. /trunk/src); null for other entities.
+     */
+    private final String path;
+
+    /**
+     * Name of the user or user group in conflict, of the principal of the access rule in conflict, or of the user
+     * group whose membership is in conflict; null for repositories.
+     */
+    private final String name;
+
+    /**
+     * Name of the user or user group whose membership is in conflict; null for other entities.
+     */
+    private final String memberName;
+
+    /**
+     * Constructs a new merge conflict.
+     *
+     * @param type           Kind of entity in conflict
+     * @param repositoryName Name of the repository, or null
+     * @param path           Path of the access rule, or null
+     * @param name           Name of the user, user group or principal, or null
+     * @param memberName     Name of the member, or null
+     */
+    protected MergeConflict(final MergeConflictType type, final String repositoryName, final String path,
+                            final String name, final String memberName) {
+        this.type = type;
+        this.repositoryName = repositoryName;
+        this.path = path;
+        this.name = name;
+        this.memberName = memberName;
+    }
+
+    /**
+     * Gets the kind of entity in conflict.
+     *
+     * @return Kind of entity in conflict
+     */
+    public MergeConflictType getType() {
+        return type;
+    }
+
+    /**
+     * Gets the name of the repository in conflict or containing the access rule in conflict.
+     *
+     * @return Name of the repository, or null for other entities and for server-wide access rules
+     */
+    public String getRepositoryName() {
+        return repositoryName;
+    }
+
+    /**
+     * Gets the path of the access rule in conflict.
+     *
+     * @return Path of the access rule, or null for other entities
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Gets the name of the user or user group in conflict, of the principal of the access rule in conflict, or of
+     * the user group whose membership is in conflict.
+     *
+     * @return Name of the user, user group or principal, or null for repositories
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the name of the user or user group whose membership is in conflict.
+     *
+     * @return Name of the member, or null for other entities
+     */
+    public String getMemberName() {
+        return memberName;
+    }
+
+    @Override
+    public String toString() {
+        return new ObjectToStringBuilder(this.getClass()).append("type", type).append("repositoryName", repositoryName)
+                .append("path", path).append("name", name).append("memberName", memberName).build();
+    }
+}
@@ -0,0 +1,9 @@
+package net.lmxm.suafe.api;
+
+/**
+ * Kind of entity on which both sides of a three-way merge made incompatible changes
+ */
+public enum MergeConflictType {
+    USER, USER_GROUP, REPOSITORY, USER_MEMBERSHIP, USER_GROUP_MEMBERSHIP, ACCESS_RULE_FOR_USER,
+    ACCESS_RULE_FOR_USER_GROUP
+}
@@ -0,0 +1,381 @@
+package net.lmxm.suafe.api;
+
+import net.lmxm.suafe.api.internal.PathRegions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Node of a merged, read-only view of a repository tree and the server-wide tree. Each node lines up the nodes of
+ * both trees for the same path, so that evaluation descends a single structure instead of two trees in lockstep.
+ * Subtrees in which neither tree has access rules are left out of the view, since they can never decide access.
+ *
+ * The root of a view indexes every node by its path, so the deepest node on a path is found with a longest-prefix
+ * lookup that probes at most one path per level of the view, however deep the path itself is. Each node also points
+ * to its nearest ancestor-or-self with access rules, so walking back up skips nodes that cannot decide access.
+ *
+ * A repository builds its merged view lazily and rebuilds it after the access rules of the repository or the
+ * server-wide access rules change; a view that has been built is never modified.
+ */
+public final class MergedTreeNode {
+    /**
+     * Empty array of merged nodes, shared by all nodes without children.
+     */
+    private static final MergedTreeNode[] NO_CHILDREN = new MergedTreeNode[0];
+
+    /**
+     * Name of this node.
+     */
+    private final String name;
+
+    /**
+     * Parent node of this node; will be null for a root node.
+     */
+    private final MergedTreeNode parent;
+
+    /**
+     * Repository tree node at this path, or null if the repository tree has none.
+     */
+    private final TreeNode repositoryTreeNode;
+
+    /**
+     * Server-wide tree node at this path, or null if the server-wide tree has none.
+     */
+    private final TreeNode serverTreeNode;
+
+    /**
+     * Canonical path of this node (e.g. /trunk/src); empty for a root node.
+     */
+    private final String path;
+
+    /**
+     * Nearest node, starting with this node itself, whose tree nodes have access rules, or null if there is none.
+     */
+    private final MergedTreeNode ruledAncestor;
+
+    /**
+     * This node's children sorted by name.
+     */
+    private MergedTreeNode[] children = NO_CHILDREN;
+
+    /**
+     * Open-addressing hash table of all non-root nodes of the view keyed by path; only set on a root node. The length
+     * is a power of two and at least twice the number of nodes, so every probe sequence ends at an empty slot.
+     */
+    private MergedTreeNode[] pathTable;
+
+    /**
+     * Depth of the deepest node of the view; only set on a root node.
+     */
+    private int maxDepth;
+
+    /**
+     * Constructs a new merged node.
+     *
+     * @param name               Name of the node
+     * @param parent             Parent node, or null for a root node
+     * @param repositoryTreeNode Repository tree node at this path, or null
+     * @param serverTreeNode     Server-wide tree node at this path, or null
+     */
+    private MergedTreeNode(final String name, final MergedTreeNode parent, final TreeNode repositoryTreeNode, final TreeNode serverTreeNode) {
+        this.name = name;
+        this.parent = parent;
+        this.repositoryTreeNode = repositoryTreeNode;
+        this.serverTreeNode = serverTreeNode;
+        this.path = parent == null ? "" : parent.path + '/' + name;
+
+        if ((repositoryTreeNode != null && repositoryTreeNode.getAccessRuleArray().length > 0)
+                || (serverTreeNode != null && serverTreeNode.getAccessRuleArray().length > 0)) {
+            this.ruledAncestor = this;
+        }
+        else {
+            this.ruledAncestor = parent == null ? null : parent.ruledAncestor;
+        }
+    }
+
+    /**
+     * Builds the merged view of a repository tree and the server-wide tree.
+     *
+     * @param repositoryRootTreeNode Root node of the repository tree, or null
+     * @param serverRootTreeNode     Root node of the server-wide tree, or null
+     * @return Root node of the merged view
+     */
+    protected static MergedTreeNode merge(final TreeNode repositoryRootTreeNode, final TreeNode serverRootTreeNode) {
+        final MergedTreeNode root = new MergedTreeNode(TreeNode.ROOT_NODE_NAME, null, repositoryRootTreeNode, serverRootTreeNode);
+        root.mergeChildren();
+        root.indexPaths();
+
+        return root;
+    }
+
+    /**
+     * Finds the deepest node of this view on a path. This must be called on a root node. A path in canonical form
+     * (e.g. /trunk/src/Main.java) is resolved by looking up its prefixes from the depth of the view upwards, so
+     * segments below the deepest node of the view are never examined; other paths are descended segment by segment.
+     *
+     * @param path Path to find
+     * @return Deepest node on the path; this root node if no other node is on the path
+     */
+    protected MergedTreeNode findDeepestNode(final String path) {
+        final int length = path.length();
+        int end = 0;
+        int depth = 0;
+
+        while (depth < maxDepth && end < length) {
+            if (path.charAt(end) != '/' || end + 1 == length || path.charAt(end + 1) == '/') {
+                return descend(path);
+            }
+
+            final int next = path.indexOf('/', end + 1);
+            end = next < 0 ? length : next;
+            depth++;
+        }
+
+        for (; depth > 0; depth--) {
+            final MergedTreeNode node = findByPathPrefix(path, end);
+            if (node != null) {
+                return node;
+            }
+
+            end = path.lastIndexOf('/', end - 1);
+        }
+
+        return this;
+    }
+
+    /**
+     * Finds the child whose name equals a region of a path string.
+     *
+     * @param path  Path string containing the child name
+     * @param start Index of the first character of the child name
+     * @param end   Index after the last character of the child name
+     * @return Matching child node or null if not found
+     */
+    protected MergedTreeNode findChild(final String path, final int start, final int end) {
+        int low = 0;
+        int high = children.length - 1;
+
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int comparison = PathRegions.compare(children[middle].name, path, start, end);
+
+            if (comparison < 0) {
+                low = middle + 1;
+            }
+            else if (comparison > 0) {
+                high = middle - 1;
+            }
+            else {
+                return children[middle];
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Gets this node's name.
+     *
+     * @return This node's name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets this node's path.
+     *
+     * @return This node's path (e.g. /trunk/src); / for a root node
+     */
+    public String getPath() {
+        return parent == null ? "/" : path;
+    }
+
+    /**
+     * Gets this node's parent.
+     *
+     * @return This node's parent or null if this is a root node
+     */
+    public MergedTreeNode getParent() {
+        return parent;
+    }
+
+    /**
+     * Gets the repository tree node at this path.
+     *
+     * @return Repository tree node, or null if the repository tree has none
+     */
+    public TreeNode getRepositoryTreeNode() {
+        return repositoryTreeNode;
+    }
+
+    /**
+     * Gets the server-wide tree node at this path.
+     *
+     * @return Server-wide tree node, or null if the server-wide tree has none
+     */
+    public TreeNode getServerTreeNode() {
+        return serverTreeNode;
+    }
+
+    /**
+     * Gets the nearest node, starting with this node itself, whose repository or server-wide tree node has access
+     * rules.
+     *
+     * @return Nearest node with access rules, or null if neither this node nor any ancestor has access rules
+     */
+    public MergedTreeNode getNearestRuledAncestor() {
+        return ruledAncestor;
+    }
+
+    /**
+     * Gets the number of children of this node.
+     *
+     * @return Number of children
+     */
+    public int getChildCount() {
+        return children.length;
+    }
+
+    /**
+     * Gets a child of this node.
+     *
+     * @param index Index of the child, in name order
+     * @return Child node
+     */
+    public MergedTreeNode getChild(final int index) {
+        return children[index];
+    }
+
+    /**
+     * Descends this view segment by segment to the deepest node on a path.
+     *
+     * @param path Path to descend
+     * @return Deepest node on the path
+     */
+    private MergedTreeNode descend(final String path) {
+        MergedTreeNode node = this;
+
+        final int length = path.length();
+        int start = 0;
+        while (start < length) {
+            if (path.charAt(start) == '/') {
+                start++;
+                continue;
+            }
+
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = length;
+            }
+
+            final MergedTreeNode child = node.findChild(path, start, end);
+            if (child == null) {
+                break;
+            }
+
+            node = child;
+            start = end;
+        }
+
+        return node;
+    }
+
+    /**
+     * Finds the node whose path equals a prefix of a path string, without creating the prefix string.
+     *
+     * @param path Path string containing the prefix
+     * @param end  Index after the last character of the prefix
+     * @return Matching node or null if not found
+     */
+    private MergedTreeNode findByPathPrefix(final String path, final int end) {
+        int hash = 0;
+        for (int i = 0; i < end; i++) {
+            hash = 31 * hash + path.charAt(i);
+        }
+
+        final int mask = pathTable.length - 1;
+        for (int slot = spread(hash) & mask; pathTable[slot] != null; slot = (slot + 1) & mask) {
+            final String nodePath = pathTable[slot].path;
+
+            if (nodePath.length() == end && nodePath.regionMatches(0, path, 0, end)) {
+                return pathTable[slot];
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Builds the path table of this root node.
+     */
+    private void indexPaths() {
+        final List<MergedTreeNode> nodes = new ArrayList<MergedTreeNode>();
+        collectDescendants(this, 1, nodes);
+
+        int capacity = 2;
+        while (capacity < nodes.size() * 2) {
+            capacity *= 2;
+        }
+
+        pathTable = new MergedTreeNode[capacity];
+        for (final MergedTreeNode node : nodes) {
+            int slot = spread(node.path.hashCode()) & (capacity - 1);
+            while (pathTable[slot] != null) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+
+            pathTable[slot] = node;
+        }
+    }
+
+    /**
+     * Collects the descendants of a node and records the depth of the deepest one in this root node.
+     *
+     * @param node  Node whose descendants are collected
+     * @param depth Depth of the children of the node
+     * @param nodes Receives the descendants
+     */
+    private void collectDescendants(final MergedTreeNode node, final int depth, final List<MergedTreeNode> nodes) {
+        for (final MergedTreeNode child : node.children) {
+            nodes.add(child);
+            maxDepth = Math.max(maxDepth, depth);
+            collectDescendants(child, depth + 1, nodes);
+        }
+    }
+
+    /**
+     * Spreads the high bits of a hash code into the low bits used to pick a slot.
+     *
+     * @param hash Hash code
+     * @return Spread hash code
+     */
+    private static int spread(final int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Merges the children of this node's tree nodes, which are both sorted by name, and recurses into every child
+     * whose subtree has access rules in either tree.
+     */
+    private void mergeChildren() {
+        final List<MergedTreeNode> mergedChildren = new ArrayList<MergedTreeNode>();
+
+        for (final TreeNode[] pair : TreeNode.pairChildren(repositoryTreeNode, serverTreeNode)) {
+            final TreeNode repositoryChild = pair[0];
+            final TreeNode serverChild = pair[1];
+
+            if ((repositoryChild != null && repositoryChild.subtreeMayHaveAccessRules())
+                    || (serverChild != null && serverChild.subtreeMayHaveAccessRules())) {
+                final String childName = repositoryChild == null ? serverChild.getName() : repositoryChild.getName();
+                final MergedTreeNode child = new MergedTreeNode(childName, this, repositoryChild, serverChild);
+                child.mergeChildren();
+                mergedChildren.add(child);
+            }
+        }
+
+        if (!mergedChildren.isEmpty()) {
+            children = mergedChildren.toArray(new MergedTreeNode[mergedChildren.size()]);
+        }
+    }
+}
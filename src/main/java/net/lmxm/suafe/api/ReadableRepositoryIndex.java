@@ -0,0 +1,546 @@
+package net.lmxm.suafe.api;
+
+import net.lmxm.suafe.api.internal.IdAllocator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static net.lmxm.suafe.api.internal.Preconditions.checkArgumentNotNull;
+
+/**
+ * Index of the repositories in which each user has read access to at least one path, such as the repositories a user
+ * may browse. A user may read some path if, at some path of the repository or server-wide tree, the access rules
+ * that decide the user's access grant read access: the repository access rules decide for the users they match and
+ * the server-wide access rules for the others.
+ *
+ * For every user it is asked about, the index keeps a bit set of the repositories the user may read, so a listing only
+ * reads the bits of that set. The bit sets are kept up to date incrementally, from the versions of the document, its
+ * repositories and its users, the next time the index is used: after the access rules of some repositories change,
+ * only those repositories are checked again for each user; after a user's transitive memberships change, only that
+ * user's bit set is rebuilt. A change to the server-wide access rules applies to every repository, so all of them are
+ * checked again for each user. The bit sets take one bit per repository for every user that was looked up.
+ *
+ * To check a repository, the index keeps the distinct decisions made at its paths, each described by the principals
+ * of its access rules: user ids, user group ids and exclusion flags. Paths with the same principals share one
+ * decision, and decisions that cannot grant read access are dropped. A user is checked against the decisions by
+ * expanding user group principals through the user's transitive memberships, so the decisions do not depend on
+ * memberships at all.
+ *
+ * Lookups may be made from several threads at once, as long as the document is not being modified.
+ */
+public final class ReadableRepositoryIndex {
+    /**
+     * Principal flag for exclusion access rules. The lowest principal bit is the read access bit of AccessEvaluator.
+     */
+    private static final int EXCLUSION = 2;
+
+    /**
+     * Principal flag for user group access rules.
+     */
+    private static final int USER_GROUP = 4;
+
+    /**
+     * Number of bits used by the principal flags.
+     */
+    private static final int FLAG_BITS = 3;
+
+    /**
+     * Decision made when no access rule applies.
+     */
+    private static final int NO_MATCH = -1;
+
+    /**
+     * Orders repositories by name.
+     */
+    private static final Comparator<Repository> REPOSITORY_COMPARATOR = new Comparator<Repository>() {
+        public int compare(final Repository a, final Repository b) {
+            return a.getName().compareTo(b.getName());
+        }
+    };
+
+    /**
+     * Document whose repositories are indexed.
+     */
+    private final Document document;
+
+    /**
+     * Summary of each repository of the document. Repositories are compared by identity because their hash code
+     * changes when they are renamed. Also guards all other state of the index.
+     */
+    private final Map<Repository, Summary> summaries = new IdentityHashMap<Repository, Summary>();
+
+    /**
+     * Repositories by the index of their bits; deleted repositories leave a null entry until their index is reused.
+     */
+    private final List<Repository> repositoriesByIndex = new ArrayList<Repository>();
+
+    /**
+     * Allocator of the indexes of the repositories' bits.
+     */
+    private final IdAllocator repositoryIndexes = new IdAllocator();
+
+    /**
+     * Readable repositories of each user that was looked up, compared by identity like the repositories.
+     */
+    private final Map<User, ReadableRepositories> readableRepositories = new IdentityHashMap<User, ReadableRepositories>();
+
+    /**
+     * Version of the server-wide access rules the summaries were built with.
+     */
+    private long serverVersion = -1;
+
+    /**
+     * Version of the document's repositories the summaries were built with.
+     */
+    private long repositoriesVersion = -1;
+
+    /**
+     * Constructs a new index for the provided document.
+     *
+     * @param document Document whose repositories are indexed
+     */
+    public ReadableRepositoryIndex(final Document document) {
+        checkArgumentNotNull(document, "Document");
+
+        this.document = document;
+    }
+
+    /**
+     * Checks if a user may read at least one path of a repository.
+     *
+     * @param user       User whose access is checked
+     * @param repository Repository to check
+     * @return True if the user may read some path of the repository, otherwise false
+     */
+    public boolean canReadAnyPath(final User user, final Repository repository) {
+        checkArgumentNotNull(user, "User");
+        checkArgumentNotNull(repository, "Repository");
+
+        synchronized (summaries) {
+            update();
+
+            final Summary summary = summaries.get(repository);
+
+            return summary != null && getReadableRepositories(user).indexes.get(summary.index);
+        }
+    }
+
+    /**
+     * Finds all repositories in which a user may read at least one path.
+     *
+     * @param user User whose repositories are found
+     * @return List of repositories sorted by name
+     */
+    public List<Repository> findReadableRepositories(final User user) {
+        checkArgumentNotNull(user, "User");
+
+        final List<Repository> repositories = new ArrayList<Repository>();
+
+        synchronized (summaries) {
+            update();
+
+            final BitSet indexes = getReadableRepositories(user).indexes;
+            for (int index = indexes.nextSetBit(0); index >= 0; index = indexes.nextSetBit(index + 1)) {
+                repositories.add(repositoriesByIndex.get(index));
+            }
+        }
+
+        Collections.sort(repositories, REPOSITORY_COMPARATOR);
+
+        return repositories;
+    }
+
+    /**
+     * Gets the readable repositories of a user, rebuilding them if they are missing or the user's memberships
+     * changed since they were built.
+     *
+     * @param user User whose repositories are needed
+     * @return Current readable repositories of the user
+     */
+    private ReadableRepositories getReadableRepositories(final User user) {
+        ReadableRepositories readable = readableRepositories.get(user);
+
+        if (readable == null || readable.userVersion != user.getVersion()) {
+            final BitSet indexes = new BitSet();
+
+            if (user.getId() >= 0) {
+                final BitSet userGroupIds = document.getUserGroupClosure(user);
+                for (final Summary summary : summaries.values()) {
+                    if (canReadAnyPath(user.getId(), userGroupIds, summary)) {
+                        indexes.set(summary.index);
+                    }
+                }
+            }
+
+            if (readable == null && readableRepositories.size() >= document.getUsers().size()) {
+                discardDeletedUsers();
+            }
+
+            readable = new ReadableRepositories(indexes, user.getVersion());
+            readableRepositories.put(user, readable);
+        }
+
+        return readable;
+    }
+
+    /**
+     * Brings the summaries up to date with the document, and checks the repositories whose summaries changed again for
+     * every user whose readable repositories are current. Does nothing if no access rules changed and no repository
+     * was created or deleted since the last update.
+     */
+    private void update() {
+        final long currentServerVersion = document.getServerVersion();
+        final long currentRepositoriesVersion = document.getRepositoriesVersion();
+        if (currentServerVersion == serverVersion && currentRepositoriesVersion == repositoriesVersion) {
+            return;
+        }
+
+        final boolean serverChanged = currentServerVersion != serverVersion;
+        final BitSet changedIndexes = new BitSet();
+
+        // Discard the summaries of deleted repositories
+        final Iterator<Summary> iterator = summaries.values().iterator();
+        while (iterator.hasNext()) {
+            final Summary summary = iterator.next();
+            final Repository repository = repositoriesByIndex.get(summary.index);
+
+            if (document.findRepositoryByName(repository.getName()) != repository) {
+                iterator.remove();
+                repositoriesByIndex.set(summary.index, null);
+                repositoryIndexes.release(summary.index);
+                changedIndexes.set(summary.index);
+            }
+        }
+
+        for (final Repository repository : document.getRepositories()) {
+            final Summary summary = summaries.get(repository);
+
+            if (summary == null || serverChanged || summary.repositoryVersion != repository.getVersion()) {
+                final int index = summary == null ? repositoryIndexes.allocate() : summary.index;
+                while (repositoriesByIndex.size() <= index) {
+                    repositoriesByIndex.add(null);
+                }
+
+                summaries.put(repository, createSummary(repository, index));
+                repositoriesByIndex.set(index, repository);
+                changedIndexes.set(index);
+            }
+        }
+
+        serverVersion = currentServerVersion;
+        repositoriesVersion = currentRepositoriesVersion;
+
+        for (final Map.Entry<User, ReadableRepositories> entry : readableRepositories.entrySet()) {
+            final User user = entry.getKey();
+            final ReadableRepositories readable = entry.getValue();
+
+            // Readable repositories of users whose memberships changed are rebuilt when next used
+            if (readable.userVersion == user.getVersion() && user.getId() >= 0) {
+                final BitSet userGroupIds = document.getUserGroupClosure(user);
+
+                for (int index = changedIndexes.nextSetBit(0); index >= 0; index = changedIndexes.nextSetBit(index + 1)) {
+                    final Repository repository = repositoriesByIndex.get(index);
+                    readable.indexes.set(index, repository != null && canReadAnyPath(user.getId(), userGroupIds, summaries.get(repository)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Discards the readable repositories of deleted users.
+     */
+    private void discardDeletedUsers() {
+        final Iterator<User> iterator = readableRepositories.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getId() < 0) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Creates the summary of a repository.
+     *
+     * @param repository Repository to summarize
+     * @param index      Index of the repository's bits
+     * @return New summary
+     */
+    private Summary createSummary(final Repository repository, final int index) {
+        final Set<Decision> decisions = new HashSet<Decision>();
+        addDecisions(repository.getRootTreeNode(), document.getRootTreeNode(), decisions);
+
+        return new Summary(decisions.toArray(new Decision[decisions.size()]), index, repository.getVersion());
+    }
+
+    /**
+     * Checks if any decision of a summary grants read access to a user.
+     *
+     * @param userId       Id of the user
+     * @param userGroupIds Ids of the user groups in which the user is a transitive member
+     * @param summary      Summary of the repository
+     * @return True if the user may read some path of the repository, otherwise false
+     */
+    private static boolean canReadAnyPath(final int userId, final BitSet userGroupIds, final Summary summary) {
+        for (final Decision decision : summary.decisions) {
+            int access = decide(decision.repositoryPrincipals, userId, userGroupIds);
+            if (access == NO_MATCH) {
+                access = decide(decision.serverPrincipals, userId, userGroupIds);
+            }
+
+            if (access == AccessEvaluator.READ) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Decides the read access of a user from the principals of the access rules of a single tree node.
+     *
+     * @param principals   Principals of the access rules
+     * @param userId       Id of the user
+     * @param userGroupIds Ids of the user groups in which the user is a transitive member
+     * @return READ if an applicable access rule grants read access, 0 if access rules apply but none grants read
+     * access, or NO_MATCH if no access rule applies
+     */
+    private static int decide(final int[] principals, final int userId, final BitSet userGroupIds) {
+        int access = NO_MATCH;
+
+        for (final int principal : principals) {
+            final int id = principal >>> FLAG_BITS;
+            final boolean matches = (principal & USER_GROUP) != 0 ? userGroupIds.get(id) : id == userId;
+
+            if (matches != ((principal & EXCLUSION) != 0)) {
+                if ((principal & AccessEvaluator.READ) != 0) {
+                    return AccessEvaluator.READ;
+                }
+
+                access = 0;
+            }
+        }
+
+        return access;
+    }
+
+    /**
+     * Adds the decisions made at the path of a pair of tree nodes, and at all of their descendants. Subtrees without
+     * access rules are skipped.
+     *
+     * @param repositoryTreeNode Repository tree node, or null if the repository tree has no node at this path
+     * @param serverTreeNode     Server-wide tree node, or null if the server-wide tree has no node at this path
+     * @param decisions          Receives the decisions
+     */
+    private static void addDecisions(final TreeNode repositoryTreeNode, final TreeNode serverTreeNode, final Set<Decision> decisions) {
+        if ((repositoryTreeNode == null || !repositoryTreeNode.subtreeMayHaveAccessRules())
+                && (serverTreeNode == null || !serverTreeNode.subtreeMayHaveAccessRules())) {
+            return;
+        }
+
+        final int[] repositoryPrincipals = findPrincipals(repositoryTreeNode);
+        final int[] serverPrincipals = findPrincipals(serverTreeNode);
+        if (mayGrantRead(repositoryPrincipals) || mayGrantRead(serverPrincipals)) {
+            decisions.add(new Decision(repositoryPrincipals, serverPrincipals));
+        }
+
+        if (repositoryTreeNode != null) {
+            for (final TreeNode child : repositoryTreeNode.getChildren()) {
+                final TreeNode serverChild = serverTreeNode == null ? null : findChild(serverTreeNode, child.getName());
+                addDecisions(child, serverChild, decisions);
+            }
+        }
+
+        if (serverTreeNode != null) {
+            for (final TreeNode serverChild : serverTreeNode.getChildren()) {
+                if (repositoryTreeNode == null || findChild(repositoryTreeNode, serverChild.getName()) == null) {
+                    addDecisions(null, serverChild, decisions);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the principals of the access rules of a tree node, sorted and without duplicates.
+     *
+     * @param treeNode Tree node whose access rules are described, or null
+     * @return Principals of the access rules
+     */
+    private static int[] findPrincipals(final TreeNode treeNode) {
+        if (treeNode == null) {
+            return new int[0];
+        }
+
+        final AccessRule[] accessRules = treeNode.getAccessRuleArray();
+        final int[] principals = new int[accessRules.length];
+        for (int i = 0; i < accessRules.length; i++) {
+            final AccessRule accessRule = accessRules[i];
+
+            int principal = accessRule.getUser() != null
+                    ? accessRule.getUser().getId() << FLAG_BITS
+                    : accessRule.getUserGroup().getId() << FLAG_BITS | USER_GROUP;
+            if (accessRule.isExclusion()) {
+                principal |= EXCLUSION;
+            }
+            principal |= AccessEvaluator.accessOf(accessRule.getAccessLevel()) & AccessEvaluator.READ;
+
+            principals[i] = principal;
+        }
+
+        Arrays.sort(principals);
+
+        int count = 0;
+        for (int i = 0; i < principals.length; i++) {
+            if (count == 0 || principals[count - 1] != principals[i]) {
+                principals[count++] = principals[i];
+            }
+        }
+
+        if (count == principals.length) {
+            return principals;
+        }
+
+        final int[] distinctPrincipals = new int[count];
+        System.arraycopy(principals, 0, distinctPrincipals, 0, count);
+
+        return distinctPrincipals;
+    }
+
+    /**
+     * Checks if any of the principals grants read access.
+     *
+     * @param principals Principals to check
+     * @return True if a principal grants read access, otherwise false
+     */
+    private static boolean mayGrantRead(final int[] principals) {
+        for (final int principal : principals) {
+            if ((principal & AccessEvaluator.READ) != 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Finds the child of a tree node with the provided name.
+     *
+     * @param treeNode Tree node whose children are searched
+     * @param name     Name of the child
+     * @return Child or null if not found
+     */
+    private static TreeNode findChild(final TreeNode treeNode, final String name) {
+        return treeNode.findChild(name, 0, name.length());
+    }
+
+    /**
+     * Principals of the repository and server-wide access rules that decide the access to a path.
+     */
+    private static final class Decision {
+        /**
+         * Principals of the repository access rules.
+         */
+        private final int[] repositoryPrincipals;
+
+        /**
+         * Principals of the server-wide access rules.
+         */
+        private final int[] serverPrincipals;
+
+        /**
+         * Constructs a new decision.
+         *
+         * @param repositoryPrincipals Principals of the repository access rules
+         * @param serverPrincipals     Principals of the server-wide access rules
+         */
+        private Decision(final int[] repositoryPrincipals, final int[] serverPrincipals) {
+            this.repositoryPrincipals = repositoryPrincipals;
+            this.serverPrincipals = serverPrincipals;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(repositoryPrincipals) + Arrays.hashCode(serverPrincipals);
+        }
+
+        @Override
+        public boolean equals(final Object object) {
+            if (!(object instanceof Decision)) {
+                return false;
+            }
+
+            final Decision decision = (Decision) object;
+
+            return Arrays.equals(repositoryPrincipals, decision.repositoryPrincipals)
+                    && Arrays.equals(serverPrincipals, decision.serverPrincipals);
+        }
+    }
+
+    /**
+     * Decisions made at the paths of a repository, the index of the repository's bits and the version of the
+     * repository they were computed with.
+     */
+    private static final class Summary {
+        /**
+         * Distinct decisions that may grant read access.
+         */
+        private final Decision[] decisions;
+
+        /**
+         * Index of the repository's bits.
+         */
+        private final int index;
+
+        /**
+         * Version of the repository.
+         */
+        private final long repositoryVersion;
+
+        /**
+         * Constructs a new summary.
+         *
+         * @param decisions         Distinct decisions that may grant read access
+         * @param index             Index of the repository's bits
+         * @param repositoryVersion Version of the repository
+         */
+        private Summary(final Decision[] decisions, final int index, final long repositoryVersion) {
+            this.decisions = decisions;
+            this.index = index;
+            this.repositoryVersion = repositoryVersion;
+        }
+    }
+
+    /**
+     * Repositories a user may read, and the version of the user they were computed with.
+     */
+    private static final class ReadableRepositories {
+        /**
+         * Indexes of the readable repositories.
+         */
+        private final BitSet indexes;
+
+        /**
+         * Version of the user.
+         */
+        private final long userVersion;
+
+        /**
+         * Constructs new readable repositories.
+         *
+         * @param indexes     Indexes of the readable repositories
+         * @param userVersion Version of the user
+         */
+        private ReadableRepositories(final BitSet indexes, final long userVersion) {
+            this.indexes = indexes;
+            this.userVersion = userVersion;
+        }
+    }
+}
@@ -17,7 +17,18 @@ public final class Repository {
     /**
      * Tree of paths and access rules within this repository.
      */
-    private final TreeNode rootTreeNode = new TreeNode();
+    private final TreeNode rootTreeNode;
+
+    /**
+     * Version of the repository, incremented whenever the access rules of the repository tree change.
+     */
+    private long version;
+
+    /**
+     * Merged view of this repository's tree and the server-wide tree, with the versions it was built from; null until
+     * first needed. Replaced, never modified, when it is rebuilt.
+     */
+    private volatile MergedTree mergedTree;
 
     /**
      * Constructs a new repository object with the provided name.
@@ -25,7 +36,55 @@ public final class Repository {
      * @param name Name of the new repository
      */
     protected Repository(final String name) {
+        this(null, name);
+    }
+
+    /**
+     * Constructs a new repository object with the provided name that belongs to the provided document.
+     *
+     * @param document Document to which the repository belongs
+     * @param name     Name of the new repository
+     */
+    protected Repository(final Document document, final String name) {
         this.name = checkArgumentNotBlank(name, "Name");
+        this.rootTreeNode = new TreeNode(document, this);
+    }
+
+    /**
+     * Gets the version of the repository, which is incremented whenever the access rules of the repository tree change.
+     *
+     * @return Version of the repository
+     */
+    protected long getVersion() {
+        return version;
+    }
+
+    /**
+     * Increments the version of the repository.
+     */
+    protected void incrementVersion() {
+        version++;
+    }
+
+    /**
+     * Gets the merged view of this repository's tree and the server-wide tree, building it if it does not exist yet
+     * or if either tree's access rules changed since it was built.
+     *
+     * @return Root node of the merged view
+     */
+    protected MergedTreeNode getMergedRootTreeNode() {
+        final Document document = rootTreeNode.getDocument();
+        final long serverVersion = document == null ? 0 : document.getServerVersion();
+
+        MergedTree currentMergedTree = mergedTree;
+        if (currentMergedTree == null || currentMergedTree.repositoryVersion != version || currentMergedTree.serverVersion != serverVersion) {
+            final MergedTreeNode root = MergedTreeNode.merge(rootTreeNode, document == null ? null : document.getRootTreeNode());
+
+            currentMergedTree = new MergedTree(root, version, serverVersion);
+            mergedTree = currentMergedTree;
+        }
+
+        return currentMergedTree.root;
     }
 
     /**
@@ -84,4 +143,37 @@ public final class Repository {
     public String toString() {
         return new ObjectToStringBuilder(this.getClass()).append("name", name).build();
     }
+
+    /**
+     * Merged view of a repository tree and the server-wide tree, and the versions it was built from.
+     */
+    private static final class MergedTree {
+        /**
+         * Root node of the merged view.
+         */
+        private final MergedTreeNode root;
+
+        /**
+         * Version of the repository the view was built from.
+         */
+        private final long repositoryVersion;
+
+        /**
+         * Version of the server-wide access rules the view was built from.
+         */
+        private final long serverVersion;
+
+        /**
+         * Constructs a new merged view.
+         *
+         * @param root              Root node of the merged view
+         * @param repositoryVersion Version of the repository
+         * @param serverVersion     Version of the server-wide access rules
+         */
+        private MergedTree(final MergedTreeNode root, final long repositoryVersion, final long serverVersion) {
+            this.root = root;
+            this.repositoryVersion = repositoryVersion;
+            this.serverVersion = serverVersion;
+        }
+    }
 }
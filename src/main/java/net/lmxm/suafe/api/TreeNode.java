@@ -1,6 +1,8 @@
 package net.lmxm.suafe.api;
 
+import net.lmxm.suafe.api.internal.Fingerprints;
 import net.lmxm.suafe.api.internal.ObjectToStringBuilder;
+import net.lmxm.suafe.api.internal.PathRegions;
 
 import java.util.*;
 
@@ -16,16 +18,91 @@ public final class TreeNode {
      */
     public static final String ROOT_NODE_NAME = "root";
 
+    /**
+     * Empty array of access rules, shared by all nodes without access rules.
+     */
+    private static final AccessRule[] NO_ACCESS_RULES = new AccessRule[0];
+
+    /**
+     * Empty array of tree nodes, shared by all nodes without children.
+     */
+    private static final TreeNode[] NO_CHILDREN = new TreeNode[0];
+
     /**
      * Set of all access rules that apply to this node.
      */
     private final Set<AccessRule> accessRules = new HashSet<AccessRule>();
 
+    /**
+     * Array copy of this node's access rules, which can be traversed without allocating an iterator. Replaced, never
+     * modified, whenever the access rules change.
+     */
+    private AccessRule[] accessRuleArray = NO_ACCESS_RULES;
+
     /**
      * Map of all of this node's children.
      */
     private final Map<String, TreeNode> children = new HashMap<String, TreeNode>();
 
+    /**
+     * This node's children sorted by name, which allows a child to be found by a region of a path string without
+     * allocating a substring. Replaced, never modified, whenever a child is added.
+     */
+    private TreeNode[] sortedChildren = NO_CHILDREN;
+
+    /**
+     * Materialized effective access control list of this node, valid only while effectiveAclComputed is true. Written
+     * before effectiveAclComputed is set, so that it is published to every thread that sees the flag.
+     */
+    private EffectiveAcl effectiveAcl;
+
+    /**
+     * Indicates if this node's effective access control list has been computed since the access rules of this node or
+     * one of its ancestors last changed. Volatile because lists are materialized by concurrent readers.
+     */
+    private volatile boolean effectiveAclComputed;
+
+    /**
+     * Ids of the users with access rules at this node or any descendant. Maintained only for a document's trees.
+     */
+    private final BitSet subtreeUserIds = new BitSet();
+
+    /**
+     * Ids of the user groups with access rules at this node or any descendant. Maintained only for a document's trees.
+     */
+    private final BitSet subtreeUserGroupIds = new BitSet();
+
+    /**
+     * Number of exclusion access rules at this node and all descendants. Maintained only for a document's trees.
+     */
+    private int subtreeExclusionCount;
+
+    /**
+     * Number of access rules at this node and all descendants. Maintained only for a document's trees.
+     */
+    private int subtreeAccessRuleCount;
+
+    /**
+     * Fingerprint of the access rules of this node and all descendants, valid only while fingerprintComputed is true.
+     */
+    private long fingerprint;
+
+    /**
+     * Indicates if this node's fingerprint has been computed since the access rules of this node or one of its
+     * descendants last changed.
+     */
+    private boolean fingerprintComputed;
+
+    /**
+     * Document to which this node's tree belongs; will be null for a tree that is not part of a document.
+     */
+    private final Document document;
+
+    /**
+     * Repository to which this node's tree belongs; will be null for a server-wide tree.
+     */
+    private final Repository repository;
+
     /**
      * Parent node of this node; will be null for a root node.
      */
@@ -43,6 +120,19 @@ public final class TreeNode {
         this(ROOT_NODE_NAME, null);
     }
 
+    /**
+     * Constructs a new root node for a tree that belongs to the provided document.
+     *
+     * @param document   Document to which the tree belongs
+     * @param repository Repository to which the tree belongs, null for the server-wide tree
+     */
+    protected TreeNode(final Document document, final Repository repository) {
+        this.document = document;
+        this.repository = repository;
+        this.name = ROOT_NODE_NAME;
+        this.parent = null;
+    }
+
     /**
      * Constructs a new non-root node
      *
@@ -50,7 +140,10 @@ public final class TreeNode {
      * @param parent Parent node of this node
      */
     protected TreeNode(final String name, final TreeNode parent) {
-        this.name = checkArgumentNotBlank(name, "Tree node name");
+        this.document = parent == null ? null : parent.document;
+        this.repository = parent == null ? null : parent.repository;
+        this.name = document == null ? checkArgumentNotBlank(name, "Tree node name")
+                : document.intern(checkArgumentNotBlank(name, "Tree node name"));
         this.parent = parent;
     }
 
@@ -70,7 +163,14 @@ public final class TreeNode {
 
         final AccessRule accessRule = new AccessRule(this, user, accessLevel, exclusion);
         accessRules.add(accessRule);
+        accessRuleArray = accessRules.toArray(new AccessRule[accessRules.size()]);
+        invalidateFingerprint();
         user.addAccessRule(accessRule);
+
+        if (document != null) {
+            document.accessRuleCreated(accessRule);
+        }
+
         return accessRule;
     }
 
@@ -90,7 +190,14 @@ public final class TreeNode {
 
         final AccessRule accessRule = new AccessRule(this, userGroup, accessLevel, exclusion);
         accessRules.add(accessRule);
+        accessRuleArray = accessRules.toArray(new AccessRule[accessRules.size()]);
+        invalidateFingerprint();
         userGroup.addAccessRule(accessRule);
+
+        if (document != null) {
+            document.accessRuleCreated(accessRule);
+        }
+
         return accessRule;
     }
 
@@ -105,7 +212,15 @@ public final class TreeNode {
         checkArgumentNotNull(user, "User");
         final AccessRule accessRule = checkThatAccessRuleForUserExists(this, "/", user);
 
-        return accessRules.remove(accessRule) && user.removeAccessRule(accessRule);
+        if (document != null) {
+            document.accessRuleDeleted(accessRule);
+        }
+
+        final boolean removed = accessRules.remove(accessRule);
+        accessRuleArray = accessRules.toArray(new AccessRule[accessRules.size()]);
+        invalidateFingerprint();
+
+        return removed && user.removeAccessRule(accessRule);
     }
 
     /**
@@ -119,7 +234,15 @@ public final class TreeNode {
         checkArgumentNotNull(userGroup, "User group");
         final AccessRule accessRule = checkThatAccessRuleForUserGroupExists(this, "/", userGroup);
 
-        return accessRules.remove(accessRule) && userGroup.removeAccessRule(accessRule);
+        if (document != null) {
+            document.accessRuleDeleted(accessRule);
+        }
+
+        final boolean removed = accessRules.remove(accessRule);
+        accessRuleArray = accessRules.toArray(new AccessRule[accessRules.size()]);
+        invalidateFingerprint();
+
+        return removed && userGroup.removeAccessRule(accessRule);
     }
 
     /**
@@ -223,10 +346,294 @@ public final class TreeNode {
         else {
             final TreeNode newChild = new TreeNode(name, this);
             children.put(name, newChild);
+
+            int index = 0;
+            while (index < sortedChildren.length && sortedChildren[index].name.compareTo(newChild.name) < 0) {
+                index++;
+            }
+
+            final TreeNode[] newSortedChildren = new TreeNode[sortedChildren.length + 1];
+            System.arraycopy(sortedChildren, 0, newSortedChildren, 0, index);
+            newSortedChildren[index] = newChild;
+            System.arraycopy(sortedChildren, index, newSortedChildren, index + 1, sortedChildren.length - index);
+            sortedChildren = newSortedChildren;
+
             return newChild;
         }
     }
 
+    /**
+     * Finds the child node whose name equals a region of a path string. No objects are allocated.
+     *
+     * @param path  Path string containing the child name
+     * @param start Index of the first character of the child name
+     * @param end   Index after the last character of the child name
+     * @return Matching child node or null if not found
+     */
+    protected TreeNode findChild(final String path, final int start, final int end) {
+        int low = 0;
+        int high = sortedChildren.length - 1;
+
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int comparison = PathRegions.compare(sortedChildren[middle].name, path, start, end);
+
+            if (comparison < 0) {
+                low = middle + 1;
+            }
+            else if (comparison > 0) {
+                high = middle - 1;
+            }
+            else {
+                return sortedChildren[middle];
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Gets this node's access rules as an array. The array is shared and must not be modified.
+     *
+     * @return Array of this node's access rules
+     */
+    protected AccessRule[] getAccessRuleArray() {
+        return accessRuleArray;
+    }
+
+    /**
+     * Gets this node's effective access control list, computing it from the nearest ancestor with access rules if it
+     * is not yet materialized. Only nodes of a document's trees are materialized, since only those are told when
+     * access rules change. Concurrent readers may materialize the same list at once; the pool of the document gives
+     * them the same instance, so the writes agree.
+     *
+     * @return Effective access control list, or null if neither this node nor any ancestor has access rules
+     */
+    protected EffectiveAcl getEffectiveAcl() {
+        if (effectiveAclComputed) {
+            return effectiveAcl;
+        }
+
+        final EffectiveAcl parentEffectiveAcl = parent == null ? null : parent.getEffectiveAcl();
+        EffectiveAcl newEffectiveAcl = parentEffectiveAcl;
+        if (accessRuleArray.length > 0) {
+            int depth = 0;
+            for (TreeNode ancestor = parent; ancestor != null; ancestor = ancestor.parent) {
+                depth++;
+            }
+
+            newEffectiveAcl = new EffectiveAcl(accessRuleArray, depth, parentEffectiveAcl);
+        }
+
+        if (document != null) {
+            effectiveAcl = document.internEffectiveAcl(newEffectiveAcl);
+            effectiveAclComputed = true;
+
+            return effectiveAcl;
+        }
+
+        return newEffectiveAcl;
+    }
+
+    /**
+     * Discards the materialized effective access control lists of this node and all of its descendants. Descendants
+     * are only visited while they have a materialized list, since a list is never materialized without the lists of
+     * all ancestors.
+     */
+    protected void invalidateEffectiveAcls() {
+        if (effectiveAclComputed) {
+            effectiveAclComputed = false;
+            effectiveAcl = null;
+
+            for (final TreeNode child : sortedChildren) {
+                child.invalidateEffectiveAcls();
+            }
+        }
+    }
+
+    /**
+     * Gets the fingerprint of the access rules of this node and all of its descendants. The fingerprint of a node
+     * combines its name, the fingerprints of its access rules and the fingerprints of its children; it is computed on
+     * demand and kept until a rule in the subtree changes, so unchanged subtrees of two trees can be recognized
+     * without visiting them. A subtree without access rules has the fingerprint 0.
+     *
+     * @return Fingerprint of this node's subtree
+     */
+    protected long getFingerprint() {
+        if (!fingerprintComputed) {
+            long accessRuleSum = 0;
+            for (final AccessRule accessRule : accessRuleArray) {
+                accessRuleSum += Fingerprints.mix(accessRule.getFingerprint());
+            }
+
+            long childSum = 0;
+            for (final TreeNode child : sortedChildren) {
+                childSum += child.getFingerprint();
+            }
+
+            if (accessRuleArray.length == 0 && childSum == 0) {
+                fingerprint = 0;
+            }
+            else {
+                fingerprint = Fingerprints.combine(Fingerprints.combine(Fingerprints.of(name), accessRuleSum), childSum);
+                fingerprint = fingerprint == 0 ? 1 : fingerprint;
+            }
+
+            fingerprintComputed = true;
+        }
+
+        return fingerprint;
+    }
+
+    /**
+     * Discards the fingerprints of this node and all of its ancestors, after an access rule of this node changed. The
+     * document is told the previous fingerprint of a repository tree, so that it can update its sum over repositories
+     * without visiting the others.
+     */
+    protected void invalidateFingerprint() {
+        TreeNode treeNode = this;
+        while (treeNode.parent != null) {
+            treeNode.fingerprintComputed = false;
+            treeNode = treeNode.parent;
+        }
+
+        if (treeNode.fingerprintComputed) {
+            treeNode.fingerprintComputed = false;
+
+            if (document != null && repository != null) {
+                document.repositoryFingerprintInvalidated(repository, treeNode.fingerprint);
+            }
+        }
+    }
+
+    /**
+     * Adds an access rule that was created at this node to the principal summaries of this node and its ancestors.
+     *
+     * @param accessRule Newly created access rule
+     */
+    protected void accessRuleAdded(final AccessRule accessRule) {
+        for (TreeNode treeNode = this; treeNode != null; treeNode = treeNode.parent) {
+            if (accessRule.getUser() != null) {
+                treeNode.subtreeUserIds.set(accessRule.getUser().getId());
+            }
+            else {
+                treeNode.subtreeUserGroupIds.set(accessRule.getUserGroup().getId());
+            }
+
+            if (accessRule.isExclusion()) {
+                treeNode.subtreeExclusionCount++;
+            }
+
+            treeNode.subtreeAccessRuleCount++;
+        }
+    }
+
+    /**
+     * Removes an access rule that is being deleted from this node from the principal summaries of this node and its
+     * ancestors. A bit set cannot tell whether another rule in the subtree refers to the same principal, so the
+     * summary of each node on the way up is rebuilt from its own access rules and the summaries of its children.
+     *
+     * @param accessRule Access rule that is being deleted; may still be held by this node
+     */
+    protected void accessRuleRemoved(final AccessRule accessRule) {
+        for (TreeNode treeNode = this; treeNode != null; treeNode = treeNode.parent) {
+            treeNode.subtreeUserIds.clear();
+            treeNode.subtreeUserGroupIds.clear();
+            treeNode.subtreeExclusionCount = 0;
+            treeNode.subtreeAccessRuleCount = 0;
+
+            for (final AccessRule nodeAccessRule : treeNode.accessRuleArray) {
+                if (nodeAccessRule != accessRule) {
+                    if (nodeAccessRule.getUser() != null) {
+                        treeNode.subtreeUserIds.set(nodeAccessRule.getUser().getId());
+                    }
+                    else {
+                        treeNode.subtreeUserGroupIds.set(nodeAccessRule.getUserGroup().getId());
+                    }
+
+                    if (nodeAccessRule.isExclusion()) {
+                        treeNode.subtreeExclusionCount++;
+                    }
+
+                    treeNode.subtreeAccessRuleCount++;
+                }
+            }
+
+            for (final TreeNode child : treeNode.sortedChildren) {
+                treeNode.subtreeUserIds.or(child.subtreeUserIds);
+                treeNode.subtreeUserGroupIds.or(child.subtreeUserGroupIds);
+                treeNode.subtreeExclusionCount += child.subtreeExclusionCount;
+                treeNode.subtreeAccessRuleCount += child.subtreeAccessRuleCount;
+            }
+        }
+    }
+
+    /**
+     * Checks if this node or any descendant may have an access rule that applies to a user: a rule for the user, a
+     * rule for one of the user's groups, or an exclusion rule. The check is conservative for trees that are not part
+     * of a document, whose summaries are not maintained.
+     *
+     * @param userId       Id of the user
+     * @param userGroupIds Ids of all user groups in which the user is a member
+     * @return False if no access rule in this subtree applies to the user, true if one may
+     */
+    protected boolean subtreeMayApplyTo(final int userId, final BitSet userGroupIds) {
+        return document == null || subtreeExclusionCount > 0 || (userId >= 0 && subtreeUserIds.get(userId))
+                || subtreeUserGroupIds.intersects(userGroupIds);
+    }
+
+    /**
+     * Checks if this node or any descendant may have access rules. The check is conservative for trees that are not
+     * part of a document, whose summaries are not maintained.
+     *
+     * @return False if this subtree has no access rules, true if it may
+     */
+    protected boolean subtreeMayHaveAccessRules() {
+        return document == null || subtreeAccessRuleCount > 0;
+    }
+
+    /**
+     * Collects the access rules at this node and all descendants that apply to a user, skipping subtrees whose
+     * principal summaries show that no access rule applies to the user. Nodes are visited depth first, with the
+     * children of each node in name order.
+     *
+     * @param user         User whose access rules are collected
+     * @param userGroupIds Ids of all user groups in which the user is a member
+     * @param accessRules  Receives the matching access rules
+     */
+    protected void collectAccessRulesApplyingTo(final User user, final BitSet userGroupIds, final List<AccessRule> accessRules) {
+        if (!subtreeMayApplyTo(user.getId(), userGroupIds)) {
+            return;
+        }
+
+        for (final AccessRule accessRule : accessRuleArray) {
+            final boolean matches;
+            if (accessRule.getUser() != null) {
+                matches = accessRule.getUser() == user;
+            }
+            else {
+                matches = accessRule.getUserGroup().getId() >= 0 && userGroupIds.get(accessRule.getUserGroup().getId());
+            }
+
+            if (matches != accessRule.isExclusion()) {
+                accessRules.add(accessRule);
+            }
+        }
+
+        for (final TreeNode child : sortedChildren) {
+            child.collectAccessRulesApplyingTo(user, userGroupIds, accessRules);
+        }
+    }
+
+    /**
+     * Gets this node's children sorted by name. The array is shared and must not be modified.
+     *
+     * @return Array of this node's children
+     */
+    protected TreeNode[] getChildArray() {
+        return sortedChildren;
+    }
+
     /**
      * Gets this node's access rules.
      *
@@ -254,6 +661,39 @@ public final class TreeNode {
         return name;
     }
 
+    /**
+     * Gets the canonical path of this node within its tree.
+     *
+     * @return Path of this node (e.g. /trunk/src); / for a root node
+     */
+    protected String getPath() {
+        if (parent == null) {
+            return "/";
+        }
+
+        final String parentPath = parent.getPath();
+
+        return parentPath.length() == 1 ? parentPath + name : parentPath + '/' + name;
+    }
+
+    /**
+     * Gets the document to which this node's tree belongs.
+     *
+     * @return Owning document or null if the tree is not part of a document
+     */
+    protected Document getDocument() {
+        return document;
+    }
+
+    /**
+     * Gets the repository to which this node's tree belongs.
+     *
+     * @return Owning repository or null if this node belongs to a server-wide or standalone tree
+     */
+    public Repository getRepository() {
+        return repository;
+    }
+
     /**
      * Gets this node's parent.
      *
@@ -427,19 +867,95 @@ public final class TreeNode {
     protected static TreeNode findByPath(final TreeNode treeNode, final String path) {
         checkArgumentPathValid(path, "Path");
 
+        int length = path.length();
+        while (length > 0 && path.charAt(length - 1) == '/') {
+            length--;
+        }
+
         TreeNode matchingNode = treeNode;
-        final LinkedList<String> nodeNames = splitPath(path);
-        if (nodeNames.size() > 0) {
-            for (final String name : nodeNames) {
-                matchingNode = matchingNode.children.get(name);
+        int start = 0;
+        while (matchingNode != null && start < length) {
+            int end = path.indexOf('/', start);
+            if (end < 0 || end > length) {
+                end = length;
+            }
+
+            matchingNode = matchingNode.findChild(path, start, end);
+            start = end + 1;
+        }
+
+        return matchingNode;
+    }
+
+    /**
+     * Finds the node at a canonical path (e.g. /trunk/src), as returned by {@link #getPath()}.
+     *
+     * @param rootTreeNode Root node of the tree
+     * @param path         Canonical path of the node to find
+     * @return Matching node or null if no node exists at the path
+     */
+    protected static TreeNode findByCanonicalPath(final TreeNode rootTreeNode, final String path) {
+        return findByPath(rootTreeNode, path.length() == 1 ? path : path.substring(1));
+    }
 
-                if (matchingNode == null) {
-                    break;
+    /**
+     * Pairs the children of two nodes by name, such as the same node in two versions of a tree, or a repository node
+     * and the server-wide node at the same path. Children are kept sorted by name, so the pairs are found in a single
+     * merge pass.
+     *
+     * @param first  First node, or null
+     * @param second Second node, or null
+     * @return Pairs sorted by name, each holding the child of the first node and the child of the second node with the
+     * same name; either may be null
+     */
+    protected static List<TreeNode[]> pairChildren(final TreeNode first, final TreeNode second) {
+        final TreeNode[] firstChildren = first == null ? NO_CHILDREN : first.getChildArray();
+        final TreeNode[] secondChildren = second == null ? NO_CHILDREN : second.getChildArray();
+        final List<TreeNode[]> pairs = new ArrayList<TreeNode[]>(Math.max(firstChildren.length, secondChildren.length));
+
+        int firstIndex = 0;
+        int secondIndex = 0;
+        while (firstIndex < firstChildren.length || secondIndex < secondChildren.length) {
+            final int comparison;
+            if (firstIndex == firstChildren.length) {
+                comparison = 1;
+            }
+            else if (secondIndex == secondChildren.length) {
+                comparison = -1;
+            }
+            else {
+                comparison = firstChildren[firstIndex].getName().compareTo(secondChildren[secondIndex].getName());
+            }
+
+            pairs.add(new TreeNode[] {comparison <= 0 ? firstChildren[firstIndex++] : null,
+                    comparison >= 0 ? secondChildren[secondIndex++] : null});
+        }
+
+        return pairs;
+    }
+
+    /**
+     * Maps the access rules of a node by principal, so that the access rules of the same principal can be matched
+     * across documents.
+     *
+     * @param treeNode Node whose access rules are mapped, or null
+     * @return Map of access rules keyed by principal kind and name
+     */
+    protected static Map<String, AccessRule> mapAccessRulesByPrincipal(final TreeNode treeNode) {
+        final Map<String, AccessRule> accessRules = new HashMap<String, AccessRule>();
+
+        if (treeNode != null) {
+            for (final AccessRule accessRule : treeNode.getAccessRuleArray()) {
+                if (accessRule.getUser() != null) {
+                    accessRules.put("user:" + accessRule.getUser().getName(), accessRule);
+                }
+                else {
+                    accessRules.put("group:" + accessRule.getUserGroup().getName(), accessRule);
                 }
             }
         }
 
-        return matchingNode;
+        return accessRules;
     }
 
     /**
@@ -24,6 +24,16 @@ public final class User {
      */
     private String alias;
 
+    /**
+     * Dense id of the user within its document, or -1 if the user does not belong to a document.
+     */
+    private int id = -1;
+
+    /**
+     * Version of the user, incremented whenever the transitive user group memberships of the user may have changed.
+     */
+    private long version;
+
     /**
      * Access rules that which apply to this user.
      */
@@ -54,6 +64,40 @@ public final class User {
         return alias;
     }
 
+    /**
+     * Gets the dense id of the user within its document.
+     *
+     * @return Id of the user, or -1 if the user does not belong to a document
+     */
+    protected int getId() {
+        return id;
+    }
+
+    /**
+     * Sets the dense id of the user within its document.
+     *
+     * @param id Id of the user, or -1 if the user no longer belongs to a document
+     */
+    protected void setId(final int id) {
+        this.id = id;
+    }
+
+    /**
+     * Gets the version of the user, which is incremented whenever the transitive user group memberships of the user may have changed.
+     *
+     * @return Version of the user
+     */
+    protected long getVersion() {
+        return version;
+    }
+
+    /**
+     * Increments the version of the user.
+     */
+    protected void incrementVersion() {
+        version++;
+    }
+
     /**
      * Gets the current name of the user.
      *
@@ -137,6 +181,10 @@ public final class User {
      */
     protected void setName(final String name) {
         this.name = name;
+
+        for (final AccessRule accessRule : accessRules) {
+            accessRule.getTreeNode().invalidateFingerprint();
+        }
     }
 
     @Override
@@ -1,5 +1,6 @@
 package net.lmxm.suafe.api;
 
+import net.lmxm.suafe.api.internal.Fingerprints;
 import net.lmxm.suafe.api.internal.ObjectToStringBuilder;
 
 import java.util.Collections;
@@ -18,6 +19,22 @@ public final class UserGroup {
      */
     private String name;
 
+    /**
+     * Dense id of the user group within its document, or -1 if the user group does not belong to a document.
+     */
+    private int id = -1;
+
+    /**
+     * Fingerprint of the direct members of this user group, valid only while membershipFingerprintComputed is true.
+     */
+    private long membershipFingerprint;
+
+    /**
+     * Indicates if the membership fingerprint has been computed since the direct members of this user group last
+     * changed.
+     */
+    private boolean membershipFingerprintComputed;
+
     /**
      * Access rules that which apply to this user group.
      */
@@ -47,6 +64,47 @@ public final class UserGroup {
         this.name = checkArgumentNotBlank(name, "Name");
     }
 
+    /**
+     * Gets the dense id of the user group within its document.
+     *
+     * @return Id of the user group, or -1 if the user group does not belong to a document
+     */
+    protected int getId() {
+        return id;
+    }
+
+    /**
+     * Sets the dense id of the user group within its document.
+     *
+     * @param id Id of the user group, or -1 if the user group no longer belongs to a document
+     */
+    protected void setId(final int id) {
+        this.id = id;
+    }
+
+    /**
+     * Gets the fingerprint of the direct members of this user group, the sum of the fingerprints of the member names.
+     * It is computed on demand and kept until a member is added, removed or renamed.
+     *
+     * @return Fingerprint of the direct members
+     */
+    protected long getMembershipFingerprint() {
+        if (!membershipFingerprintComputed) {
+            long sum = 0;
+            for (final User user : userMembers) {
+                sum += Fingerprints.mix(Fingerprints.combine(Fingerprints.of(user.getName()), 1));
+            }
+            for (final UserGroup userGroup : userGroupMembers) {
+                sum += Fingerprints.mix(Fingerprints.combine(Fingerprints.of(userGroup.getName()), 2));
+            }
+
+            membershipFingerprint = sum;
+            membershipFingerprintComputed = true;
+        }
+
+        return membershipFingerprint;
+    }
+
     /**
      * Gets the current name of the user group.
      *
@@ -139,6 +197,8 @@ public final class UserGroup {
      * @return true if user group is not already in the user group, otherwise false
      */
     protected boolean addUserGroupMember(final UserGroup userGroup) {
+        membershipFingerprintComputed = false;
+
         return userGroupMembers.add(userGroup);
     }
 
@@ -149,6 +209,8 @@ public final class UserGroup {
      * @return true if user is not already in the user group, otherwise false
      */
     protected boolean addUserMember(final User user) {
+        membershipFingerprintComputed = false;
+
         return userMembers.add(user);
     }
 
@@ -159,6 +221,8 @@ public final class UserGroup {
      * @return true if user group is removed from the user group, otherwise false
      */
     protected boolean removeUserGroupMember(final UserGroup userGroup) {
+        membershipFingerprintComputed = false;
+
         return userGroupMembers.remove(userGroup);
     }
 
@@ -169,6 +233,8 @@ public final class UserGroup {
      * @return true if user is removed from the user group, otherwise false
      */
     protected boolean removeUserMember(final User user) {
+        membershipFingerprintComputed = false;
+
         return userMembers.remove(user);
     }
 
@@ -179,6 +245,14 @@ public final class UserGroup {
      */
     protected void setName(final String name) {
         this.name = name;
+
+        for (final UserGroup userGroup : userGroups) {
+            userGroup.membershipFingerprintComputed = false;
+        }
+
+        for (final AccessRule accessRule : accessRules) {
+            accessRule.getTreeNode().invalidateFingerprint();
+        }
     }
 
     @Override
@@ -0,0 +1,175 @@
+package net.lmxm.suafe.api.internal;
+
+import net.lmxm.suafe.api.AccessLevel;
+import net.lmxm.suafe.api.AccessRule;
+import net.lmxm.suafe.api.Repository;
+
+import java.util.*;
+
+import static net.lmxm.suafe.api.internal.Preconditions.checkArgumentNotNull;
+
+/**
+ * Secondary index of access rules by access level, exclusion flag and owning repository. Every query returns its
+ * results in time proportional to the number of matching rules.
+ */
+public final class AccessRuleIndex {
+    /**
+     * Number of buckets per repository; one for each combination of access level and exclusion flag.
+     */
+    private static final int BUCKET_COUNT = AccessLevel.values().length * 2;
+
+    /**
+     * Buckets of all access rules in all trees.
+     */
+    private final List<Set<AccessRule>> allBuckets = createBuckets();
+
+    /**
+     * Buckets of access rules by owning repository. Server-wide access rules are stored with the null key.
+     * Repositories are compared by identity because their hash code changes when they are renamed.
+     */
+    private final Map<Repository, List<Set<AccessRule>>> repositoryBuckets = new IdentityHashMap<Repository, List<Set<AccessRule>>>();
+
+    /**
+     * Adds an access rule to the index.
+     *
+     * @param accessRule Access rule to add
+     */
+    public void add(final AccessRule accessRule) {
+        checkArgumentNotNull(accessRule, "Access rule");
+
+        final Repository repository = accessRule.getTreeNode().getRepository();
+        List<Set<AccessRule>> buckets = repositoryBuckets.get(repository);
+        if (buckets == null) {
+            buckets = createBuckets();
+            repositoryBuckets.put(repository, buckets);
+        }
+
+        final int bucket = bucketOf(accessRule.getAccessLevel(), accessRule.isExclusion());
+        buckets.get(bucket).add(accessRule);
+        allBuckets.get(bucket).add(accessRule);
+    }
+
+    /**
+     * Removes an access rule from the index. The access rule's access level and exclusion flag must be unchanged
+     * since it was added.
+     *
+     * @param accessRule Access rule to remove
+     */
+    public void remove(final AccessRule accessRule) {
+        checkArgumentNotNull(accessRule, "Access rule");
+
+        final Repository repository = accessRule.getTreeNode().getRepository();
+        final List<Set<AccessRule>> buckets = repositoryBuckets.get(repository);
+        if (buckets == null) {
+            return;
+        }
+
+        final int bucket = bucketOf(accessRule.getAccessLevel(), accessRule.isExclusion());
+        buckets.get(bucket).remove(accessRule);
+        allBuckets.get(bucket).remove(accessRule);
+
+        if (isEmpty(buckets)) {
+            repositoryBuckets.remove(repository);
+        }
+    }
+
+    /**
+     * Finds all access rules, in all repositories and the server-wide tree, that match the provided criteria.
+     *
+     * @param accessLevel Access level to match, or null to match all access levels
+     * @param exclusion   Exclusion flag to match, or null to match both exclusion and inclusion rules
+     * @return Unmodifiable set of matching access rules
+     */
+    public Set<AccessRule> find(final AccessLevel accessLevel, final Boolean exclusion) {
+        return collect(allBuckets, accessLevel, exclusion);
+    }
+
+    /**
+     * Finds all access rules in one repository that match the provided criteria.
+     *
+     * @param repository  Repository that owns the access rules, or null for server-wide access rules
+     * @param accessLevel Access level to match, or null to match all access levels
+     * @param exclusion   Exclusion flag to match, or null to match both exclusion and inclusion rules
+     * @return Unmodifiable set of matching access rules
+     */
+    public Set<AccessRule> find(final Repository repository, final AccessLevel accessLevel, final Boolean exclusion) {
+        final List<Set<AccessRule>> buckets = repositoryBuckets.get(repository);
+
+        if (buckets == null) {
+            return Collections.emptySet();
+        }
+        else {
+            return collect(buckets, accessLevel, exclusion);
+        }
+    }
+
+    /**
+     * Collects the access rules of all buckets that match the provided criteria.
+     *
+     * @param buckets     Buckets from which to collect
+     * @param accessLevel Access level to match, or null to match all access levels
+     * @param exclusion   Exclusion flag to match, or null to match both exclusion and inclusion rules
+     * @return Unmodifiable set of matching access rules
+     */
+    private static Set<AccessRule> collect(final List<Set<AccessRule>> buckets, final AccessLevel accessLevel, final Boolean exclusion) {
+        final Set<AccessRule> accessRules = new LinkedHashSet<AccessRule>();
+
+        for (final AccessLevel candidateAccessLevel : AccessLevel.values()) {
+            if (accessLevel != null && accessLevel != candidateAccessLevel) {
+                continue;
+            }
+
+            if (exclusion == null || !exclusion) {
+                accessRules.addAll(buckets.get(bucketOf(candidateAccessLevel, false)));
+            }
+
+            if (exclusion == null || exclusion) {
+                accessRules.addAll(buckets.get(bucketOf(candidateAccessLevel, true)));
+            }
+        }
+
+        return Collections.unmodifiableSet(accessRules);
+    }
+
+    /**
+     * Gets the bucket number for an access level and exclusion flag.
+     *
+     * @param accessLevel Access level
+     * @param exclusion   Exclusion flag
+     * @return Bucket number
+     */
+    private static int bucketOf(final AccessLevel accessLevel, final boolean exclusion) {
+        return accessLevel.ordinal() * 2 + (exclusion ? 1 : 0);
+    }
+
+    /**
+     * Creates a new list of empty buckets.
+     *
+     * @return List of empty buckets
+     */
+    private static List<Set<AccessRule>> createBuckets() {
+        final List<Set<AccessRule>> buckets = new ArrayList<Set<AccessRule>>(BUCKET_COUNT);
+
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.add(new LinkedHashSet<AccessRule>());
+        }
+
+        return buckets;
+    }
+
+    /**
+     * Checks if all buckets are empty.
+     *
+     * @param buckets Buckets to check
+     * @return True if no bucket contains an access rule, otherwise false
+     */
+    private static boolean isEmpty(final List<Set<AccessRule>> buckets) {
+        for (final Set<AccessRule> bucket : buckets) {
+            if (!bucket.isEmpty()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
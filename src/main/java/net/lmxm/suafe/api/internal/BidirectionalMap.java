@@ -0,0 +1,92 @@
+package net.lmxm.suafe.api.internal;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import static net.lmxm.suafe.api.internal.Preconditions.checkArgumentNotNull;
+
+/**
+ * One-to-one map that can be queried in both directions in constant time. Values are tracked by identity, so values
+ * whose hash code changes while they are mapped (e.g. renamed users) are still found.
+ *
+ * @param <K> Type of key
+ * @param <V> Type of value
+ */
+public final class BidirectionalMap<K, V> {
+    /**
+     * Map of keys to values.
+     */
+    private final Map<K, V> values = new HashMap<K, V>();
+
+    /**
+     * Map of values to keys.
+     */
+    private final Map<V, K> keys = new IdentityHashMap<V, K>();
+
+    /**
+     * Gets the value mapped to a key.
+     *
+     * @param key Key of the value to get
+     * @return Mapped value or null if the key is not mapped
+     */
+    public V getValue(final K key) {
+        return values.get(key);
+    }
+
+    /**
+     * Gets the key mapped to a value.
+     *
+     * @param value Value of the key to get
+     * @return Mapped key or null if the value is not mapped
+     */
+    public K getKey(final V value) {
+        return keys.get(value);
+    }
+
+    /**
+     * Maps a key to a value. Any key previously mapped to the value is removed.
+     *
+     * @param key   Key to map
+     * @param value Value to map
+     * @throws IllegalStateException When the key is already mapped to a different value
+     */
+    public void put(final K key, final V value) {
+        checkArgumentNotNull(key, "Key");
+        checkArgumentNotNull(value, "Value");
+
+        final V currentValue = values.get(key);
+        if (currentValue != null && currentValue != value) {
+            throw new IllegalStateException("Key " + key + " is already mapped to a different value");
+        }
+
+        removeValue(value);
+        values.put(key, value);
+        keys.put(value, key);
+    }
+
+    /**
+     * Removes the mapping of a value.
+     *
+     * @param value Value to remove
+     * @return Key that was mapped to the value or null if the value was not mapped
+     */
+    public K removeValue(final V value) {
+        final K key = keys.remove(value);
+
+        if (key != null) {
+            values.remove(key);
+        }
+
+        return key;
+    }
+
+    /**
+     * Gets the number of mappings.
+     *
+     * @return Number of mappings
+     */
+    public int size() {
+        return values.size();
+    }
+}
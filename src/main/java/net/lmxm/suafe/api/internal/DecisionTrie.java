@@ -0,0 +1,254 @@
+package net.lmxm.suafe.api.internal;
+
+import java.util.BitSet;
+
+import static net.lmxm.suafe.api.internal.Preconditions.checkArgumentNotNull;
+
+/**
+ * Immutable, array-backed path trie of access rules, built by DecisionTrieBuilder. Nodes are numbered in breadth
+ * first order so that the children of a node are contiguous, and the children of each node are found through a
+ * perfect hash table, so a path segment is resolved with a single probe. The access rules of each node are packed
+ * into ints and sorted by principal id; each node holds the rules of the repository tree, which take precedence, and
+ * the rules of the server-wide tree separately. The access bits of the rules are those assigned by AccessEvaluator.
+ */
+public final class DecisionTrie {
+    /**
+     * Index of the root node.
+     */
+    public static final int ROOT = 0;
+
+    /**
+     * Mask of the access bits of a packed rule.
+     */
+    static final int ACCESS_MASK = 3;
+
+    /**
+     * Flag of a packed rule marking an exclusion rule.
+     */
+    static final int EXCLUSION_FLAG = 4;
+
+    /**
+     * Flag of a packed rule marking a user group rule.
+     */
+    static final int USER_GROUP_FLAG = 8;
+
+    /**
+     * Number of bits by which the principal id of a packed rule is shifted.
+     */
+    static final int PRINCIPAL_SHIFT = 4;
+
+    /**
+     * Access value indicating that no rule applies.
+     */
+    private static final int NO_MATCH = -1;
+
+    /**
+     * Name of each node.
+     */
+    private final String[] names;
+
+    /**
+     * Parent of each node; -1 for the root.
+     */
+    private final int[] parents;
+
+    /**
+     * Offsets of the children of each node; the children of node n are the nodes from childOffsets[n] to
+     * childOffsets[n + 1], sorted by name.
+     */
+    private final int[] childOffsets;
+
+    /**
+     * Hash seed of the child table of each node, or -1 if the children of the node are found by binary search.
+     */
+    private final int[] childSeeds;
+
+    /**
+     * Offsets of the child table of each node in the child tables; the length of each table is a power of two.
+     */
+    private final int[] childTableOffsets;
+
+    /**
+     * Child tables of all nodes; each slot holds a child node or -1.
+     */
+    private final int[] childTables;
+
+    /**
+     * Offsets of the rules of each node; the repository rules of node n are the rules from ruleOffsets[2n] to
+     * ruleOffsets[2n + 1] and its server-wide rules are the rules from ruleOffsets[2n + 1] to ruleOffsets[2n + 2].
+     */
+    private final int[] ruleOffsets;
+
+    /**
+     * Packed rules of all nodes.
+     */
+    private final int[] rules;
+
+    /**
+     * Constructs a new trie from its arrays. Used by DecisionTrieBuilder.
+     *
+     * @param names             Name of each node
+     * @param parents           Parent of each node
+     * @param childOffsets      Offsets of the children of each node
+     * @param childSeeds        Hash seed of the child table of each node
+     * @param childTableOffsets Offsets of the child table of each node
+     * @param childTables       Child tables of all nodes
+     * @param ruleOffsets       Offsets of the rules of each node
+     * @param rules             Packed rules of all nodes
+     */
+    DecisionTrie(final String[] names, final int[] parents, final int[] childOffsets, final int[] childSeeds,
+                 final int[] childTableOffsets, final int[] childTables, final int[] ruleOffsets, final int[] rules) {
+        this.names = names;
+        this.parents = parents;
+        this.childOffsets = childOffsets;
+        this.childSeeds = childSeeds;
+        this.childTableOffsets = childTableOffsets;
+        this.childTables = childTables;
+        this.ruleOffsets = ruleOffsets;
+        this.rules = rules;
+    }
+
+    /**
+     * Evaluates the access of a principal to a path. The rules of the deepest node on the path with a rule applying to
+     * the principal decide; at each node the repository rules are checked before the server-wide rules. No objects are
+     * allocated.
+     *
+     * @param path         Path to evaluate (e.g. /trunk/src)
+     * @param userId       Id of the user, or -1 if the user is not known
+     * @param userGroupIds Ids of all user groups in which the user is a member
+     * @return Access bits granted to the user
+     */
+    public int evaluate(final String path, final int userId, final BitSet userGroupIds) {
+        checkArgumentNotNull(path, "Path");
+
+        int node = ROOT;
+        final int length = path.length();
+        int start = 0;
+        while (start < length) {
+            if (path.charAt(start) == '/') {
+                start++;
+                continue;
+            }
+
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = length;
+            }
+
+            final int child = findChild(node, path, start, end);
+            if (child < 0) {
+                break;
+            }
+
+            node = child;
+            start = end;
+        }
+
+        for (; node >= 0; node = parents[node]) {
+            int access = evaluateRules(ruleOffsets[2 * node], ruleOffsets[2 * node + 1], userId, userGroupIds);
+            if (access != NO_MATCH) {
+                return access;
+            }
+
+            access = evaluateRules(ruleOffsets[2 * node + 1], ruleOffsets[2 * node + 2], userId, userGroupIds);
+            if (access != NO_MATCH) {
+                return access;
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Gets the number of nodes.
+     *
+     * @return Number of nodes
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * Finds the child of a node whose name equals a region of a path.
+     *
+     * @param node  Node whose children are searched
+     * @param path  Path containing the child name
+     * @param start Index of the first character of the child name
+     * @param end   Index after the last character of the child name
+     * @return Child node or -1 if not found
+     */
+    private int findChild(final int node, final String path, final int start, final int end) {
+        final int seed = childSeeds[node];
+
+        if (seed >= 0) {
+            final int tableOffset = childTableOffsets[node];
+            final int mask = childTableOffsets[node + 1] - tableOffset - 1;
+            final int child = childTables[tableOffset + (hash(seed, path, start, end) & mask)];
+
+            return child >= 0 && PathRegions.matches(names[child], path, start, end) ? child : -1;
+        }
+
+        int low = childOffsets[node];
+        int high = childOffsets[node + 1] - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int comparison = PathRegions.compare(names[middle], path, start, end);
+
+            if (comparison < 0) {
+                low = middle + 1;
+            }
+            else if (comparison > 0) {
+                high = middle - 1;
+            }
+            else {
+                return middle;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Evaluates a range of packed rules.
+     *
+     * @param from         Index of the first rule
+     * @param to           Index after the last rule
+     * @param userId       Id of the user
+     * @param userGroupIds Ids of all user groups in which the user is a member
+     * @return Union of the access bits of all rules that apply, or NO_MATCH if none apply
+     */
+    private int evaluateRules(final int from, final int to, final int userId, final BitSet userGroupIds) {
+        int access = NO_MATCH;
+
+        for (int i = from; i < to; i++) {
+            final int rule = rules[i];
+            final int principalId = rule >>> PRINCIPAL_SHIFT;
+            final boolean matches = (rule & USER_GROUP_FLAG) != 0 ? userGroupIds.get(principalId) : principalId == userId;
+
+            if (matches != ((rule & EXCLUSION_FLAG) != 0)) {
+                access = (access == NO_MATCH ? 0 : access) | (rule & ACCESS_MASK);
+            }
+        }
+
+        return access;
+    }
+
+    /**
+     * Hashes a region of a string with a seeded FNV-1a hash.
+     *
+     * @param seed   Seed of the hash
+     * @param string String containing the region
+     * @param start  Index of the first character of the region
+     * @param end    Index after the last character of the region
+     * @return Hash of the region
+     */
+    static int hash(final int seed, final String string, final int start, final int end) {
+        int hash = 0x811C9DC5 ^ (seed * 0x9E3779B9);
+
+        for (int i = start; i < end; i++) {
+            hash = (hash ^ string.charAt(i)) * 0x01000193;
+        }
+
+        return hash ^ (hash >>> 15);
+    }
+}
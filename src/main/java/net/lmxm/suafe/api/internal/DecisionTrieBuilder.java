@@ -0,0 +1,258 @@
+package net.lmxm.suafe.api.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static net.lmxm.suafe.api.internal.DecisionTrie.*;
+import static net.lmxm.suafe.api.internal.Preconditions.checkArgumentNotNull;
+
+/**
+ * Builder of an immutable DecisionTrie. Nodes and rules are added in any order; build() numbers the nodes in breadth
+ * first order, packs and sorts the rules and computes a perfect hash table for the children of every node.
+ */
+public final class DecisionTrieBuilder {
+    /**
+     * Highest principal id that fits in a packed rule.
+     */
+    private static final int MAX_PRINCIPAL_ID = Integer.MAX_VALUE >>> PRINCIPAL_SHIFT;
+
+    /**
+     * Number of seeds tried for each child table size before the size is doubled.
+     */
+    private static final int SEEDS_PER_TABLE_SIZE = 32;
+
+    /**
+     * Largest child table size, as a multiple of the number of children, before falling back to binary search.
+     */
+    private static final int MAX_TABLE_SIZE_FACTOR = 8;
+
+    /**
+     * Name of each node, by node index in the order added.
+     */
+    private final List<String> names = new ArrayList<String>();
+
+    /**
+     * Parent of each node, by node index in the order added.
+     */
+    private final List<Integer> parents = new ArrayList<Integer>();
+
+    /**
+     * Children of each node by name, by node index in the order added.
+     */
+    private final List<Map<String, Integer>> children = new ArrayList<Map<String, Integer>>();
+
+    /**
+     * Packed repository rules of each node, by node index in the order added.
+     */
+    private final List<List<Integer>> repositoryRules = new ArrayList<List<Integer>>();
+
+    /**
+     * Packed server-wide rules of each node, by node index in the order added.
+     */
+    private final List<List<Integer>> serverRules = new ArrayList<List<Integer>>();
+
+    /**
+     * Constructs a new builder containing only the root node.
+     */
+    public DecisionTrieBuilder() {
+        addNode("", -1);
+    }
+
+    /**
+     * Finds or adds the child of a node with the provided name.
+     *
+     * @param node Node to which the child belongs
+     * @param name Name of the child
+     * @return Index of the child node
+     */
+    public int addChild(final int node, final String name) {
+        checkArgumentNotNull(name, "Name");
+
+        final Integer child = children.get(node).get(name);
+        if (child != null) {
+            return child;
+        }
+
+        return addNode(name, node);
+    }
+
+    /**
+     * Adds a rule to a node.
+     *
+     * @param node           Node to which the rule belongs
+     * @param repositoryRule True if the rule belongs to the repository tree, false if it is a server-wide rule
+     * @param principalId    Id of the user or user group to which the rule applies
+     * @param userGroupRule  True if the principal is a user group, false if it is a user
+     * @param access         Access bits granted by the rule
+     * @param exclusion      True if the rule applies to all principals except the provided one
+     */
+    public void addRule(final int node, final boolean repositoryRule, final int principalId, final boolean userGroupRule,
+                        final int access, final boolean exclusion) {
+        if (principalId < 0 || principalId > MAX_PRINCIPAL_ID) {
+            throw new IllegalArgumentException("Principal id " + principalId + " is out of range");
+        }
+
+        final int rule = (principalId << PRINCIPAL_SHIFT) | (userGroupRule ? USER_GROUP_FLAG : 0)
+                | (exclusion ? EXCLUSION_FLAG : 0) | (access & ACCESS_MASK);
+        (repositoryRule ? repositoryRules : serverRules).get(node).add(rule);
+    }
+
+    /**
+     * Builds the trie.
+     *
+     * @return New immutable trie
+     */
+    public DecisionTrie build() {
+        final int count = names.size();
+
+        // Number nodes breadth first, with the children of each node sorted by name
+        final int[] order = new int[count];
+        final int[] newIndexes = new int[count];
+        final int[] childOffsets = new int[count + 1];
+        int tail = 1;
+        for (int head = 0; head < count; head++) {
+            childOffsets[head] = tail;
+            for (final Integer child : new TreeMap<String, Integer>(children.get(order[head])).values()) {
+                order[tail] = child;
+                newIndexes[child] = tail;
+                tail++;
+            }
+        }
+        childOffsets[count] = tail;
+
+        final String[] nodeNames = new String[count];
+        final int[] nodeParents = new int[count];
+        final int[] ruleOffsets = new int[2 * count + 1];
+        final List<Integer> packedRules = new ArrayList<Integer>();
+        for (int node = 0; node < count; node++) {
+            final int oldIndex = order[node];
+            nodeNames[node] = names.get(oldIndex);
+            nodeParents[node] = node == ROOT ? -1 : newIndexes[parents.get(oldIndex)];
+
+            ruleOffsets[2 * node] = packedRules.size();
+            packedRules.addAll(sorted(repositoryRules.get(oldIndex)));
+            ruleOffsets[2 * node + 1] = packedRules.size();
+            packedRules.addAll(sorted(serverRules.get(oldIndex)));
+        }
+        ruleOffsets[2 * count] = packedRules.size();
+
+        final int[] rules = new int[packedRules.size()];
+        for (int i = 0; i < rules.length; i++) {
+            rules[i] = packedRules.get(i);
+        }
+
+        // Compute a perfect hash table for the children of each node
+        final int[] childSeeds = new int[count];
+        final int[] childTableOffsets = new int[count + 1];
+        final List<int[]> tables = new ArrayList<int[]>(count);
+        int tableOffset = 0;
+        for (int node = 0; node < count; node++) {
+            final int[] table = buildChildTable(nodeNames, childOffsets[node], childOffsets[node + 1], childSeeds, node);
+            tables.add(table);
+            childTableOffsets[node] = tableOffset;
+            tableOffset += table.length;
+        }
+        childTableOffsets[count] = tableOffset;
+
+        final int[] childTables = new int[tableOffset];
+        for (int node = 0; node < count; node++) {
+            System.arraycopy(tables.get(node), 0, childTables, childTableOffsets[node], tables.get(node).length);
+        }
+
+        return new DecisionTrie(nodeNames, nodeParents, childOffsets, childSeeds, childTableOffsets, childTables,
+                ruleOffsets, rules);
+    }
+
+    /**
+     * Adds a new node.
+     *
+     * @param name   Name of the node
+     * @param parent Parent of the node
+     * @return Index of the new node
+     */
+    private int addNode(final String name, final int parent) {
+        final int node = names.size();
+
+        names.add(name);
+        parents.add(parent);
+        children.add(new HashMap<String, Integer>());
+        repositoryRules.add(new ArrayList<Integer>());
+        serverRules.add(new ArrayList<Integer>());
+
+        if (parent >= 0) {
+            children.get(parent).put(name, node);
+        }
+
+        return node;
+    }
+
+    /**
+     * Builds a collision free hash table of a node's children by searching for a seed that maps every child to its
+     * own slot. If no seed is found within the size limit the node falls back to binary search.
+     *
+     * @param nodeNames  Name of each node
+     * @param first      First child of the node
+     * @param last       Index after the last child of the node
+     * @param childSeeds Receives the seed of the node
+     * @param node       Node whose child table is built
+     * @return Child table; empty if the node has no children or falls back to binary search
+     */
+    private static int[] buildChildTable(final String[] nodeNames, final int first, final int last, final int[] childSeeds, final int node) {
+        final int childCount = last - first;
+        childSeeds[node] = -1;
+
+        if (childCount == 0) {
+            return new int[0];
+        }
+
+        int size = Integer.highestOneBit(childCount);
+        if (size < childCount) {
+            size <<= 1;
+        }
+
+        for (; size <= childCount * MAX_TABLE_SIZE_FACTOR; size <<= 1) {
+            final int[] table = new int[size];
+
+            for (int seed = 0; seed < SEEDS_PER_TABLE_SIZE; seed++) {
+                Arrays.fill(table, -1);
+
+                boolean collision = false;
+                for (int child = first; child < last && !collision; child++) {
+                    final String name = nodeNames[child];
+                    final int slot = hash(seed, name, 0, name.length()) & (size - 1);
+
+                    if (table[slot] >= 0) {
+                        collision = true;
+                    }
+                    else {
+                        table[slot] = child;
+                    }
+                }
+
+                if (!collision) {
+                    childSeeds[node] = seed;
+                    return table;
+                }
+            }
+        }
+
+        return new int[0];
+    }
+
+    /**
+     * Sorts packed rules.
+     *
+     * @param rules Packed rules
+     * @return Sorted copy of the rules
+     */
+    private static List<Integer> sorted(final List<Integer> rules) {
+        final Integer[] array = rules.toArray(new Integer[rules.size()]);
+        Arrays.sort(array);
+
+        return Arrays.asList(array);
+    }
+}
@@ -0,0 +1,72 @@
+package net.lmxm.suafe.api.internal;
+
+/**
+ * Helpers for 64-bit structural fingerprints. Fingerprints of unordered collections are built by adding the mixed
+ * fingerprints of their elements, which does not depend on iteration order and lets an element be added or removed
+ * without visiting the others.
+ */
+public final class Fingerprints {
+    /**
+     * Offset basis of the FNV-1a hash.
+     */
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    /**
+     * Prime of the FNV-1a hash.
+     */
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Prevents instantiation.
+     */
+    private Fingerprints() {
+    }
+
+    /**
+     * Computes the fingerprint of a string.
+     *
+     * @param value String to fingerprint, or null
+     * @return Fingerprint of the string
+     */
+    public static long of(final String value) {
+        if (value == null) {
+            return 0;
+        }
+
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+
+        return mix(hash);
+    }
+
+    /**
+     * Combines two fingerprints in order.
+     *
+     * @param a First fingerprint
+     * @param b Second fingerprint
+     * @return Combined fingerprint
+     */
+    public static long combine(final long a, final long b) {
+        return mix(a * FNV_PRIME + b);
+    }
+
+    /**
+     * Scrambles the bits of a value, so that sums of mixed values rarely collide.
+     *
+     * @param value Value to mix
+     * @return Mixed value
+     */
+    public static long mix(final long value) {
+        long mixed = value;
+
+        mixed ^= mixed >>> 33;
+        mixed *= 0xff51afd7ed558ccdL;
+        mixed ^= mixed >>> 33;
+        mixed *= 0xc4ceb9fe1a85ec53L;
+        mixed ^= mixed >>> 33;
+
+        return mixed;
+    }
+}
@@ -0,0 +1,77 @@
+package net.lmxm.suafe.api.internal;
+
+import java.util.BitSet;
+
+/**
+ * Allocator of dense, non-negative integer ids. The lowest free id is always allocated first, so released ids are
+ * reused and the ids in use stay close to zero. This allows ids to be used as bit positions and array indexes.
+ */
+public final class IdAllocator {
+    /**
+     * Ids currently in use.
+     */
+    private final BitSet allocatedIds = new BitSet();
+
+    /**
+     * Allocates the lowest free id.
+     *
+     * @return Allocated id
+     */
+    public int allocate() {
+        final int id = allocatedIds.nextClearBit(0);
+        allocatedIds.set(id);
+
+        return id;
+    }
+
+    /**
+     * Releases an id so that it can be allocated again.
+     *
+     * @param id Id to release
+     * @throws IllegalArgumentException When the id is not allocated
+     */
+    public void release(final int id) {
+        if (!isAllocated(id)) {
+            throw new IllegalArgumentException("Id " + id + " is not allocated");
+        }
+
+        allocatedIds.clear(id);
+    }
+
+    /**
+     * Checks if an id is allocated.
+     *
+     * @param id Id to check
+     * @return True if the id is allocated, otherwise false
+     */
+    public boolean isAllocated(final int id) {
+        return id >= 0 && allocatedIds.get(id);
+    }
+
+    /**
+     * Gets a copy of the allocated ids.
+     *
+     * @return Bit set of allocated ids
+     */
+    public BitSet getAllocatedIds() {
+        return (BitSet) allocatedIds.clone();
+    }
+
+    /**
+     * Gets one more than the highest allocated id; every allocated id is lower than this bound.
+     *
+     * @return Upper bound of the allocated ids
+     */
+    public int getBound() {
+        return allocatedIds.length();
+    }
+
+    /**
+     * Gets the number of allocated ids.
+     *
+     * @return Number of allocated ids
+     */
+    public int size() {
+        return allocatedIds.cardinality();
+    }
+}
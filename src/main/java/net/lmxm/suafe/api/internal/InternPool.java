@@ -0,0 +1,52 @@
+package net.lmxm.suafe.api.internal;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Pool of canonical instances of immutable values (hash-consing). Values that repeat throughout a document, such as
+ * path segment names, user names and effective access control lists, are stored once and shared by every object that
+ * references them. Values that are no longer referenced outside of the pool are released by the garbage
+ * collector. The pool is thread-safe, since values may be interned while several threads read a document.
+ *
+ * @param <T> Type of pooled value; must be immutable and implement equals and hashCode
+ */
+public final class InternPool<T> {
+    /**
+     * Map of pooled values, each value mapped to a weak reference to its canonical instance. Guarded by this pool.
+     */
+    private final Map<T, WeakReference<T>> values = new WeakHashMap<T, WeakReference<T>>();
+
+    /**
+     * Gets the canonical instance of the provided value. If the pool does not yet contain an equal value then the
+     * provided value becomes the canonical instance.
+     *
+     * @param value Value to intern, may be null
+     * @return Canonical instance equal to the value, or null if the value is null
+     */
+    public synchronized T intern(final T value) {
+        if (value == null) {
+            return null;
+        }
+
+        final WeakReference<T> reference = values.get(value);
+        final T canonicalValue = reference == null ? null : reference.get();
+        if (canonicalValue != null) {
+            return canonicalValue;
+        }
+
+        values.put(value, new WeakReference<T>(value));
+
+        return value;
+    }
+
+    /**
+     * Gets the number of distinct values currently held by the pool.
+     *
+     * @return Number of pooled values
+     */
+    public synchronized int size() {
+        return values.size();
+    }
+}
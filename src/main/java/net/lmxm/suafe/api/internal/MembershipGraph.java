@@ -0,0 +1,766 @@
+package net.lmxm.suafe.api.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Graph of user and user group memberships over dense ids, with the transitive closure maintained incrementally.
+ * For every user group the graph keeps the set of user groups that contain it, directly or through nested user
+ * groups, and for every user the set of user groups in which it is a member, directly or through nested user groups.
+ * An edit only updates the user groups downstream of the changed edge and the users that are members of them, so
+ * membership queries are single bit tests that never search the graph.
+ *
+ * The direct user members of every user group are kept as rows of 64-bit words, and the user groups nested in every
+ * user group, directly or indirectly, as a row of its own. The users of a user group are therefore expanded by
+ * combining the word rows of its nested user groups into a UserIdSet, without testing single bits or searching the
+ * graph.
+ *
+ * User group memberships are kept acyclic. Because ancestors are maintained, an insert that would close a cycle is
+ * detected with a single bit test. The graph also maintains a topological order of the user groups (Pearce-Kelly),
+ * which lets the ancestors of the user groups affected by a removal be recomputed in a single pass, containing user
+ * groups first.
+ */
+public final class MembershipGraph {
+    /**
+     * User groups in which each user is a direct member, indexed by user id.
+     */
+    private final List<BitSet> userParents = new ArrayList<BitSet>();
+
+    /**
+     * User groups in which each user is a member directly or through nested user groups, indexed by user id.
+     */
+    private final List<BitSet> userClosures = new ArrayList<BitSet>();
+
+    /**
+     * User groups in which each user group is a direct member, indexed by user group id.
+     */
+    private final List<BitSet> userGroupParents = new ArrayList<BitSet>();
+
+    /**
+     * User groups that are direct members of each user group, indexed by user group id.
+     */
+    private final List<BitSet> userGroupChildren = new ArrayList<BitSet>();
+
+    /**
+     * Empty row of words, shared by all user groups without user members.
+     */
+    private static final long[] NO_WORDS = new long[0];
+
+    /**
+     * Users that are direct members of each user group, indexed by user group id. Each row holds the user ids as
+     * words of 64 bits, in which user id i is bit i % 64 of word i / 64, and is replaced by a longer row when a user
+     * beyond its end is added.
+     */
+    private final List<long[]> userGroupUsers = new ArrayList<long[]>();
+
+    /**
+     * User groups that are members of each user group directly or through nested user groups, indexed by user group
+     * id; the transpose of userGroupAncestors.
+     */
+    private final List<BitSet> userGroupDescendants = new ArrayList<BitSet>();
+
+    /**
+     * User groups in which each user group is a member directly or through nested user groups, indexed by user group
+     * id.
+     */
+    private final List<BitSet> userGroupAncestors = new ArrayList<BitSet>();
+
+    /**
+     * Position of each user group in the topological order, indexed by user group id. A containing user group always
+     * has a lower position than its members. Unassigned positions are -1.
+     */
+    private int[] userGroupOrder = new int[0];
+
+    /**
+     * Next unassigned position in the topological order.
+     */
+    private int nextOrder;
+
+    /**
+     * Adds the rows of a newly allocated user id, so that the closure returned for the user stays live.
+     *
+     * @param userId Id of the user
+     */
+    public void addUser(final int userId) {
+        row(userParents, userId);
+        row(userClosures, userId);
+    }
+
+    /**
+     * Adds the rows of a newly allocated user group id, so that the ancestors returned for the user group stay live.
+     *
+     * @param userGroupId Id of the user group
+     */
+    public void addUserGroup(final int userGroupId) {
+        row(userGroupParents, userGroupId);
+        row(userGroupChildren, userGroupId);
+        row(userGroupAncestors, userGroupId);
+        row(userGroupDescendants, userGroupId);
+        while (userGroupUsers.size() <= userGroupId) {
+            userGroupUsers.add(NO_WORDS);
+        }
+    }
+
+    /**
+     * Adds a user to a user group.
+     *
+     * @param userId      Id of the user
+     * @param userGroupId Id of the user group
+     */
+    public void addUserToUserGroup(final int userId, final int userGroupId) {
+        row(userParents, userId).set(userGroupId);
+        setUser(userGroupId, userId);
+
+        final BitSet userClosure = row(userClosures, userId);
+        userClosure.set(userGroupId);
+        userClosure.or(row(userGroupAncestors, userGroupId));
+    }
+
+    /**
+     * Removes a user from a user group.
+     *
+     * @param userId      Id of the user
+     * @param userGroupId Id of the user group
+     */
+    public void removeUserFromUserGroup(final int userId, final int userGroupId) {
+        row(userParents, userId).clear(userGroupId);
+        clearUser(userGroupId, userId);
+
+        recomputeUserClosure(userId);
+    }
+
+    /**
+     * Adds a user group to another user group. The containing user group, and all user groups that contain it, are
+     * added to the ancestors of the member user group and all of its descendants, and to the closures of their users.
+     *
+     * @param userGroupId       Id of the member user group
+     * @param targetUserGroupId Id of the containing user group
+     * @return Ids of the users whose closures changed
+     * @throws IllegalArgumentException When the membership would create a cycle
+     */
+    public BitSet addUserGroupToUserGroup(final int userGroupId, final int targetUserGroupId) {
+        if (createsCycle(userGroupId, targetUserGroupId)) {
+            throw new IllegalArgumentException("Membership would create a cycle");
+        }
+
+        row(userGroupParents, userGroupId).set(targetUserGroupId);
+        row(userGroupChildren, targetUserGroupId).set(userGroupId);
+        reorder(targetUserGroupId, userGroupId);
+
+        final BitSet addedAncestors = (BitSet) row(userGroupAncestors, targetUserGroupId).clone();
+        addedAncestors.set(targetUserGroupId);
+
+        final BitSet affectedUserGroups = findDescendants(userGroupId);
+        final BitSet affectedUsers = new BitSet();
+        for (int id = affectedUserGroups.nextSetBit(0); id >= 0; id = affectedUserGroups.nextSetBit(id + 1)) {
+            row(userGroupAncestors, id).or(addedAncestors);
+            addUsers(findUsers(id), affectedUsers);
+        }
+
+        for (int id = addedAncestors.nextSetBit(0); id >= 0; id = addedAncestors.nextSetBit(id + 1)) {
+            row(userGroupDescendants, id).or(affectedUserGroups);
+        }
+
+        for (int id = affectedUsers.nextSetBit(0); id >= 0; id = affectedUsers.nextSetBit(id + 1)) {
+            row(userClosures, id).or(addedAncestors);
+        }
+
+        return affectedUsers;
+    }
+
+    /**
+     * Removes a user group from another user group. The ancestors of the member user group and all of its
+     * descendants, and the closures of their users, are recomputed in topological order; nothing upstream of the removed
+     * edge changes.
+     *
+     * @param userGroupId       Id of the member user group
+     * @param targetUserGroupId Id of the containing user group
+     * @return Ids of the users whose closures may have changed
+     */
+    public BitSet removeUserGroupFromUserGroup(final int userGroupId, final int targetUserGroupId) {
+        row(userGroupParents, userGroupId).clear(targetUserGroupId);
+        row(userGroupChildren, targetUserGroupId).clear(userGroupId);
+
+        final BitSet previousAncestors = (BitSet) row(userGroupAncestors, userGroupId).clone();
+        final BitSet affectedUserGroups = findDescendants(userGroupId);
+        final BitSet affectedUsers = new BitSet();
+        for (final int id : sortByOrder(affectedUserGroups)) {
+            recomputeUserGroupAncestors(id);
+            addUsers(findUsers(id), affectedUsers);
+        }
+
+        // Only the affected user groups can have left the descendants of the previous ancestors
+        for (int ancestorId = previousAncestors.nextSetBit(0); ancestorId >= 0; ancestorId = previousAncestors.nextSetBit(ancestorId + 1)) {
+            final BitSet descendants = row(userGroupDescendants, ancestorId);
+
+            for (int id = affectedUserGroups.nextSetBit(0); id >= 0; id = affectedUserGroups.nextSetBit(id + 1)) {
+                if (!userGroupAncestors.get(id).get(ancestorId)) {
+                    descendants.clear(id);
+                }
+            }
+        }
+
+        for (int id = affectedUsers.nextSetBit(0); id >= 0; id = affectedUsers.nextSetBit(id + 1)) {
+            recomputeUserClosure(id);
+        }
+
+        return affectedUsers;
+    }
+
+    /**
+     * Removes a user and all of its memberships.
+     *
+     * @param userId Id of the user
+     */
+    public void removeUser(final int userId) {
+        final BitSet parents = row(userParents, userId);
+        for (int id = parents.nextSetBit(0); id >= 0; id = parents.nextSetBit(id + 1)) {
+            clearUser(id, userId);
+        }
+
+        parents.clear();
+        row(userClosures, userId).clear();
+    }
+
+    /**
+     * Removes a user group and all of its memberships.
+     *
+     * @param userGroupId Id of the user group
+     */
+    public void removeUserGroup(final int userGroupId) {
+        final BitSet users = new BitSet();
+        addUsers(findUsers(userGroupId), users);
+        for (int id = users.nextSetBit(0); id >= 0; id = users.nextSetBit(id + 1)) {
+            removeUserFromUserGroup(id, userGroupId);
+        }
+
+        final BitSet children = (BitSet) row(userGroupChildren, userGroupId).clone();
+        for (int id = children.nextSetBit(0); id >= 0; id = children.nextSetBit(id + 1)) {
+            removeUserGroupFromUserGroup(id, userGroupId);
+        }
+
+        final BitSet parents = (BitSet) row(userGroupParents, userGroupId).clone();
+        for (int id = parents.nextSetBit(0); id >= 0; id = parents.nextSetBit(id + 1)) {
+            removeUserGroupFromUserGroup(userGroupId, id);
+        }
+    }
+
+    /**
+     * Adds many user groups to user groups at once. Instead of updating the closure after every membership, all
+     * memberships are added, the whole graph is checked for cycles once and the closure is rebuilt once, in time
+     * linear in the size of the graph. If the memberships would create cycles, none of them are added.
+     *
+     * @param userGroupIds       Ids of the member user groups
+     * @param targetUserGroupIds Ids of the containing user groups, at the same indexes as the member user groups
+     * @return Ids of the user groups of each cycle that the memberships would create; empty if they were added
+     */
+    public List<BitSet> addUserGroupsToUserGroups(final int[] userGroupIds, final int[] targetUserGroupIds) {
+        if (userGroupIds.length != targetUserGroupIds.length) {
+            throw new IllegalArgumentException("User group ids and target user group ids must have the same length");
+        }
+
+        final BitSet addedMemberships = new BitSet(userGroupIds.length);
+        for (int i = 0; i < userGroupIds.length; i++) {
+            final BitSet parents = row(userGroupParents, userGroupIds[i]);
+
+            if (!parents.get(targetUserGroupIds[i])) {
+                parents.set(targetUserGroupIds[i]);
+                row(userGroupChildren, targetUserGroupIds[i]).set(userGroupIds[i]);
+                addedMemberships.set(i);
+            }
+        }
+
+        final List<BitSet> cycles = findCycles();
+        if (cycles.isEmpty()) {
+            rebuild();
+        }
+        else {
+            for (int i = addedMemberships.nextSetBit(0); i >= 0; i = addedMemberships.nextSetBit(i + 1)) {
+                row(userGroupParents, userGroupIds[i]).clear(targetUserGroupIds[i]);
+                row(userGroupChildren, targetUserGroupIds[i]).clear(userGroupIds[i]);
+            }
+        }
+
+        return cycles;
+    }
+
+    /**
+     * Checks if adding a user group to another user group would create a cycle. This is a single bit test.
+     *
+     * @param userGroupId       Id of the member user group
+     * @param targetUserGroupId Id of the containing user group
+     * @return True if the membership would create a cycle, otherwise false
+     */
+    public boolean createsCycle(final int userGroupId, final int targetUserGroupId) {
+        return userGroupId == targetUserGroupId || isUserGroupInUserGroup(targetUserGroupId, userGroupId);
+    }
+
+    /**
+     * Finds all membership cycles by computing the strongly connected components of the graph (Tarjan), in time
+     * linear in the size of the graph.
+     *
+     * @return Ids of the user groups of each cycle
+     */
+    public List<BitSet> findCycles() {
+        final List<BitSet> cycles = new ArrayList<BitSet>();
+
+        for (final BitSet component : findComponents()) {
+            final int id = component.nextSetBit(0);
+
+            if (component.cardinality() > 1 || find(userGroupChildren, id).get(id)) {
+                cycles.add(component);
+            }
+        }
+
+        return cycles;
+    }
+
+    /**
+     * Checks if a user is a member of a user group, directly or through nested user groups.
+     *
+     * @param userId      Id of the user
+     * @param userGroupId Id of the user group
+     * @return True if the user is a member of the user group, otherwise false
+     */
+    public boolean isUserInUserGroup(final int userId, final int userGroupId) {
+        return userId >= 0 && userId < userClosures.size() && userGroupId >= 0 && userClosures.get(userId).get(userGroupId);
+    }
+
+    /**
+     * Checks if a user group is a member of another user group, directly or through nested user groups.
+     *
+     * @param userGroupId       Id of the member user group
+     * @param targetUserGroupId Id of the containing user group
+     * @return True if the user group is a member of the target user group, otherwise false
+     */
+    public boolean isUserGroupInUserGroup(final int userGroupId, final int targetUserGroupId) {
+        return userGroupId >= 0 && userGroupId < userGroupAncestors.size() && targetUserGroupId >= 0
+                && userGroupAncestors.get(userGroupId).get(targetUserGroupId);
+    }
+
+    /**
+     * Gets the ids of all user groups in which a user is a member, directly or through nested user groups. The result
+     * is live and must not be modified.
+     *
+     * @param userId Id of the user
+     * @return Bit set of user group ids
+     */
+    public BitSet getUserClosure(final int userId) {
+        return find(userClosures, userId);
+    }
+
+    /**
+     * Gets the ids of all user groups in which a user group is a member, directly or through nested user groups. The
+     * result is live and must not be modified.
+     *
+     * @param userGroupId Id of the user group
+     * @return Bit set of user group ids
+     */
+    public BitSet getUserGroupAncestors(final int userGroupId) {
+        return find(userGroupAncestors, userGroupId);
+    }
+
+    /**
+     * Gets the ids of all users that are members of a user group, directly or through nested user groups.
+     *
+     * @param userGroupId Id of the user group
+     * @return New bit set of user ids
+     */
+    public BitSet getUserGroupMembers(final int userGroupId) {
+        final BitSet members = new BitSet();
+        addUsers(findUsers(userGroupId), members);
+
+        final BitSet descendants = find(userGroupDescendants, userGroupId);
+        for (int id = descendants.nextSetBit(0); id >= 0; id = descendants.nextSetBit(id + 1)) {
+            addUsers(findUsers(id), members);
+        }
+
+        return members;
+    }
+
+    /**
+     * Recomputes the closure of a user from its direct memberships and the ancestors of its user groups.
+     *
+     * @param userId Id of the user
+     */
+    private void recomputeUserClosure(final int userId) {
+        final BitSet parents = row(userParents, userId);
+        final BitSet userClosure = row(userClosures, userId);
+        userClosure.clear();
+
+        for (int id = parents.nextSetBit(0); id >= 0; id = parents.nextSetBit(id + 1)) {
+            userClosure.set(id);
+            userClosure.or(row(userGroupAncestors, id));
+        }
+    }
+
+    /**
+     * Finds a user group and all user groups that are members of it, directly or through nested user groups.
+     *
+     * @param userGroupId Id of the user group
+     * @return New bit set of user group ids, including the provided id
+     */
+    private BitSet findDescendants(final int userGroupId) {
+        final BitSet descendants = (BitSet) find(userGroupDescendants, userGroupId).clone();
+        descendants.set(userGroupId);
+
+        return descendants;
+    }
+
+    /**
+     * Recomputes the ancestors of a user group from its direct containing user groups, whose ancestors must be
+     * current.
+     *
+     * @param userGroupId Id of the user group
+     */
+    private void recomputeUserGroupAncestors(final int userGroupId) {
+        final BitSet parents = row(userGroupParents, userGroupId);
+        final BitSet ancestors = row(userGroupAncestors, userGroupId);
+        ancestors.clear();
+
+        for (int id = parents.nextSetBit(0); id >= 0; id = parents.nextSetBit(id + 1)) {
+            ancestors.set(id);
+            ancestors.or(row(userGroupAncestors, id));
+        }
+    }
+
+    /**
+     * Rebuilds the topological order, the ancestors of all user groups and the closures of all users. The graph must
+     * be acyclic.
+     */
+    private void rebuild() {
+        final List<BitSet> components = findComponents();
+
+        Arrays.fill(userGroupOrder, -1);
+        nextOrder = 0;
+
+        for (int i = components.size() - 1; i >= 0; i--) {
+            final int id = components.get(i).nextSetBit(0);
+
+            order(id);
+            recomputeUserGroupAncestors(id);
+        }
+
+        for (final BitSet descendants : userGroupDescendants) {
+            descendants.clear();
+        }
+        for (int id = 0; id < userGroupAncestors.size(); id++) {
+            final BitSet ancestors = userGroupAncestors.get(id);
+            for (int ancestorId = ancestors.nextSetBit(0); ancestorId >= 0; ancestorId = ancestors.nextSetBit(ancestorId + 1)) {
+                row(userGroupDescendants, ancestorId).set(id);
+            }
+        }
+
+        for (int id = 0; id < userParents.size(); id++) {
+            recomputeUserClosure(id);
+        }
+    }
+
+    /**
+     * Restores the topological order after a membership is added (Pearce-Kelly). Only the user groups whose positions
+     * lie between the positions of the two user groups are searched and reordered.
+     *
+     * @param parentId Id of the containing user group
+     * @param childId  Id of the member user group
+     */
+    private void reorder(final int parentId, final int childId) {
+        final int lowerBound = order(childId);
+        final int upperBound = order(parentId);
+
+        if (upperBound < lowerBound) {
+            return;
+        }
+
+        final BitSet forward = new BitSet();
+        collect(childId, userGroupChildren, lowerBound, upperBound, forward);
+
+        final BitSet backward = new BitSet();
+        collect(parentId, userGroupParents, lowerBound, upperBound, backward);
+
+        final int[] forwardIds = sortByOrder(forward);
+        final int[] backwardIds = sortByOrder(backward);
+        final int[] positions = new int[forwardIds.length + backwardIds.length];
+        int index = 0;
+        for (final int id : backwardIds) {
+            positions[index++] = userGroupOrder[id];
+        }
+        for (final int id : forwardIds) {
+            positions[index++] = userGroupOrder[id];
+        }
+        Arrays.sort(positions);
+
+        index = 0;
+        for (final int id : backwardIds) {
+            userGroupOrder[id] = positions[index++];
+        }
+        for (final int id : forwardIds) {
+            userGroupOrder[id] = positions[index++];
+        }
+    }
+
+    /**
+     * Adds the ids of all users that are members of a user group, directly or through nested user groups, to a set.
+     * Users with ids beyond the bound of the set are ignored. Unlike getUserGroupMembers this does not allocate: the
+     * word rows of the user group and its nested user groups are combined into the set a word at a time.
+     *
+     * @param userGroupId Id of the user group
+     * @param members     Receives the ids of the member users
+     */
+    public void addUserGroupMembers(final int userGroupId, final UserIdSet members) {
+        members.or(findUsers(userGroupId));
+
+        final BitSet descendants = find(userGroupDescendants, userGroupId);
+        for (int id = descendants.nextSetBit(0); id >= 0; id = descendants.nextSetBit(id + 1)) {
+            members.or(findUsers(id));
+        }
+    }
+
+    /**
+     * Gets the row of words holding the direct user members of a user group.
+     *
+     * @param userGroupId Id of the user group
+     * @return Row of words, empty if the user group has no row
+     */
+    private long[] findUsers(final int userGroupId) {
+        if (userGroupId < 0) {
+            throw new IllegalArgumentException("Id may not be negative");
+        }
+
+        return userGroupId < userGroupUsers.size() ? userGroupUsers.get(userGroupId) : NO_WORDS;
+    }
+
+    /**
+     * Adds a user to the direct user members of a user group, replacing the row by a longer one if needed.
+     *
+     * @param userGroupId Id of the user group
+     * @param userId      Id of the user
+     */
+    private void setUser(final int userGroupId, final int userId) {
+        addUserGroup(userGroupId);
+
+        long[] users = userGroupUsers.get(userGroupId);
+        final int index = userId >>> 6;
+        if (index >= users.length) {
+            final long[] newUsers = new long[Math.max(index + 1, users.length * 2)];
+            System.arraycopy(users, 0, newUsers, 0, users.length);
+            users = newUsers;
+            userGroupUsers.set(userGroupId, users);
+        }
+
+        users[index] |= 1L << userId;
+    }
+
+    /**
+     * Removes a user from the direct user members of a user group.
+     *
+     * @param userGroupId Id of the user group
+     * @param userId      Id of the user
+     */
+    private void clearUser(final int userGroupId, final int userId) {
+        final long[] users = findUsers(userGroupId);
+        final int index = userId >>> 6;
+
+        if (index < users.length) {
+            users[index] &= ~(1L << userId);
+        }
+    }
+
+    /**
+     * Adds the ids held by a row of words to a bit set.
+     *
+     * @param words Row of words
+     * @param ids   Receives the ids
+     */
+    private static void addUsers(final long[] words, final BitSet ids) {
+        for (int i = 0; i < words.length; i++) {
+            long word = words[i];
+            while (word != 0) {
+                ids.set((i << 6) + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+    }
+
+    /**
+     * Collects the user groups reachable from a user group whose positions lie within bounds.
+     *
+     * @param userGroupId Id of the user group from which to search
+     * @param edges       Edges to follow; members or containing user groups
+     * @param lowerBound  Lowest position to visit
+     * @param upperBound  Highest position to visit
+     * @param visited     Receives the ids of the visited user groups
+     */
+    private void collect(final int userGroupId, final List<BitSet> edges, final int lowerBound, final int upperBound, final BitSet visited) {
+        final BitSet pending = new BitSet();
+        pending.set(userGroupId);
+
+        for (int id = pending.nextSetBit(0); id >= 0; id = pending.nextSetBit(0)) {
+            pending.clear(id);
+            visited.set(id);
+
+            final BitSet next = row(edges, id);
+            for (int nextId = next.nextSetBit(0); nextId >= 0; nextId = next.nextSetBit(nextId + 1)) {
+                final int position = order(nextId);
+
+                if (position >= lowerBound && position <= upperBound && !visited.get(nextId)) {
+                    pending.set(nextId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sorts user groups by their position in the topological order.
+     *
+     * @param userGroupIds Ids of the user groups to sort
+     * @return Ids of the user groups, containing user groups first
+     */
+    private int[] sortByOrder(final BitSet userGroupIds) {
+        final long[] keys = new long[userGroupIds.cardinality()];
+        int index = 0;
+        for (int id = userGroupIds.nextSetBit(0); id >= 0; id = userGroupIds.nextSetBit(id + 1)) {
+            keys[index++] = ((long) order(id) << 32) | id;
+        }
+        Arrays.sort(keys);
+
+        final int[] sortedIds = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            sortedIds[i] = (int) keys[i];
+        }
+
+        return sortedIds;
+    }
+
+    /**
+     * Gets the position of a user group in the topological order, assigning the next position to a user group that
+     * has none.
+     *
+     * @param userGroupId Id of the user group
+     * @return Position of the user group
+     */
+    private int order(final int userGroupId) {
+        if (userGroupId >= userGroupOrder.length) {
+            final int[] newUserGroupOrder = new int[Math.max(userGroupId + 1, userGroupOrder.length * 2)];
+            System.arraycopy(userGroupOrder, 0, newUserGroupOrder, 0, userGroupOrder.length);
+            Arrays.fill(newUserGroupOrder, userGroupOrder.length, newUserGroupOrder.length, -1);
+            userGroupOrder = newUserGroupOrder;
+        }
+
+        if (userGroupOrder[userGroupId] < 0) {
+            userGroupOrder[userGroupId] = nextOrder++;
+        }
+
+        return userGroupOrder[userGroupId];
+    }
+
+    /**
+     * Finds the strongly connected components of the graph (Tarjan). The search is iterative so that deep nesting
+     * cannot overflow the stack.
+     *
+     * @return Ids of the user groups of each component, member components before containing components
+     */
+    private List<BitSet> findComponents() {
+        final int count = Math.max(userGroupChildren.size(), userGroupParents.size());
+        final int[] index = new int[count];
+        final int[] lowLink = new int[count];
+        final int[] nextChild = new int[count];
+        final int[] componentStack = new int[count];
+        final int[] searchStack = new int[count];
+        final BitSet onComponentStack = new BitSet(count);
+        final List<BitSet> components = new ArrayList<BitSet>();
+        Arrays.fill(index, -1);
+
+        int nextIndex = 0;
+        int componentStackSize = 0;
+        for (int rootId = 0; rootId < count; rootId++) {
+            if (index[rootId] >= 0) {
+                continue;
+            }
+
+            int searchStackSize = 0;
+            index[rootId] = lowLink[rootId] = nextIndex++;
+            componentStack[componentStackSize++] = rootId;
+            onComponentStack.set(rootId);
+            searchStack[searchStackSize++] = rootId;
+
+            while (searchStackSize > 0) {
+                final int id = searchStack[searchStackSize - 1];
+                final int childId = find(userGroupChildren, id).nextSetBit(nextChild[id]);
+
+                if (childId >= 0 && childId < count) {
+                    nextChild[id] = childId + 1;
+
+                    if (index[childId] < 0) {
+                        index[childId] = lowLink[childId] = nextIndex++;
+                        componentStack[componentStackSize++] = childId;
+                        onComponentStack.set(childId);
+                        searchStack[searchStackSize++] = childId;
+                    }
+                    else if (onComponentStack.get(childId)) {
+                        lowLink[id] = Math.min(lowLink[id], index[childId]);
+                    }
+                }
+                else {
+                    searchStackSize--;
+
+                    if (searchStackSize > 0) {
+                        final int parentId = searchStack[searchStackSize - 1];
+                        lowLink[parentId] = Math.min(lowLink[parentId], lowLink[id]);
+                    }
+
+                    if (lowLink[id] == index[id]) {
+                        final BitSet component = new BitSet();
+                        int memberId;
+                        do {
+                            memberId = componentStack[--componentStackSize];
+                            onComponentStack.clear(memberId);
+                            component.set(memberId);
+                        }
+                        while (memberId != id);
+
+                        components.add(component);
+                    }
+                }
+            }
+        }
+
+        return components;
+    }
+
+    /**
+     * Gets the row of an id without growing the rows, so that queries never modify the graph. Ids without a row have
+     * no memberships.
+     *
+     * @param rows Rows indexed by id
+     * @param id   Id of the row to get
+     * @return Row of the id, or a new empty row if the id has none
+     */
+    private static BitSet find(final List<BitSet> rows, final int id) {
+        if (id < 0) {
+            throw new IllegalArgumentException("Id may not be negative");
+        }
+
+        return id < rows.size() ? rows.get(id) : new BitSet();
+    }
+
+    /**
+     * Gets the row of an id, growing the rows as needed. Only used by edits.
+     *
+     * @param rows Rows indexed by id
+     * @param id   Id of the row to get
+     * @return Row of the id
+     */
+    private static BitSet row(final List<BitSet> rows, final int id) {
+        if (id < 0) {
+            throw new IllegalArgumentException("Id may not be negative");
+        }
+
+        while (rows.size() <= id) {
+            rows.add(new BitSet());
+        }
+
+        return rows.get(id);
+    }
+}
@@ -14,6 +14,8 @@ public enum MessageKey {
     repositoryWithNameDoesNotExist,
     userGroupWithNameAlreadyExists,
     userGroupWithNameDoesNotExist,
+    userGroupMembershipCreatesCycle,
+    userGroupsFormCycle,
     userWithAliasAlreadyExists,
     userWithNameAlreadyExists,
     userWithNameDoesNotExist,
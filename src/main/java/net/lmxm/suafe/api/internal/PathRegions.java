@@ -0,0 +1,50 @@
+package net.lmxm.suafe.api.internal;
+
+/**
+ * Comparisons of names to regions of a path string, used to look up path segments without extracting them.
+ */
+public final class PathRegions {
+    /**
+     * Prevents instantiation.
+     */
+    private PathRegions() {
+    }
+
+    /**
+     * Compares a name to a region of a path, consistent with {@link String#compareTo(String)}.
+     *
+     * @param name  Name to compare
+     * @param path  Path containing the region
+     * @param start Index of the first character of the region
+     * @param end   Index after the last character of the region
+     * @return Negative, zero or positive value when the name is less than, equal to or greater than the region
+     */
+    public static int compare(final String name, final String path, final int start, final int end) {
+        final int regionLength = end - start;
+        final int length = Math.min(name.length(), regionLength);
+
+        for (int i = 0; i < length; i++) {
+            final char nameChar = name.charAt(i);
+            final char pathChar = path.charAt(start + i);
+
+            if (nameChar != pathChar) {
+                return nameChar - pathChar;
+            }
+        }
+
+        return name.length() - regionLength;
+    }
+
+    /**
+     * Checks if a name equals a region of a path.
+     *
+     * @param name  Name to compare
+     * @param path  Path containing the region
+     * @param start Index of the first character of the region
+     * @param end   Index after the last character of the region
+     * @return True if the name equals the region, otherwise false
+     */
+    public static boolean matches(final String name, final String path, final int start, final int end) {
+        return name.length() == end - start && path.regionMatches(start, name, 0, end - start);
+    }
+}
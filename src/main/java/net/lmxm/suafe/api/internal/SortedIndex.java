@@ -0,0 +1,121 @@
+package net.lmxm.suafe.api.internal;
+
+import java.util.*;
+
+import static net.lmxm.suafe.api.internal.Preconditions.checkArgumentNotNull;
+
+/**
+ * Index of values sorted by a unique string key. Supports exact lookups, cursor based paging and prefix searches in
+ * O(log n + k) time, where k is the number of values returned.
+ *
+ * @param <V> Type of value stored in the index
+ */
+public final class SortedIndex<V> {
+    /**
+     * Sorted map of all keys to their values.
+     */
+    private final SortedMap<String, V> values = new TreeMap<String, V>();
+
+    /**
+     * Gets the value with the provided key.
+     *
+     * @param key Key of the value to get
+     * @return Matching value or null if not found
+     */
+    public V get(final String key) {
+        return values.get(key);
+    }
+
+    /**
+     * Adds a value to the index, replacing any value previously stored with the same key.
+     *
+     * @param key   Key of the value
+     * @param value Value to add
+     */
+    public void put(final String key, final V value) {
+        checkArgumentNotNull(key, "Key");
+        checkArgumentNotNull(value, "Value");
+
+        values.put(key, value);
+    }
+
+    /**
+     * Removes the value with the provided key.
+     *
+     * @param key Key of the value to remove
+     * @return Removed value or null if not found
+     */
+    public V remove(final String key) {
+        return values.remove(key);
+    }
+
+    /**
+     * Gets the number of values in the index.
+     *
+     * @return Number of values
+     */
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * Gets all values in key order.
+     *
+     * @return Unmodifiable view of the values in key order
+     */
+    public Collection<V> values() {
+        return Collections.unmodifiableCollection(values.values());
+    }
+
+    /**
+     * Gets a page of values in key order. The key of the last value in a page is the cursor from which the next page
+     * is requested.
+     *
+     * @param fromKey Cursor key; only values with keys that follow this key are returned. If null the page starts with
+     *                the first value in the index
+     * @param limit   Maximum number of values to return
+     * @return Unmodifiable list of values in key order
+     */
+    public List<V> range(final String fromKey, final int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit may not be negative");
+        }
+
+        final List<V> page = new ArrayList<V>(Math.min(limit, values.size()));
+        final SortedMap<String, V> tail = fromKey == null ? values : values.tailMap(fromKey);
+
+        for (final Map.Entry<String, V> entry : tail.entrySet()) {
+            if (page.size() == limit) {
+                break;
+            }
+
+            if (!entry.getKey().equals(fromKey)) {
+                page.add(entry.getValue());
+            }
+        }
+
+        return Collections.unmodifiableList(page);
+    }
+
+    /**
+     * Gets all values with keys that start with the provided prefix, in key order.
+     *
+     * @param prefix Prefix of the keys to find
+     * @return Unmodifiable list of matching values in key order
+     */
+    public List<V> prefix(final String prefix) {
+        checkArgumentNotNull(prefix, "Prefix");
+
+        final List<V> matches = new ArrayList<V>();
+
+        for (final Map.Entry<String, V> entry : values.tailMap(prefix).entrySet()) {
+            if (!entry.getKey().startsWith(prefix)) {
+                break;
+            }
+
+            matches.add(entry.getValue());
+        }
+
+        return Collections.unmodifiableList(matches);
+    }
+}
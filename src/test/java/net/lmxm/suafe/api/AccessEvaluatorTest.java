@@ -0,0 +1,265 @@
+package net.lmxm.suafe.api;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static net.lmxm.suafe.api.AccessLevel.DENY_ACCESS;
+import static net.lmxm.suafe.api.AccessLevel.READ_ONLY;
+import static net.lmxm.suafe.api.AccessLevel.READ_WRITE;
+import static net.lmxm.suafe.api.TestDocuments.PATHS;
+import static net.lmxm.suafe.api.TestDocuments.createRandomDocument;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for AccessEvaluator.
+ */
+public final class AccessEvaluatorTest {
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private Document document;
+
+    private AccessEvaluator evaluator;
+
+    @Before
+    public void setUp() {
+        document = new Document();
+        evaluator = new AccessEvaluator(document);
+
+        document.createRepository("repo");
+        document.createUser("alice", null);
+        document.createUser("bob", null);
+        document.createUserGroup("developers");
+        document.createUserGroup("everyone");
+        document.addUserToUserGroup("alice", "developers");
+        document.addUserGroupToUserGroup("developers", "everyone");
+        document.addUserToUserGroup("bob", "everyone");
+    }
+
+    @Test
+    public void testConstructorNullDocument() {
+        thrown.expect(IllegalArgumentException.class);
+
+        new AccessEvaluator(null);
+    }
+
+    @Test
+    public void testEvaluateNoRules() {
+        assertThat(evaluator.evaluate("alice", "repo", "/"), is(DENY_ACCESS));
+        assertThat(evaluator.evaluate("alice", null, "/trunk"), is(DENY_ACCESS));
+    }
+
+    @Test
+    public void testEvaluateUserDoesNotExist() {
+        thrown.expect(EntityDoesNotExistException.class);
+
+        evaluator.evaluate("carol", "repo", "/");
+    }
+
+    @Test
+    public void testEvaluateDeepestPathWins() {
+        // Setup
+        document.createAccessRuleForUser("repo", "/", "alice", READ_WRITE, false);
+        document.createAccessRuleForUser("repo", "secret", "alice", DENY_ACCESS, false);
+        document.createAccessRuleForUser("repo", "secret/public", "alice", READ_ONLY, false);
+
+        // Test
+        assertThat(evaluator.evaluate("alice", "repo", "/"), is(READ_WRITE));
+        assertThat(evaluator.evaluate("alice", "repo", "/trunk/src"), is(READ_WRITE));
+        assertThat(evaluator.evaluate("alice", "repo", "/secret"), is(DENY_ACCESS));
+        assertThat(evaluator.evaluate("alice", "repo", "/secret/other"), is(DENY_ACCESS));
+        assertThat(evaluator.evaluate("alice", "repo", "/secret/public/file.txt"), is(READ_ONLY));
+        assertThat(evaluator.evaluate("bob", "repo", "/secret/public"), is(DENY_ACCESS));
+    }
+
+    @Test
+    public void testEvaluateRepositoryBeatsServerAtSameDepth() {
+        // Setup
+        document.createAccessRuleForUser(null, "trunk", "alice", READ_WRITE, false);
+        document.createAccessRuleForUser("repo", "trunk", "alice", READ_ONLY, false);
+
+        // Test
+        assertThat(evaluator.evaluate("alice", "repo", "/trunk"), is(READ_ONLY));
+        assertThat(evaluator.evaluate("alice", "other", "/trunk"), is(READ_WRITE));
+        assertThat(evaluator.evaluate("alice", null, "/trunk"), is(READ_WRITE));
+    }
+
+    @Test
+    public void testEvaluateDeeperServerRuleBeatsRepositoryRule() {
+        // Setup
+        document.createAccessRuleForUser("repo", "/", "alice", READ_WRITE, false);
+        document.createAccessRuleForUser(null, "trunk", "alice", READ_ONLY, false);
+
+        // Test
+        assertThat(evaluator.evaluate("alice", "repo", "/"), is(READ_WRITE));
+        assertThat(evaluator.evaluate("alice", "repo", "/trunk/src"), is(READ_ONLY));
+    }
+
+    @Test
+    public void testEvaluateNestedUserGroups() {
+        // Setup
+        document.createAccessRuleForUserGroup("repo", "/", "everyone", READ_ONLY, false);
+
+        // Test
+        assertThat(evaluator.evaluate("alice", "repo", "/trunk"), is(READ_ONLY));
+        assertThat(evaluator.evaluate("bob", "repo", "/trunk"), is(READ_ONLY));
+
+        document.removeUserGroupFromUserGroup("developers", "everyone");
+
+        assertThat(evaluator.evaluate("alice", "repo", "/trunk"), is(DENY_ACCESS));
+        assertThat(evaluator.evaluate("bob", "repo", "/trunk"), is(READ_ONLY));
+    }
+
+    @Test
+    public void testEvaluateExclusion() {
+        // Setup
+        document.createAccessRuleForUserGroup("repo", "/", "developers", READ_WRITE, true);
+        document.createAccessRuleForUser("repo", "trunk", "bob", READ_ONLY, true);
+
+        // Test
+        assertThat(evaluator.evaluate("alice", "repo", "/"), is(DENY_ACCESS));
+        assertThat(evaluator.evaluate("bob", "repo", "/"), is(READ_WRITE));
+        assertThat(evaluator.evaluate("alice", "repo", "/trunk"), is(READ_ONLY));
+        assertThat(evaluator.evaluate("bob", "repo", "/trunk"), is(READ_WRITE));
+    }
+
+    @Test
+    public void testEvaluateUnionOfMatchingRules() {
+        // Setup
+        document.createAccessRuleForUser("repo", "trunk", "alice", READ_ONLY, false);
+        document.createAccessRuleForUserGroup("repo", "trunk", "developers", READ_WRITE, false);
+        document.createAccessRuleForUserGroup("repo", "trunk", "everyone", DENY_ACCESS, false);
+
+        // Test
+        assertThat(evaluator.evaluate("alice", "repo", "/trunk"), is(READ_WRITE));
+        assertThat(evaluator.evaluate("bob", "repo", "/trunk"), is(DENY_ACCESS));
+    }
+
+    @Test
+    public void testEvaluatePathForms() {
+        // Setup
+        document.createAccessRuleForUser("repo", "trunk/src", "alice", READ_ONLY, false);
+
+        // Test
+        assertThat(evaluator.evaluate("alice", "repo", "/trunk/src/"), is(READ_ONLY));
+        assertThat(evaluator.evaluate("alice", "repo", "trunk//src"), is(READ_ONLY));
+        assertThat(evaluator.evaluate("alice", "repo", "//trunk/src/Main.java"), is(READ_ONLY));
+        assertThat(evaluator.evaluate("alice", "repo", "/trunk/srcs"), is(DENY_ACCESS));
+        assertThat(evaluator.evaluate("alice", "repo", ""), is(DENY_ACCESS));
+    }
+
+    @Test
+    public void testEvaluatePaths() {
+        // Setup
+        final User alice = document.findUserByName("alice");
+        final Repository repository = document.findRepositoryByName("repo");
+        document.createAccessRuleForUser("repo", "/", "alice", READ_WRITE, false);
+        document.createAccessRuleForUser("repo", "trunk/secret", "alice", DENY_ACCESS, false);
+        document.createAccessRuleForUserGroup(null, "trunk/secret/public", "developers", READ_ONLY, false);
+        document.createAccessRuleForUser(null, "branches", "bob", READ_ONLY, false);
+
+        final List<String> paths = Arrays.asList("/trunk/secret/public/a", "/trunk/secret", "/", "trunk//secret/public",
+                "/trunk/secretive", "/branches/b1", "/trunk/secret/x/y/z/w/v/u/t/s/r", "/trunk", "/trunk/secret");
+
+        // Test
+        final AccessLevel[] accessLevels = evaluator.evaluate(alice, repository, paths);
+        assertThat(accessLevels.length, is(paths.size()));
+        for (int i = 0; i < paths.size(); i++) {
+            assertThat(accessLevels[i], is(evaluator.evaluate(alice, repository, paths.get(i))));
+        }
+        assertThat(accessLevels[0], is(READ_ONLY));
+        assertThat(accessLevels[1], is(DENY_ACCESS));
+
+        final User bob = document.findUserByName("bob");
+        final AccessLevel[] bobAccessLevels = evaluator.evaluate(bob, null, paths);
+        for (int i = 0; i < paths.size(); i++) {
+            assertThat(bobAccessLevels[i], is(evaluator.evaluate(bob, null, paths.get(i))));
+        }
+        assertThat(bobAccessLevels[5], is(READ_ONLY));
+        assertThat(evaluator.evaluate(bob, repository, new ArrayList<String>()).length, is(0));
+    }
+
+    @Test
+    public void testCanReadAndCanWrite() {
+        // Setup
+        final User alice = document.findUserByName("alice");
+        final Repository repository = document.findRepositoryByName("repo");
+        document.createAccessRuleForUser("repo", "/", "alice", READ_ONLY, false);
+        document.createAccessRuleForUser("repo", "trunk", "alice", READ_WRITE, false);
+
+        // Test
+        assertThat(evaluator.canRead(alice, repository, "/"), is(true));
+        assertThat(evaluator.canWrite(alice, repository, "/"), is(false));
+        assertThat(evaluator.canRead(alice, repository, "/trunk"), is(true));
+        assertThat(evaluator.canWrite(alice, repository, "/trunk"), is(true));
+        assertThat(evaluator.canRead(alice, null, "/trunk"), is(false));
+    }
+
+
+    @Test
+    public void testFindUsersWhoCanReadAndWrite() {
+        // Setup
+        final Repository repository = document.findRepositoryByName("repo");
+        final User alice = document.findUserByName("alice");
+        final User bob = document.findUserByName("bob");
+        final User carol = document.createUser("carol", null);
+        document.createAccessRuleForUserGroup("repo", "/", "everyone", READ_ONLY, false);
+        document.createAccessRuleForUserGroup(null, "trunk", "developers", READ_WRITE, false);
+        document.createAccessRuleForUser("repo", "trunk/secret", "bob", DENY_ACCESS, true);
+
+        // Test
+        assertThat(evaluator.findUsersWhoCanRead(repository, "/"), is(Arrays.asList(alice, bob)));
+        assertThat(evaluator.findUsersWhoCanWrite(repository, "/"), is(Arrays.<User>asList()));
+        assertThat(evaluator.findUsersWhoCanRead(repository, "/trunk/src"), is(Arrays.asList(alice, bob)));
+        assertThat(evaluator.findUsersWhoCanWrite(repository, "/trunk/src"), is(Arrays.asList(alice)));
+        assertThat(evaluator.findUsersWhoCanRead(repository, "/trunk/secret"), is(Arrays.asList(bob)));
+        assertThat(evaluator.findUsersWhoCanWrite(repository, "/trunk/secret"), is(Arrays.<User>asList()));
+        assertThat(evaluator.findUsersWhoCanRead(null, "/trunk/secret"), is(Arrays.asList(alice)));
+        assertThat(evaluator.findUsersWhoCanRead(null, "/"), is(Arrays.<User>asList()));
+
+        document.addUserToUserGroup("carol", "developers");
+
+        assertThat(evaluator.findUsersWhoCanWrite(repository, "/trunk"), is(Arrays.asList(alice, carol)));
+    }
+
+    @Test
+    public void testEvaluateEffectiveAclsConcurrently() throws InterruptedException {
+        final Document document = createRandomDocument(new Random(40));
+        final AccessEvaluator expected = new AccessEvaluator(document);
+        final AccessEvaluator materialized = new AccessEvaluator(document, true);
+        final List<String> mismatches = Collections.synchronizedList(new ArrayList<String>());
+
+        // Test
+        final Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (final Repository repository : document.getRepositories()) {
+                        for (final String path : PATHS) {
+                            for (final User user : document.getUsers()) {
+                                if (materialized.evaluate(user, repository, path) != expected.evaluate(user, repository, path)) {
+                                    mismatches.add(repository.getName() + "," + path + "," + user.getName());
+                                }
+                            }
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(mismatches.isEmpty(), is(true));
+    }
+}
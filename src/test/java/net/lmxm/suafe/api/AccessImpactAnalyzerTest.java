@@ -0,0 +1,194 @@
+package net.lmxm.suafe.api;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static net.lmxm.suafe.api.AccessLevel.DENY_ACCESS;
+import static net.lmxm.suafe.api.AccessLevel.READ_ONLY;
+import static net.lmxm.suafe.api.AccessLevel.READ_WRITE;
+import static net.lmxm.suafe.api.TestDocuments.PATHS;
+import static net.lmxm.suafe.api.TestDocuments.createRandomDocument;
+import static net.lmxm.suafe.api.TestDocuments.hasAccessRules;
+import static net.lmxm.suafe.api.TestDocuments.toRulePath;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for AccessImpactAnalyzer.
+ */
+public final class AccessImpactAnalyzerTest {
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void testConstructorNullDocument() {
+        thrown.expect(IllegalArgumentException.class);
+
+        new AccessImpactAnalyzer(null);
+    }
+
+    @Test
+    public void testAnalyzeCreateAccessRuleForUserGroupAlreadyExists() {
+        final Document document = new Document();
+
+        // Setup
+        document.createUserGroup("developers");
+        document.createAccessRuleForUserGroup(null, "trunk", "developers", READ_ONLY, false);
+
+        // Test
+        thrown.expect(EntityAlreadyExistsException.class);
+
+        new AccessImpactAnalyzer(document).analyzeCreateAccessRuleForUserGroup(null, "trunk", "developers", DENY_ACCESS, false);
+    }
+
+    @Test
+    public void testAnalyze() {
+        final Document document = new Document();
+
+        // Setup
+        final Repository repository = document.createRepository("repo");
+        final User alice = document.createUser("alice", null);
+        document.createUser("bob", null);
+        document.createUserGroup("developers");
+        document.createUserGroup("staff");
+        document.addUserToUserGroup("alice", "developers");
+        document.addUserGroupToUserGroup("developers", "staff");
+        document.createAccessRuleForUserGroup(null, "/", "staff", READ_ONLY, false);
+        document.createAccessRuleForUserGroup("repo", "trunk", "developers", READ_WRITE, false);
+        document.createAccessRuleForUser("repo", "tags", "bob", READ_ONLY, false);
+        final AccessImpactAnalyzer analyzer = new AccessImpactAnalyzer(document);
+
+        // Test
+        final List<AccessChange> removeChanges = analyzer.analyzeRemoveUserFromUserGroup("alice", "developers");
+        assertThat(removeChanges.size(), is(equalTo(3)));
+        assertThat(removeChanges.get(0).getRepository(), is(sameInstance(repository)));
+        assertThat(removeChanges.get(0).getPath(), is(equalTo("/")));
+        assertThat(removeChanges.get(0).getUser(), is(sameInstance(alice)));
+        assertThat(removeChanges.get(0).getPreviousAccessLevel(), is(equalTo(READ_ONLY)));
+        assertThat(removeChanges.get(0).getNewAccessLevel(), is(equalTo(DENY_ACCESS)));
+        assertThat(removeChanges.get(1).getPath(), is(equalTo("/tags")));
+        assertThat(removeChanges.get(2).getPath(), is(equalTo("/trunk")));
+        assertThat(removeChanges.get(2).getPreviousAccessLevel(), is(equalTo(READ_WRITE)));
+
+        final List<AccessChange> createChanges = analyzer.analyzeCreateAccessRuleForUserGroup("repo", "trunk/secret", "developers", DENY_ACCESS, false);
+        assertThat(createChanges.size(), is(equalTo(1)));
+        assertThat(createChanges.get(0).getPath(), is(equalTo("/trunk/secret")));
+        assertThat(createChanges.get(0).getNewAccessLevel(), is(equalTo(DENY_ACCESS)));
+        assertThat(TreeNode.findByPath(repository.getRootTreeNode(), "trunk/secret"), is(nullValue()));
+
+        assertThat(analyzer.analyzeRemoveUserFromUserGroup("bob", "developers").isEmpty(), is(true));
+        assertThat(analyzer.analyzeDeleteUserGroup("staff").size(), is(equalTo(2)));
+        assertThat(document.findUserGroupByName("staff"), is(notNullValue()));
+    }
+
+    @Test
+    public void testAnalyzeMatchesAppliedChanges() {
+        final Random random = new Random(47);
+
+        for (int round = 0; round < 30; round++) {
+            // Setup
+            final Document document = createRandomDocument(random);
+            final AccessImpactAnalyzer analyzer = new AccessImpactAnalyzer(document);
+            final String userGroupName = "group" + random.nextInt(4);
+            final List<String> before = buildAccessMatrix(document);
+            final Set<String> ruledPaths = findRuledPaths(document);
+            final List<AccessChange> predicted;
+
+            // Test
+            switch (round % 3) {
+                case 0:
+                    predicted = analyzer.analyzeDeleteUserGroup(userGroupName);
+                    document.deleteUserGroup(userGroupName);
+                    break;
+                case 1:
+                    final String userName = document.findUserGroupByName(userGroupName).getUserMembers().isEmpty()
+                            ? "user0" : document.findUserGroupByName(userGroupName).getUserMembers().iterator().next().getName();
+                    predicted = analyzer.analyzeRemoveUserFromUserGroup(userName, userGroupName);
+                    document.removeUserFromUserGroup(userName, userGroupName);
+                    break;
+                default:
+                    final String repositoryName = random.nextBoolean() ? null : "repo" + random.nextInt(3);
+                    final String rulePath = toRulePath(PATHS[random.nextInt(PATHS.length)]);
+                    final boolean exclusion = random.nextInt(4) == 0;
+                    if (document.findAccessRuleForUserGroupAtPath(repositoryName, rulePath, userGroupName) != null) {
+                        continue;
+                    }
+
+                    predicted = analyzer.analyzeCreateAccessRuleForUserGroup(repositoryName, rulePath, userGroupName, DENY_ACCESS, exclusion);
+                    document.createAccessRuleForUserGroup(repositoryName, rulePath, userGroupName, DENY_ACCESS, exclusion);
+                    break;
+            }
+
+            final List<String> after = buildAccessMatrix(document);
+            ruledPaths.addAll(findRuledPaths(document));
+            final List<String> expected = new ArrayList<String>();
+            for (int i = 0; i < before.size(); i++) {
+                final String[] fields = before.get(i).split(",");
+                if (!before.get(i).equals(after.get(i)) && ruledPaths.contains(fields[0] + "," + fields[1])) {
+                    expected.add(before.get(i) + "->" + after.get(i).substring(after.get(i).lastIndexOf(',') + 1));
+                }
+            }
+
+            final List<String> actual = new ArrayList<String>();
+            for (final AccessChange accessChange : predicted) {
+                actual.add(accessChange.getRepository().getName() + "," + accessChange.getPath() + ","
+                        + accessChange.getUser().getName() + "," + accessChange.getPreviousAccessLevel() + "->"
+                        + accessChange.getNewAccessLevel());
+            }
+
+            assertThat("Round " + round, actual, is(equalTo(expected)));
+        }
+    }
+
+    /**
+     * Builds the access of every user to every rule path of every repository, in the order used by the analyzer.
+     *
+     * @param document Document to evaluate
+     * @return List of repository,path,user,access entries
+     */
+    private static List<String> buildAccessMatrix(final Document document) {
+        final AccessEvaluator evaluator = new AccessEvaluator(document);
+        final String[] sortedPaths = PATHS.clone();
+        Arrays.sort(sortedPaths);
+        final List<String> matrix = new ArrayList<String>();
+
+        for (final Repository repository : document.findRepositoriesByNamePrefix("")) {
+            for (final String path : sortedPaths) {
+                for (final User user : document.findUsersByNamePrefix("")) {
+                    matrix.add(repository.getName() + "," + path + "," + user.getName() + ","
+                            + evaluator.evaluate(user, repository, path));
+                }
+            }
+        }
+
+        return matrix;
+    }
+
+    /**
+     * Finds the rule paths at which a repository tree or the server-wide tree has access rules.
+     *
+     * @param document Document to search
+     * @return Set of repository,path entries
+     */
+    private static Set<String> findRuledPaths(final Document document) {
+        final Set<String> ruledPaths = new HashSet<String>();
+
+        for (final Repository repository : document.getRepositories()) {
+            for (final String path : PATHS) {
+                if (hasAccessRules(document, repository, path)) {
+                    ruledPaths.add(repository.getName() + "," + path);
+                }
+            }
+        }
+
+        return ruledPaths;
+    }
+}
@@ -0,0 +1,126 @@
+package net.lmxm.suafe.api;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Random;
+
+import static net.lmxm.suafe.api.AccessLevel.DENY_ACCESS;
+import static net.lmxm.suafe.api.AccessLevel.READ_ONLY;
+import static net.lmxm.suafe.api.AccessLevel.READ_WRITE;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for AccessMatrixReport.
+ */
+public final class AccessMatrixReportTest {
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void testConstructorNullDocument() {
+        thrown.expect(IllegalArgumentException.class);
+
+        new AccessMatrixReport(null, 1);
+    }
+
+    @Test
+    public void testConstructorInvalidThreadCount() {
+        thrown.expect(IllegalArgumentException.class);
+
+        new AccessMatrixReport(new Document(), 0);
+    }
+
+    @Test
+    public void testWrite() throws IOException {
+        final Document document = new Document();
+
+        // Setup
+        document.createRepository("repo");
+        document.createUser("alice", null);
+        document.createUser("bob", null);
+        document.createUserGroup("developers");
+        document.addUserToUserGroup("alice", "developers");
+        document.createAccessRuleForUserGroup(null, "/", "developers", READ_ONLY, false);
+        document.createAccessRuleForUser("repo", "trunk", "alice", READ_WRITE, false);
+        document.createAccessRuleForUser("repo", "a,b", "alice", DENY_ACCESS, true);
+        final StringWriter writer = new StringWriter();
+
+        // Test
+        final long rowCount = new AccessMatrixReport(document, 2).write(writer);
+
+        assertThat(rowCount, is(equalTo(6L)));
+        assertThat(writer.toString(), is(equalTo("repository,path,user,access\n"
+                + "repo,/,alice,READ_ONLY\n"
+                + "repo,/,bob,DENY_ACCESS\n"
+                + "repo,\"/a,b\",alice,READ_ONLY\n"
+                + "repo,\"/a,b\",bob,DENY_ACCESS\n"
+                + "repo,/trunk,alice,READ_WRITE\n"
+                + "repo,/trunk,bob,DENY_ACCESS\n")));
+    }
+
+    @Test
+    public void testWriteMatchesAccessEvaluator() throws IOException {
+        final String[] paths = {"/", "/a", "/b", "/a/b", "/a/c", "/b/a", "/a/b/c"};
+        final AccessLevel[] accessLevels = AccessLevel.values();
+        final Random random = new Random(46);
+        final Document document = new Document();
+
+        // Setup
+        for (int i = 0; i < 3; i++) {
+            document.createRepository("repo" + i);
+        }
+        for (int i = 0; i < 10; i++) {
+            document.createUser("user" + i, null);
+        }
+        for (int i = 0; i < 4; i++) {
+            document.createUserGroup("group" + i);
+            document.addUserToUserGroup("user" + random.nextInt(10), "group" + i);
+            if (i > 0) {
+                document.addUserGroupToUserGroup("group" + random.nextInt(i), "group" + i);
+            }
+        }
+        for (int i = 0; i < 40; i++) {
+            final String repositoryName = random.nextInt(3) == 0 ? null : "repo" + random.nextInt(3);
+            final String path = paths[random.nextInt(paths.length)];
+            final AccessLevel accessLevel = accessLevels[random.nextInt(accessLevels.length)];
+            final boolean exclusion = random.nextInt(5) == 0;
+            final String rulePath = path.length() == 1 ? path : path.substring(1);
+
+            if (random.nextBoolean()) {
+                final String userName = "user" + random.nextInt(10);
+                if (document.findAccessRuleForUserAtPath(repositoryName, rulePath, userName) == null) {
+                    document.createAccessRuleForUser(repositoryName, rulePath, userName, accessLevel, exclusion);
+                }
+            }
+            else {
+                final String userGroupName = "group" + random.nextInt(4);
+                if (document.findAccessRuleForUserGroupAtPath(repositoryName, rulePath, userGroupName) == null) {
+                    document.createAccessRuleForUserGroup(repositoryName, rulePath, userGroupName, accessLevel, exclusion);
+                }
+            }
+        }
+
+        // Test
+        final AccessEvaluator evaluator = new AccessEvaluator(document);
+        final StringWriter singleThreadWriter = new StringWriter();
+        final StringWriter multiThreadWriter = new StringWriter();
+        final long rowCount = new AccessMatrixReport(document, 1).write(singleThreadWriter);
+        new AccessMatrixReport(document, 4).write(multiThreadWriter);
+
+        assertThat(multiThreadWriter.toString(), is(equalTo(singleThreadWriter.toString())));
+
+        final String[] rows = singleThreadWriter.toString().split("\n");
+        assertThat((long) rows.length - 1, is(equalTo(rowCount)));
+        for (int i = 1; i < rows.length; i++) {
+            final String[] fields = rows[i].split(",");
+            final AccessLevel expected = evaluator.evaluate(fields[2], fields[0], fields[1]);
+
+            assertThat(rows[i], fields[3], is(equalTo(expected.name())));
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package net.lmxm.suafe.api;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static net.lmxm.suafe.api.AccessLevel.DENY_ACCESS;
+import static net.lmxm.suafe.api.AccessLevel.READ_ONLY;
+import static net.lmxm.suafe.api.AccessLevel.READ_WRITE;
+import static net.lmxm.suafe.api.TestDocuments.PATHS;
+import static net.lmxm.suafe.api.TestDocuments.changeRandomly;
+import static net.lmxm.suafe.api.TestDocuments.createRandomDocument;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for CompiledAccessEvaluator.
+ */
+public final class CompiledAccessEvaluatorTest {
+    @Test
+    public void testEvaluate() {
+        final Document document = new Document();
+
+        // Setup
+        final Repository repository = document.createRepository("repo");
+        final User alice = document.createUser("alice", null);
+        final User bob = document.createUser("bob", null);
+        document.createUserGroup("developers");
+        document.addUserToUserGroup("alice", "developers");
+        document.createAccessRuleForUserGroup(null, "/", "developers", READ_ONLY, false);
+        document.createAccessRuleForUser("repo", "trunk", "alice", READ_WRITE, false);
+        document.createAccessRuleForUser(null, "trunk/secret", "alice", DENY_ACCESS, false);
+        document.createAccessRuleForUser("repo", "trunk", "bob", READ_ONLY, true);
+
+        // Test
+        final CompiledAccessEvaluator evaluator = new CompiledAccessEvaluator(document);
+        assertThat(evaluator.evaluate(alice, repository, "/"), is(READ_ONLY));
+        assertThat(evaluator.evaluate(alice, repository, "/trunk/src"), is(READ_WRITE));
+        assertThat(evaluator.evaluate(alice, repository, "/trunk/secret/x"), is(DENY_ACCESS));
+        assertThat(evaluator.evaluate(alice, null, "/trunk"), is(READ_ONLY));
+        assertThat(evaluator.evaluate(bob, repository, "/trunk"), is(DENY_ACCESS));
+        assertThat(evaluator.canRead(alice, repository, "trunk//src/"), is(true));
+        assertThat(evaluator.canWrite(alice, repository, "trunk//src/"), is(true));
+        assertThat(evaluator.canWrite(alice, null, "trunk"), is(false));
+    }
+
+    @Test
+    public void testCompilePrunesSubtreesWithoutAccessRules() {
+        final Document document = new Document();
+
+        // Setup
+        final Repository repository = document.createRepository("repo");
+        document.createUser("alice", null);
+        document.createAccessRuleForUser(null, "trunk/src", "alice", READ_ONLY, false);
+        document.createAccessRuleForUser(null, "tags/old", "alice", READ_ONLY, false);
+        document.deleteAccessRuleForUser(null, "tags/old", "alice");
+
+        // Test
+        assertThat(CompiledAccessEvaluator.compile(repository.getRootTreeNode(), document.getRootTreeNode()).size(), is(3));
+    }
+
+    @Test
+    public void testEvaluateRecompilesStaleTries() {
+        final Document document = new Document();
+
+        // Setup
+        final Repository hot = document.createRepository("hot");
+        final Repository cold = document.createRepository("cold");
+        final User alice = document.createUser("alice", null);
+        document.createUserGroup("developers");
+        document.createAccessRuleForUserGroup("hot", "trunk", "developers", READ_WRITE, false);
+        document.createAccessRuleForUserGroup("cold", "trunk", "developers", READ_WRITE, false);
+        document.createAccessRuleForUser(null, "/", "alice", READ_ONLY, false);
+        final CompiledAccessEvaluator evaluator = new CompiledAccessEvaluator(document);
+
+        // Test
+        assertThat(evaluator.evaluate(alice, hot, "/trunk/src"), is(READ_ONLY));
+        assertThat(evaluator.evaluate(alice, hot, "/trunk"), is(READ_ONLY));
+        assertThat(evaluator.getCompilationCount(), is(1L));
+
+        document.addUserToUserGroup("alice", "developers");
+
+        assertThat(evaluator.canWrite(alice, hot, "/trunk/src"), is(true));
+        assertThat(evaluator.getCompilationCount(), is(1L));
+
+        document.createAccessRuleForUser("hot", "trunk/src", "alice", DENY_ACCESS, false);
+
+        assertThat(evaluator.canRead(alice, hot, "/trunk/src"), is(false));
+        assertThat(evaluator.getCompilationCount(), is(2L));
+
+        document.createAccessRuleForUser("cold", "/", "alice", DENY_ACCESS, false);
+
+        assertThat(evaluator.canRead(alice, hot, "/trunk"), is(true));
+        assertThat(evaluator.getCompilationCount(), is(2L));
+
+        document.createAccessRuleForUser(null, "trunk/src/main", "alice", READ_ONLY, false);
+
+        assertThat(evaluator.evaluate(alice, hot, "/trunk/src/main"), is(READ_ONLY));
+        assertThat(evaluator.evaluate(alice, cold, "/trunk/src/main"), is(READ_ONLY));
+        assertThat(evaluator.getCompilationCount(), is(4L));
+    }
+
+    @Test
+    public void testEvaluateUserOrRepositoryNotInDocument() {
+        final Document document = new Document();
+
+        // Setup
+        final Repository repository = document.createRepository("repo");
+        final User alice = document.createUser("alice", null);
+        document.createAccessRuleForUser(null, "/", "alice", READ_WRITE, false);
+        document.createAccessRuleForUser("repo", "/", "alice", READ_ONLY, true);
+        final CompiledAccessEvaluator evaluator = new CompiledAccessEvaluator(document);
+
+        // Test
+        assertThat(evaluator.evaluate(new User("bob", null), repository, "/"), is(READ_ONLY));
+        assertThat(evaluator.evaluate(alice, new Repository("repo"), "/"), is(READ_WRITE));
+
+        document.deleteRepository("repo");
+        document.createRepository("repo");
+
+        assertThat(evaluator.evaluate(alice, repository, "/"), is(READ_WRITE));
+
+        document.deleteUser("alice");
+        final User carol = document.createUser("carol", null);
+        assertThat(carol.getId(), is(0));
+        assertThat(evaluator.evaluate(alice, null, "/"), is(DENY_ACCESS));
+        assertThat(evaluator.evaluate(carol, null, "/"), is(DENY_ACCESS));
+    }
+
+    @Test
+    public void testEvaluateMatchesAccessEvaluator() {
+        final String[] paths = {"/", "/a", "/b", "/a/b", "/a/c", "/b/a", "/a/b/c", "/c/a/b", "/a/bb", "/x"};
+        final AccessLevel[] accessLevels = AccessLevel.values();
+        final Random random = new Random(7);
+        final Document document = new Document();
+
+        // Setup
+        for (int i = 0; i < 3; i++) {
+            document.createRepository("repo" + i);
+        }
+        for (int i = 0; i < 6; i++) {
+            document.createUser("user" + i, null);
+        }
+        for (int i = 0; i < 4; i++) {
+            document.createUserGroup("group" + i);
+            document.addUserToUserGroup("user" + random.nextInt(6), "group" + i);
+            if (i > 0) {
+                document.addUserGroupToUserGroup("group" + random.nextInt(i), "group" + i);
+            }
+        }
+        for (int i = 0; i < 60; i++) {
+            final String repositoryName = random.nextInt(4) == 0 ? null : "repo" + random.nextInt(3);
+            final String path = paths[random.nextInt(paths.length)];
+            final AccessLevel accessLevel = accessLevels[random.nextInt(accessLevels.length)];
+            final boolean exclusion = random.nextInt(5) == 0;
+            final String rulePath = path.length() == 1 ? path : path.substring(1);
+
+            if (random.nextBoolean()) {
+                final String userName = "user" + random.nextInt(6);
+                if (document.findAccessRuleForUserAtPath(repositoryName, rulePath, userName) == null) {
+                    document.createAccessRuleForUser(repositoryName, rulePath, userName, accessLevel, exclusion);
+                }
+            }
+            else {
+                final String userGroupName = "group" + random.nextInt(4);
+                if (document.findAccessRuleForUserGroupAtPath(repositoryName, rulePath, userGroupName) == null) {
+                    document.createAccessRuleForUserGroup(repositoryName, rulePath, userGroupName, accessLevel, exclusion);
+                }
+            }
+        }
+
+        // Test
+        final AccessEvaluator expected = new AccessEvaluator(document);
+        final CompiledAccessEvaluator actual = new CompiledAccessEvaluator(document);
+        final AccessEvaluator materialized = new AccessEvaluator(document, true);
+        for (final User user : document.getUsers()) {
+            for (final String path : paths) {
+                assertThat(actual.evaluate(user, null, path), is(expected.evaluate(user, null, path)));
+                assertThat(materialized.evaluate(user, null, path), is(expected.evaluate(user, null, path)));
+
+                for (final Repository repository : document.getRepositories()) {
+                    assertThat(actual.evaluate(user, repository, path), is(expected.evaluate(user, repository, path)));
+                    assertThat(materialized.evaluate(user, repository, path), is(expected.evaluate(user, repository, path)));
+                }
+            }
+        }
+
+        for (final User user : document.getUsers()) {
+            for (final Repository repository : document.getRepositories()) {
+                final AccessLevel[] batchAccessLevels = expected.evaluate(user, repository, Arrays.asList(paths));
+
+                for (int i = 0; i < paths.length; i++) {
+                    assertThat(batchAccessLevels[i], is(actual.evaluate(user, repository, paths[i])));
+                }
+            }
+        }
+
+        for (final String path : paths) {
+            for (final Repository repository : document.getRepositories()) {
+                final List<User> readers = new ArrayList<User>();
+                final List<User> writers = new ArrayList<User>();
+                for (final User user : document.findUsersByNamePrefix("")) {
+                    if (actual.canRead(user, repository, path)) {
+                        readers.add(user);
+                    }
+                    if (actual.canWrite(user, repository, path)) {
+                        writers.add(user);
+                    }
+                }
+
+                assertThat(expected.findUsersWhoCanRead(repository, path), is(readers));
+                assertThat(expected.findUsersWhoCanWrite(repository, path), is(writers));
+            }
+        }
+    }
+
+    @Test
+    public void testEvaluateMatchesAccessEvaluatorAfterRandomChanges() {
+        final Random random = new Random(11);
+        final Document document = createRandomDocument(random);
+        final CompiledAccessEvaluator evaluator = new CompiledAccessEvaluator(document);
+
+        // Test
+        for (int i = 0; i < 60; i++) {
+            changeRandomly(document, random);
+
+            final AccessEvaluator expected = new AccessEvaluator(document);
+            for (final User user : document.getUsers()) {
+                for (final String path : PATHS) {
+                    assertThat(evaluator.evaluate(user, null, path), is(expected.evaluate(user, null, path)));
+
+                    for (final Repository repository : document.getRepositories()) {
+                        assertThat(evaluator.evaluate(user, repository, path), is(expected.evaluate(user, repository, path)));
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package net.lmxm.suafe.api;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import static net.lmxm.suafe.api.AccessLevel.DENY_ACCESS;
+import static net.lmxm.suafe.api.AccessLevel.READ_ONLY;
+import static net.lmxm.suafe.api.AccessLevel.READ_WRITE;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for DecisionCache.
+ */
+public final class DecisionCacheTest {
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void testConstructorInvalidMaximumSize() {
+        thrown.expect(IllegalArgumentException.class);
+
+        new DecisionCache(new Document(), 0);
+    }
+
+    @Test
+    public void testEvaluateHitAndMiss() {
+        final Document document = new Document();
+
+        // Setup
+        final Repository repository = document.createRepository("repo");
+        final User user = document.createUser("user", null);
+        document.createAccessRuleForUser("repo", "/", "user", READ_WRITE, false);
+        final DecisionCache cache = new DecisionCache(document, 10);
+
+        // Test
+        assertThat(cache.evaluate(user, repository, "/trunk"), is(READ_WRITE));
+        assertThat(cache.canWrite(user, repository, "/trunk"), is(true));
+        assertThat(cache.canRead(user, repository, "/trunk"), is(true));
+        assertThat(cache.getMissCount(), is(equalTo(1L)));
+        assertThat(cache.getHitCount(), is(equalTo(2L)));
+        assertThat(cache.size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void testEvaluateInvalidatesOnlyChangedRepository() {
+        final Document document = new Document();
+
+        // Setup
+        final Repository repository1 = document.createRepository("repo1");
+        final Repository repository2 = document.createRepository("repo2");
+        final User user = document.createUser("user", null);
+        document.createAccessRuleForUser("repo1", "/", "user", READ_WRITE, false);
+        document.createAccessRuleForUser("repo2", "/", "user", READ_WRITE, false);
+        final DecisionCache cache = new DecisionCache(document, 10);
+        cache.evaluate(user, repository1, "/");
+        cache.evaluate(user, repository2, "/");
+
+        // Test
+        document.createAccessRuleForUser("repo1", "trunk", "user", DENY_ACCESS, false);
+        document.findAccessRuleForUserAtPath("repo1", "/", "user").setAccessLevel(READ_ONLY);
+
+        assertThat(cache.evaluate(user, repository2, "/"), is(READ_WRITE));
+        assertThat(cache.getInvalidationCount(), is(equalTo(0L)));
+        assertThat(cache.getHitCount(), is(equalTo(1L)));
+
+        assertThat(cache.evaluate(user, repository1, "/"), is(READ_ONLY));
+        assertThat(cache.getInvalidationCount(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void testEvaluateInvalidatesOnServerChange() {
+        final Document document = new Document();
+
+        // Setup
+        final Repository repository = document.createRepository("repo");
+        final User user = document.createUser("user", null);
+        final DecisionCache cache = new DecisionCache(document, 10);
+        assertThat(cache.evaluate(user, repository, "/"), is(DENY_ACCESS));
+
+        // Test
+        document.createAccessRuleForUser(null, "/", "user", READ_ONLY, false);
+        assertThat(cache.evaluate(user, repository, "/"), is(READ_ONLY));
+        assertThat(cache.getInvalidationCount(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void testEvaluateInvalidatesOnlyAffectedUsers() {
+        final Document document = new Document();
+
+        // Setup
+        final Repository repository = document.createRepository("repo");
+        final User member = document.createUser("member", null);
+        final User other = document.createUser("other", null);
+        document.createUserGroup("inner");
+        document.createUserGroup("outer");
+        document.addUserToUserGroup("member", "inner");
+        document.createAccessRuleForUserGroup("repo", "/", "outer", READ_ONLY, false);
+        final DecisionCache cache = new DecisionCache(document, 10);
+        assertThat(cache.evaluate(member, repository, "/"), is(DENY_ACCESS));
+        assertThat(cache.evaluate(other, repository, "/"), is(DENY_ACCESS));
+
+        // Test
+        document.addUserGroupToUserGroup("inner", "outer");
+        assertThat(cache.evaluate(other, repository, "/"), is(DENY_ACCESS));
+        assertThat(cache.getInvalidationCount(), is(equalTo(0L)));
+        assertThat(cache.evaluate(member, repository, "/"), is(READ_ONLY));
+        assertThat(cache.getInvalidationCount(), is(equalTo(1L)));
+
+        document.removeUserGroupFromUserGroup("inner", "outer");
+        assertThat(cache.evaluate(member, repository, "/"), is(DENY_ACCESS));
+        assertThat(cache.getInvalidationCount(), is(equalTo(2L)));
+    }
+
+    @Test
+    public void testEvaluateEvicts() {
+        final Document document = new Document();
+
+        // Setup
+        final User user = document.createUser("user", null);
+        final DecisionCache cache = new DecisionCache(document, 32);
+
+        // Test
+        for (int i = 0; i < 100; i++) {
+            cache.evaluate(user, null, "/path" + i);
+            assertThat(cache.size() <= cache.getMaximumSize(), is(true));
+        }
+
+        assertThat(cache.getEvictionCount() > 0, is(true));
+        assertThat(cache.getMissCount(), is(equalTo(100L)));
+
+        cache.clear();
+        assertThat(cache.size(), is(equalTo(0)));
+    }
+
+    @Test
+    public void testEvaluateKeepsUsedDecisions() {
+        final Document document = new Document();
+
+        // Setup
+        final User user = document.createUser("user", null);
+        final DecisionCache cache = new DecisionCache(document, 32);
+        cache.evaluate(user, null, "/hot");
+
+        // Test
+        for (int i = 0; i < 100; i++) {
+            cache.evaluate(user, null, "/path" + i);
+            cache.evaluate(user, null, "/hot");
+        }
+
+        assertThat(cache.getEvictionCount() > 0, is(true));
+        assertThat(cache.getHitCount(), is(equalTo(100L)));
+        assertThat(cache.getMissCount(), is(equalTo(101L)));
+    }
+}
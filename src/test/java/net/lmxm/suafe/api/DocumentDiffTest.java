@@ -0,0 +1,158 @@
+package net.lmxm.suafe.api;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static net.lmxm.suafe.api.AccessLevel.DENY_ACCESS;
+import static net.lmxm.suafe.api.AccessLevel.READ_ONLY;
+import static net.lmxm.suafe.api.AccessLevel.READ_WRITE;
+import static net.lmxm.suafe.api.TestDocuments.PATHS;
+import static net.lmxm.suafe.api.TestDocuments.changeRandomly;
+import static net.lmxm.suafe.api.TestDocuments.createDocument;
+import static net.lmxm.suafe.api.TestDocuments.createRandomDocument;
+import static net.lmxm.suafe.api.TestDocuments.hasTreeNode;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for DocumentDiff.
+ */
+public final class DocumentDiffTest {
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void testConstructorNullDocument() {
+        thrown.expect(IllegalArgumentException.class);
+
+        new DocumentDiff(new Document(), null);
+    }
+
+    @Test
+    public void testIterator() {
+        final Document previousDocument = createDocument();
+        final Document document = createDocument();
+
+        // Setup
+        document.removeUserFromUserGroup("alice", "developers");
+        document.createAccessRuleForUser("repo", "trunk/secret", "bob", DENY_ACCESS, false);
+        document.createUser("carol", null);
+        document.addUserToUserGroup("carol", "developers");
+
+        // Test
+        final Iterator<AccessChange> iterator = new DocumentDiff(previousDocument, document).iterator();
+
+        final AccessChange first = iterator.next();
+        assertThat(first.getRepository(), is(sameInstance(document.findRepositoryByName("repo"))));
+        assertThat(first.getPath(), is(equalTo("/")));
+        assertThat(first.getUser(), is(sameInstance(document.findUserByName("alice"))));
+        assertThat(first.getPreviousAccessLevel(), is(equalTo(DENY_ACCESS)));
+        assertThat(first.getNewAccessLevel(), is(equalTo(READ_ONLY)));
+
+        final AccessChange second = iterator.next();
+        assertThat(second.getPath(), is(equalTo("/trunk")));
+        assertThat(second.getUser(), is(sameInstance(document.findUserByName("alice"))));
+        assertThat(second.getPreviousAccessLevel(), is(equalTo(READ_WRITE)));
+        assertThat(second.getNewAccessLevel(), is(equalTo(READ_ONLY)));
+
+        final AccessChange third = iterator.next();
+        assertThat(third.getPath(), is(equalTo("/trunk/secret")));
+        assertThat(third.getUser(), is(sameInstance(document.findUserByName("alice"))));
+
+        final AccessChange fourth = iterator.next();
+        assertThat(fourth.getPath(), is(equalTo("/trunk/secret")));
+        assertThat(fourth.getUser(), is(sameInstance(document.findUserByName("bob"))));
+        assertThat(fourth.getNewAccessLevel(), is(equalTo(DENY_ACCESS)));
+
+        assertThat(iterator.hasNext(), is(false));
+        assertThat(new DocumentDiff(previousDocument, createDocument()).iterator().hasNext(), is(false));
+    }
+
+    @Test
+    public void testIteratorNestedMembershipChange() {
+        final Document previousDocument = createDocument();
+        final Document document = createDocument();
+
+        // Setup
+        for (final Document setupDocument : new Document[]{previousDocument, document}) {
+            setupDocument.createUserGroup("staff");
+            setupDocument.addUserToUserGroup("bob", "staff");
+            setupDocument.createAccessRuleForUserGroup("repo", "tags", "developers", READ_WRITE, false);
+        }
+        document.addUserGroupToUserGroup("staff", "developers");
+
+        // Test
+        final Iterator<AccessChange> iterator = new DocumentDiff(previousDocument, document).iterator();
+
+        assertThat(iterator.next().getPath(), is(equalTo("/")));
+        assertThat(iterator.next().getPath(), is(equalTo("/tags")));
+        final AccessChange change = iterator.next();
+        assertThat(change.getPath(), is(equalTo("/trunk")));
+        assertThat(change.getUser(), is(sameInstance(document.findUserByName("bob"))));
+        assertThat(change.getNewAccessLevel(), is(equalTo(READ_WRITE)));
+        assertThat(iterator.hasNext(), is(false));
+    }
+
+    @Test
+    public void testIteratorMatchesFullComparison() {
+        final Random random = new Random(48);
+
+        for (int round = 0; round < 30; round++) {
+            // Setup
+            final long seed = random.nextLong();
+            final Document previousDocument = createRandomDocument(new Random(seed));
+            final Document document = createRandomDocument(new Random(seed));
+            for (int i = 0; i < 3; i++) {
+                changeRandomly(document, random);
+            }
+
+            // Test
+            final List<String> expected = new ArrayList<String>();
+            final String[] sortedPaths = PATHS.clone();
+            Arrays.sort(sortedPaths);
+            final AccessEvaluator previousEvaluator = new AccessEvaluator(previousDocument);
+            final AccessEvaluator evaluator = new AccessEvaluator(document);
+            for (final Repository repository : document.findRepositoriesByNamePrefix("")) {
+                final Repository previousRepository = previousDocument.findRepositoryByName(repository.getName());
+                if (previousRepository == null) {
+                    continue;
+                }
+
+                for (final String path : sortedPaths) {
+                    if (!hasTreeNode(previousDocument, previousRepository, path) && !hasTreeNode(document, repository, path)) {
+                        continue;
+                    }
+
+                    for (final User user : document.findUsersByNamePrefix("")) {
+                        final User previousUser = previousDocument.findUserByName(user.getName());
+                        if (previousUser == null) {
+                            continue;
+                        }
+
+                        final AccessLevel previousAccessLevel = previousEvaluator.evaluate(previousUser, previousRepository, path);
+                        final AccessLevel accessLevel = evaluator.evaluate(user, repository, path);
+                        if (previousAccessLevel != accessLevel) {
+                            expected.add(repository.getName() + "," + path + "," + user.getName() + "," + previousAccessLevel + "->" + accessLevel);
+                        }
+                    }
+                }
+            }
+
+            final List<String> actual = new ArrayList<String>();
+            for (final AccessChange accessChange : new DocumentDiff(previousDocument, document)) {
+                actual.add(accessChange.getRepository().getName() + "," + accessChange.getPath() + ","
+                        + accessChange.getUser().getName() + "," + accessChange.getPreviousAccessLevel() + "->"
+                        + accessChange.getNewAccessLevel());
+            }
+
+            assertThat("Round " + round, actual, is(equalTo(expected)));
+        }
+    }
+}
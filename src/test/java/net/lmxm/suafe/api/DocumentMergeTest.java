@@ -0,0 +1,173 @@
+package net.lmxm.suafe.api;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.List;
+import java.util.Random;
+
+import static net.lmxm.suafe.api.AccessLevel.DENY_ACCESS;
+import static net.lmxm.suafe.api.AccessLevel.READ_ONLY;
+import static net.lmxm.suafe.api.AccessLevel.READ_WRITE;
+import static net.lmxm.suafe.api.TestDocuments.changeRandomly;
+import static net.lmxm.suafe.api.TestDocuments.createDocument;
+import static net.lmxm.suafe.api.TestDocuments.createRandomDocument;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for DocumentMerge.
+ */
+public final class DocumentMergeTest {
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void testConstructorNullDocument() {
+        thrown.expect(IllegalArgumentException.class);
+
+        new DocumentMerge(new Document(), new Document(), null);
+    }
+
+    @Test
+    public void testMerge() {
+        final Document base = createDocument();
+        final Document ours = createDocument();
+        final Document theirs = createDocument();
+        final Document expected = createDocument();
+
+        // Setup
+        for (final Document document : new Document[]{ours, expected}) {
+            document.createUser("carol", null);
+            document.addUserToUserGroup("carol", "developers");
+            document.createAccessRuleForUser("repo", "trunk/secret", "bob", DENY_ACCESS, false);
+        }
+        for (final Document document : new Document[]{theirs, expected}) {
+            document.renameUser("bob", "bob", "Robert");
+            document.createUserGroup("managers");
+            document.addUserToUserGroup("bob", "managers");
+            document.removeUserFromUserGroup("alice", "developers");
+            document.findAccessRuleForUserGroupAtPath("repo", "trunk", "developers").setAccessLevel(READ_ONLY);
+            document.deleteAccessRuleForUser("repo", "trunk", "alice");
+            document.createRepository("other");
+            document.createAccessRuleForUserGroup("other", "/", "managers", READ_WRITE, false);
+        }
+
+        // Test
+        final List<MergeConflict> conflicts = new DocumentMerge(base, ours, theirs).merge();
+
+        assertThat(conflicts.isEmpty(), is(true));
+        assertThat(ours.getFingerprint(), is(equalTo(expected.getFingerprint())));
+        assertThat(ours.findUserByName("bob").getAlias(), is(equalTo("Robert")));
+        assertThat(ours.findAccessRuleForUserAtPath("repo", "trunk/secret", "bob").getAccessLevel(), is(equalTo(DENY_ACCESS)));
+        assertThat(new DocumentMerge(base, ours, base).merge().isEmpty(), is(true));
+        assertThat(ours.getFingerprint(), is(equalTo(expected.getFingerprint())));
+    }
+
+    @Test
+    public void testMergeConflicts() {
+        final Document base = createDocument();
+        final Document ours = createDocument();
+        final Document theirs = createDocument();
+
+        // Setup
+        ours.findAccessRuleForUserAtPath("repo", "trunk", "alice").setAccessLevel(DENY_ACCESS);
+        theirs.findAccessRuleForUserAtPath("repo", "trunk", "alice").setAccessLevel(READ_WRITE);
+        ours.deleteUserGroup("developers");
+        theirs.createUser("carol", null);
+        theirs.addUserToUserGroup("carol", "developers");
+        ours.createAccessRuleForUser(null, "tags", "bob", READ_ONLY, false);
+        theirs.deleteUser("bob");
+
+        // Test
+        final List<MergeConflict> conflicts = new DocumentMerge(base, ours, theirs).merge();
+
+        assertThat(conflicts.size(), is(equalTo(3)));
+        assertThat(conflicts.get(0).getType(), is(equalTo(MergeConflictType.USER_MEMBERSHIP)));
+        assertThat(conflicts.get(0).getName(), is(equalTo("developers")));
+        assertThat(conflicts.get(0).getMemberName(), is(equalTo("carol")));
+        assertThat(conflicts.get(1).getType(), is(equalTo(MergeConflictType.ACCESS_RULE_FOR_USER)));
+        assertThat(conflicts.get(1).getRepositoryName(), is(equalTo("repo")));
+        assertThat(conflicts.get(1).getPath(), is(equalTo("/trunk")));
+        assertThat(conflicts.get(1).getName(), is(equalTo("alice")));
+        assertThat(conflicts.get(2).getType(), is(equalTo(MergeConflictType.USER)));
+        assertThat(conflicts.get(2).getName(), is(equalTo("bob")));
+        assertThat(conflicts.get(2).getRepositoryName(), is(nullValue()));
+
+        assertThat(ours.findAccessRuleForUserAtPath("repo", "trunk", "alice").getAccessLevel(), is(equalTo(DENY_ACCESS)));
+        assertThat(ours.findUserByName("bob"), is(notNullValue()));
+        assertThat(ours.findUserGroupByName("developers"), is(nullValue()));
+        assertThat(ours.findUserByName("carol"), is(notNullValue()));
+    }
+
+    @Test
+    public void testMergeSingleChangedCollection() {
+        final Document base = createDocument();
+        final Document ours = createDocument();
+        final Document theirs = createDocument();
+
+        // Setup
+        ours.createUser("carol", null);
+        ours.addUserToUserGroup("carol", "developers");
+        theirs.createRepository("other");
+        theirs.createAccessRuleForUser("other", "/", "bob", READ_WRITE, false);
+
+        // Test
+        assertThat(base.getUsersFingerprint(), is(equalTo(theirs.getUsersFingerprint())));
+        assertThat(base.getUserGroupsFingerprint(), is(equalTo(theirs.getUserGroupsFingerprint())));
+        assertThat(new DocumentMerge(base, ours, theirs).merge().isEmpty(), is(true));
+        assertThat(ours.findUserByName("carol"), is(notNullValue()));
+        assertThat(ours.findUserGroupByName("developers").getUserMembers().size(), is(equalTo(2)));
+        assertThat(ours.findAccessRuleForUserAtPath("other", "/", "bob").getAccessLevel(), is(equalTo(READ_WRITE)));
+    }
+
+    @Test
+    public void testMergeSkipsUntouchedCollections() {
+        final Document base = createRandomDocument(new Random(3));
+        final Document ours = createRandomDocument(new Random(3));
+        final Document theirs = createRandomDocument(new Random(3));
+
+        // Setup
+        for (final Document document : new Document[]{base, ours, theirs}) {
+            for (int i = 0; i < 500; i++) {
+                document.createUser("member" + i, null);
+                document.addUserToUserGroup("member" + i, "group" + (i % 4));
+            }
+        }
+        theirs.createAccessRuleForUser(null, "x/y", "member0", READ_ONLY, false);
+
+        // Test
+        final DocumentMerge merge = new DocumentMerge(base, ours, theirs);
+
+        assertThat(merge.merge().isEmpty(), is(true));
+        assertThat(merge.getVisitedCount(), is(equalTo(3)));
+        assertThat(ours.getFingerprint(), is(equalTo(theirs.getFingerprint())));
+
+        theirs.renameUser("member1", "member1", "alias1");
+
+        assertThat(merge.merge().isEmpty(), is(true));
+        assertThat(merge.getVisitedCount(), is(equalTo(base.getUsers().size() * 2 + 3)));
+        assertThat(ours.findUserByName("member1").getAlias(), is(equalTo("alias1")));
+    }
+
+    @Test
+    public void testMergeIntoUnchangedDocument() {
+        final Random random = new Random(50);
+
+        for (int round = 0; round < 30; round++) {
+            // Setup
+            final long seed = random.nextLong();
+            final Document base = createRandomDocument(new Random(seed));
+            final Document ours = createRandomDocument(new Random(seed));
+            final Document theirs = createRandomDocument(new Random(seed));
+            for (int i = 0; i < 5; i++) {
+                changeRandomly(theirs, random);
+            }
+
+            // Test
+            assertThat("Round " + round, new DocumentMerge(base, ours, theirs).merge().isEmpty(), is(true));
+            assertThat("Round " + round, ours.getFingerprint(), is(equalTo(theirs.getFingerprint())));
+        }
+    }
+}
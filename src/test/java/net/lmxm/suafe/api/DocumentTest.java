@@ -4,10 +4,20 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
 import static net.lmxm.suafe.api.AccessLevel.*;
 import static net.lmxm.suafe.api.CustomMatchers.containsSameInstance;
 import static net.lmxm.suafe.api.CustomMatchers.emptySet;
 import static net.lmxm.suafe.api.CustomMatchers.immutableSet;
+import static net.lmxm.suafe.api.TestDocuments.changeRandomly;
+import static net.lmxm.suafe.api.TestDocuments.createRandomDocument;
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.assertThat;
 
@@ -33,6 +43,98 @@ public final class DocumentTest {
         assertThat(user.getUserGroups(), is(containsSameInstance(userGroup)));
     }
 
+    @Test
+    public void testAddUserGroupToUserGroup_Cycle() {
+        final Document document = new Document();
+
+        // Setup
+        document.createUserGroup("a");
+        document.createUserGroup("b");
+        document.createUserGroup("c");
+        document.addUserGroupToUserGroup("a", "b");
+        document.addUserGroupToUserGroup("b", "c");
+
+        // Test
+        thrown.expect(MembershipCycleException.class);
+        thrown.expectMessage("Adding user group \"c\" to user group \"a\" would create a membership cycle");
+        document.addUserGroupToUserGroup("c", "a");
+    }
+
+    @Test
+    public void testAddUserGroupsToUserGroups() {
+        final Document document = new Document();
+
+        // Setup
+        final User user = document.createUser("userName", null);
+        document.createUserGroup("a");
+        document.createUserGroup("b");
+        final UserGroup c = document.createUserGroup("c");
+        document.addUserToUserGroup("userName", "a");
+
+        final Map<String, List<String>> userGroupMembers = new HashMap<String, List<String>>();
+        userGroupMembers.put("b", Arrays.asList("a"));
+        userGroupMembers.put("c", Arrays.asList("b"));
+
+        // Test
+        document.addUserGroupsToUserGroups(userGroupMembers);
+        assertThat(document.findUserGroupByName("c").getUserGroupMembers().size(), is(equalTo(1)));
+        assertThat(document.isTransitiveMember(user, c), is(true));
+
+        thrown.expect(MembershipCycleException.class);
+        thrown.expectMessage("[a, b, c]");
+        userGroupMembers.clear();
+        userGroupMembers.put("a", Arrays.asList("c"));
+        document.addUserGroupsToUserGroups(userGroupMembers);
+    }
+
+    @Test
+    public void testCaseInsensitive() {
+        final Document document = new Document(true);
+        assertThat(document.isCaseInsensitive(), is(true));
+        assertThat(new Document().isCaseInsensitive(), is(false));
+
+        // Setup
+        final User user = document.createUser("JSmith", "John.Smith");
+        final UserGroup userGroup = document.createUserGroup("Developers");
+
+        // Test
+        assertThat(document.findUserByName("jsmith"), is(sameInstance(user)));
+        assertThat(document.findUserByName("JSMITH"), is(sameInstance(user)));
+        assertThat(document.findUserByAlias("john.smith"), is(sameInstance(user)));
+        assertThat(document.findUserGroupByName("DEVELOPERS"), is(sameInstance(userGroup)));
+        assertThat(document.findUsersByNamePrefix("js").size(), is(equalTo(1)));
+        assertThat(document.findUserGroupsByNameRange("DEV", 10).size(), is(equalTo(1)));
+        assertThat(user.getName(), is(equalTo("JSmith")));
+        assertThat(user.getAlias(), is(equalTo("John.Smith")));
+        assertThat(userGroup.getName(), is(equalTo("Developers")));
+
+        document.addUserToUserGroup("jsmith", "developers");
+        assertThat(userGroup.getUserMembers(), is(containsSameInstance(user)));
+
+        document.renameUser("jsmith", "JSMITH", "JOHN.SMITH");
+        assertThat(document.findUserByName("jSmith"), is(sameInstance(user)));
+        assertThat(user.getName(), is(equalTo("JSMITH")));
+        assertThat(user.getAlias(), is(equalTo("JOHN.SMITH")));
+
+        document.renameUserGroup("developers", "DEVELOPERS");
+        assertThat(userGroup.getName(), is(equalTo("DEVELOPERS")));
+
+        thrown.expect(EntityAlreadyExistsException.class);
+        document.createUser("jSMITH", null);
+    }
+
+    @Test
+    public void testCaseSensitive() {
+        final Document document = new Document();
+
+        // Setup
+        document.createUser("JSmith", null);
+
+        // Test
+        assertThat(document.findUserByName("jsmith"), is(nullValue()));
+        assertThat(document.createUser("jsmith", null), is(notNullValue()));
+    }
+
     @Test
     public void testCloneRepository() {
         final Document document = new Document();
@@ -632,6 +734,100 @@ public final class DocumentTest {
         assertThat(memberUserGroup.getUserGroups(), is(emptySet()));
     }
 
+    @Test
+    public void testFindAccessRulesByAccessLevel() {
+        final Document document = new Document();
+
+        // Setup
+        document.createRepository("repositoryName");
+        document.createUser("userName", null);
+        document.createUserGroup("userGroupName");
+        final AccessRule readWrite = document.createAccessRuleForUser("repositoryName", "trunk", "userName", READ_WRITE, false);
+        final AccessRule denyExclusion = document.createAccessRuleForUserGroup("repositoryName", "trunk", "userGroupName", DENY_ACCESS, true);
+        final AccessRule serverReadWrite = document.createAccessRuleForUserGroup(null, "/", "userGroupName", READ_WRITE, false);
+
+        // Test
+        assertThat(document.findAccessRulesByAccessLevel(READ_WRITE).size(), is(equalTo(2)));
+        assertThat(document.findAccessRulesByAccessLevel(READ_WRITE), is(containsSameInstance(readWrite)));
+        assertThat(document.findAccessRulesByAccessLevel(READ_WRITE), is(containsSameInstance(serverReadWrite)));
+        assertThat(document.findAccessRulesByAccessLevel(READ_ONLY), is(emptySet()));
+        assertThat(document.findAccessRulesByAccessLevel(DENY_ACCESS, true).size(), is(equalTo(1)));
+        assertThat(document.findAccessRulesByAccessLevel(DENY_ACCESS, true), is(containsSameInstance(denyExclusion)));
+        assertThat(document.findAccessRulesByAccessLevel(DENY_ACCESS, false), is(emptySet()));
+        assertThat(document.findExclusionAccessRules().size(), is(equalTo(1)));
+        assertThat(document.findAccessRulesByAccessLevel(READ_WRITE), is(immutableSet()));
+
+        document.deleteAccessRuleForUser("repositoryName", "trunk", "userName");
+        assertThat(document.findAccessRulesByAccessLevel(READ_WRITE).size(), is(equalTo(1)));
+
+        document.deleteUserGroup("userGroupName");
+        assertThat(document.findAccessRulesByAccessLevel(READ_WRITE), is(emptySet()));
+        assertThat(document.findExclusionAccessRules(), is(emptySet()));
+    }
+
+    @Test
+    public void testFindAccessRulesApplyingToUser() {
+        final Document document = new Document();
+
+        // Setup
+        document.createRepository("repositoryName");
+        document.createUser("userName", null);
+        document.createUser("otherUserName", null);
+        document.createUserGroup("userGroupName");
+        document.createUserGroup("parentUserGroupName");
+        document.addUserToUserGroup("userName", "userGroupName");
+        document.addUserGroupToUserGroup("userGroupName", "parentUserGroupName");
+        final AccessRule userRule = document.createAccessRuleForUser("repositoryName", "trunk", "userName", READ_ONLY, false);
+        final AccessRule userGroupRule = document.createAccessRuleForUserGroup("repositoryName", "trunk/src", "parentUserGroupName", READ_WRITE, false);
+        document.createAccessRuleForUser("repositoryName", "branches", "otherUserName", READ_WRITE, false);
+        document.createAccessRuleForUserGroup("repositoryName", "tags", "userGroupName", READ_WRITE, true);
+        final AccessRule serverRule = document.createAccessRuleForUser(null, "/", "otherUserName", READ_ONLY, true);
+
+        // Test
+        assertThat(document.findAccessRulesApplyingToUser("repositoryName", "userName"), is(Arrays.asList(userRule, userGroupRule, serverRule)));
+        assertThat(document.findAccessRulesApplyingToUser(null, "userName"), is(Arrays.asList(serverRule)));
+        assertThat(document.findAccessRulesApplyingToUser("repositoryName", "otherUserName").size(), is(equalTo(2)));
+
+        document.removeUserGroupFromUserGroup("userGroupName", "parentUserGroupName");
+        document.deleteAccessRuleForUser("repositoryName", "trunk", "userName");
+
+        assertThat(document.findAccessRulesApplyingToUser("repositoryName", "userName"), is(Arrays.asList(serverRule)));
+    }
+
+    @Test
+    public void testFindAccessRulesByRepository() {
+        final Document document = new Document();
+
+        // Setup
+        final Repository repository = document.createRepository("repositoryName");
+        document.createRepository("otherRepositoryName");
+        document.createUser("userName", null);
+        final AccessRule readOnly = document.createAccessRuleForUser("repositoryName", "trunk", "userName", READ_ONLY, false);
+        final AccessRule readWrite = document.createAccessRuleForUser("repositoryName", "branches", "userName", READ_WRITE, false);
+        document.createAccessRuleForUser("otherRepositoryName", "trunk", "userName", READ_WRITE, false);
+        final AccessRule serverRule = document.createAccessRuleForUser(null, "trunk", "userName", READ_WRITE, false);
+
+        // Test
+        assertThat(readOnly.getTreeNode().getRepository(), is(sameInstance(repository)));
+        assertThat(serverRule.getTreeNode().getRepository(), is(nullValue()));
+        assertThat(document.findAccessRulesByRepository("repositoryName").size(), is(equalTo(2)));
+        assertThat(document.findAccessRulesByRepository("repositoryName", READ_WRITE).size(), is(equalTo(1)));
+        assertThat(document.findAccessRulesByRepository("repositoryName", READ_WRITE), is(containsSameInstance(readWrite)));
+        assertThat(document.findAccessRulesByRepository(null, READ_WRITE).size(), is(equalTo(1)));
+        assertThat(document.findAccessRulesByRepository(null, READ_WRITE), is(containsSameInstance(serverRule)));
+
+        document.renameRepository("repositoryName", "newRepositoryName");
+        assertThat(document.findAccessRulesByRepository("newRepositoryName").size(), is(equalTo(2)));
+
+        readOnly.setAccessLevel(READ_WRITE);
+        assertThat(document.findAccessRulesByRepository("newRepositoryName", READ_WRITE).size(), is(equalTo(2)));
+        assertThat(document.findAccessRulesByRepository("newRepositoryName", READ_ONLY), is(emptySet()));
+
+        document.deleteRepository("newRepositoryName");
+        assertThat(document.findAccessRulesByAccessLevel(READ_WRITE).size(), is(equalTo(2)));
+        assertThat(document.findAccessRulesByAccessLevel(READ_ONLY), is(emptySet()));
+    }
+
     @Test
     public void testFindAccessRuleForUserAtPath() {
         final Document document = new Document();
@@ -724,6 +920,21 @@ public final class DocumentTest {
         assertThat(document.findUserByAlias("userAlias").getAlias(), is(equalTo("userAlias")));
     }
 
+    @Test
+    public void testFindUserByReference() {
+        final Document document = new Document();
+
+        // Setup
+        final User user = document.createUser("userName", "userAlias");
+        final User otherUser = document.createUser("userAlias", null);
+
+        // Test
+        assertThat(document.findUserByReference("&userAlias"), is(sameInstance(user)));
+        assertThat(document.findUserByReference("userAlias"), is(sameInstance(otherUser)));
+        assertThat(document.findUserByReference("userName"), is(sameInstance(user)));
+        assertThat(document.findUserByReference("&userName"), is(nullValue()));
+    }
+
     @Test
     public void testFindUserByName() {
         final Document document = new Document();
@@ -750,6 +961,91 @@ public final class DocumentTest {
         assertThat(document.findUserGroupByName("userGroupName").getName(), is(equalTo("userGroupName")));
     }
 
+    @Test
+    public void testFindRepositoriesByName() {
+        final Document document = new Document();
+
+        // Setup
+        document.createRepository("gamma");
+        document.createRepository("alpha");
+        document.createRepository("beta");
+        document.createRepository("alphabet");
+
+        // Test
+        assertThat(namesOf(document.findRepositoriesByNameRange(null, 2)), is(equalTo("alpha,alphabet")));
+        assertThat(namesOf(document.findRepositoriesByNameRange("alphabet", 2)), is(equalTo("beta,gamma")));
+        assertThat(namesOf(document.findRepositoriesByNamePrefix("alpha")), is(equalTo("alpha,alphabet")));
+
+        document.renameRepository("alpha", "delta");
+        assertThat(namesOf(document.findRepositoriesByNameRange(null, 10)), is(equalTo("alphabet,beta,delta,gamma")));
+
+        document.deleteRepository("beta");
+        assertThat(namesOf(document.findRepositoriesByNameRange(null, 10)), is(equalTo("alphabet,delta,gamma")));
+    }
+
+    @Test
+    public void testFindUsersByAlias() {
+        final Document document = new Document();
+
+        // Setup
+        document.createUser("one", "jsmith");
+        document.createUser("two", null);
+        document.createUser("three", "jdoe");
+        document.createUser("four", "adams");
+
+        // Test
+        assertThat(namesOf(document.findUsersByAliasRange(null, 10)), is(equalTo("four,three,one")));
+        assertThat(namesOf(document.findUsersByAliasRange("jdoe", 10)), is(equalTo("one")));
+        assertThat(namesOf(document.findUsersByAliasPrefix("j")), is(equalTo("three,one")));
+
+        document.renameUser("one", "one", "zed");
+        assertThat(namesOf(document.findUsersByAliasPrefix("j")), is(equalTo("three")));
+        assertThat(document.findUserByAlias("zed").getName(), is(equalTo("one")));
+        assertThat(document.findUserByAlias("jsmith"), is(nullValue()));
+
+        document.deleteUser("three");
+        assertThat(namesOf(document.findUsersByAliasRange(null, 10)), is(equalTo("four,one")));
+    }
+
+    @Test
+    public void testFindUsersByName() {
+        final Document document = new Document();
+
+        // Setup
+        document.createUser("carol", null);
+        document.createUser("alice", null);
+        document.createUser("bob", null);
+        document.createUser("alex", null);
+
+        // Test
+        assertThat(namesOf(document.findUsersByNameRange(null, 3)), is(equalTo("alex,alice,bob")));
+        assertThat(namesOf(document.findUsersByNameRange("bob", 3)), is(equalTo("carol")));
+        assertThat(namesOf(document.findUsersByNamePrefix("al")), is(equalTo("alex,alice")));
+
+        document.renameUser("alex", "dave", null);
+        assertThat(namesOf(document.findUsersByNamePrefix("al")), is(equalTo("alice")));
+        assertThat(namesOf(document.findUsersByNameRange("carol", 3)), is(equalTo("dave")));
+    }
+
+    @Test
+    public void testFindUserGroupsByName() {
+        final Document document = new Document();
+
+        // Setup
+        document.createUserGroup("developers");
+        document.createUserGroup("admins");
+        document.createUserGroup("designers");
+
+        // Test
+        assertThat(namesOf(document.findUserGroupsByNameRange(null, 10)), is(equalTo("admins,designers,developers")));
+        assertThat(namesOf(document.findUserGroupsByNameRange("admins", 1)), is(equalTo("designers")));
+        assertThat(namesOf(document.findUserGroupsByNamePrefix("de")), is(equalTo("designers,developers")));
+
+        document.renameUserGroup("admins", "testers");
+        document.deleteUserGroup("designers");
+        assertThat(namesOf(document.findUserGroupsByNameRange(null, 10)), is(equalTo("developers,testers")));
+    }
+
     @Test
     public void testGetRepositories() {
         final Document document = new Document();
@@ -800,6 +1096,86 @@ public final class DocumentTest {
         assertThat(document.getUserGroups(), is(immutableSet()));
     }
 
+    @Test
+    public void testInternNames() {
+        final Document document = new Document();
+
+        // Setup
+        document.createRepository("one");
+        document.createRepository("two");
+        document.createUser("trunk", null);
+        document.createAccessRuleForUser("one", new String("trunk/src"), "trunk", READ_ONLY, false);
+        document.createAccessRuleForUser("two", new String("trunk/src"), "trunk", READ_ONLY, false);
+
+        // Test
+        final TreeNode oneTrunk = document.findRepositoryByName("one").getRootTreeNode().getChildren().iterator().next();
+        final TreeNode twoTrunk = document.findRepositoryByName("two").getRootTreeNode().getChildren().iterator().next();
+        assertThat(oneTrunk, is(not(sameInstance(twoTrunk))));
+        assertThat(oneTrunk.getName(), is(sameInstance(twoTrunk.getName())));
+        assertThat(oneTrunk.getName(), is(sameInstance(document.findUserByName("trunk").getName())));
+        assertThat(oneTrunk.getChildren().iterator().next().getName(),
+                is(sameInstance(twoTrunk.getChildren().iterator().next().getName())));
+
+        document.renameUser("trunk", new String("src"), null);
+        assertThat(document.findUserByName("src").getName(), is(sameInstance(oneTrunk.getChildren().iterator().next().getName())));
+    }
+
+    @Test
+    public void testIsTransitiveMember() {
+        final Document document = new Document();
+
+        // Setup
+        final User user = document.createUser("userName", null);
+        final UserGroup innerUserGroup = document.createUserGroup("innerUserGroup");
+        final UserGroup outerUserGroup = document.createUserGroup("outerUserGroup");
+        final UserGroup otherUserGroup = document.createUserGroup("otherUserGroup");
+        document.addUserToUserGroup("userName", "innerUserGroup");
+        document.addUserGroupToUserGroup("innerUserGroup", "outerUserGroup");
+
+        // Test
+        assertThat(document.isTransitiveMember(user, innerUserGroup), is(true));
+        assertThat(document.isTransitiveMember(user, outerUserGroup), is(true));
+        assertThat(document.isTransitiveMember(user, otherUserGroup), is(false));
+        assertThat(document.getUserGroupClosure(user).cardinality(), is(equalTo(2)));
+
+        document.removeUserGroupFromUserGroup("innerUserGroup", "outerUserGroup");
+        assertThat(document.isTransitiveMember(user, outerUserGroup), is(false));
+
+        document.addUserGroupToUserGroup("innerUserGroup", "otherUserGroup");
+        assertThat(document.isTransitiveMember(user, otherUserGroup), is(true));
+    }
+
+    @Test
+    public void testIds() {
+        final Document document = new Document();
+
+        // Setup
+        final User user1 = document.createUser("user1", null);
+        final User user2 = document.createUser("user2", null);
+        final UserGroup userGroup1 = document.createUserGroup("userGroup1");
+        final UserGroup userGroup2 = document.createUserGroup("userGroup2");
+
+        assertThat(user1.getId(), is(equalTo(0)));
+        assertThat(user2.getId(), is(equalTo(1)));
+        assertThat(userGroup1.getId(), is(equalTo(0)));
+        assertThat(userGroup2.getId(), is(equalTo(1)));
+
+        // Test
+        document.deleteUser("user1");
+        document.deleteUserGroup("userGroup1");
+        assertThat(user1.getId(), is(equalTo(-1)));
+        assertThat(userGroup1.getId(), is(equalTo(-1)));
+
+        final User user3 = document.createUser("user3", null);
+        final UserGroup userGroup3 = document.createUserGroup("userGroup3");
+        assertThat(user3.getId(), is(equalTo(0)));
+        assertThat(userGroup3.getId(), is(equalTo(0)));
+
+        document.addUserToUserGroup("user3", "userGroup3");
+        assertThat(document.isTransitiveMember(user3, userGroup3), is(true));
+        assertThat(document.isTransitiveMember(user2, userGroup3), is(false));
+    }
+
     @Test
     public void testRenameRepository() {
         final Document document = new Document();
@@ -860,6 +1236,48 @@ public final class DocumentTest {
         assertThat(document.findUserByAlias("userAlias"), is(nullValue()));
     }
 
+    @Test
+    public void testRenameUserAlias_AlreadyExists() {
+        final Document document = new Document();
+
+        // Setup
+        final User user = document.createUser("userName", "userAlias");
+        final User otherUser = document.createUser("otherUserName", "otherUserAlias");
+
+        // Test
+        try {
+            document.renameUser("userName", "userName", "otherUserAlias");
+        }
+        catch (final EntityAlreadyExistsException e) {
+            // Expected
+        }
+
+        assertThat(user.getAlias(), is(equalTo("userAlias")));
+        assertThat(document.findUserByAlias("userAlias"), is(sameInstance(user)));
+        assertThat(document.findUserByAlias("otherUserAlias"), is(sameInstance(otherUser)));
+    }
+
+    @Test
+    public void testRenameUserAlias_Groups() {
+        final Document document = new Document();
+
+        // Setup
+        final User user = document.createUser("userName", "userAlias");
+        final UserGroup userGroup = document.createUserGroup("userGroupName");
+        document.addUserToUserGroup("userName", "userGroupName");
+
+        // Test
+        document.renameUser("userName", "newUserName", "newUserAlias");
+        assertThat(document.getUsers().contains(user), is(true));
+        assertThat(userGroup.getUserMembers().contains(user), is(true));
+        assertThat(document.removeUserFromUserGroup("newUserName", "userGroupName"), is(true));
+        assertThat(userGroup.getUserMembers(), is(emptySet()));
+
+        document.deleteUser("newUserName");
+        assertThat(document.getUsers(), is(emptySet()));
+        assertThat(document.findUserByAlias("newUserAlias"), is(nullValue()));
+    }
+
     @Test
     public void testRenameUserName() {
         final Document document = new Document();
@@ -897,4 +1315,193 @@ public final class DocumentTest {
         assertThat(document.findUserGroupByName("newUserGroupName").getName(), is(equalTo("newUserGroupName")));
         assertThat(document.findUserGroupByName("userGroupName"), is(nullValue()));
     }
+
+    @Test
+    public void testRenameUserGroup_Memberships() {
+        final Document document = new Document();
+
+        // Setup
+        final User bob = document.createUser("bob", null);
+        document.createUserGroup("g");
+        document.createUserGroup("h");
+        document.createUserGroup("parent");
+        document.addUserToUserGroup("bob", "g");
+        document.addUserToUserGroup("bob", "h");
+        document.addUserGroupToUserGroup("g", "h");
+        document.addUserGroupToUserGroup("h", "parent");
+
+        // Test
+        final UserGroup hh = document.renameUserGroup("h", "hh");
+        assertThat(document.getUserGroups().contains(hh), is(true));
+        assertThat(bob.getUserGroups().contains(hh), is(true));
+        assertThat(document.findUserGroupByName("g").getUserGroups().contains(hh), is(true));
+        assertThat(document.findUserGroupByName("parent").getUserGroupMembers().contains(hh), is(true));
+
+        assertThat(document.removeUserFromUserGroup("bob", "hh"), is(true));
+        assertThat(bob.getUserGroups().size(), is(equalTo(1)));
+        assertThat(document.getUserGroupClosure(bob).get(hh.getId()), is(true));
+
+        assertThat(document.removeUserGroupFromUserGroup("g", "hh"), is(true));
+        assertThat(bob.getUserGroups().size(), is(equalTo(1)));
+        assertThat(document.getUserGroupClosure(bob).get(hh.getId()), is(false));
+        assertThat(document.removeUserGroupFromUserGroup("g", "hh"), is(false));
+        assertThat(document.removeUserFromUserGroup("bob", "hh"), is(false));
+    }
+
+    @Test
+    public void testFindUsersByIds() {
+        final Document document = new Document(true);
+
+        // Setup
+        final List<User> users = new ArrayList<User>();
+        for (final String userName : new String[]{"carol", "Bob", "alice", "Dave", "eve"}) {
+            users.add(document.createUser(userName, null));
+        }
+        for (int i = 0; i < 40; i++) {
+            document.createUser("user" + i, null);
+        }
+        final BitSet few = new BitSet();
+        few.set(users.get(0).getId());
+        few.set(users.get(1).getId());
+        final BitSet all = document.getUserIds();
+
+        // Test
+        assertThat(namesOf(document.findUsersByIds(few)), is(equalTo("Bob,carol")));
+        assertThat(namesOf(document.findUsersByIds(all)).startsWith("alice,Bob,carol,Dave,eve,user0,user1,user10,"), is(true));
+        assertThat(document.findUsersByIds(new BitSet()).isEmpty(), is(true));
+    }
+
+    @Test
+    public void testRenameUserGroupAlreadyExists() {
+        final Document document = new Document();
+
+        // Setup
+        document.createUserGroup("userGroupName");
+        document.createUserGroup("newUserGroupName");
+
+        // Test
+        thrown.expect(EntityAlreadyExistsException.class);
+        document.renameUserGroup("userGroupName", "newUserGroupName");
+    }
+
+    @Test
+    public void testGetFingerprint() {
+        final Document document = new Document();
+        final Document otherDocument = new Document();
+
+        // Setup
+        for (final Document each : new Document[]{document, otherDocument}) {
+            each.createRepository("repo");
+            each.createUser("alice", "Alice");
+            each.createUser("bob", null);
+            each.createUserGroup("developers");
+            each.createUserGroup("staff");
+            each.addUserToUserGroup("alice", "developers");
+            each.addUserGroupToUserGroup("developers", "staff");
+            each.createAccessRuleForUserGroup(null, "/", "staff", READ_ONLY, false);
+            each.createAccessRuleForUser("repo", "trunk", "bob", READ_WRITE, false);
+        }
+
+        // Test
+        assertThat(document.getFingerprint(), is(equalTo(otherDocument.getFingerprint())));
+        assertThat(document.getFingerprint(), is(not(equalTo(new Document().getFingerprint()))));
+        assertThat(new Document().getFingerprint(), is(not(equalTo(new Document(true).getFingerprint()))));
+
+        document.addUserToUserGroup("bob", "developers");
+        assertThat(document.getFingerprint(), is(not(equalTo(otherDocument.getFingerprint()))));
+
+        document.removeUserFromUserGroup("bob", "developers");
+        assertThat(document.getFingerprint(), is(equalTo(otherDocument.getFingerprint())));
+
+        document.renameUserGroup("developers", "engineers");
+        assertThat(document.getFingerprint(), is(not(equalTo(otherDocument.getFingerprint()))));
+
+        document.renameUserGroup("engineers", "developers");
+        assertThat(document.getFingerprint(), is(equalTo(otherDocument.getFingerprint())));
+
+        document.renameUser("alice", "alice", "Al");
+        assertThat(document.getFingerprint(), is(not(equalTo(otherDocument.getFingerprint()))));
+
+        document.renameUser("alice", "alice", "Alice");
+        document.renameRepository("repo", "other");
+        assertThat(document.getFingerprint(), is(not(equalTo(otherDocument.getFingerprint()))));
+
+        document.renameRepository("other", "repo");
+        document.createAccessRuleForUser(null, "trunk", "alice", DENY_ACCESS, false);
+        assertThat(document.getFingerprint(), is(not(equalTo(otherDocument.getFingerprint()))));
+
+        document.deleteAccessRuleForUser(null, "trunk", "alice");
+        assertThat(document.getFingerprint(), is(equalTo(otherDocument.getFingerprint())));
+    }
+
+    @Test
+    public void testGetFingerprintAfterRandomChanges() {
+        final Random random = new Random(49);
+        final Document document = createRandomDocument(new Random(7));
+        final Document otherDocument = createRandomDocument(new Random(7));
+
+        for (int i = 0; i < 300; i++) {
+            // Setup
+            final long seed = random.nextLong();
+            changeRandomly(document, new Random(seed));
+            changeRandomly(otherDocument, new Random(seed));
+
+            final String userGroupName = "group" + random.nextInt(5);
+            if (document.findUserGroupByName(userGroupName) != null) {
+                document.renameUserGroup(userGroupName, "renamed");
+                document.getFingerprint();
+                document.renameUserGroup("renamed", userGroupName);
+            }
+            final String userName = "user" + random.nextInt(10);
+            final User user = document.findUserByName(userName);
+            if (user != null) {
+                final String alias = user.getAlias();
+                document.renameUser(userName, "renamed", alias);
+                document.getFingerprint();
+                document.renameUser("renamed", userName, alias);
+            }
+            final String repositoryName = "repo" + random.nextInt(4);
+            if (document.findRepositoryByName(repositoryName) != null) {
+                document.renameRepository(repositoryName, "renamed");
+                document.getFingerprint();
+                document.renameRepository("renamed", repositoryName);
+            }
+
+            // Test
+            if (random.nextInt(4) == 0) {
+                assertThat("Change " + i, document.getUsersFingerprint(), is(equalTo(otherDocument.getUsersFingerprint())));
+                assertThat("Change " + i, document.getUserGroupsFingerprint(), is(equalTo(otherDocument.getUserGroupsFingerprint())));
+                assertThat("Change " + i, document.getRepositoriesFingerprint(), is(equalTo(otherDocument.getRepositoriesFingerprint())));
+                assertThat("Change " + i, document.getFingerprint(), is(equalTo(otherDocument.getFingerprint())));
+            }
+        }
+    }
+
+    /**
+     * Joins the names of repositories, users or user groups into a comma separated string.
+     *
+     * @param entities Entities to process
+     * @return Comma separated names
+     */
+    private static String namesOf(final List<?> entities) {
+        final StringBuilder names = new StringBuilder();
+
+        for (final Object entity : entities) {
+            if (names.length() > 0) {
+                names.append(",");
+            }
+
+            if (entity instanceof Repository) {
+                names.append(((Repository) entity).getName());
+            }
+            else if (entity instanceof User) {
+                names.append(((User) entity).getName());
+            }
+            else {
+                names.append(((UserGroup) entity).getName());
+            }
+        }
+
+        return names.toString();
+    }
 }
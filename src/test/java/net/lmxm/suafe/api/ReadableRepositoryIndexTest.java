@@ -0,0 +1,130 @@
+package net.lmxm.suafe.api;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static net.lmxm.suafe.api.AccessLevel.DENY_ACCESS;
+import static net.lmxm.suafe.api.AccessLevel.READ_ONLY;
+import static net.lmxm.suafe.api.AccessLevel.READ_WRITE;
+import static net.lmxm.suafe.api.TestDocuments.PATHS;
+import static net.lmxm.suafe.api.TestDocuments.changeRandomly;
+import static net.lmxm.suafe.api.TestDocuments.createRandomDocument;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for ReadableRepositoryIndex.
+ */
+public final class ReadableRepositoryIndexTest {
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void testConstructorNullDocument() {
+        thrown.expect(IllegalArgumentException.class);
+
+        new ReadableRepositoryIndex(null);
+    }
+
+    @Test
+    public void testFindReadableRepositories() {
+        final Document document = new Document();
+
+        // Setup
+        final Repository repository1 = document.createRepository("repo1");
+        final Repository repository2 = document.createRepository("repo2");
+        final Repository repository3 = document.createRepository("repo3");
+        final User alice = document.createUser("alice", null);
+        final User bob = document.createUser("bob", null);
+        document.createUserGroup("developers");
+        document.addUserToUserGroup("alice", "developers");
+        document.createAccessRuleForUserGroup("repo1", "trunk", "developers", READ_ONLY, false);
+        document.createAccessRuleForUser("repo2", "/", "bob", READ_WRITE, false);
+        document.createAccessRuleForUser(null, "/", "alice", READ_ONLY, false);
+        document.createAccessRuleForUser("repo3", "/", "alice", DENY_ACCESS, false);
+        final ReadableRepositoryIndex index = new ReadableRepositoryIndex(document);
+
+        // Test
+        assertThat(index.findReadableRepositories(alice), is(Arrays.asList(repository1, repository2)));
+        assertThat(index.findReadableRepositories(bob), is(Arrays.asList(repository2)));
+        assertThat(index.canReadAnyPath(alice, repository3), is(false));
+
+        document.createAccessRuleForUser("repo3", "tags", "alice", READ_ONLY, false);
+
+        assertThat(index.canReadAnyPath(alice, repository3), is(true));
+
+        document.removeUserFromUserGroup("alice", "developers");
+        document.deleteAccessRuleForUser(null, "/", "alice");
+
+        assertThat(index.findReadableRepositories(alice), is(Arrays.asList(repository3)));
+
+        document.addUserToUserGroup("bob", "developers");
+        document.deleteRepository("repo2");
+
+        assertThat(index.findReadableRepositories(bob), is(Arrays.asList(repository1)));
+    }
+
+    @Test
+    public void testFindReadableRepositoriesExclusion() {
+        final Document document = new Document();
+
+        // Setup
+        final Repository repository = document.createRepository("repo");
+        final User alice = document.createUser("alice", null);
+        document.createAccessRuleForUser("repo", "/", "alice", READ_ONLY, true);
+        final ReadableRepositoryIndex index = new ReadableRepositoryIndex(document);
+
+        // Test
+        assertThat(index.canReadAnyPath(alice, repository), is(false));
+
+        final User bob = document.createUser("bob", null);
+
+        assertThat(index.canReadAnyPath(bob, repository), is(true));
+    }
+
+    @Test
+    public void testFindReadableRepositoriesMatchesAccessEvaluator() {
+        final Random random = new Random(11);
+        final Document document = createRandomDocument(random);
+
+        // Test
+        final ReadableRepositoryIndex index = new ReadableRepositoryIndex(document);
+        assertMatchesAccessEvaluator(document, index, PATHS);
+
+        for (int i = 0; i < 60; i++) {
+            changeRandomly(document, random);
+            assertMatchesAccessEvaluator(document, index, PATHS);
+        }
+    }
+
+    /**
+     * Asserts that the index lists, for every user, the repositories in which the access evaluator grants read access
+     * to at least one of the provided paths.
+     *
+     * @param document Document whose repositories are indexed
+     * @param index    Index to check
+     * @param paths    Paths holding all access rules of the document
+     */
+    private static void assertMatchesAccessEvaluator(final Document document, final ReadableRepositoryIndex index, final String[] paths) {
+        final AccessEvaluator evaluator = new AccessEvaluator(document);
+        for (final User user : document.getUsers()) {
+            final List<Repository> expected = new ArrayList<Repository>();
+            for (final Repository repository : document.findRepositoriesByNamePrefix("")) {
+                for (final String path : paths) {
+                    if (evaluator.canRead(user, repository, path)) {
+                        expected.add(repository);
+                        break;
+                    }
+                }
+            }
+
+            assertThat(index.findReadableRepositories(user), is(expected));
+        }
+    }
+}
@@ -65,9 +65,79 @@ public final class RepositoryTest {
         assertThat(accessRule.isExclusion(), is(false));
     }
 
+    @Test
+    public void testGetMergedRootTreeNode() {
+        final Document document = new Document();
+
+        // Setup
+        final Repository repository = document.createRepository("repositoryName");
+        document.createUser("userName", null);
+        document.createAccessRuleForUser("repositoryName", "trunk/src", "userName", READ_WRITE, false);
+        document.createAccessRuleForUser(null, "trunk", "userName", READ_WRITE, false);
+        document.createAccessRuleForUser(null, "tags", "userName", READ_WRITE, false);
+
+        // Test
+        final MergedTreeNode root = repository.getMergedRootTreeNode();
+        assertThat(repository.getMergedRootTreeNode(), is(sameInstance(root)));
+        assertThat(root.getRepositoryTreeNode(), is(sameInstance(repository.getRootTreeNode())));
+        assertThat(root.getServerTreeNode(), is(sameInstance(document.getRootTreeNode())));
+        assertThat(root.getChildCount(), is(equalTo(2)));
+
+        final MergedTreeNode trunk = root.findChild("/trunk/src", 1, 6);
+        assertThat(trunk.getName(), is(equalTo("trunk")));
+        assertThat(trunk.getParent(), is(sameInstance(root)));
+        assertThat(trunk.getRepositoryTreeNode(), is(sameInstance(TreeNode.findByPath(repository.getRootTreeNode(), "trunk"))));
+        assertThat(trunk.getServerTreeNode(), is(sameInstance(TreeNode.findByPath(document.getRootTreeNode(), "trunk"))));
+        assertThat(trunk.findChild("/trunk/src", 7, 10).getServerTreeNode(), is(nullValue()));
+        assertThat(root.findChild("tags", 0, 4).getRepositoryTreeNode(), is(nullValue()));
+
+        document.deleteAccessRuleForUser(null, "tags", "userName");
+
+        final MergedTreeNode rebuiltRoot = repository.getMergedRootTreeNode();
+        assertThat(rebuiltRoot, is(not(sameInstance(root))));
+        assertThat(rebuiltRoot.getChildCount(), is(equalTo(1)));
+
+        document.deleteAccessRuleForUser("repositoryName", "trunk/src", "userName");
+
+        assertThat(repository.getMergedRootTreeNode().findChild("trunk", 0, 5).getChildCount(), is(equalTo(0)));
+    }
+
+    @Test
+    public void testMergedTreeFindDeepestNode() {
+        final Document document = new Document();
+
+        // Setup
+        final Repository repository = document.createRepository("repositoryName");
+        document.createUser("userName", null);
+        document.createAccessRuleForUser("repositoryName", "trunk/src/main", "userName", READ_WRITE, false);
+        document.createAccessRuleForUser(null, "/", "userName", READ_WRITE, false);
+        document.createAccessRuleForUser(null, "tags", "userName", READ_WRITE, false);
+
+        // Test
+        final MergedTreeNode root = repository.getMergedRootTreeNode();
+        final MergedTreeNode main = root.findChild("trunk", 0, 5).findChild("src", 0, 3).findChild("main", 0, 4);
+        final MergedTreeNode tags = root.findChild("tags", 0, 4);
+
+        assertThat(root.findDeepestNode("/trunk/src/main/java/net/lmxm/Main.java"), is(sameInstance(main)));
+        assertThat(root.findDeepestNode("/trunk/src/test/java"), is(sameInstance(main.getParent())));
+        assertThat(root.findDeepestNode("/trunk/src/main"), is(sameInstance(main)));
+        assertThat(root.findDeepestNode("/tags/1.0/README"), is(sameInstance(tags)));
+        assertThat(root.findDeepestNode("/branches/1.x"), is(sameInstance(root)));
+        assertThat(root.findDeepestNode("/"), is(sameInstance(root)));
+        assertThat(root.findDeepestNode("trunk//src/main/"), is(sameInstance(main)));
+        assertThat(root.findDeepestNode("/trunk/src/"), is(sameInstance(main.getParent())));
+
+        assertThat(main.getNearestRuledAncestor(), is(sameInstance(main)));
+        assertThat(main.getParent().getNearestRuledAncestor(), is(sameInstance(root)));
+        assertThat(tags.getNearestRuledAncestor(), is(sameInstance(tags)));
+    }
+
     @Test
     public void testEqualsContract() {
-        EqualsVerifier.forClass(User.class).suppress(Warning.NONFINAL_FIELDS).verify();
+        EqualsVerifier.forClass(Repository.class).suppress(Warning.NONFINAL_FIELDS, Warning.NULL_FIELDS).withPrefabValues(long.class, 1L, 2L)
+                .withPrefabValues(TreeNode.class, new TreeNode(), new TreeNode())
+                .withPrefabValues(MergedTreeNode.class, MergedTreeNode.merge(new TreeNode(), null), MergedTreeNode.merge(new TreeNode(), null))
+                .verify();
     }
 
     @Test
@@ -0,0 +1,210 @@
+package net.lmxm.suafe.api;
+
+import java.util.Random;
+
+import static net.lmxm.suafe.api.AccessLevel.READ_ONLY;
+import static net.lmxm.suafe.api.AccessLevel.READ_WRITE;
+
+/**
+ * Document fixtures shared by the unit tests. Random documents have repositories repo0 to repo2, users user0 to user7
+ * and nested user groups group0 to group3, with access rules at a small set of paths; random changes may also create
+ * and delete repositories, users and user groups up to repo3, user9 and group4.
+ */
+public final class TestDocuments {
+    /**
+     * Canonical paths at which access rules are created.
+     */
+    public static final String[] PATHS = {"/", "/a", "/b", "/a/b", "/a/c", "/b/a", "/a/b/c"};
+
+    /**
+     * Prevents instantiation.
+     */
+    private TestDocuments() {
+    }
+
+    /**
+     * Creates a small document with a repository, two users and a user group.
+     *
+     * @return New document
+     */
+    public static Document createDocument() {
+        final Document document = new Document();
+
+        document.createRepository("repo");
+        document.createUser("alice", null);
+        document.createUser("bob", null);
+        document.createUserGroup("developers");
+        document.addUserToUserGroup("alice", "developers");
+        document.createAccessRuleForUserGroup(null, "/", "developers", READ_ONLY, true);
+        document.createAccessRuleForUserGroup("repo", "trunk", "developers", READ_WRITE, false);
+        document.createAccessRuleForUser("repo", "trunk", "alice", READ_ONLY, false);
+
+        return document;
+    }
+
+    /**
+     * Creates a document with random memberships and access rules.
+     *
+     * @param random Random number generator
+     * @return New document
+     */
+    public static Document createRandomDocument(final Random random) {
+        final Document document = new Document();
+
+        for (int i = 0; i < 3; i++) {
+            document.createRepository("repo" + i);
+        }
+        for (int i = 0; i < 8; i++) {
+            document.createUser("user" + i, null);
+        }
+        for (int i = 0; i < 4; i++) {
+            document.createUserGroup("group" + i);
+            document.addUserToUserGroup("user" + random.nextInt(8), "group" + i);
+            document.addUserToUserGroup("user" + random.nextInt(8), "group" + i);
+            if (i > 0) {
+                document.addUserGroupToUserGroup("group" + random.nextInt(i), "group" + i);
+            }
+        }
+        for (int i = 0; i < 30; i++) {
+            createAccessRule(document, random);
+        }
+
+        return document;
+    }
+
+    /**
+     * Applies a random change to a document: creating or deleting a user, user group or repository, changing a
+     * membership, raising the access level of an access rule or creating an access rule.
+     *
+     * @param document Document to change
+     * @param random   Random number generator
+     */
+    public static void changeRandomly(final Document document, final Random random) {
+        final String userName = "user" + random.nextInt(10);
+        final String userGroupName = "group" + random.nextInt(5);
+        final String repositoryName = "repo" + random.nextInt(4);
+        final boolean userExists = document.findUserByName(userName) != null;
+        final boolean userGroupExists = document.findUserGroupByName(userGroupName) != null;
+
+        switch (random.nextInt(8)) {
+            case 0:
+                if (userGroupExists) {
+                    document.deleteUserGroup(userGroupName);
+                }
+                else {
+                    document.createUserGroup(userGroupName);
+                }
+                break;
+            case 1:
+                if (userExists) {
+                    document.deleteUser(userName);
+                }
+                else {
+                    document.createUser(userName, "alias" + userName);
+                }
+                break;
+            case 2:
+                if (userExists && userGroupExists) {
+                    document.addUserToUserGroup(userName, userGroupName);
+                }
+                break;
+            case 3:
+                if (userExists && userGroupExists) {
+                    document.removeUserFromUserGroup(userName, userGroupName);
+                }
+                break;
+            case 4:
+                if (document.findRepositoryByName(repositoryName) != null) {
+                    document.deleteRepository(repositoryName);
+                }
+                else {
+                    document.createRepository(repositoryName);
+                }
+                break;
+            case 5:
+                for (final AccessRule accessRule : document.findAccessRulesByAccessLevel(READ_ONLY)) {
+                    accessRule.setAccessLevel(READ_WRITE);
+                    break;
+                }
+                break;
+            default:
+                createAccessRule(document, random);
+                break;
+        }
+    }
+
+    /**
+     * Creates a random access rule, unless its repository, user or user group does not exist or an access rule
+     * already exists for its principal and path.
+     *
+     * @param document Document in which the access rule is created
+     * @param random   Random number generator
+     */
+    public static void createAccessRule(final Document document, final Random random) {
+        final AccessLevel[] accessLevels = AccessLevel.values();
+        final int repositoryIndex = random.nextInt(4);
+        final String repositoryName = repositoryIndex == 3 ? null : "repo" + repositoryIndex;
+        final String rulePath = toRulePath(PATHS[random.nextInt(PATHS.length)]);
+        final AccessLevel accessLevel = accessLevels[random.nextInt(accessLevels.length)];
+        final boolean exclusion = random.nextInt(5) == 0;
+        if (repositoryName != null && document.findRepositoryByName(repositoryName) == null) {
+            return;
+        }
+
+        if (random.nextBoolean()) {
+            final String userName = "user" + random.nextInt(8);
+            if (document.findUserByName(userName) != null && document.findAccessRuleForUserAtPath(repositoryName, rulePath, userName) == null) {
+                document.createAccessRuleForUser(repositoryName, rulePath, userName, accessLevel, exclusion);
+            }
+        }
+        else {
+            final String userGroupName = "group" + random.nextInt(4);
+            if (document.findUserGroupByName(userGroupName) != null
+                    && document.findAccessRuleForUserGroupAtPath(repositoryName, rulePath, userGroupName) == null) {
+                document.createAccessRuleForUserGroup(repositoryName, rulePath, userGroupName, accessLevel, exclusion);
+            }
+        }
+    }
+
+    /**
+     * Checks if a repository tree or the server-wide tree has a tree node at a path.
+     *
+     * @param document   Document containing the trees
+     * @param repository Repository of the document
+     * @param path       Canonical path
+     * @return True if either tree has a tree node at the path, otherwise false
+     */
+    public static boolean hasTreeNode(final Document document, final Repository repository, final String path) {
+        final String rulePath = toRulePath(path);
+
+        return TreeNode.findByPath(repository.getRootTreeNode(), rulePath) != null
+                || TreeNode.findByPath(document.getRootTreeNode(), rulePath) != null;
+    }
+
+    /**
+     * Checks if a repository tree or the server-wide tree has access rules at a path.
+     *
+     * @param document   Document containing the trees
+     * @param repository Repository of the document
+     * @param path       Canonical path
+     * @return True if either tree has a tree node with access rules at the path, otherwise false
+     */
+    public static boolean hasAccessRules(final Document document, final Repository repository, final String path) {
+        final String rulePath = toRulePath(path);
+        final TreeNode repositoryTreeNode = TreeNode.findByPath(repository.getRootTreeNode(), rulePath);
+        final TreeNode serverTreeNode = TreeNode.findByPath(document.getRootTreeNode(), rulePath);
+
+        return (repositoryTreeNode != null && repositoryTreeNode.getAccessRuleArray().length > 0)
+                || (serverTreeNode != null && serverTreeNode.getAccessRuleArray().length > 0);
+    }
+
+    /**
+     * Converts a canonical path (e.g. /trunk/src) into a rule path (e.g. trunk/src).
+     *
+     * @param path Canonical path
+     * @return Rule path; / for the root path
+     */
+    public static String toRulePath(final String path) {
+        return path.length() == 1 ? path : path.substring(1);
+    }
+}
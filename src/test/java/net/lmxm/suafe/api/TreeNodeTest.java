@@ -4,8 +4,11 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.util.BitSet;
 import java.util.LinkedList;
+import java.util.List;
 
+import static net.lmxm.suafe.api.AccessLevel.DENY_ACCESS;
 import static net.lmxm.suafe.api.AccessLevel.READ_ONLY;
 import static net.lmxm.suafe.api.TreeNode.*;
 import static net.lmxm.suafe.api.AccessLevel.READ_WRITE;
@@ -475,6 +478,130 @@ public final class TreeNodeTest {
         assertThat(TreeNode.buildTree("foobar", rootNode).getParent(), is(sameInstance(rootNode)));
     }
 
+    @Test
+    public void testGetEffectiveAcl() {
+        final Document document = new Document();
+
+        // Setup
+        final Repository repository = document.createRepository("repo");
+        document.createUser("alice", null);
+        document.createUser("bob", null);
+        document.createAccessRuleForUser("repo", "/", "alice", READ_ONLY, false);
+        document.createAccessRuleForUser("repo", "trunk/a", "bob", READ_WRITE, false);
+        document.createAccessRuleForUser("repo", "trunk/b", "bob", READ_WRITE, false);
+        document.createAccessRuleForUser("repo", "trunk/c/d", "alice", READ_WRITE, true);
+
+        final TreeNode root = repository.getRootTreeNode();
+        final TreeNode trunk = findByPath(root, "trunk");
+        final TreeNode a = findByPath(root, "trunk/a");
+        final TreeNode b = findByPath(root, "trunk/b");
+        final TreeNode d = findByPath(root, "trunk/c/d");
+
+        // Test
+        assertThat(trunk.getEffectiveAcl(), is(sameInstance(root.getEffectiveAcl())));
+        assertThat(a.getEffectiveAcl(), is(sameInstance(b.getEffectiveAcl())));
+        assertThat(a.getEffectiveAcl().getParent(), is(sameInstance(root.getEffectiveAcl())));
+        assertThat(a.getEffectiveAcl().getDepth(), is(equalTo(2)));
+        assertThat(d.getEffectiveAcl().getDepth(), is(equalTo(3)));
+        assertThat(d.getEffectiveAcl().isExclusion(0), is(true));
+        assertThat(document.getEffectiveAclCount(), is(equalTo(3)));
+
+        document.createAccessRuleForUser("repo", "trunk/b", "alice", READ_ONLY, false);
+
+        assertThat(b.getEffectiveAcl().size(), is(equalTo(2)));
+        assertThat(a.getEffectiveAcl().size(), is(equalTo(1)));
+
+        document.deleteAccessRuleForUser("repo", "/", "alice");
+
+        assertThat(root.getEffectiveAcl(), is(nullValue()));
+        assertThat(trunk.getEffectiveAcl(), is(nullValue()));
+        assertThat(a.getEffectiveAcl().getParent(), is(nullValue()));
+        assertThat(d.getEffectiveAcl().getParent(), is(nullValue()));
+    }
+
+    @Test
+    public void testSubtreePrincipalSummary() {
+        final Document document = new Document();
+
+        // Setup
+        final Repository repository = document.createRepository("repo");
+        final User alice = document.createUser("alice", null);
+        final User bob = document.createUser("bob", null);
+        final UserGroup developers = document.createUserGroup("developers");
+        document.createAccessRuleForUser("repo", "trunk/a", "alice", READ_ONLY, false);
+        document.createAccessRuleForUser("repo", "trunk/b", "alice", READ_ONLY, false);
+        document.createAccessRuleForUserGroup("repo", "tags", "developers", READ_ONLY, false);
+
+        final TreeNode root = repository.getRootTreeNode();
+        final TreeNode trunk = findByPath(root, "trunk");
+        final TreeNode tags = findByPath(root, "tags");
+        final BitSet developersIds = new BitSet();
+        developersIds.set(developers.getId());
+
+        // Test
+        assertThat(root.subtreeMayApplyTo(alice.getId(), new BitSet()), is(true));
+        assertThat(trunk.subtreeMayApplyTo(bob.getId(), developersIds), is(false));
+        assertThat(tags.subtreeMayApplyTo(bob.getId(), developersIds), is(true));
+        assertThat(tags.subtreeMayApplyTo(alice.getId(), new BitSet()), is(false));
+
+        document.deleteAccessRuleForUser("repo", "trunk/a", "alice");
+
+        assertThat(trunk.subtreeMayApplyTo(alice.getId(), new BitSet()), is(true));
+
+        document.deleteAccessRuleForUser("repo", "trunk/b", "alice");
+
+        assertThat(trunk.subtreeMayApplyTo(alice.getId(), new BitSet()), is(false));
+        assertThat(trunk.subtreeMayHaveAccessRules(), is(false));
+        assertThat(root.subtreeMayHaveAccessRules(), is(true));
+
+        document.createAccessRuleForUser("repo", "trunk/c", "alice", DENY_ACCESS, true);
+
+        assertThat(trunk.subtreeMayApplyTo(bob.getId(), new BitSet()), is(true));
+        assertThat(new TreeNode().subtreeMayApplyTo(bob.getId(), new BitSet()), is(true));
+    }
+
+    @Test
+    public void testGetFingerprint() {
+        final Document document = new Document();
+        final Document otherDocument = new Document();
+
+        // Setup
+        final Repository repository = document.createRepository("repo");
+        final Repository otherRepository = otherDocument.createRepository("repo");
+        for (final Document each : new Document[]{document, otherDocument}) {
+            each.createUser("alice", null);
+            each.createUserGroup("developers");
+            each.createAccessRuleForUser("repo", "trunk/a", "alice", READ_ONLY, false);
+            each.createAccessRuleForUserGroup("repo", "tags", "developers", READ_WRITE, false);
+        }
+
+        final TreeNode root = repository.getRootTreeNode();
+        final TreeNode otherRoot = otherRepository.getRootTreeNode();
+
+        // Test
+        assertThat(new TreeNode().getFingerprint(), is(equalTo(0L)));
+        assertThat(root.getFingerprint(), is(not(equalTo(0L))));
+        assertThat(root.getFingerprint(), is(equalTo(otherRoot.getFingerprint())));
+
+        final long tagsFingerprint = findByPath(root, "tags").getFingerprint();
+        document.findAccessRuleForUserAtPath("repo", "trunk/a", "alice").setAccessLevel(READ_WRITE);
+        assertThat(root.getFingerprint(), is(not(equalTo(otherRoot.getFingerprint()))));
+        assertThat(findByPath(root, "tags").getFingerprint(), is(equalTo(tagsFingerprint)));
+
+        document.findAccessRuleForUserAtPath("repo", "trunk/a", "alice").setAccessLevel(READ_ONLY);
+        assertThat(root.getFingerprint(), is(equalTo(otherRoot.getFingerprint())));
+
+        document.createAccessRuleForUser("repo", "trunk/b", "alice", DENY_ACCESS, true);
+        assertThat(findByPath(root, "trunk").getFingerprint(), is(not(equalTo(findByPath(otherRoot, "trunk").getFingerprint()))));
+
+        document.deleteAccessRuleForUser("repo", "trunk/b", "alice");
+        assertThat(root.getFingerprint(), is(equalTo(otherRoot.getFingerprint())));
+
+        document.renameUser("alice", "alicia", null);
+        assertThat(root.getFingerprint(), is(not(equalTo(otherRoot.getFingerprint()))));
+        assertThat(findByPath(root, "tags").getFingerprint(), is(equalTo(tagsFingerprint)));
+    }
+
     @Test
     public void testSplitPath() {
         assertThat(TreeNode.splitPath("/"), is(notNullValue()));
@@ -496,4 +623,28 @@ public final class TreeNodeTest {
         assertThat(new TreeNode().toString(), is(equalTo("[TreeNode: name=" + ROOT_NODE_NAME + ", isRoot=true]")));
         assertThat(new TreeNode("treeNodeName", new TreeNode()).toString(), is(equalTo("[TreeNode: name=treeNodeName, isRoot=false]")));
     }
+
+    @Test
+    public void testPairChildren() {
+        final TreeNode first = new TreeNode();
+        final TreeNode second = new TreeNode();
+
+        // Setup
+        buildTree("a", first);
+        buildTree("c", first);
+        buildTree("b", second);
+        buildTree("c", second);
+
+        // Test
+        final List<TreeNode[]> pairs = pairChildren(first, second);
+        assertThat(pairs.size(), is(equalTo(3)));
+        assertThat(pairs.get(0)[0], is(sameInstance(findByCanonicalPath(first, "/a"))));
+        assertThat(pairs.get(0)[1], is(nullValue()));
+        assertThat(pairs.get(1)[0], is(nullValue()));
+        assertThat(pairs.get(1)[1], is(sameInstance(findByCanonicalPath(second, "/b"))));
+        assertThat(pairs.get(2)[0], is(sameInstance(findByPath(first, "c"))));
+        assertThat(pairs.get(2)[1], is(sameInstance(findByPath(second, "c"))));
+        assertThat(pairChildren(null, null).isEmpty(), is(true));
+        assertThat(findByCanonicalPath(first, "/"), is(sameInstance(first)));
+    }
 }
@@ -237,7 +237,8 @@ public final class UserGroupTest {
 
     @Test
     public void testEqualsContract() {
-        EqualsVerifier.forClass(User.class).suppress(Warning.NONFINAL_FIELDS).verify();
+        EqualsVerifier.forClass(UserGroup.class).suppress(Warning.NONFINAL_FIELDS, Warning.NULL_FIELDS).withPrefabValues(int.class, 1, 2)
+                .withPrefabValues(long.class, 1L, 2L).withPrefabValues(boolean.class, true, false).verify();
     }
 
     @Test
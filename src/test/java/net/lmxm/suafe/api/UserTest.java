@@ -163,7 +163,9 @@ public final class UserTest {
 
     @Test
     public void testEqualsContract() {
-        EqualsVerifier.forClass(User.class).suppress(Warning.NONFINAL_FIELDS).verify();
+        // EqualsVerifier 1.1.3 tries to subclass the types of the primitive id and version fields, which fails on JDK 9+
+        EqualsVerifier.forClass(User.class).suppress(Warning.NONFINAL_FIELDS).withPrefabValues(int.class, 1, 2)
+                .withPrefabValues(long.class, 1L, 2L).verify();
     }
 
     @Test
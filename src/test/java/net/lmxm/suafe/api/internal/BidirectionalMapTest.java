@@ -0,0 +1,57 @@
+package net.lmxm.suafe.api.internal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for BidirectionalMap class.
+ */
+public final class BidirectionalMapTest {
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void testPut() {
+        final BidirectionalMap<String, StringBuilder> map = new BidirectionalMap<String, StringBuilder>();
+        final StringBuilder value = new StringBuilder("value");
+
+        map.put("one", value);
+        assertThat(map.getValue("one"), is(sameInstance(value)));
+        assertThat(map.getKey(value), is(equalTo("one")));
+        assertThat(map.size(), is(equalTo(1)));
+
+        map.put("two", value);
+        assertThat(map.getValue("one"), is(nullValue()));
+        assertThat(map.getValue("two"), is(sameInstance(value)));
+        assertThat(map.getKey(value), is(equalTo("two")));
+        assertThat(map.size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void testPutKeyMappedToOtherValue() {
+        final BidirectionalMap<String, StringBuilder> map = new BidirectionalMap<String, StringBuilder>();
+        map.put("one", new StringBuilder("value"));
+
+        thrown.expect(IllegalStateException.class);
+        map.put("one", new StringBuilder("value"));
+    }
+
+    @Test
+    public void testRemoveValue() {
+        final BidirectionalMap<String, StringBuilder> map = new BidirectionalMap<String, StringBuilder>();
+        final StringBuilder value = new StringBuilder("value");
+        map.put("one", value);
+
+        // Values are tracked by identity, even when their hash code changes
+        value.append("changed");
+        assertThat(map.removeValue(value), is(equalTo("one")));
+        assertThat(map.getValue("one"), is(nullValue()));
+        assertThat(map.getKey(value), is(nullValue()));
+        assertThat(map.removeValue(value), is(nullValue()));
+        assertThat(map.size(), is(equalTo(0)));
+    }
+}
@@ -0,0 +1,85 @@
+package net.lmxm.suafe.api.internal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.BitSet;
+
+import static net.lmxm.suafe.api.internal.DecisionTrie.*;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for DecisionTrie and DecisionTrieBuilder classes.
+ */
+public final class DecisionTrieTest {
+    /**
+     * Access bit granting read access, as assigned by AccessEvaluator.
+     */
+    private static final int READ = 1;
+
+    /**
+     * Access bit granting write access, as assigned by AccessEvaluator.
+     */
+    private static final int WRITE = 2;
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void testEvaluate() {
+        final DecisionTrieBuilder builder = new DecisionTrieBuilder();
+        final BitSet userGroupIds = new BitSet();
+        userGroupIds.set(3);
+
+        // Setup
+        final int trunk = builder.addChild(ROOT, "trunk");
+        final int src = builder.addChild(trunk, "src");
+        assertThat(builder.addChild(ROOT, "trunk"), is(equalTo(trunk)));
+        builder.addRule(ROOT, false, 3, true, READ, false);
+        builder.addRule(trunk, false, 1, false, READ | WRITE, false);
+        builder.addRule(trunk, true, 1, false, READ, false);
+        builder.addRule(src, true, 1, false, 0, true);
+
+        // Test
+        final DecisionTrie trie = builder.build();
+        assertThat(trie.size(), is(equalTo(3)));
+        assertThat(trie.evaluate("/", 1, userGroupIds), is(equalTo(READ)));
+        assertThat(trie.evaluate("/trunk", 1, userGroupIds), is(equalTo(READ)));
+        assertThat(trie.evaluate("/trunk/src", 1, userGroupIds), is(equalTo(READ)));
+        assertThat(trie.evaluate("/trunk/src", 2, new BitSet()), is(equalTo(0)));
+        assertThat(trie.evaluate("/trunk/other", 1, new BitSet()), is(equalTo(READ)));
+        assertThat(trie.evaluate("/other", 2, new BitSet()), is(equalTo(0)));
+    }
+
+    @Test
+    public void testEvaluateManyChildren() {
+        final DecisionTrieBuilder builder = new DecisionTrieBuilder();
+
+        // Setup
+        for (int i = 0; i < 500; i++) {
+            builder.addRule(builder.addChild(ROOT, "child" + i), true, i, false, i % 2 == 0 ? READ : READ | WRITE, false);
+        }
+        builder.addRule(builder.addChild(ROOT, "Aa"), true, 1000, false, READ, false);
+        builder.addRule(builder.addChild(ROOT, "BB"), true, 1001, false, READ, false);
+
+        // Test
+        final DecisionTrie trie = builder.build();
+        for (int i = 0; i < 500; i++) {
+            assertThat(trie.evaluate("child" + i, i, new BitSet()), is(equalTo(i % 2 == 0 ? READ : READ | WRITE)));
+            assertThat(trie.evaluate("child" + i, i + 1, new BitSet()), is(equalTo(0)));
+        }
+        assertThat(trie.evaluate("Aa", 1000, new BitSet()), is(equalTo(READ)));
+        assertThat(trie.evaluate("BB", 1001, new BitSet()), is(equalTo(READ)));
+        assertThat(trie.evaluate("BB", 1000, new BitSet()), is(equalTo(0)));
+        assertThat(trie.evaluate("child", 0, new BitSet()), is(equalTo(0)));
+    }
+
+    @Test
+    public void testAddRulePrincipalIdOutOfRange() {
+        thrown.expect(IllegalArgumentException.class);
+
+        new DecisionTrieBuilder().addRule(ROOT, true, -1, false, READ, false);
+    }
+}
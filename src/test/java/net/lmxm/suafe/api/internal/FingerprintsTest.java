@@ -0,0 +1,37 @@
+package net.lmxm.suafe.api.internal;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for Fingerprints class.
+ */
+public final class FingerprintsTest {
+    @Test
+    public void testOf() {
+        assertThat(Fingerprints.of(null), is(equalTo(0L)));
+        assertThat(Fingerprints.of("alice"), is(equalTo(Fingerprints.of(new String("alice")))));
+        assertThat(Fingerprints.of("alice"), is(not(equalTo(Fingerprints.of("bob")))));
+        assertThat(Fingerprints.of("ab"), is(not(equalTo(Fingerprints.of("ba")))));
+        assertThat(Fingerprints.of(""), is(not(equalTo(0L))));
+    }
+
+    @Test
+    public void testCombine() {
+        final long a = Fingerprints.of("a");
+        final long b = Fingerprints.of("b");
+
+        assertThat(Fingerprints.combine(a, b), is(equalTo(Fingerprints.combine(a, b))));
+        assertThat(Fingerprints.combine(a, b), is(not(equalTo(Fingerprints.combine(b, a)))));
+        assertThat(Fingerprints.combine(a, 0), is(not(equalTo(Fingerprints.combine(a, 1)))));
+    }
+
+    @Test
+    public void testMix() {
+        assertThat(Fingerprints.mix(0), is(equalTo(0L)));
+        assertThat(Fingerprints.mix(1), is(not(equalTo(1L))));
+        assertThat(Fingerprints.mix(1) + Fingerprints.mix(2), is(not(equalTo(Fingerprints.mix(3)))));
+    }
+}
@@ -0,0 +1,62 @@
+package net.lmxm.suafe.api.internal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for IdAllocator class.
+ */
+public final class IdAllocatorTest {
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void testAllocate() {
+        final IdAllocator allocator = new IdAllocator();
+        assertThat(allocator.size(), is(equalTo(0)));
+        assertThat(allocator.getBound(), is(equalTo(0)));
+
+        assertThat(allocator.allocate(), is(equalTo(0)));
+        assertThat(allocator.allocate(), is(equalTo(1)));
+        assertThat(allocator.allocate(), is(equalTo(2)));
+        assertThat(allocator.size(), is(equalTo(3)));
+        assertThat(allocator.getBound(), is(equalTo(3)));
+    }
+
+    @Test
+    public void testReleaseReusesLowestId() {
+        final IdAllocator allocator = new IdAllocator();
+        allocator.allocate();
+        allocator.allocate();
+        allocator.allocate();
+
+        allocator.release(1);
+        allocator.release(0);
+        assertThat(allocator.isAllocated(0), is(false));
+        assertThat(allocator.isAllocated(1), is(false));
+        assertThat(allocator.isAllocated(2), is(true));
+        assertThat(allocator.size(), is(equalTo(1)));
+        assertThat(allocator.getBound(), is(equalTo(3)));
+
+        assertThat(allocator.allocate(), is(equalTo(0)));
+        assertThat(allocator.allocate(), is(equalTo(1)));
+        assertThat(allocator.allocate(), is(equalTo(3)));
+    }
+
+    @Test
+    public void testReleaseNotAllocated() {
+        final IdAllocator allocator = new IdAllocator();
+
+        thrown.expect(IllegalArgumentException.class);
+        allocator.release(0);
+    }
+
+    @Test
+    public void testIsAllocatedNegative() {
+        assertThat(new IdAllocator().isAllocated(-1), is(false));
+    }
+}
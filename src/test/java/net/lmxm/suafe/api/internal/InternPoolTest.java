@@ -0,0 +1,34 @@
+package net.lmxm.suafe.api.internal;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for InternPool class.
+ */
+public final class InternPoolTest {
+    @Test
+    public void testIntern() {
+        final InternPool<String> internPool = new InternPool<String>();
+        final String value = new String("trunk");
+        final String equalValue = new String("trunk");
+
+        assertThat(internPool.intern(null), is(nullValue()));
+        assertThat(internPool.intern(value), is(sameInstance(value)));
+        assertThat(internPool.intern(equalValue), is(sameInstance(value)));
+        assertThat(internPool.intern("branches"), is(equalTo("branches")));
+    }
+
+    @Test
+    public void testSize() {
+        final InternPool<String> internPool = new InternPool<String>();
+        assertThat(internPool.size(), is(equalTo(0)));
+
+        internPool.intern("trunk");
+        internPool.intern(new String("trunk"));
+        internPool.intern("tags");
+        assertThat(internPool.size(), is(equalTo(2)));
+    }
+}
@@ -0,0 +1,297 @@
+package net.lmxm.suafe.api.internal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for MembershipGraph class.
+ */
+public final class MembershipGraphTest {
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void testAddUserToUserGroup() {
+        final MembershipGraph graph = new MembershipGraph();
+
+        // Setup
+        graph.addUserGroupToUserGroup(0, 1);
+        graph.addUserGroupToUserGroup(1, 2);
+
+        // Test
+        graph.addUserToUserGroup(0, 0);
+        assertThat(graph.isUserInUserGroup(0, 0), is(true));
+        assertThat(graph.isUserInUserGroup(0, 1), is(true));
+        assertThat(graph.isUserInUserGroup(0, 2), is(true));
+        assertThat(graph.isUserInUserGroup(1, 0), is(false));
+        assertThat(graph.isUserInUserGroup(-1, 0), is(false));
+    }
+
+    @Test
+    public void testQueriesDoNotGrowTheGraph() {
+        final MembershipGraph graph = new MembershipGraph();
+
+        // Setup
+        graph.addUser(0);
+        final BitSet userClosure = graph.getUserClosure(0);
+
+        // Test
+        assertThat(graph.getUserClosure(5).isEmpty(), is(true));
+        assertThat(graph.getUserGroupAncestors(5).isEmpty(), is(true));
+        assertThat(graph.getUserGroupMembers(5).isEmpty(), is(true));
+
+        graph.getUserClosure(5).set(1);
+        assertThat(graph.getUserClosure(5).isEmpty(), is(true));
+
+        graph.addUserToUserGroup(0, 1);
+        assertThat(userClosure.get(1), is(true));
+    }
+
+    @Test
+    public void testAddUserGroupMembers() {
+        final MembershipGraph graph = new MembershipGraph();
+        final UserIdSet members = new UserIdSet(3);
+
+        // Setup
+        graph.addUserGroupToUserGroup(0, 1);
+        graph.addUserGroupToUserGroup(1, 2);
+        graph.addUserToUserGroup(0, 0);
+        graph.addUserToUserGroup(1, 1);
+        graph.addUserToUserGroup(2, 2);
+        graph.addUserToUserGroup(5, 0);
+
+        // Test
+        graph.addUserGroupMembers(1, members);
+        assertThat(members.toBitSet(), is(equalTo(graph.getUserGroupMembers(1).get(0, 3))));
+        assertThat(members.get(0), is(true));
+        assertThat(members.get(1), is(true));
+        assertThat(members.get(2), is(false));
+    }
+
+    @Test
+    public void testAddUserGroupToUserGroupUpdatesDescendants() {
+        final MembershipGraph graph = new MembershipGraph();
+
+        // Setup
+        graph.addUserToUserGroup(0, 0);
+        graph.addUserGroupToUserGroup(0, 1);
+        assertThat(graph.isUserInUserGroup(0, 2), is(false));
+
+        // Test
+        graph.addUserGroupToUserGroup(1, 2);
+        assertThat(graph.isUserInUserGroup(0, 2), is(true));
+        assertThat(graph.isUserGroupInUserGroup(0, 2), is(true));
+        assertThat(graph.isUserGroupInUserGroup(2, 0), is(false));
+    }
+
+    @Test
+    public void testRemoveUserGroupFromUserGroupKeepsOtherPaths() {
+        final MembershipGraph graph = new MembershipGraph();
+
+        // Setup
+        graph.addUserToUserGroup(0, 0);
+        graph.addUserGroupToUserGroup(0, 1);
+        graph.addUserGroupToUserGroup(0, 2);
+        graph.addUserGroupToUserGroup(1, 3);
+        graph.addUserGroupToUserGroup(2, 3);
+
+        // Test
+        graph.removeUserGroupFromUserGroup(0, 1);
+        assertThat(graph.isUserInUserGroup(0, 1), is(false));
+        assertThat(graph.isUserInUserGroup(0, 3), is(true));
+
+        graph.removeUserGroupFromUserGroup(2, 3);
+        assertThat(graph.isUserInUserGroup(0, 2), is(true));
+        assertThat(graph.isUserInUserGroup(0, 3), is(false));
+        assertThat(graph.isUserGroupInUserGroup(1, 3), is(true));
+    }
+
+    @Test
+    public void testRemoveUserGroup() {
+        final MembershipGraph graph = new MembershipGraph();
+
+        // Setup
+        graph.addUserToUserGroup(0, 0);
+        graph.addUserToUserGroup(1, 1);
+        graph.addUserGroupToUserGroup(0, 1);
+        graph.addUserGroupToUserGroup(1, 2);
+
+        // Test
+        graph.removeUserGroup(1);
+        assertThat(graph.isUserInUserGroup(0, 1), is(false));
+        assertThat(graph.isUserInUserGroup(0, 2), is(false));
+        assertThat(graph.isUserInUserGroup(1, 1), is(false));
+        assertThat(graph.getUserGroupAncestors(0).isEmpty(), is(true));
+    }
+
+    @Test
+    public void testRemoveUser() {
+        final MembershipGraph graph = new MembershipGraph();
+
+        // Setup
+        graph.addUserToUserGroup(0, 0);
+        graph.addUserGroupToUserGroup(0, 1);
+
+        // Test
+        graph.removeUser(0);
+        assertThat(graph.getUserClosure(0).isEmpty(), is(true));
+
+        graph.addUserGroupToUserGroup(1, 2);
+        assertThat(graph.getUserClosure(0).isEmpty(), is(true));
+    }
+
+    @Test
+    public void testRandomEditsMatchFullRecomputation() {
+        final int userCount = 8;
+        final int userGroupCount = 10;
+        final Random random = new Random(42);
+        final MembershipGraph graph = new MembershipGraph();
+        final boolean[][] userEdges = new boolean[userCount][userGroupCount];
+        final boolean[][] userGroupEdges = new boolean[userGroupCount][userGroupCount];
+
+        for (int i = 0; i < 2000; i++) {
+            final int groupId = random.nextInt(userGroupCount);
+
+            if (random.nextBoolean()) {
+                final int userId = random.nextInt(userCount);
+                userEdges[userId][groupId] = random.nextBoolean();
+
+                if (userEdges[userId][groupId]) {
+                    graph.addUserToUserGroup(userId, groupId);
+                }
+                else {
+                    graph.removeUserFromUserGroup(userId, groupId);
+                }
+            }
+            else {
+                final int childId = random.nextInt(userGroupCount);
+                final BitSet reachable = new BitSet();
+                reach(userGroupEdges, groupId, reachable);
+                assertThat(graph.createsCycle(childId, groupId), is(reachable.get(childId)));
+
+                if (reachable.get(childId)) {
+                    continue;
+                }
+
+                userGroupEdges[childId][groupId] = random.nextBoolean();
+
+                if (userGroupEdges[childId][groupId] && random.nextInt(4) == 0) {
+                    assertThat(graph.addUserGroupsToUserGroups(new int[]{childId}, new int[]{groupId}).isEmpty(), is(true));
+                }
+                else if (userGroupEdges[childId][groupId]) {
+                    graph.addUserGroupToUserGroup(childId, groupId);
+                }
+                else {
+                    graph.removeUserGroupFromUserGroup(childId, groupId);
+                }
+            }
+
+            final BitSet[] expectedMembers = new BitSet[userGroupCount];
+            for (int id = 0; id < userGroupCount; id++) {
+                expectedMembers[id] = new BitSet();
+            }
+
+            for (int userId = 0; userId < userCount; userId++) {
+                final BitSet expected = new BitSet();
+                for (int id = 0; id < userGroupCount; id++) {
+                    if (userEdges[userId][id]) {
+                        reach(userGroupEdges, id, expected);
+                    }
+                }
+
+                for (int id = 0; id < userGroupCount; id++) {
+                    assertThat(graph.isUserInUserGroup(userId, id), is(expected.get(id)));
+                    expectedMembers[id].set(userId, expected.get(id));
+                }
+            }
+
+            for (int id = 0; id < userGroupCount; id++) {
+                final UserIdSet members = new UserIdSet(userCount);
+                graph.addUserGroupMembers(id, members);
+
+                assertThat(graph.getUserGroupMembers(id), is(equalTo(expectedMembers[id])));
+                assertThat(members.toBitSet(), is(equalTo(expectedMembers[id])));
+            }
+        }
+    }
+
+    @Test
+    public void testAddUserGroupToUserGroupCycle() {
+        final MembershipGraph graph = new MembershipGraph();
+
+        // Setup
+        graph.addUserGroupToUserGroup(0, 1);
+        graph.addUserGroupToUserGroup(1, 2);
+
+        // Test
+        assertThat(graph.createsCycle(2, 0), is(true));
+        assertThat(graph.createsCycle(1, 1), is(true));
+        assertThat(graph.createsCycle(0, 2), is(false));
+
+        thrown.expect(IllegalArgumentException.class);
+        graph.addUserGroupToUserGroup(2, 0);
+    }
+
+    @Test
+    public void testAddUserGroupsToUserGroups() {
+        final MembershipGraph graph = new MembershipGraph();
+
+        // Setup
+        graph.addUserToUserGroup(0, 3);
+        graph.addUserGroupToUserGroup(2, 1);
+
+        // Test
+        final List<BitSet> cycles = graph.addUserGroupsToUserGroups(new int[]{3, 0, 1}, new int[]{2, 3, 0});
+        assertThat(cycles.size(), is(equalTo(1)));
+        assertThat(cycles.get(0).cardinality(), is(equalTo(4)));
+        assertThat(graph.isUserInUserGroup(0, 2), is(false));
+        assertThat(graph.findCycles().isEmpty(), is(true));
+
+        assertThat(graph.addUserGroupsToUserGroups(new int[]{3, 0}, new int[]{2, 3}).isEmpty(), is(true));
+        assertThat(graph.isUserInUserGroup(0, 3), is(true));
+        assertThat(graph.isUserInUserGroup(0, 2), is(true));
+        assertThat(graph.isUserInUserGroup(0, 1), is(true));
+        assertThat(graph.isUserInUserGroup(0, 0), is(false));
+        assertThat(graph.isUserGroupInUserGroup(0, 1), is(true));
+
+        graph.removeUserGroupFromUserGroup(2, 1);
+        assertThat(graph.isUserInUserGroup(0, 1), is(false));
+        assertThat(graph.isUserGroupInUserGroup(0, 2), is(true));
+        assertThat(graph.createsCycle(1, 0), is(false));
+        graph.addUserGroupToUserGroup(1, 0);
+        assertThat(graph.isUserGroupInUserGroup(1, 2), is(true));
+    }
+
+    @Test
+    public void testAddUserGroupsToUserGroupsSelfMembership() {
+        final MembershipGraph graph = new MembershipGraph();
+
+        // Test
+        assertThat(graph.addUserGroupsToUserGroups(new int[]{0}, new int[]{0}).size(), is(equalTo(1)));
+        assertThat(graph.findCycles().isEmpty(), is(true));
+    }
+
+    /**
+     * Marks a user group and all user groups reachable from it by a full search.
+     */
+    private static void reach(final boolean[][] userGroupEdges, final int userGroupId, final BitSet reached) {
+        if (reached.get(userGroupId)) {
+            return;
+        }
+
+        reached.set(userGroupId);
+        for (int id = 0; id < userGroupEdges.length; id++) {
+            if (userGroupEdges[userGroupId][id]) {
+                reach(userGroupEdges, id, reached);
+            }
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package net.lmxm.suafe.api.internal;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for PathRegions class.
+ */
+public final class PathRegionsTest {
+    @Test
+    public void testCompare() {
+        assertThat(PathRegions.compare("trunk", "/trunk/src", 1, 6), is(equalTo(0)));
+        assertThat(PathRegions.compare("src", "/trunk/src", 7, 10), is(equalTo(0)));
+        assertThat(PathRegions.compare("tags", "/trunk/src", 1, 6) < 0, is(true));
+        assertThat(PathRegions.compare("tru", "/trunk/src", 1, 6) < 0, is(true));
+        assertThat(PathRegions.compare("trunks", "/trunk/src", 1, 6) > 0, is(true));
+        assertThat(PathRegions.compare("", "/trunk", 1, 1), is(equalTo(0)));
+    }
+
+    @Test
+    public void testMatches() {
+        assertThat(PathRegions.matches("trunk", "/trunk/src", 1, 6), is(true));
+        assertThat(PathRegions.matches("trunks", "/trunk/src", 1, 6), is(false));
+        assertThat(PathRegions.matches("tru", "/trunk/src", 1, 6), is(false));
+        assertThat(PathRegions.matches("src", "/trunk/src", 1, 6), is(false));
+    }
+}
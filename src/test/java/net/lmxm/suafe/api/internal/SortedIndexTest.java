@@ -0,0 +1,79 @@
+package net.lmxm.suafe.api.internal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for SortedIndex class.
+ */
+public final class SortedIndexTest {
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void testGetPutRemove() {
+        final SortedIndex<String> index = new SortedIndex<String>();
+        assertThat(index.get("alice"), is(nullValue()));
+        assertThat(index.size(), is(equalTo(0)));
+
+        index.put("alice", "Alice");
+        assertThat(index.get("alice"), is(equalTo("Alice")));
+        assertThat(index.size(), is(equalTo(1)));
+
+        assertThat(index.remove("alice"), is(equalTo("Alice")));
+        assertThat(index.get("alice"), is(nullValue()));
+        assertThat(index.remove("alice"), is(nullValue()));
+    }
+
+    @Test
+    public void testRange() {
+        final SortedIndex<String> index = createIndex("dave", "alice", "carol", "bob", "eve");
+
+        assertThat(index.range(null, 2), is(equalTo(Arrays.asList("alice", "bob"))));
+        assertThat(index.range("bob", 2), is(equalTo(Arrays.asList("carol", "dave"))));
+        assertThat(index.range("dave", 2), is(equalTo(Arrays.asList("eve"))));
+        assertThat(index.range("eve", 2).isEmpty(), is(true));
+        assertThat(index.range("b", 1), is(equalTo(Arrays.asList("bob"))));
+        assertThat(index.range(null, 0).isEmpty(), is(true));
+    }
+
+    @Test
+    public void testRangeNegativeLimit() {
+        thrown.expect(IllegalArgumentException.class);
+        new SortedIndex<String>().range(null, -1);
+    }
+
+    @Test
+    public void testPrefix() {
+        final SortedIndex<String> index = createIndex("trunk", "tags", "branches", "tag", "t");
+
+        assertThat(index.prefix("ta"), is(equalTo(Arrays.asList("tag", "tags"))));
+        assertThat(index.prefix("t"), is(equalTo(Arrays.asList("t", "tag", "tags", "trunk"))));
+        assertThat(index.prefix("x").isEmpty(), is(true));
+        assertThat(index.prefix(""), is(equalTo(Arrays.asList("branches", "t", "tag", "tags", "trunk"))));
+    }
+
+    @Test
+    public void testValues() {
+        final SortedIndex<String> index = createIndex("trunk", "tags", "branches");
+
+        assertThat(new ArrayList<String>(index.values()), is(equalTo(Arrays.asList("branches", "tags", "trunk"))));
+    }
+
+    private static SortedIndex<String> createIndex(final String... keys) {
+        final SortedIndex<String> index = new SortedIndex<String>();
+
+        for (final String key : keys) {
+            index.put(key, key);
+        }
+
+        return index;
+    }
+}
@@ -0,0 +1,187 @@
+package net.lmxm.suafe.api.internal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for UserIdSet class.
+ */
+public final class UserIdSetTest {
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void testConstructorNegativeBound() {
+        thrown.expect(IllegalArgumentException.class);
+
+        new UserIdSet(-1);
+    }
+
+    @Test
+    public void testSetAndGet() {
+        final UserIdSet set = new UserIdSet(130);
+
+        assertThat(set.isEmpty(), is(true));
+
+        set.set(0);
+        set.set(64);
+        set.set(129);
+        set.clear(64);
+        set.clear(500);
+
+        assertThat(set.get(0), is(true));
+        assertThat(set.get(64), is(false));
+        assertThat(set.get(129), is(true));
+        assertThat(set.get(-1), is(false));
+        assertThat(set.get(130), is(false));
+        assertThat(set.isEmpty(), is(false));
+        assertThat(set.cardinality(), is(equalTo(2)));
+    }
+
+    @Test
+    public void testSetOutOfBounds() {
+        thrown.expect(IllegalArgumentException.class);
+
+        new UserIdSet(10).set(10);
+    }
+
+    @Test
+    public void testKernelsDifferentBounds() {
+        thrown.expect(IllegalArgumentException.class);
+
+        new UserIdSet(10).or(new UserIdSet(11));
+    }
+
+    @Test
+    public void testKernels() {
+        // Setup
+        final Random random = new Random(44);
+        final int bound = 200;
+        final BitSet a = randomBitSet(random, bound);
+        final BitSet b = randomBitSet(random, bound);
+        final BitSet c = randomBitSet(random, bound);
+
+        // Test
+        final UserIdSet or = UserIdSet.valueOf(c, bound);
+        or.or(UserIdSet.valueOf(a, bound));
+        final BitSet expectedOr = (BitSet) c.clone();
+        expectedOr.or(a);
+        assertThat(or.toBitSet(), is(equalTo(expectedOr)));
+
+        final UserIdSet andNot = UserIdSet.valueOf(c, bound);
+        andNot.andNot(UserIdSet.valueOf(a, bound));
+        final BitSet expectedAndNot = (BitSet) c.clone();
+        expectedAndNot.andNot(a);
+        assertThat(andNot.toBitSet(), is(equalTo(expectedAndNot)));
+
+        final UserIdSet orAnd = UserIdSet.valueOf(c, bound);
+        orAnd.orAnd(UserIdSet.valueOf(a, bound), UserIdSet.valueOf(b, bound));
+        final BitSet expectedOrAnd = (BitSet) a.clone();
+        expectedOrAnd.and(b);
+        expectedOrAnd.or(c);
+        assertThat(orAnd.toBitSet(), is(equalTo(expectedOrAnd)));
+
+        final UserIdSet orAndNot = UserIdSet.valueOf(c, bound);
+        orAndNot.orAndNot(UserIdSet.valueOf(a, bound), UserIdSet.valueOf(b, bound));
+        final BitSet expectedOrAndNot = (BitSet) a.clone();
+        expectedOrAndNot.andNot(b);
+        expectedOrAndNot.or(c);
+        assertThat(orAndNot.toBitSet(), is(equalTo(expectedOrAndNot)));
+        assertThat(orAndNot.cardinality(), is(equalTo(expectedOrAndNot.cardinality())));
+
+        final UserIdSet orXor = UserIdSet.valueOf(c, bound);
+        orXor.orXor(UserIdSet.valueOf(a, bound), UserIdSet.valueOf(b, bound));
+        final BitSet expectedOrXor = (BitSet) a.clone();
+        expectedOrXor.xor(b);
+        expectedOrXor.or(c);
+        assertThat(orXor.toBitSet(), is(equalTo(expectedOrXor)));
+    }
+
+    @Test
+    public void testOrExcept() {
+        // Setup
+        final BitSet ids = new BitSet();
+        ids.set(1);
+        ids.set(2);
+        ids.set(3);
+        final UserIdSet a = UserIdSet.valueOf(ids, 70);
+        final UserIdSet withoutId = new UserIdSet(70);
+        final UserIdSet withId = new UserIdSet(70);
+        withId.set(2);
+
+        // Test
+        withoutId.orExcept(a, 2);
+        withId.orExcept(a, 2);
+
+        assertThat(withoutId.get(2), is(false));
+        assertThat(withoutId.cardinality(), is(equalTo(2)));
+        assertThat(withId.get(2), is(true));
+        assertThat(withId.cardinality(), is(equalTo(3)));
+    }
+
+    @Test
+    public void testClearAndOrBitSet() {
+        final UserIdSet set = new UserIdSet(70);
+        final BitSet ids = new BitSet();
+        ids.set(3);
+        ids.set(69);
+        ids.set(70);
+
+        // Test
+        set.set(10);
+        set.clear();
+        assertThat(set.isEmpty(), is(true));
+
+        set.or(ids);
+        assertThat(set.toBitSet(), is(equalTo(ids.get(0, 70))));
+    }
+
+    @Test
+    public void testOrWords() {
+        final UserIdSet set = new UserIdSet(70);
+
+        // Test
+        set.or(new long[]{1L, -1L, -1L});
+        assertThat(set.cardinality(), is(equalTo(7)));
+        assertThat(set.get(0), is(true));
+        assertThat(set.get(69), is(true));
+
+        set.or(new long[0]);
+        assertThat(set.cardinality(), is(equalTo(7)));
+    }
+
+    @Test
+    public void testValueOfIgnoresIdsOutOfBounds() {
+        final BitSet ids = new BitSet();
+        ids.set(5);
+        ids.set(100);
+
+        assertThat(UserIdSet.valueOf(ids, 64).cardinality(), is(equalTo(1)));
+    }
+
+    /**
+     * Builds a random bit set.
+     *
+     * @param random Random number generator
+     * @param bound  Upper bound of the ids
+     * @return New bit set
+     */
+    private static BitSet randomBitSet(final Random random, final int bound) {
+        final BitSet ids = new BitSet();
+
+        for (int id = 0; id < bound; id++) {
+            if (random.nextBoolean()) {
+                ids.set(id);
+            }
+        }
+
+        return ids;
+    }
+}